@@ -4,9 +4,6 @@
 
 package gravel.norm;
 
-import gravel.store.data.*;
-import gravel.store.plain.*;
-import gravel.store.var.*;
 import gravel.utils.*;
 
 //--------------------------------------------------------------------------------------------------------
@@ -28,45 +25,34 @@ public class CharNorm implements Constants {
   public static final int        kDigitFlag=64;
   public static final int        kUpperCaseFlag=128;
 
-  private static final Object    kLoadLock=new Object();  // Used as sync lock, so keep private
-
 //--------------------------------------------------------------------------------------------------------
-// CharNorm class member vars
+// getNormDir
 //--------------------------------------------------------------------------------------------------------
 
-  public static String            gNormDir;
-  
-  public static VarRAMStore       gMapChars;
-  public static ByteRAMStore      gCharFlags;
-  public static ByteDataRAMStore  gMultiChars;
+  public static String getNormDir() { 
+    NormModel theModel=NormModel.getModel();
+    return (theModel==null)?null:theModel.getNormDir(); 
+  }
 
 //--------------------------------------------------------------------------------------------------------
-// getNormDir
+// getCharNormTable
+//
+// The table of the current NormModel, or null if not loaded
 //--------------------------------------------------------------------------------------------------------
 
-  public static String getNormDir() { return gNormDir; }
+  public static CharNormTable getCharNormTable() { return NormModel.getCurrentCharNormTable(); }
 
 //--------------------------------------------------------------------------------------------------------
 // isLoaded
 //--------------------------------------------------------------------------------------------------------
 
-  public static boolean isLoaded() { return (gMapChars!=null); }
+  public static boolean isLoaded() { return (NormModel.getModel()!=null); }
 
 //--------------------------------------------------------------------------------------------------------
 // load
 //--------------------------------------------------------------------------------------------------------
 
-  public static void load(String inNormDir) throws Exception {
-    // Should always be called in single threaded section, but protect just in case
-    synchronized(kLoadLock) {
-      if (!isLoaded()) {
-        gNormDir=inNormDir;
-        gMapChars=VarRAMStore.load(inNormDir+"/MapChars.dat");
-        gCharFlags=ByteRAMStore.load(inNormDir+"/CharFlags.dat");
-        gMultiChars=ByteDataRAMStore.load(inNormDir+"/MultiChars.dat");
-      }
-    }
-  }
+  public static void load(String inNormDir) throws Exception { NormModel.load(inNormDir,false,false); }
 
 //--------------------------------------------------------------------------------------------------------
 // isControlChar
@@ -94,10 +80,11 @@ public class CharNorm implements Constants {
 //--------------------------------------------------------------------------------------------------------
 
   public static boolean isWhitespace(char inChar) {
-    if (gCharFlags==null)
+    CharNormTable theTable=NormModel.getCurrentCharNormTable();
+    if (theTable==null)
       return ((inChar==' ')||isControlChar(inChar)||isNonBreakingSpace(inChar)); 
     else
-      return ((gCharFlags.getByte(inChar)&kWhitespaceFlag)!=0); 
+      return theTable.isWhitespace(inChar); 
   }
  
 //--------------------------------------------------------------------------------------------------------
@@ -105,10 +92,11 @@ public class CharNorm implements Constants {
 //--------------------------------------------------------------------------------------------------------
 
   public static boolean isLetter(char inChar) { 
-    if (gCharFlags==null)
+    CharNormTable theTable=NormModel.getCurrentCharNormTable();
+    if (theTable==null)
       return Character.isLetter(inChar);
     else
-      return ((gCharFlags.getByte(inChar)&kLetterFlag)!=0); 
+      return theTable.isLetter(inChar); 
   }
 
 //--------------------------------------------------------------------------------------------------------
@@ -116,10 +104,11 @@ public class CharNorm implements Constants {
 //--------------------------------------------------------------------------------------------------------
 
   public static boolean isUpperCaseLetter(char inChar) { 
-    if (gCharFlags==null)
+    CharNormTable theTable=NormModel.getCurrentCharNormTable();
+    if (theTable==null)
       return ((Character.isLetter(inChar))&&(Character.isUpperCase(inChar)));
     else
-      return ((isLetter(inChar))&&((gCharFlags.getByte(inChar)&kUpperCaseFlag)!=0)); 
+      return theTable.isUpperCaseLetter(inChar); 
   }
 
 //--------------------------------------------------------------------------------------------------------
@@ -127,10 +116,11 @@ public class CharNorm implements Constants {
 //--------------------------------------------------------------------------------------------------------
 
   public static boolean isLowerCaseLetter(char inChar) { 
-    if (gCharFlags==null)
+    CharNormTable theTable=NormModel.getCurrentCharNormTable();
+    if (theTable==null)
       return ((Character.isLetter(inChar))&&(Character.isLowerCase(inChar)));
     else
-      return ((isLetter(inChar))&&((gCharFlags.getByte(inChar)&kUpperCaseFlag)==0)); 
+      return theTable.isLowerCaseLetter(inChar); 
   }
 
 //--------------------------------------------------------------------------------------------------------
@@ -138,10 +128,11 @@ public class CharNorm implements Constants {
 //--------------------------------------------------------------------------------------------------------
 
   public static boolean isDigit(char inChar) { 
-    if (gCharFlags==null)
+    CharNormTable theTable=NormModel.getCurrentCharNormTable();
+    if (theTable==null)
       return (Character.isDigit(inChar));
     else
-      return ((gCharFlags.getByte(inChar)&kDigitFlag)!=0); 
+      return theTable.isDigit(inChar); 
   }
 
 //--------------------------------------------------------------------------------------------------------
@@ -151,7 +142,12 @@ public class CharNorm implements Constants {
 //--------------------------------------------------------------------------------------------------------
 
   public static boolean isPunctuation(char inChar) {
-    return ((!isWhitespace(inChar))&&(!isLetter(inChar))&&(!isDigit(inChar))); }
+    CharNormTable theTable=NormModel.getCurrentCharNormTable();
+    if (theTable==null)
+      return ((!isWhitespace(inChar))&&(!isLetter(inChar))&&(!isDigit(inChar))); 
+    else
+      return theTable.isPunctuation(inChar);
+  }
 
 //--------------------------------------------------------------------------------------------------------
 // isUnprintableChar (chars that norm to nothing)
@@ -403,50 +399,50 @@ public class CharNorm implements Constants {
 //   Collapse redundant symbols into one (similar to lowercasing)
 //--------------------------------------------------------------------------------------------------------
 
-  public static int normChar(char inFromChar, char[] inToChars, int inToCharN) {
-    if (gCharFlags==null)
+  private static CharNormTable getLoadedCharNormTable() {
+    CharNormTable theTable=NormModel.getCurrentCharNormTable();
+    if (theTable==null)
       throw new RuntimeException("Norm not loaded");
-    byte theCharFlags=gCharFlags.getByte(inFromChar);
-    if ((theCharFlags&kEmptyStringFlag)!=0)
-      return inToCharN; 
-    else {
-      char theMapChar=(char) gMapChars.getInt(inFromChar);
-      if ((theCharFlags&kSingleCharFlag)!=0) {
-        inToChars[inToCharN]=theMapChar;
-        return inToCharN+1;
-      } else {
-        byte[] theBytes=gMultiChars.getBytes(theMapChar);
-        return inToCharN+bytesToUTF8Chars(theBytes,inToChars,inToCharN);
-      }
-    }
+    return theTable;
   }
 
+  public static int normChar(char inFromChar, char[] inToChars, int inToCharN) {
+    return getLoadedCharNormTable().normChar(inFromChar,inToChars,inToCharN); }
+
   // returns String holding 0-4 ToChars for FromChar   (roman numeral viii takes 4 ToChars!)
   public static String normChar(char inFromChar) {
-    byte theCharFlags=gCharFlags.getByte(inFromChar);
-    if ((theCharFlags&kEmptyStringFlag)!=0)
-      return ""; 
-    else {
-      char theMapChar=(char) gMapChars.getInt(inFromChar);
-      if ((theCharFlags&kSingleCharFlag)!=0)
-        return String.valueOf(theMapChar);
-      else 
-        return gMultiChars.getUTF8(theMapChar);
-    }
-  }
+    return getLoadedCharNormTable().normChar(inFromChar); }
 
 //--------------------------------------------------------------------------------------------------------
 // normChars
 //
 // returns pos in ToChar array after norm chars = inToCharN + theNToChars
+//
+// If inDecodeEscapes, the literal two char escapes \n, \t and \r (a backslash and a letter, as left by 
+//   some exports) are normed as two blanks, so FromCharNs still line up with the undecoded text
+// inTable is the table to norm with, eg of a model pinned from a NormModelHolder, else the current one
 //--------------------------------------------------------------------------------------------------------
 
-  public static int normChars(char[] inFromChars, int inFromCharN, int inFromNChars, 
-      char[] ioToChars, int inToCharN, int[] ioFromForToCharNs) {
+  public static int normChars(CharNormTable inTable, char[] inFromChars, int inFromCharN, int inFromNChars, 
+      char[] ioToChars, int inToCharN, int[] ioFromForToCharNs, boolean inDecodeEscapes) {
+    if ((inTable==null)&&(inFromNChars>0))
+      throw new RuntimeException("Norm not loaded");
     int theFromCharEnd=inFromCharN+inFromNChars;
     int theToCharN=inToCharN;
+    boolean theBlankNext=false;
     for (int theFromCharN=inFromCharN; theFromCharN<theFromCharEnd; theFromCharN++) {
-      int theToCharEnd=normChar(inFromChars[theFromCharN],ioToChars,theToCharN);
+      char theFromChar=inFromChars[theFromCharN];
+      if (theBlankNext) {
+        theFromChar=' ';
+        theBlankNext=false;
+      } else if ((inDecodeEscapes)&&(theFromChar=='\\')&&(theFromCharN+1<theFromCharEnd)) {
+        char theNextChar=inFromChars[theFromCharN+1];
+        if ((theNextChar=='n')||(theNextChar=='t')||(theNextChar=='r')) {
+          theFromChar=' ';
+          theBlankNext=true;
+        }
+      }
+      int theToCharEnd=inTable.normChar(theFromChar,ioToChars,theToCharN);
       if (ioFromForToCharNs==null)
         theToCharN=theToCharEnd;
       else 
@@ -458,6 +454,15 @@ public class CharNorm implements Constants {
     return theToCharN;
   }
 
+  public static int normChars(char[] inFromChars, int inFromCharN, int inFromNChars, 
+      char[] ioToChars, int inToCharN, int[] ioFromForToCharNs, boolean inDecodeEscapes) {
+    return normChars(getCharNormTable(),inFromChars,inFromCharN,inFromNChars,ioToChars,inToCharN,
+        ioFromForToCharNs,inDecodeEscapes); }
+
+  public static int normChars(char[] inFromChars, int inFromCharN, int inFromNChars, 
+      char[] ioToChars, int inToCharN, int[] ioFromForToCharNs) {
+    return normChars(inFromChars,inFromCharN,inFromNChars,ioToChars,inToCharN,ioFromForToCharNs,false); }
+
   // returns String holding ToChars for FromChars
   public static String normChars(char[] inFromChars, int inFromCharN, int inFromNChars, 
       int[] ioFromForToCharNs) {
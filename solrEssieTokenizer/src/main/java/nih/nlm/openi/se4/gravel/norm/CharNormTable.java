@@ -0,0 +1,154 @@
+//--------------------------------------------------------------------------------------------------------
+// CharNormTable.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.norm;
+
+import gravel.store.data.*;
+import gravel.store.plain.*;
+import gravel.store.var.*;
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// CharNormTable
+//
+// The CharNorm stores compiled into flat arrays when they are loaded, so norming or classifying a char
+//   is an array lookup, with no range check, closed check or slice lookup
+//
+//   Flags      - CharFlags for every char
+//   MapChars   - norm char for single char norms, index of the expansion for multi char norms
+//   MultiChars - all multi char expansions decoded and packed end to end, MultiCharNs has where each
+//                  starts, plus the end of the last
+//   Ascii      - norm char of each ascii char that norms to a single char, else kNotFound
+//
+// Read only once built, so safe to share between threads
+//--------------------------------------------------------------------------------------------------------
+
+public class CharNormTable implements Constants {
+
+//--------------------------------------------------------------------------------------------------------
+// CharNormTable consts
+//--------------------------------------------------------------------------------------------------------
+
+  public static final int        kNChars=65536;
+  public static final int        kNAsciiChars=128;
+
+  private static final int       kPunctuationMask=CharNorm.kWhitespaceFlag|CharNorm.kLetterFlag|CharNorm.kDigitFlag;
+
+//--------------------------------------------------------------------------------------------------------
+// CharNormTable member vars
+//--------------------------------------------------------------------------------------------------------
+
+  private final byte[]   mFlags;
+  private final char[]   mMapChars;
+  private final char[]   mMultiChars;
+  private final int[]    mMultiCharNs;
+  private final int[]    mAsciiNormChars;
+
+//--------------------------------------------------------------------------------------------------------
+// CharNormTable
+//--------------------------------------------------------------------------------------------------------
+
+  public CharNormTable(VarStore inMapChars, ByteStore inCharFlags, ByteDataStore inMultiChars) {
+    if (inCharFlags.getSize()<kNChars)
+      throw new StoreException("CharFlags must hold all "+kNChars+" chars: "+inCharFlags.getSize());
+    if (inMapChars.getSize()<kNChars)
+      throw new StoreException("MapChars must hold all "+kNChars+" chars: "+inMapChars.getSize());
+
+    mFlags=new byte[kNChars];
+    mMapChars=new char[kNChars];
+    for (int i=0; i<kNChars; i++) {
+      mFlags[i]=inCharFlags.getByte(i);
+      mMapChars[i]=(char) inMapChars.getInt(i);
+    }
+
+    int theNMultiChars=(int) inMultiChars.getSize();
+    char[][] theExpansions=new char[theNMultiChars][];
+    int theNChars=0;
+    for (int i=0; i<theNMultiChars; i++) {
+      theExpansions[i]=CharNorm.bytesToUTF8Chars(inMultiChars.getBytes(i));
+      theNChars+=theExpansions[i].length;
+    }
+    mMultiChars=new char[theNChars];
+    mMultiCharNs=new int[theNMultiChars+1];
+    int theCharN=0;
+    for (int i=0; i<theNMultiChars; i++) {
+      mMultiCharNs[i]=theCharN;
+      System.arraycopy(theExpansions[i],0,mMultiChars,theCharN,theExpansions[i].length);
+      theCharN+=theExpansions[i].length;
+    }
+    mMultiCharNs[theNMultiChars]=theCharN;
+
+    mAsciiNormChars=new int[kNAsciiChars];
+    for (int i=0; i<kNAsciiChars; i++)
+      if ((mFlags[i]&(CharNorm.kEmptyStringFlag|CharNorm.kSingleCharFlag))==CharNorm.kSingleCharFlag)
+        mAsciiNormChars[i]=mMapChars[i];
+      else
+        mAsciiNormChars[i]=kNotFound;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// gets
+//--------------------------------------------------------------------------------------------------------
+
+  public byte getFlags(char inChar) { return mFlags[inChar]; }
+
+  // Norm char of an ascii char, or kNotFound if it does not norm to a single char
+  public int getAsciiNormChar(char inChar) { return mAsciiNormChars[inChar]; }
+
+//--------------------------------------------------------------------------------------------------------
+// classification
+//--------------------------------------------------------------------------------------------------------
+
+  public boolean isWhitespace(char inChar) { return ((mFlags[inChar]&CharNorm.kWhitespaceFlag)!=0); }
+  public boolean isLetter(char inChar) { return ((mFlags[inChar]&CharNorm.kLetterFlag)!=0); }
+  public boolean isDigit(char inChar) { return ((mFlags[inChar]&CharNorm.kDigitFlag)!=0); }
+  public boolean isPunctuation(char inChar) { return ((mFlags[inChar]&kPunctuationMask)==0); }
+
+  public boolean isUpperCaseLetter(char inChar) {
+    return ((mFlags[inChar]&(CharNorm.kLetterFlag|CharNorm.kUpperCaseFlag))==
+        (CharNorm.kLetterFlag|CharNorm.kUpperCaseFlag)); }
+
+  public boolean isLowerCaseLetter(char inChar) {
+    return ((mFlags[inChar]&(CharNorm.kLetterFlag|CharNorm.kUpperCaseFlag))==CharNorm.kLetterFlag); }
+
+//--------------------------------------------------------------------------------------------------------
+// normChar
+//
+// returns pos in ToChar array after norm chars = inToCharN + theNToChars
+//--------------------------------------------------------------------------------------------------------
+
+  public int normChar(char inFromChar, char[] ioToChars, int inToCharN) {
+    if (inFromChar<kNAsciiChars) {
+      int theNormChar=mAsciiNormChars[inFromChar];
+      if (theNormChar!=kNotFound) {
+        ioToChars[inToCharN]=(char) theNormChar;
+        return inToCharN+1;
+      }
+    }
+    byte theCharFlags=mFlags[inFromChar];
+    if ((theCharFlags&CharNorm.kEmptyStringFlag)!=0)
+      return inToCharN;
+    char theMapChar=mMapChars[inFromChar];
+    if ((theCharFlags&CharNorm.kSingleCharFlag)!=0) {
+      ioToChars[inToCharN]=theMapChar;
+      return inToCharN+1;
+    }
+    int theToCharN=inToCharN;
+    for (int i=mMultiCharNs[theMapChar]; i<mMultiCharNs[theMapChar+1]; i++)
+      ioToChars[theToCharN++]=mMultiChars[i];
+    return theToCharN;
+  }
+
+  // returns String holding 0-4 ToChars for FromChar
+  public String normChar(char inFromChar) {
+    byte theCharFlags=mFlags[inFromChar];
+    if ((theCharFlags&CharNorm.kEmptyStringFlag)!=0)
+      return "";
+    char theMapChar=mMapChars[inFromChar];
+    if ((theCharFlags&CharNorm.kSingleCharFlag)!=0)
+      return String.valueOf(theMapChar);
+    int theCharN=mMultiCharNs[theMapChar];
+    return new String(mMultiChars,theCharN,mMultiCharNs[theMapChar+1]-theCharN);
+  }
+}
@@ -10,7 +10,6 @@ import gravel.store.data.*;
 import gravel.store.hash.*;
 import gravel.store.var.*;
 import gravel.utils.*;
-import gravel.xml.*;
 
 //--------------------------------------------------------------------------------------------------------
 // CompoundExpand
@@ -26,98 +25,157 @@ public class CompoundExpand implements Constants {
   
   public static final String     kLogName="CompoundExpand";
 
-  private static final Object    kLoadLock=new Object();    // Used as sync lock, so keep private
-
-//--------------------------------------------------------------------------------------------------------
-// CompoundExpand class vars
-//--------------------------------------------------------------------------------------------------------
-  
-  public static ByteDataHashRAMStore  gCompoundSpaced;       // compound words with spaces
-  public static ByteDataHashRAMStore  gCompoundCompressed;   // compound words without spaces
-  public static VarRAMStore           gCompoundMap;          // index of compressed for each spaced
-  public static VarDataRAMStore       gCompoundInverseMap;   // indexes of all spaceds for each compressed
-
 //--------------------------------------------------------------------------------------------------------
 // gets
+//
+// Stores of the current NormModel, null if not loaded - not pinned, so may be closed by a reload while
+//   in use.  Use NormModel.acquire to read them safely
 //--------------------------------------------------------------------------------------------------------
   
-  public static ByteDataHashRAMStore getCompoundSpaced() { return gCompoundSpaced; }
-  public static ByteDataHashRAMStore getCompoundCompressed() { return gCompoundCompressed; }
-  public static VarRAMStore getCompoundMap() { return gCompoundMap; }
-  public static VarDataRAMStore getCompoundInverseMap() { return gCompoundInverseMap; }
+  public static ByteDataHashStore getCompoundSpaced() {
+    NormModel theModel=NormModel.getModel();
+    return (theModel==null)?null:theModel.getCompoundSpaced(); 
+  }
+
+  public static ByteDataHashStore getCompoundCompressed() {
+    NormModel theModel=NormModel.getModel();
+    return (theModel==null)?null:theModel.getCompoundCompressed(); 
+  }
+
+  public static VarStore getCompoundMap() {
+    NormModel theModel=NormModel.getModel();
+    return (theModel==null)?null:theModel.getCompoundMap(); 
+  }
+
+  public static VarDataStore getCompoundInverseMap() {
+    NormModel theModel=NormModel.getModel();
+    return (theModel==null)?null:theModel.getCompoundInverseMap(); 
+  }
 
 //--------------------------------------------------------------------------------------------------------
 // isLoaded
 //--------------------------------------------------------------------------------------------------------
 
   public static boolean isLoaded() {
-    return (gCompoundSpaced!=null); }
+    NormModel theModel=NormModel.getModel();
+    return ((theModel!=null)&&(theModel.hasCompounds())); 
+  }
 
 //--------------------------------------------------------------------------------------------------------
 // load
 //--------------------------------------------------------------------------------------------------------
 
-  public static void load(String inNormDir) throws Exception {   
-    TermNorm.load(inNormDir);
+  public static void load(String inNormDir) throws Exception { NormModel.load(inNormDir,true,true); }
 
-    // Should always be called in single threaded section, but protect just in case
-    synchronized(kLoadLock) {
-      if (!isLoaded()) {
-        gCompoundSpaced=new ByteDataHashRAMStore();
-        gCompoundCompressed=new ByteDataHashRAMStore();
-        gCompoundMap=new VarRAMStore();
-        gCompoundInverseMap=null;
-        
-        X2OParser.xmlFileToObject(new X2OBuilder() {
-          public Object buildObject(X2OData inX2OData) throws Exception {
-            String theTagname=inX2OData.getTagname();
-            if ((theTagname.equals("compressed"))||(theTagname.equals("spaced")))
-              return inX2OData.getText();
-            else if (theTagname.equals("compound")) {
-              String theCompressed=(String) inX2OData.getFirstChildElmt("compressed");
-              gCompoundCompressed.appendUTF8(theCompressed);
-              long theCompressedDx=gCompoundCompressed.getSize()-1;
-              Object[] theSpaceds=inX2OData.getChildElmts("spaced");
-              for (int i=0; i<theSpaceds.length; i++) {
-                gCompoundSpaced.appendUTF8((String) theSpaceds[i]);
-                gCompoundMap.appendVar(theCompressedDx);
-              }
-            }
-            return null;
-          }
-        },inNormDir+"/Compounds.xml");
-        
-        gCompoundSpaced.compact();
-        gCompoundCompressed.compact();
-        gCompoundMap.compact();
-        gCompoundInverseMap=MapUtils.invertNTo1Map(gCompoundMap,gCompoundCompressed.getSize(),true);
-      }
+//--------------------------------------------------------------------------------------------------------
+// acquireCompounds
+//
+// Pins the current NormModel of inHolder if it has compounds, else returns null
+// The public routines without a holder use the default holder
+//--------------------------------------------------------------------------------------------------------
+
+  private static NormModel acquireCompounds(NormModelHolder inHolder) {
+    NormModel theModel=inHolder.acquire();
+    if ((theModel!=null)&&(!theModel.hasCompounds())) {
+      theModel.release();
+      return null;
     }
+    return theModel;
   }
 
 //--------------------------------------------------------------------------------------------------------
-// setCompounds
+// findCompound
+//
+// returns index of compressed form if the inNTokens norm tokens starting at inTokenN are a compound word,
+//   either one compressed token or several tokens of a spaced variant, else returns kNotFound
+// The index is only good for the NormModel it came from - findCompoundVariants does both steps on one
 //--------------------------------------------------------------------------------------------------------
 
-  static void setCompounds(
-      ByteDataHashRAMStore  inCompoundSpaced,
-      ByteDataHashRAMStore  inCompoundCompressed,
-      VarRAMStore           inCompoundMap, 
-      VarDataRAMStore       inCompoundInverseMap) {
-    synchronized(kLoadLock) {
-      if (gCompoundSpaced!=null) {
-        gCompoundSpaced.close();
-        gCompoundCompressed.close();
-        gCompoundMap.close();
-        gCompoundInverseMap.close();
-      }
-      gCompoundSpaced=inCompoundSpaced;
-      gCompoundCompressed=inCompoundCompressed;
-      gCompoundMap=inCompoundMap;
-      gCompoundInverseMap=inCompoundInverseMap;
+  public static long findCompound(NormModelHolder inHolder, String[] inNormTokens, int inTokenN, int inNTokens) {
+    NormModel theModel=acquireCompounds(inHolder);
+    if (theModel==null) 
+      return kNotFound;
+    try {
+      return findCompound(theModel,inNormTokens,inTokenN,inNTokens);
+    } finally {
+      theModel.release();
+    }
+  }
+
+  public static long findCompound(String[] inNormTokens, int inTokenN, int inNTokens) {
+    return findCompound(NormModel.getDefaultHolder(),inNormTokens,inTokenN,inNTokens); }
+
+  private static long findCompound(NormModel inModel, String[] inNormTokens, int inTokenN, int inNTokens) {
+    // For compressed variant case, index is a simple lookup 
+    if (inNTokens==1)
+      return inModel.getCompoundCompressedIndex().getIndex(inNormTokens[inTokenN]);
+
+    // Create spaced out form of compound word by concatenating tokens
+    String theSpacedTokens=inNormTokens[inTokenN];
+    for (int k=inTokenN+1; k<inTokenN+inNTokens; k++) 
+      theSpacedTokens+=' '+inNormTokens[k];
+
+    // Lookup spaced form, and if found, map to compressed index
+    long theSpacedIndex=inModel.getCompoundSpacedIndex().getIndex(theSpacedTokens);
+    if (theSpacedIndex==kNotFound) 
+      return kNotFound;
+    return inModel.getCompoundMap().getLong(theSpacedIndex);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getCompoundVariants
+//
+// returns all variants of a compound word as arrays of norm tokens
+//   first is the compressed variant (a single token), then all spaced variants
+//--------------------------------------------------------------------------------------------------------
+
+  public static String[][] getCompoundVariants(NormModelHolder inHolder, long inCompressedIndex) {
+    NormModel theModel=acquireCompounds(inHolder);
+    if (theModel==null) 
+      throw new RuntimeException("Compounds not loaded");
+    try {
+      return getCompoundVariants(theModel,inCompressedIndex);
+    } finally {
+      theModel.release();
+    }
+  }
+
+  public static String[][] getCompoundVariants(long inCompressedIndex) {
+    return getCompoundVariants(NormModel.getDefaultHolder(),inCompressedIndex); }
+
+  private static String[][] getCompoundVariants(NormModel inModel, long inCompressedIndex) {
+    long[] theSpacedIndexes=inModel.getCompoundInverseMap().getLongs(inCompressedIndex);
+    String[][] theVariants=new String[theSpacedIndexes.length+1][];
+    theVariants[0]=new String[] {inModel.getCompoundCompressed().getUTF8(inCompressedIndex)};
+    for (int k=0; k<theSpacedIndexes.length; k++) 
+      theVariants[k+1]=FormatUtils.breakOnChars(inModel.getCompoundSpaced().getUTF8(theSpacedIndexes[k]),' ');
+    return theVariants;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// findCompoundVariants
+//
+// findCompound then getCompoundVariants, on one NormModel - returns null if not a compound word
+//--------------------------------------------------------------------------------------------------------
+
+  public static String[][] findCompoundVariants(NormModelHolder inHolder, 
+      String[] inNormTokens, int inTokenN, int inNTokens) {
+    NormModel theModel=acquireCompounds(inHolder);
+    if (theModel==null) 
+      return null;
+    try {
+      long theCompressedIndex=findCompound(theModel,inNormTokens,inTokenN,inNTokens);
+      if (theCompressedIndex==kNotFound)
+        return null;
+      return getCompoundVariants(theModel,theCompressedIndex);
+    } finally {
+      theModel.release();
     }
   }
 
+  public static String[][] findCompoundVariants(String[] inNormTokens, int inTokenN, int inNTokens) {
+    return findCompoundVariants(NormModel.getDefaultHolder(),inNormTokens,inTokenN,inNTokens); }
+
 //--------------------------------------------------------------------------------------------------------
 // expandNormTokens
 //
@@ -147,8 +205,17 @@ public class CompoundExpand implements Constants {
 //--------------------------------------------------------------------------------------------------------
   
   public static String[][] expandNormTokens(String[] inNormTokens) {
-    if (gCompoundSpaced==null) 
+    NormModel theModel=acquireCompounds(NormModel.getDefaultHolder());
+    if (theModel==null) 
       return new String[][] {inNormTokens};
+    try {
+      return expandNormTokens(theModel,inNormTokens);
+    } finally {
+      theModel.release();
+    }
+  }
+
+  private static String[][] expandNormTokens(NormModel inModel, String[] inNormTokens) {
     
     ArrayList theTermList=new ArrayList();
     theTermList.add(new ArrayList());
@@ -168,39 +235,15 @@ public class CompoundExpand implements Constants {
         // Spaced and compressed variants handled differently
         //  1) Compressed variant expanded to all spaced variants
         //  2) Spaced variant mapped to compressed variant first and then expanded
-        boolean theCompressedCase=(j==i+1);
-        
         // If we can find the index of the compressed form, we have a compound word
-        // For compressed variant case, index is a simple lookup 
-        long theCompressedIndex=kNotFound;
-        if (theCompressedCase) 
-          theCompressedIndex=gCompoundCompressed.getIndex(inNormTokens[i]);
-          
-        // Spaced variant requires several steps:
-        //   1) create spaced variant,
-        //   2) lookup spaced form,
-        //   3) if found, map to compressed index
-        else {
-          
-          // Create spaced out form of compound word by concatenating tokens
-          String theSpacedTokens=inNormTokens[i];
-          for (int k=i+1; k<j; k++) 
-            theSpacedTokens+=' '+inNormTokens[k];
-
-          // Lookup spaced form
-          long theSpacedIndex=gCompoundSpaced.getIndex(theSpacedTokens);
-
-          if (theSpacedIndex!=kNotFound) 
-            // Map to compressed index
-            theCompressedIndex=gCompoundMap.getLong(theSpacedIndex);
-        }
+        long theCompressedIndex=findCompound(inModel,inNormTokens,i,j-i);
 
         // If compressed form exists, compound word
         if (theCompressedIndex!=kNotFound) {
           theFound=true;
           
           // Map (i.e. expand) compressed variant to all spaced variants
-          long[] theSpacedIndexes=gCompoundInverseMap.getLongs(theCompressedIndex);
+          long[] theSpacedIndexes=inModel.getCompoundInverseMap().getLongs(theCompressedIndex);
 
           // Make a duplicate set of alternatives for each spaced variant
           // Orignial set will be used for compressed variant
@@ -212,7 +255,7 @@ public class CompoundExpand implements Constants {
           
           // Add compressed form of compound word to original set of alternatives
           int n=0;
-          String theCompressedToken=gCompoundCompressed.getUTF8(theCompressedIndex);
+          String theCompressedToken=inModel.getCompoundCompressed().getUTF8(theCompressedIndex);
           for (int k=0; k<theOldNTerms; k++) {
             ArrayList theTokenList=((ArrayList) theTermList.get(n));
             theTokenList.add(theCompressedToken);
@@ -221,7 +264,7 @@ public class CompoundExpand implements Constants {
 
           // Add spaced variants of compound word to duplicate sets of alternatives
           for (int k=0; k<theSpacedIndexes.length; k++) {
-            String theSpacedNormWord=gCompoundSpaced.getUTF8(theSpacedIndexes[k]);
+            String theSpacedNormWord=inModel.getCompoundSpaced().getUTF8(theSpacedIndexes[k]);
             String[] theSpacedNormTokens=FormatUtils.breakOnChars(theSpacedNormWord,' ');
             for (int l=0; l<theOldNTerms; l++) {
               ArrayList theTokenList=((ArrayList) theTermList.get(n));
@@ -284,8 +327,17 @@ public class CompoundExpand implements Constants {
 //--------------------------------------------------------------------------------------------------------
   
   public static String[] compressNormTokens(String[] inNormTokens) {
-    if (gCompoundSpaced==null) 
+    NormModel theModel=acquireCompounds(NormModel.getDefaultHolder());
+    if (theModel==null) 
       return inNormTokens;
+    try {
+      return compressNormTokens(theModel,inNormTokens);
+    } finally {
+      theModel.release();
+    }
+  }
+
+  private static String[] compressNormTokens(NormModel inModel, String[] inNormTokens) {
 
     // Accumulate tokens for the norm term with compressed compound words
     ArrayList theTokenList=new ArrayList();
@@ -303,15 +355,15 @@ public class CompoundExpand implements Constants {
           theSpacedTokens+=' '+inNormTokens[k];
 
         // Lookup spaced form
-        long theSpacedIndex=gCompoundSpaced.getIndex(theSpacedTokens);
+        long theSpacedIndex=inModel.getCompoundSpacedIndex().getIndex(theSpacedTokens);
         if (theSpacedIndex!=kNotFound) {
           
           // Found compound word 
           theFound=true;
           
           // Get compressed form
-          long theCompressedIndex=gCompoundMap.getLong(theSpacedIndex);
-          String theCompressedToken=gCompoundCompressed.getUTF8(theCompressedIndex);
+          long theCompressedIndex=inModel.getCompoundMap().getLong(theSpacedIndex);
+          String theCompressedToken=inModel.getCompoundCompressed().getUTF8(theCompressedIndex);
           
           // Add compressed form to token list
           theTokenList.add(theCompressedToken);
@@ -0,0 +1,314 @@
+//--------------------------------------------------------------------------------------------------------
+// DfaNormTokenizer.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.norm;
+
+//--------------------------------------------------------------------------------------------------------
+// DfaNormTokenizer
+//
+// NormTokenizer with the rules of findEndOfToken compiled into a state transition table over char
+//   classes, so finding tokens is one scan over the chars with a table lookup per char, instead of
+//   nested scans through overridable predicates.  Runs of chars that stay in the same state are
+//   skipped without a lookup.  Finds exactly the same tokens as NormTokenizer
+//
+// Not the default - on a hotspot JVM the table backed NormTokenizer predicates are already inlined,
+//   and the state lookup chain costs more than the branches it replaces.  Pass one to NormWorkspace
+//   to try it on other JVMs or texts
+//
+// Char classes come from the CharNormTable, so are rebuilt when it changes.  If norm is not loaded, or
+//   the char flags overlap so one class per char cannot give the same tokens, findTokens falls back to
+//   NormTokenizer.  Final, since a subclass that overrides the predicates needs the NormTokenizer scans
+//--------------------------------------------------------------------------------------------------------
+
+public final class DfaNormTokenizer extends NormTokenizer {
+
+//--------------------------------------------------------------------------------------------------------
+// DfaNormTokenizer consts
+//--------------------------------------------------------------------------------------------------------
+
+  // Char classes
+  private static final byte      kWhitespaceClass=0;
+  private static final byte      kHyphenClass=1;
+  private static final byte      kWordClass=2;        // letter or apos
+  private static final byte      kDigitClass=3;
+  private static final byte      kCommaClass=4;
+  private static final byte      kDecimalPtClass=5;
+  private static final byte      kBracketClass=6;
+  private static final byte      kPunctClass=7;
+  private static final int       kNClasses=8;
+
+  // States, each the start of its row in kTransitions
+  private static final int       kStartState=0*kNClasses;
+  private static final int       kLeadingHyphensState=1*kNClasses;
+  private static final int       kWordState=2*kNClasses;
+  private static final int       kWordHyphensState=3*kNClasses;
+  private static final int       kNumberState=4*kNClasses;
+  private static final int       kComma0State=5*kNClasses;      // comma, then 0, 1 or 2 of its 3 digits
+  private static final int       kComma1State=6*kNClasses;
+  private static final int       kComma2State=7*kNClasses;
+  private static final int       kComma3State=8*kNClasses;      // comma and all 3 digits
+  private static final int       kDecimalPtState=9*kNClasses;
+  private static final int       kFractionState=10*kNClasses;
+  private static final int       kNumberHyphensState=11*kNClasses;
+  private static final int       kNStates=12;
+
+  // Actions, in place of a next state
+  private static final int       kEndBefore=-1;       // token ends before this char
+  private static final int       kEndAfter=-2;        // token ends after this char
+  private static final int       kBackUp=-3;          // token ends at the last good comma
+  private static final int       kPunctRun=-4;        // token is the run of this char
+
+  private static final int[]     kTransitions=buildTransitions();
+  private static final int[]     kSelfLoops=buildSelfLoops(kTransitions);
+
+//--------------------------------------------------------------------------------------------------------
+// DfaNormTokenizer class vars
+//--------------------------------------------------------------------------------------------------------
+
+  private static volatile CharClasses  gCharClasses;
+
+//--------------------------------------------------------------------------------------------------------
+// DfaNormTokenizer member vars
+//--------------------------------------------------------------------------------------------------------
+
+  private CharClasses  mCharClasses;     // last classes used, so tables of two models do not thrash
+
+//--------------------------------------------------------------------------------------------------------
+// Inner class CharClasses
+//--------------------------------------------------------------------------------------------------------
+
+  private static final class CharClasses {
+
+    final CharNormTable  mTable;
+    final byte[]         mClasses;    // null if classes overlap
+
+    CharClasses(CharNormTable inTable) {
+      mTable=inTable;
+      mClasses=buildClasses(inTable);
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// buildTransitions
+//--------------------------------------------------------------------------------------------------------
+
+  private static void setTransitions(int[] ioTransitions, int inState, int inWhitespace, int inHyphen,
+      int inWord, int inDigit, int inComma, int inDecimalPt, int inBracket, int inPunct) {
+    int theN=inState;
+    ioTransitions[theN+kWhitespaceClass]=inWhitespace;
+    ioTransitions[theN+kHyphenClass]=inHyphen;
+    ioTransitions[theN+kWordClass]=inWord;
+    ioTransitions[theN+kDigitClass]=inDigit;
+    ioTransitions[theN+kCommaClass]=inComma;
+    ioTransitions[theN+kDecimalPtClass]=inDecimalPt;
+    ioTransitions[theN+kBracketClass]=inBracket;
+    ioTransitions[theN+kPunctClass]=inPunct;
+  }
+
+  private static int[] buildTransitions() {
+    int[] theTransitions=new int[kNStates*kNClasses];
+    int B=kEndBefore;
+    //                                            ws hyphen              word         digit
+    //                                            comma                  decimal pt           bracket    punct
+    setTransitions(theTransitions,kStartState,         B,kLeadingHyphensState,kWordState,kNumberState,
+                                                  kPunctRun,             kPunctRun,           kEndAfter, kPunctRun);
+    setTransitions(theTransitions,kLeadingHyphensState,B,kLeadingHyphensState,kWordState,kNumberState,
+                                                  B,                     B,                   B,         B);
+    setTransitions(theTransitions,kWordState,          B,kWordHyphensState,   kWordState,B,
+                                                  B,                     B,                   B,         B);
+    setTransitions(theTransitions,kWordHyphensState,   B,kWordHyphensState,   B,         B,
+                                                  B,                     B,                   B,         B);
+    setTransitions(theTransitions,kNumberState,        B,kNumberHyphensState, B,         kNumberState,
+                                                  kComma0State,          kDecimalPtState,     B,         B);
+    setTransitions(theTransitions,kComma0State,        kBackUp,kBackUp,       kBackUp,   kComma1State,
+                                                  kBackUp,               kBackUp,             kBackUp,   kBackUp);
+    setTransitions(theTransitions,kComma1State,        kBackUp,kBackUp,       kBackUp,   kComma2State,
+                                                  kBackUp,               kBackUp,             kBackUp,   kBackUp);
+    setTransitions(theTransitions,kComma2State,        kBackUp,kBackUp,       kBackUp,   kComma3State,
+                                                  kBackUp,               kBackUp,             kBackUp,   kBackUp);
+    // A 4th digit breaks format
+    setTransitions(theTransitions,kComma3State,        B,kNumberHyphensState, B,         kBackUp,
+                                                  kComma0State,          kDecimalPtState,     B,         B);
+    setTransitions(theTransitions,kDecimalPtState,     B,kNumberHyphensState, B,         kFractionState,
+                                                  B,                     B,                   B,         B);
+    setTransitions(theTransitions,kFractionState,      B,kNumberHyphensState, B,         kFractionState,
+                                                  B,                     B,                   B,         B);
+    setTransitions(theTransitions,kNumberHyphensState, B,kNumberHyphensState, B,         B,
+                                                  B,                     B,                   B,         B);
+    return theTransitions;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// buildSelfLoops
+//
+// For each state, a bit for each char class that stays in the state, so runs of such chars (most of a 
+//   word or number) can be skipped without a transition lookup per char
+//--------------------------------------------------------------------------------------------------------
+
+  private static int[] buildSelfLoops(int[] inTransitions) {
+    int[] theSelfLoops=new int[kNStates*kNClasses];
+    for (int theState=0; theState<kNStates*kNClasses; theState+=kNClasses)
+      for (int theClass=0; theClass<kNClasses; theClass++)
+        if (inTransitions[theState+theClass]==theState)
+          theSelfLoops[theState]|=1<<theClass;
+    return theSelfLoops;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// buildClasses
+//
+// returns null if some char is more than one of whitespace, letter and digit, or if hyphen, apos, comma
+//   or decimal pt is any of them (other than apos as letter), since NormTokenizer may then treat the
+//   char differently depending on where it is
+//--------------------------------------------------------------------------------------------------------
+
+  private static byte[] buildClasses(CharNormTable inTable) {
+    byte[] theClasses=new byte[CharNormTable.kNChars];
+    for (int i=0; i<CharNormTable.kNChars; i++) {
+      char theChar=(char) i;
+      boolean theIsWhitespace=inTable.isWhitespace(theChar);
+      boolean theIsLetter=inTable.isLetter(theChar);
+      boolean theIsDigit=inTable.isDigit(theChar);
+      int theNKinds=(theIsWhitespace?1:0)+(theIsLetter?1:0)+(theIsDigit?1:0);
+      if (theNKinds>1)
+        return null;
+      boolean theIsSpecial=((theChar=='-')||(theChar==',')||(theChar=='.')||(theChar=='\''));
+      if ((theIsSpecial)&&(theNKinds>0)&&(!((theChar=='\'')&&(theIsLetter))))
+        return null;
+
+      if (theIsWhitespace)
+        theClasses[i]=kWhitespaceClass;
+      else if (theChar=='-')
+        theClasses[i]=kHyphenClass;
+      else if ((theIsLetter)||(theChar=='\''))
+        theClasses[i]=kWordClass;
+      else if (theIsDigit)
+        theClasses[i]=kDigitClass;
+      else if (theChar==',')
+        theClasses[i]=kCommaClass;
+      else if (theChar=='.')
+        theClasses[i]=kDecimalPtClass;
+      else if (CharNorm.isBracket(theChar))
+        theClasses[i]=kBracketClass;
+      else
+        theClasses[i]=kPunctClass;
+    }
+    return theClasses;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getClasses
+//
+// returns null if findTokens must fall back to NormTokenizer
+//--------------------------------------------------------------------------------------------------------
+
+  private byte[] getClasses(CharNormTable inTable) {
+    if (inTable==null)
+      return null;
+    CharClasses theCharClasses=mCharClasses;
+    if ((theCharClasses==null)||(theCharClasses.mTable!=inTable)) {
+      theCharClasses=gCharClasses;
+      if ((theCharClasses==null)||(theCharClasses.mTable!=inTable)) {
+        theCharClasses=new CharClasses(inTable);
+        gCharClasses=theCharClasses;
+      }
+      mCharClasses=theCharClasses;
+    }
+    return theCharClasses.mClasses;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// findEndOfToken
+//
+// A comma that is not followed by exactly 3 digits is not part of the number, so the token backs up to 
+//   the last comma, which is at most 4 chars back
+//--------------------------------------------------------------------------------------------------------
+
+  private static int findLastComma(char[] inChars, int inCharN) {
+    int theCharN=inCharN-1;
+    while (inChars[theCharN]!=',')
+      theCharN--;
+    return theCharN;
+  }
+
+  private static int findEndOfToken(byte[] inClasses, char[] inChars, int inCharN, int inEndCharN) {
+    int[] theTransitions=kTransitions;
+    int[] theSelfLoopsByState=kSelfLoops;
+    int theState=kStartState;
+    int theCharN=inCharN;
+    int theNextState=kEndBefore;
+    while (theCharN<inEndCharN) {
+      int theSelfLoops=theSelfLoopsByState[theState];
+      while ((theCharN<inEndCharN)&&(((theSelfLoops>>>inClasses[inChars[theCharN]])&1)!=0))
+        theCharN++;
+      if (theCharN==inEndCharN)
+        break;
+      theNextState=theTransitions[theState+inClasses[inChars[theCharN]]];
+      if (theNextState<0)
+        break;
+      theState=theNextState;
+      theCharN++;
+    }
+
+    if (theCharN==inEndCharN) {
+      // Ran into end of chars part way through a comma and its 3 digits
+      if ((theState>=kComma0State)&&(theState<=kComma2State))
+        return findLastComma(inChars,theCharN);
+      return theCharN;
+    } else if (theNextState==kEndBefore)
+      return theCharN;
+    else if (theNextState==kBackUp)
+      return findLastComma(inChars,theCharN);
+    else if (theNextState==kEndAfter)
+      return theCharN+1;
+
+    // Runs of identical punct
+    char thePunctChar=inChars[theCharN++];
+    while ((theCharN<inEndCharN)&&(inChars[theCharN]==thePunctChar))
+      theCharN++;
+    return theCharN;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// findTokens
+//--------------------------------------------------------------------------------------------------------
+
+  public int findTokens(CharNormTable inTable, char[] inChars, int inCharN, int inNChars,
+      int[] ioTokenCharNs, int[] ioTokenNCharss, int inMaxNTokens) {
+
+    byte[] theClasses=getClasses(inTable);
+    if (theClasses==null)
+      return super.findTokens(inTable,inChars,inCharN,inNChars,ioTokenCharNs,ioTokenNCharss,inMaxNTokens);
+
+    int theCharN=inCharN;
+    int theEndCharN=inCharN+inNChars;
+    while ((theEndCharN>inCharN)&&(theClasses[inChars[theEndCharN-1]]==kWhitespaceClass))
+      theEndCharN--;
+    int theTokenN=0;
+
+    while (theCharN<theEndCharN) {
+
+      // Skip to start of next token - there is one, since trailing whitespace is already gone
+      while (theClasses[inChars[theCharN]]==kWhitespaceClass)
+        theCharN++;
+      if (theTokenN==inMaxNTokens)
+        return inMaxNTokens+1;
+
+      if (ioTokenCharNs!=null)
+        ioTokenCharNs[theTokenN]=theCharN;
+      int theNewCharN=findEndOfToken(theClasses,inChars,theCharN,theEndCharN);
+      if (ioTokenNCharss!=null)
+        ioTokenNCharss[theTokenN]=theNewCharN-theCharN;
+
+      theCharN=theNewCharN;
+      theTokenN++;
+    }
+
+    // If there is room, add an extra CharN, as NormTokenizer does
+    if ((ioTokenCharNs!=null)&&(ioTokenCharNs.length>theTokenN))
+      ioTokenCharNs[theTokenN]=theEndCharN;
+
+    return theTokenN;
+  }
+}
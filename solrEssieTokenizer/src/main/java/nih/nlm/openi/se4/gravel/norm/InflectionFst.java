@@ -0,0 +1,248 @@
+//--------------------------------------------------------------------------------------------------------
+// InflectionFst.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.norm;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.StringHelper;
+import org.apache.lucene.util.fst.*;
+
+import gravel.store.data.*;
+import gravel.store.var.*;
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// InflectionFst
+//
+// The inflections held in Lucene FSTs rather than in the inflection stores, for a far smaller heap.  The
+//   stores hold every variant in full, and every norm twice, where an FST holds each shared prefix and
+//   suffix once
+//   VariantFst  - each variant to the ordinal of its norm
+//   Norms       - each norm at its ordinal, which is its rank in byte order - a ByteDataStore, so an
+//                 ordinal leads back to its norm without walking an FST backwards
+//   ExpandFst   - norm, 0, 2 byte variant number, variant - for each variant of each norm, so the
+//                 variants of a norm are the keys after the norm and 0, in their dictionary order
+//
+// Built from the inflection stores, and gives the same answers - the stores hold each norm and variant
+//   once, with a variant listed under two norms mapped to the later one
+//
+// getNorm walks the variant FST with an arc, reader and bytes kept per thread, so allocates only the norm
+//   returned, and whatever boxed outputs Lucene reads
+//--------------------------------------------------------------------------------------------------------
+
+public final class InflectionFst implements Constants {
+
+//--------------------------------------------------------------------------------------------------------
+// InflectionFst consts
+//--------------------------------------------------------------------------------------------------------
+
+  public static final int       kMaxNVariants=0x10000;  // per norm, so variant numbers fit 2 bytes
+
+//--------------------------------------------------------------------------------------------------------
+// InflectionFst member vars
+//--------------------------------------------------------------------------------------------------------
+
+  private final FST<Long>           mVariantFst;
+  private final ByteDataStore       mNorms;            // by ordinal
+  private final FST<Object>         mExpandFst;
+  private final ThreadLocal<Walk>   mWalks;
+
+//--------------------------------------------------------------------------------------------------------
+// Walk
+//
+// One thread's scratch for walking the variant FST - FST readers are positioned, so cannot be shared
+//--------------------------------------------------------------------------------------------------------
+
+  private static final class Walk {
+    final FST.Arc<Long>       mArc=new FST.Arc<Long>();
+    final FST.BytesReader     mVariantReader;
+    byte[]                    mBytes=new byte[64];
+
+    Walk(InflectionFst inFst) { mVariantReader=inFst.mVariantFst.getBytesReader(); }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// InflectionFst
+//--------------------------------------------------------------------------------------------------------
+
+  private InflectionFst(FST<Long> inVariantFst, ByteDataStore inNorms, FST<Object> inExpandFst) {
+    mVariantFst=inVariantFst;
+    mNorms=inNorms;
+    mExpandFst=inExpandFst;
+    mWalks=new ThreadLocal<Walk>() {
+      protected Walk initialValue() { return new Walk(InflectionFst.this); }
+    };
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// build
+//
+// From the inflection stores of a NormModel - inMap is the index of the norm of each variant, and
+//   inInverseMap the indexes of the variants of each norm
+//--------------------------------------------------------------------------------------------------------
+
+  public static InflectionFst build(ByteDataStore inNorms, ByteDataStore inVariants, VarStore inMap,
+      VarDataStore inInverseMap) throws IOException {
+
+    if (inMap.getSize()!=inVariants.getSize())
+      throw new RuntimeException("Inflection map has "+inMap.getSize()+" norms for "+inVariants.getSize()+
+          " variants");
+
+    // Norms, each once, at its last index
+    int theNNorms=(int) inNorms.getSize();
+    BytesRefHash theNormHash=new BytesRefHash();
+    int[] theNormIds=Allocate.newInts(theNNorms);
+    int[] theLastNormDxs=Allocate.newInts(theNNorms);
+    for (int i=0; i<theNNorms; i++) {
+      int theId=addKey(theNormHash,inNorms.getBytes(i));
+      theNormIds[i]=theId;
+      theLastNormDxs[theId]=i;
+    }
+
+    // Norms in byte order, with their rank as ordinal
+    int[] theSortedNormIds=theNormHash.sort();
+    int theNUniqueNorms=theNormHash.size();
+    int[] theNormOrds=Allocate.newInts(theNUniqueNorms);
+    BytesRef theBytesRef=new BytesRef();
+    IntsRefBuilder theInts=new IntsRefBuilder();
+    ByteDataRAMStore theNormStore=new ByteDataRAMStore(theNUniqueNorms,inNorms.dangerousGetByteStore().getSize());
+    for (int i=0; i<theNUniqueNorms; i++) {
+      theNormOrds[theSortedNormIds[i]]=i;
+      theNormHash.get(theSortedNormIds[i],theBytesRef);
+      theNormStore.appendBytes(theBytesRef.bytes,theBytesRef.offset,theBytesRef.length);
+    }
+    theNormStore.compact();
+
+    // Variants, each once, to the ordinal of the norm at its last index
+    int theNVariants=(int) inVariants.getSize();
+    BytesRefHash theVariantHash=new BytesRefHash();
+    int[] theLastVariantDxs=Allocate.newInts(theNVariants);
+    for (int i=0; i<theNVariants; i++)
+      theLastVariantDxs[addKey(theVariantHash,inVariants.getBytes(i))]=i;
+    int[] theSortedVariantIds=theVariantHash.sort();
+    Builder<Long> theVariantBuilder=new Builder<Long>(FST.INPUT_TYPE.BYTE1,PositiveIntOutputs.getSingleton());
+    for (int i=0; i<theVariantHash.size(); i++) {
+      int theId=theSortedVariantIds[i];
+      int theNormDx=(int) inMap.getLong(theLastVariantDxs[theId]);
+      theVariantHash.get(theId,theBytesRef);
+      theVariantBuilder.add(Util.toIntsRef(theBytesRef,theInts),Long.valueOf(theNormOrds[theNormIds[theNormDx]]));
+    }
+    FST<Long> theVariantFst=theVariantBuilder.finish();
+
+    // Variants of each norm, from the norm's last index, in norm order and then dictionary order
+    Builder<Object> theExpandBuilder=new Builder<Object>(FST.INPUT_TYPE.BYTE1,NoOutputs.getSingleton());
+    Object theNoOutput=NoOutputs.getSingleton().getNoOutput();
+    BytesRefBuilder theKey=new BytesRefBuilder();
+    for (int i=0; i<theNUniqueNorms; i++) {
+      int theNormDx=theLastNormDxs[theSortedNormIds[i]];
+      theNormHash.get(theSortedNormIds[i],theBytesRef);
+      for (int j=0; j<theBytesRef.length; j++)
+        if (theBytesRef.bytes[theBytesRef.offset+j]==0)
+          throw new RuntimeException("Inflection norm has a 0 byte:  "+theBytesRef.utf8ToString());
+      long[] theVariantDxs=inInverseMap.getLongs(theNormDx);
+      if (theVariantDxs.length>kMaxNVariants)
+        throw new RuntimeException("Too many variants of inflection norm:  "+theBytesRef.utf8ToString());
+      for (int j=0; j<theVariantDxs.length; j++) {
+        theKey.clear();
+        theKey.append(theBytesRef);
+        theKey.append((byte) 0);
+        theKey.append((byte) (j>>8));
+        theKey.append((byte) j);
+        byte[] theVariantBytes=inVariants.getBytes(theVariantDxs[j]);
+        theKey.append(theVariantBytes,0,theVariantBytes.length);
+        theExpandBuilder.add(Util.toIntsRef(theKey.get(),theInts),theNoOutput);
+      }
+    }
+    FST<Object> theExpandFst=theExpandBuilder.finish();
+
+    return new InflectionFst(theVariantFst,theNormStore,theExpandFst);
+  }
+
+  // Id of inBytes in ioHash, added if new
+  private static int addKey(BytesRefHash ioHash, byte[] inBytes) {
+    int theId=ioHash.add(new BytesRef(inBytes));
+    return (theId<0)?-theId-1:theId;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getMemory
+//--------------------------------------------------------------------------------------------------------
+
+  public long getMemory() {
+    return kObjectMemory+4*kReferenceMemory+
+        mVariantFst.ramBytesUsed()+mNorms.getMemory()+mExpandFst.ramBytesUsed();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getNorm
+//
+// Norm of inVariant, which may be inVariant itself, or null if inVariant is not an inflection variant
+//--------------------------------------------------------------------------------------------------------
+
+  public String getNorm(String inVariant) {
+    Walk theWalk=mWalks.get();
+    if (inVariant.length()*3>theWalk.mBytes.length)
+      theWalk.mBytes=new byte[inVariant.length()*3+16];
+    byte[] theBytes=theWalk.mBytes;
+    int theNBytes=UTF8Utils.stringToUTF8Bytes(inVariant,theBytes,0);
+
+    try {
+
+      // Variant to norm ordinal - sum of the outputs along the path
+      FST.Arc<Long> theArc=mVariantFst.getFirstArc(theWalk.mArc);
+      long theNormOrd=0;
+      for (int i=0; i<theNBytes; i++) {
+        if (mVariantFst.findTargetArc(theBytes[i]&0x00ff,theArc,theArc,theWalk.mVariantReader)==null)
+          return null;
+        theNormOrd+=theArc.output().longValue();
+      }
+      if (!theArc.isFinal())
+        return null;
+      theNormOrd+=theArc.nextFinalOutput().longValue();
+
+      // Norm ordinal to norm
+      if ((theNormOrd<0)||(theNormOrd>=mNorms.getSize()))
+        throw new RuntimeException("Inflection FST has no norm "+theNormOrd);
+      return mNorms.getUTF8(theNormOrd);
+
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot read inflection FST",e);
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getVariants
+//
+// All inflection variants of inNorm (including inNorm), or null if inNorm is not a norm
+//--------------------------------------------------------------------------------------------------------
+
+  public String[] getVariants(String inNorm) {
+    byte[] theNormBytes=UTF8Utils.stringToUTF8Bytes(inNorm);
+    BytesRefBuilder thePrefix=new BytesRefBuilder();
+    thePrefix.append(theNormBytes,0,theNormBytes.length);
+    thePrefix.append((byte) 0);
+    int thePrefixLength=thePrefix.length();
+    try {
+      ArrayList<String> theVariants=new ArrayList<String>();
+      BytesRefFSTEnum<Object> theEnum=new BytesRefFSTEnum<Object>(mExpandFst);
+      BytesRefFSTEnum.InputOutput<Object> theEntry=theEnum.seekCeil(thePrefix.get());
+      while ((theEntry!=null)&&(StringHelper.startsWith(theEntry.input,thePrefix.get()))) {
+        BytesRef theKey=theEntry.input;
+        theVariants.add(UTF8Utils.bytesToUTF8String(theKey.bytes,theKey.offset+thePrefixLength+2,
+            theKey.length-thePrefixLength-2));
+        theEntry=theEnum.next();
+      }
+      return (theVariants.size()==0)?null:theVariants.toArray(new String[theVariants.size()]);
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot read inflection FST",e);
+    }
+  }
+
+}
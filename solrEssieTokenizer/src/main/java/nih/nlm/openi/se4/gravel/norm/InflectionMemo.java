@@ -0,0 +1,173 @@
+//--------------------------------------------------------------------------------------------------------
+// InflectionMemo.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.norm;
+
+import java.util.concurrent.atomic.*;
+
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// InflectionMemo
+//
+// Per thread memo of inflection lookups, one per NormModelHolder - the run of letters, and the norm it gives, or null if the run
+//   is not an inflection variant or is already its norm.  Word frequencies are Zipfian, so a few thousand
+//   slots catch most lookups, and a hit skips the String, UTF8 encode, hash probe and UTF8 decode
+//
+// Direct mapped - a run hashes to one slot, and replaces whatever was there.  Runs longer than
+//   kMaxNChars are not memoized, since they are rare and would mostly evict common words
+//
+// Each memo holds lookups for one NormModel generation, and empties itself when the current model
+//   changes, so a reload is never answered from the old dictionaries
+//
+// setNSlots sizes the memos of all threads, from their next use, and 0 turns memos off.  Hits and
+//   misses are counted per thread, and added to the totals at the end of each text normed
+//--------------------------------------------------------------------------------------------------------
+
+public final class InflectionMemo implements Constants {
+
+//--------------------------------------------------------------------------------------------------------
+// InflectionMemo consts
+//--------------------------------------------------------------------------------------------------------
+
+  public static final int        kDefaultNSlots=4096;
+  public static final int        kMaxNChars=32;
+
+//--------------------------------------------------------------------------------------------------------
+// InflectionMemo class vars
+//--------------------------------------------------------------------------------------------------------
+
+  private static volatile int     gNSlots=kDefaultNSlots;
+
+  private static final LongAdder  gNHits=new LongAdder();
+  private static final LongAdder  gNMisses=new LongAdder();
+
+//--------------------------------------------------------------------------------------------------------
+// InflectionMemo member vars
+//--------------------------------------------------------------------------------------------------------
+
+  private final String[]   mRuns;
+  private final String[]   mNorms;
+  private final int        mSlotMask;
+  private long             mGeneration;
+  private long             mNHits;
+  private long             mNMisses;
+
+//--------------------------------------------------------------------------------------------------------
+// InflectionMemo
+//--------------------------------------------------------------------------------------------------------
+
+  private InflectionMemo(int inNSlots) {
+    mRuns=new String[inNSlots];
+    mNorms=new String[inNSlots];
+    mSlotMask=inNSlots-1;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// config
+//--------------------------------------------------------------------------------------------------------
+
+  public static int getNSlots() { return gNSlots; }
+
+  // Rounded up to a power of 2 - 0 turns memos off
+  public static void setNSlots(int inNSlots) {
+    if (inNSlots<0)
+      throw new RuntimeException("Negative NSlots: "+inNSlots);
+    if (inNSlots>(1<<24))
+      throw new RuntimeException("Too many NSlots: "+inNSlots);
+    gNSlots=(inNSlots<=1)?inNSlots:Integer.highestOneBit(inNSlots-1)<<1;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// stats
+//--------------------------------------------------------------------------------------------------------
+
+  public static long getNHits() { return gNHits.sum(); }
+  public static long getNMisses() { return gNMisses.sum(); }
+
+  // 0 if no lookups yet
+  public static double getHitRate() {
+    long theNHits=gNHits.sum();
+    long theNLookups=theNHits+gNMisses.sum();
+    return (theNLookups==0)?0:theNHits/(double) theNLookups;
+  }
+
+  public static void resetStats() {
+    gNHits.reset();
+    gNMisses.reset();
+  }
+
+  void flushStats() {
+    if (mNHits>0) {
+      gNHits.add(mNHits);
+      mNHits=0;
+    }
+    if (mNMisses>0) {
+      gNMisses.add(mNMisses);
+      mNMisses=0;
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getMemo
+//
+// This thread's memo in ioMemos, emptied if inModel is not the model it holds lookups for, or null if
+//   memos are off
+//--------------------------------------------------------------------------------------------------------
+
+  static InflectionMemo getMemo(ThreadLocal<InflectionMemo> ioMemos, NormModel inModel) {
+    int theNSlots=gNSlots;
+    if (theNSlots==0)
+      return null;
+    InflectionMemo theMemo=ioMemos.get();
+    if ((theMemo==null)||(theMemo.mRuns.length!=theNSlots)) {
+      theMemo=new InflectionMemo(theNSlots);
+      theMemo.mGeneration=inModel.getGeneration();
+      ioMemos.set(theMemo);
+    } else if (theMemo.mGeneration!=inModel.getGeneration()) {
+      for (int i=0; i<theNSlots; i++) {
+        theMemo.mRuns[i]=null;
+        theMemo.mNorms[i]=null;
+      }
+      theMemo.mGeneration=inModel.getGeneration();
+    }
+    return theMemo;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// normalizeInflection
+//
+// Norm of the run of letters inChars[inCharN..inCharN+inNChars), or null if it does not change
+//--------------------------------------------------------------------------------------------------------
+
+  String normalizeInflection(NormModel inModel, char[] inChars, int inCharN, int inNChars) {
+    if (inNChars>kMaxNChars)
+      return TermNorm.normalizeInflection(inModel,new String(inChars,inCharN,inNChars));
+
+    int theHash=0;
+    int theEndCharN=inCharN+inNChars;
+    for (int i=inCharN; i<theEndCharN; i++)
+      theHash=31*theHash+inChars[i];
+    int theSlotN=(theHash^(theHash>>>16))&mSlotMask;
+
+    String theRun=mRuns[theSlotN];
+    if ((theRun!=null)&&(theRun.length()==inNChars)) {
+      int i=0;
+      while ((i<inNChars)&&(theRun.charAt(i)==inChars[inCharN+i]))
+        i++;
+      if (i==inNChars) {
+        mNHits++;
+        return mNorms[theSlotN];
+      }
+    }
+
+    mNMisses++;
+    theRun=new String(inChars,inCharN,inNChars);
+    String theNorm=TermNorm.normalizeInflection(inModel,theRun);
+    mRuns[theSlotN]=theRun;
+    mNorms[theSlotN]=theNorm;
+    return theNorm;
+  }
+
+}
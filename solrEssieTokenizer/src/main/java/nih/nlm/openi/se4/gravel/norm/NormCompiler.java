@@ -0,0 +1,56 @@
+//--------------------------------------------------------------------------------------------------------
+// NormCompiler.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.norm;
+
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// NormCompiler
+//
+// Compiles the norm sources in a norm dir into the one binary file NormModel loads from
+//
+//   java gravel.norm.NormCompiler <normDir> [<compiledFile>]
+//
+// The compiled file defaults to NormModel.dat in the norm dir, which is the only place NormModel looks
+//   for it.  Rerun after changing any of the sources - a compiled file older than its sources is ignored
+//--------------------------------------------------------------------------------------------------------
+
+public class NormCompiler {
+
+//--------------------------------------------------------------------------------------------------------
+// run
+//--------------------------------------------------------------------------------------------------------
+
+  private static void run(String inNormDir, String inFilename) throws Exception {
+
+    long theStartTime=System.currentTimeMillis();
+    System.out.println(FormatUtils.reportHeader("Compile Norm",theStartTime));
+
+    NormModel.compile(inNormDir,inFilename);
+    System.out.println("Compiled "+inNormDir+"  --->  "+inFilename+"  "+
+        FileUtils.getFileLength(inFilename)+" bytes");
+
+    System.out.println(FormatUtils.reportFooter(theStartTime));
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// main
+//--------------------------------------------------------------------------------------------------------
+
+  public static void main(String[] args) {
+    if ((args.length<1)||(args.length>2)) {
+      System.err.println("Usage:  java gravel.norm.NormCompiler <normDir> [<compiledFile>]");
+      System.exit(2);
+    }
+    try {
+      String theFilename=(args.length>1)?args[1]:args[0]+"/"+NormModel.kCompiledFilename;
+      run(args[0],theFilename);
+    } catch (Throwable e) {
+      e.printStackTrace(System.err);
+      System.exit(1);
+    }
+  }
+
+}
@@ -0,0 +1,603 @@
+//--------------------------------------------------------------------------------------------------------
+// NormModel.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.norm;
+
+import java.io.*;
+import java.util.concurrent.atomic.*;
+
+import gravel.store.data.*;
+import gravel.store.hash.*;
+import gravel.store.plain.*;
+import gravel.store.var.*;
+import gravel.utils.*;
+import gravel.xml.*;
+
+//--------------------------------------------------------------------------------------------------------
+// NormModel
+//
+// All the norm dictionaries, loaded from one norm dir, and never changed once built
+//   CharNorm       - the CharNormTable compiled from MapChars, CharFlags and MultiChars
+//   Inflections    - from Inflections.xml, null if not loaded
+//   Compounds      - from Compounds.xml, null if not loaded
+//
+// The dictionaries load from the compiled file NormModel.dat in the norm dir when there is one that holds
+//   them and is not older than its sources, else from the sources, which then means hashing every key
+//   and inverting the maps.  compile writes the compiled file - see NormCompiler
+//
+// Term lookups go through a PerfectHashIndex over each dictionary, built with it and compiled in with it,
+//   not through the chained hash index of the ByteDataHashStore, which is kept for callers of the stores
+//
+// The compiled file is memory mapped by default, not read onto the heap, so all the JVMs on a host that
+//   load the same file share one copy of the dictionaries in the OS page cache.  setMapCompiled(false)
+//   reads it onto the heap instead
+//
+// A model built with its inflections in an InflectionFst, several times smaller on the heap, has closed
+//   its inflection stores, so their getters return null - see NormModelHolder.setFstInflections
+//
+// The current model is published through one volatile reference in its NormModelHolder.  Reload builds a whole new model from
+//   the norm dir, off to the side, then swaps it in, so readers see either the old dictionaries or the
+//   new ones, never a mix and never a closed store
+//
+// Readers of the stores pin the model with acquire and unpin it with release.  Each model counts one
+//   reference for being current plus one per reader, and closes its stores when the count drops to 0,
+//   so a swapped out model lives until the last reader still using it is done.  Pinning is a compare and
+//   set on the model's count, no lock.  The CharNormTable is plain arrays and is never closed, so char
+//   lookups read it from the current model without pinning
+//
+// Each holder has one current model, so one norm dir.  The static routines here, and those of CharNorm,
+//   TermNorm and CompoundExpand, use the default holder, one per class loader.  Users that need their
+//   own dir, or their own reloads, make their own NormModelHolder
+//--------------------------------------------------------------------------------------------------------
+
+public final class NormModel implements Constants {
+
+//--------------------------------------------------------------------------------------------------------
+// NormModel consts
+//--------------------------------------------------------------------------------------------------------
+
+  public static final String     kCompiledFilename="NormModel.dat";
+  public static final String     kCompiledMagicCookieVersion="NRM"+((char) 3);
+  public static final int        kCompiledHeaderSize=64;  // in bytes
+
+  // Compiled file layout
+  //   Bytes   Size    Content
+  //    0-3      4     magic cookie and version
+  //    4-7      4     avail
+  //    8-15     8     time compiled
+  //   16-23     8     file offset of the inflection stores, 0 if not compiled in
+  //   24-31     8     file offset of the compound stores, 0 if not compiled in
+  //   32-39     8     file length, to catch a truncated file
+  //   40-63    24     avail
+  // then each store in ByteDiskStore layout, in the order
+  //   MapChars CharFlags MultiChars
+  //   InflectionNorms InflectionVariants InflectionMap InflectionInverseMap
+  //     then the pilots and slots of the InflectionNorms and InflectionVariants indexes
+  //   CompoundSpaced CompoundCompressed CompoundMap CompoundInverseMap
+  //     then the pilots and slots of the CompoundSpaced and CompoundCompressed indexes
+
+//--------------------------------------------------------------------------------------------------------
+// NormModel class vars
+//--------------------------------------------------------------------------------------------------------
+
+  private static final AtomicLong       gNextGeneration=new AtomicLong(1);
+  private static volatile boolean       gMapCompiled=true;
+  private static final NormModelHolder  gDefaultHolder=new NormModelHolder();
+
+//--------------------------------------------------------------------------------------------------------
+// NormModel member vars
+//--------------------------------------------------------------------------------------------------------
+
+  private final String                mNormDir;
+  private final long                  mGeneration;        // increases with each model built
+
+  // Set while the model is built, from the compiled file or the sources, and not after
+  // RAM stores, or mapped stores if mapped from the compiled file
+  private CharNormTable      mCharNormTable;
+
+  private ByteDataHashStore  mInflectionNorms;      // preferred form for inflection variants
+  private ByteDataHashStore  mInflectionVariants;   // all inflection variants (including norm form)
+  private VarStore           mInflectionMap;        // index of norm for each variant
+  private VarDataStore       mInflectionInverseMap; // indexes of all variants for each norm
+  private PerfectHashIndex   mInflectionNormsIndex;
+  private PerfectHashIndex   mInflectionVariantsIndex;
+  private InflectionFst      mInflectionFst;        // instead of all the above, if inflections in FST
+
+  private ByteDataHashStore  mCompoundSpaced;       // compound words with spaces
+  private ByteDataHashStore  mCompoundCompressed;   // compound words without spaces
+  private VarStore           mCompoundMap;          // index of compressed for each spaced
+  private VarDataStore       mCompoundInverseMap;   // indexes of all spaceds for each compressed
+  private PerfectHashIndex   mCompoundSpacedIndex;
+  private PerfectHashIndex   mCompoundCompressedIndex;
+
+  private final AtomicInteger         mNRefs;
+
+//--------------------------------------------------------------------------------------------------------
+// NormModel
+//
+// Loads the char norm from inNormDir, and the inflections and compounds if asked for, from the compiled
+//   file if inUseCompiled and it is usable, else from the sources.  Then moves the inflections into an
+//   InflectionFst if inInflectionFst
+// The new model holds one reference, for the caller to publish or release
+//--------------------------------------------------------------------------------------------------------
+
+  NormModel(String inNormDir, boolean inLoadInflections, boolean inLoadCompounds,
+      boolean inUseCompiled, boolean inInflectionFst) throws Exception {
+    mNormDir=inNormDir;
+    mGeneration=gNextGeneration.getAndIncrement();
+    if ((!inUseCompiled)||(!loadCompiled(inNormDir,inLoadInflections,inLoadCompounds))) {
+      mCharNormTable=loadCharNormTable(inNormDir);
+      if (inLoadInflections)
+        loadInflectionSources(inNormDir);
+      if (inLoadCompounds)
+        loadCompoundSources(inNormDir);
+    }
+    if ((inLoadInflections)&&(inInflectionFst))
+      moveInflectionsToFst();
+    mNRefs=new AtomicInteger(1);
+  }
+
+  // Char norm only, sharing the table of another model - the table is never closed, so can be shared
+  NormModel(NormModel inModel) {
+    mNormDir=inModel.mNormDir;
+    mGeneration=gNextGeneration.getAndIncrement();
+    mCharNormTable=inModel.mCharNormTable;
+    mNRefs=new AtomicInteger(1);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// load sources
+//--------------------------------------------------------------------------------------------------------
+
+  // The CharNorm stores are only needed to build the table, so are closed once it is built
+  private static CharNormTable loadCharNormTable(String inNormDir) throws Exception {
+    VarRAMStore theMapChars=VarRAMStore.load(inNormDir+"/MapChars.dat");
+    ByteRAMStore theCharFlags=ByteRAMStore.load(inNormDir+"/CharFlags.dat");
+    ByteDataRAMStore theMultiChars=ByteDataRAMStore.load(inNormDir+"/MultiChars.dat");
+    return buildCharNormTable(theMapChars,theCharFlags,theMultiChars);
+  }
+
+  private static CharNormTable buildCharNormTable(VarStore inMapChars, ByteStore inCharFlags,
+      ByteDataStore inMultiChars) {
+    try {
+      return new CharNormTable(inMapChars,inCharFlags,inMultiChars);
+    } finally {
+      inMapChars.close();
+      inCharFlags.close();
+      inMultiChars.close();
+    }
+  }
+
+  private void loadInflectionSources(String inNormDir) throws Exception {
+    final ByteDataHashRAMStore theNorms=new ByteDataHashRAMStore();
+    final ByteDataHashRAMStore theVariants=new ByteDataHashRAMStore();
+    final VarRAMStore theMap=new VarRAMStore();
+    X2OParser.xmlFileToObject(new X2OBuilder() {
+      public Object buildObject(X2OData inX2OData) throws Exception {
+        String theTagname=inX2OData.getTagname();
+        if ((theTagname.equals("norm"))||(theTagname.equals("variant")))
+          return inX2OData.getText();
+        else if (theTagname.equals("inflection")) {
+          String theNorm=(String) inX2OData.getFirstChildElmt("norm");
+          long theNormDx=theNorms.keepUTF8(theNorm);
+          mapKey(theVariants,theMap,theNorm,theNormDx);
+          Object[] theVariantElmts=inX2OData.getChildElmts("variant");
+          for (int i=0; i<theVariantElmts.length; i++)
+            mapKey(theVariants,theMap,(String) theVariantElmts[i],theNormDx);
+        }
+        return null;
+      }
+    },inNormDir+"/Inflections.xml");
+    theNorms.compact();
+    theVariants.compact();
+    theMap.compact();
+    mInflectionNorms=theNorms;
+    mInflectionVariants=theVariants;
+    mInflectionMap=theMap;
+    mInflectionInverseMap=MapUtils.invertNTo1Map(theMap,theNorms.getSize(),true);
+    mInflectionNormsIndex=PerfectHashIndex.build(theNorms.dangerousGetKeyStore());
+    mInflectionVariantsIndex=PerfectHashIndex.build(theVariants.dangerousGetKeyStore());
+  }
+
+  private void loadCompoundSources(String inNormDir) throws Exception {
+    final ByteDataHashRAMStore theSpaced=new ByteDataHashRAMStore();
+    final ByteDataHashRAMStore theCompressed=new ByteDataHashRAMStore();
+    final VarRAMStore theMap=new VarRAMStore();
+    X2OParser.xmlFileToObject(new X2OBuilder() {
+      public Object buildObject(X2OData inX2OData) throws Exception {
+        String theTagname=inX2OData.getTagname();
+        if ((theTagname.equals("compressed"))||(theTagname.equals("spaced")))
+          return inX2OData.getText();
+        else if (theTagname.equals("compound")) {
+          String theCompressedElmt=(String) inX2OData.getFirstChildElmt("compressed");
+          long theCompressedDx=theCompressed.keepUTF8(theCompressedElmt);
+          Object[] theSpacedElmts=inX2OData.getChildElmts("spaced");
+          for (int i=0; i<theSpacedElmts.length; i++)
+            mapKey(theSpaced,theMap,(String) theSpacedElmts[i],theCompressedDx);
+        }
+        return null;
+      }
+    },inNormDir+"/Compounds.xml");
+    theSpaced.compact();
+    theCompressed.compact();
+    theMap.compact();
+    mCompoundSpaced=theSpaced;
+    mCompoundCompressed=theCompressed;
+    mCompoundMap=theMap;
+    mCompoundInverseMap=MapUtils.invertNTo1Map(theMap,theCompressed.getSize(),true);
+    mCompoundSpacedIndex=PerfectHashIndex.build(theSpaced.dangerousGetKeyStore());
+    mCompoundCompressedIndex=PerfectHashIndex.build(theCompressed.dangerousGetKeyStore());
+  }
+
+  // Maps inKey to inDx.  ioKeys holds each key once, so ioMap is kept in its index space - a key listed
+  //   again is remapped, so maps to the target of its later listing
+  private static void mapKey(ByteDataHashRAMStore ioKeys, VarRAMStore ioMap, String inKey, long inDx) {
+    long theKeyDx=ioKeys.appendUTF8(inKey);
+    if (theKeyDx==kNotFound)
+      ioMap.appendVar(inDx);
+    else
+      ioMap.setVar(theKeyDx,inDx);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// moveInflectionsToFst
+//--------------------------------------------------------------------------------------------------------
+
+  private void moveInflectionsToFst() throws Exception {
+    mInflectionFst=InflectionFst.build(mInflectionNorms.dangerousGetKeyStore(),
+        mInflectionVariants.dangerousGetKeyStore(),mInflectionMap,mInflectionInverseMap);
+    closeInflectionStores();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// loadCompiled
+//
+// Loads what is asked for from the compiled file in inNormDir, as stored, with nothing rebuilt but the
+//   CharNormTable, which is one pass over 64K chars.  Maps the stores if gMapCompiled, else reads them
+// returns false, having loaded nothing, if there is no compiled file, it is an older version, it is
+//   older than any of the sources, or it does not hold what is asked for
+//--------------------------------------------------------------------------------------------------------
+
+  private boolean loadCompiled(String inNormDir, boolean inLoadInflections, boolean inLoadCompounds)
+      throws Exception {
+    String theFilename=inNormDir+"/"+kCompiledFilename;
+    if (!FileUtils.doesFileExist(theFilename))
+      return false;
+    String[] theSourceFilenames=new String[] {
+        inNormDir+"/MapChars.dat",
+        inNormDir+"/CharFlags.dat",
+        inNormDir+"/MultiChars.dat",
+        (inLoadInflections)?inNormDir+"/Inflections.xml":null,
+        (inLoadCompounds)?inNormDir+"/Compounds.xml":null };
+    long theCompiledTime=FileUtils.getLastModified(theFilename);
+    for (int i=0; i<theSourceFilenames.length; i++)
+      if ((theSourceFilenames[i]!=null)&&(FileUtils.doesFileExist(theSourceFilenames[i]))&&
+          (FileUtils.getLastModified(theSourceFilenames[i])>theCompiledTime))
+        return false;
+
+    StoreFile theStoreFile=new StoreFile(theFilename,true);
+    theStoreFile.open();
+    try {
+      byte[] theHeaderBytes=Allocate.newBytes(kCompiledHeaderSize);
+      theStoreFile.seek(0);
+      theStoreFile.readBytes(theHeaderBytes,0,kCompiledHeaderSize);
+      if (!UTF8Utils.bytesToUTF8String(theHeaderBytes,0,4).equals(kCompiledMagicCookieVersion))
+        return false;
+      long theInflectionsOffset=Conversions.bytesToLong(theHeaderBytes,16);
+      long theCompoundsOffset=Conversions.bytesToLong(theHeaderBytes,24);
+      long theFileLength=Conversions.bytesToLong(theHeaderBytes,32);
+      if (theFileLength!=theStoreFile.getLength())
+        throw new StoreException("Compiled norm file truncated:  "+theFilename);
+      if (((inLoadInflections)&&(theInflectionsOffset==0))||((inLoadCompounds)&&(theCompoundsOffset==0)))
+        return false;
+
+      boolean theMap=gMapCompiled;
+      long[] theFileOffset=new long[] {kCompiledHeaderSize};
+      if (theMap)
+        mCharNormTable=buildCharNormTable(
+            VarMappedStore.load(theStoreFile,theFileOffset),
+            ByteMappedStore.load(theStoreFile,theFileOffset),
+            ByteDataMappedStore.load(theStoreFile,theFileOffset));
+      else
+        mCharNormTable=buildCharNormTable(
+            VarRAMStore.load(theStoreFile,theFileOffset),
+            ByteRAMStore.load(theStoreFile,theFileOffset),
+            ByteDataRAMStore.load(theStoreFile,theFileOffset));
+
+      if ((inLoadInflections)&&(theMap)) {
+        theFileOffset[0]=theInflectionsOffset;
+        mInflectionNorms=ByteDataHashMappedStore.load(theStoreFile,theFileOffset);
+        mInflectionVariants=ByteDataHashMappedStore.load(theStoreFile,theFileOffset);
+        mInflectionMap=VarMappedStore.load(theStoreFile,theFileOffset);
+        mInflectionInverseMap=VarDataMappedStore.load(theStoreFile,theFileOffset);
+        mInflectionNormsIndex=PerfectHashIndex.wrap(mInflectionNorms.dangerousGetKeyStore(),
+            VarMappedStore.load(theStoreFile,theFileOffset),VarMappedStore.load(theStoreFile,theFileOffset));
+        mInflectionVariantsIndex=PerfectHashIndex.wrap(mInflectionVariants.dangerousGetKeyStore(),
+            VarMappedStore.load(theStoreFile,theFileOffset),VarMappedStore.load(theStoreFile,theFileOffset));
+      } else if (inLoadInflections) {
+        theFileOffset[0]=theInflectionsOffset;
+        mInflectionNorms=ByteDataHashRAMStore.load(theStoreFile,theFileOffset);
+        mInflectionVariants=ByteDataHashRAMStore.load(theStoreFile,theFileOffset);
+        mInflectionMap=VarRAMStore.load(theStoreFile,theFileOffset);
+        mInflectionInverseMap=VarDataRAMStore.load(theStoreFile,theFileOffset);
+        mInflectionNormsIndex=PerfectHashIndex.wrap(mInflectionNorms.dangerousGetKeyStore(),
+            VarRAMStore.load(theStoreFile,theFileOffset),VarRAMStore.load(theStoreFile,theFileOffset));
+        mInflectionVariantsIndex=PerfectHashIndex.wrap(mInflectionVariants.dangerousGetKeyStore(),
+            VarRAMStore.load(theStoreFile,theFileOffset),VarRAMStore.load(theStoreFile,theFileOffset));
+      }
+
+      if ((inLoadCompounds)&&(theMap)) {
+        theFileOffset[0]=theCompoundsOffset;
+        mCompoundSpaced=ByteDataHashMappedStore.load(theStoreFile,theFileOffset);
+        mCompoundCompressed=ByteDataHashMappedStore.load(theStoreFile,theFileOffset);
+        mCompoundMap=VarMappedStore.load(theStoreFile,theFileOffset);
+        mCompoundInverseMap=VarDataMappedStore.load(theStoreFile,theFileOffset);
+        mCompoundSpacedIndex=PerfectHashIndex.wrap(mCompoundSpaced.dangerousGetKeyStore(),
+            VarMappedStore.load(theStoreFile,theFileOffset),VarMappedStore.load(theStoreFile,theFileOffset));
+        mCompoundCompressedIndex=PerfectHashIndex.wrap(mCompoundCompressed.dangerousGetKeyStore(),
+            VarMappedStore.load(theStoreFile,theFileOffset),VarMappedStore.load(theStoreFile,theFileOffset));
+      } else if (inLoadCompounds) {
+        theFileOffset[0]=theCompoundsOffset;
+        mCompoundSpaced=ByteDataHashRAMStore.load(theStoreFile,theFileOffset);
+        mCompoundCompressed=ByteDataHashRAMStore.load(theStoreFile,theFileOffset);
+        mCompoundMap=VarRAMStore.load(theStoreFile,theFileOffset);
+        mCompoundInverseMap=VarDataRAMStore.load(theStoreFile,theFileOffset);
+        mCompoundSpacedIndex=PerfectHashIndex.wrap(mCompoundSpaced.dangerousGetKeyStore(),
+            VarRAMStore.load(theStoreFile,theFileOffset),VarRAMStore.load(theStoreFile,theFileOffset));
+        mCompoundCompressedIndex=PerfectHashIndex.wrap(mCompoundCompressed.dangerousGetKeyStore(),
+            VarRAMStore.load(theStoreFile,theFileOffset),VarRAMStore.load(theStoreFile,theFileOffset));
+      }
+      return true;
+    } finally {
+      theStoreFile.close();
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// gets
+//--------------------------------------------------------------------------------------------------------
+
+  public String getNormDir() { return mNormDir; }
+  public long getGeneration() { return mGeneration; }
+
+  public CharNormTable getCharNormTable() { return mCharNormTable; }
+
+  public boolean hasInflections() { return ((mInflectionNorms!=null)||(mInflectionFst!=null)); }
+  public InflectionFst getInflectionFst() { return mInflectionFst; }
+  // Null if inflections in FST
+  public ByteDataHashStore getInflectionNorms() { return mInflectionNorms; }
+  public ByteDataHashStore getInflectionVariants() { return mInflectionVariants; }
+  public VarStore getInflectionMap() { return mInflectionMap; }
+  public VarDataStore getInflectionInverseMap() { return mInflectionInverseMap; }
+  public PerfectHashIndex getInflectionNormsIndex() { return mInflectionNormsIndex; }
+  public PerfectHashIndex getInflectionVariantsIndex() { return mInflectionVariantsIndex; }
+
+  public boolean hasCompounds() { return (mCompoundSpaced!=null); }
+  public ByteDataHashStore getCompoundSpaced() { return mCompoundSpaced; }
+  public ByteDataHashStore getCompoundCompressed() { return mCompoundCompressed; }
+  public VarStore getCompoundMap() { return mCompoundMap; }
+  public VarDataStore getCompoundInverseMap() { return mCompoundInverseMap; }
+  public PerfectHashIndex getCompoundSpacedIndex() { return mCompoundSpacedIndex; }
+  public PerfectHashIndex getCompoundCompressedIndex() { return mCompoundCompressedIndex; }
+
+//--------------------------------------------------------------------------------------------------------
+// map compiled
+//
+// Whether models loaded from now on map the compiled file or read it onto the heap
+//--------------------------------------------------------------------------------------------------------
+
+  public static boolean getMapCompiled() { return gMapCompiled; }
+  public static void setMapCompiled(boolean inMapCompiled) { gMapCompiled=inMapCompiled; }
+
+//--------------------------------------------------------------------------------------------------------
+// default holder
+//
+// The holder the static routines use
+//--------------------------------------------------------------------------------------------------------
+
+  public static NormModelHolder getDefaultHolder() { return gDefaultHolder; }
+
+//--------------------------------------------------------------------------------------------------------
+// FST inflections
+//
+// Whether models the default holder loads from now on hold the inflections in an InflectionFst
+//--------------------------------------------------------------------------------------------------------
+
+  public static boolean getFstInflections() { return gDefaultHolder.getFstInflections(); }
+  public static void setFstInflections(boolean inFstInflections) { gDefaultHolder.setFstInflections(inFstInflections); }
+
+//--------------------------------------------------------------------------------------------------------
+// current model
+//
+// getModel is the current model of the default holder, unpinned, so only its CharNormTable is safe to
+//   use without acquire
+//--------------------------------------------------------------------------------------------------------
+
+  public static NormModel getModel() { return gDefaultHolder.getModel(); }
+
+  public static CharNormTable getCurrentCharNormTable() { return gDefaultHolder.getCharNormTable(); }
+
+  // 0 if not loaded
+  public static long getCurrentGeneration() { return gDefaultHolder.getGeneration(); }
+
+//--------------------------------------------------------------------------------------------------------
+// acquire / release
+//
+// acquire pins the current model of the default holder, or returns null if not loaded - every acquire
+//   must be matched by a release, in a finally
+//--------------------------------------------------------------------------------------------------------
+
+  public static NormModel acquire() { return gDefaultHolder.acquire(); }
+
+  // Fails once the count has dropped to 0, since the stores are closed or being closed
+  boolean tryAcquire() {
+    while (true) {
+      int theNRefs=mNRefs.get();
+      if (theNRefs==0)
+        return false;
+      if (mNRefs.compareAndSet(theNRefs,theNRefs+1))
+        return true;
+    }
+  }
+
+  public void release() {
+    int theNRefs=mNRefs.decrementAndGet();
+    if (theNRefs==0)
+      close();
+    else if (theNRefs<0)
+      throw new RuntimeException("NormModel released more than acquired");
+  }
+
+  private void close() {
+    closeInflectionStores();
+    if (mCompoundSpaced!=null) {
+      mCompoundSpaced.close();
+      mCompoundCompressed.close();
+      mCompoundMap.close();
+      mCompoundInverseMap.close();
+      mCompoundSpacedIndex.close();
+      mCompoundCompressedIndex.close();
+    }
+  }
+
+  private void closeInflectionStores() {
+    if (mInflectionNorms!=null) {
+      mInflectionNorms.close();
+      mInflectionVariants.close();
+      mInflectionMap.close();
+      mInflectionInverseMap.close();
+      mInflectionNormsIndex.close();
+      mInflectionVariantsIndex.close();
+      mInflectionNorms=null;
+      mInflectionVariants=null;
+      mInflectionMap=null;
+      mInflectionInverseMap=null;
+      mInflectionNormsIndex=null;
+      mInflectionVariantsIndex=null;
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// load
+//
+// Loads whatever of the char norm, inflections and compounds is not loaded yet into the default holder,
+//   for the load routines of CharNorm, TermNorm and CompoundExpand.  Does nothing if all are loaded
+//--------------------------------------------------------------------------------------------------------
+
+  static void load(String inNormDir, boolean inLoadInflections, boolean inLoadCompounds) throws Exception {
+    gDefaultHolder.load(inNormDir,inLoadInflections,inLoadCompounds); }
+
+//--------------------------------------------------------------------------------------------------------
+// checkNormDir
+//
+// Throws if the default holder has a model loaded from a dir other than inNormDir
+//--------------------------------------------------------------------------------------------------------
+
+  public static void checkNormDir(String inNormDir) { gDefaultHolder.checkNormDir(inNormDir); }
+
+  // Dirs compared after resolving links
+  public static boolean isSameNormDir(String inNormDir1, String inNormDir2) {
+    if (inNormDir1.equals(inNormDir2))
+      return true;
+    try {
+      return FileUtils.getRealFilename(inNormDir1).equals(FileUtils.getRealFilename(inNormDir2));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// clearTerms
+//
+// Drops the inflections and compounds of the default holder, keeping the char norm
+//--------------------------------------------------------------------------------------------------------
+
+  static void clearTerms() { gDefaultHolder.clearTerms(); }
+
+//--------------------------------------------------------------------------------------------------------
+// reload
+//
+// Reloads the default holder - see NormModelHolder.reload
+//--------------------------------------------------------------------------------------------------------
+
+  public static NormModel reload(String inNormDir) throws Exception { return gDefaultHolder.reload(inNormDir); }
+
+  public static NormModel reload() throws Exception { return gDefaultHolder.reload(); }
+
+  // Reloads on a daemon thread, returned so the caller can join it
+  public static Thread reloadInBackground(String inNormDir) { return gDefaultHolder.reloadInBackground(inNormDir); }
+
+//--------------------------------------------------------------------------------------------------------
+// compile
+//
+// Writes the char norm stores, and the inflections and compounds with their hash indexes, perfect hash
+//   indexes and inverse maps, all built from the sources in inNormDir, into one file that loadCompiled reads back as is
+// Compounds are left out if there is no Compounds.xml.  Written to a temp file and then moved into
+//   place, so a model loading at the same time never reads half a file
+//--------------------------------------------------------------------------------------------------------
+
+  public static void compile(String inNormDir, String inFilename) throws Exception {
+    boolean theHasCompounds=FileUtils.doesFileExist(inNormDir+"/Compounds.xml");
+    NormModel theModel=new NormModel(inNormDir,true,theHasCompounds,false,false);
+    VarRAMStore theMapChars=VarRAMStore.load(inNormDir+"/MapChars.dat");
+    ByteRAMStore theCharFlags=ByteRAMStore.load(inNormDir+"/CharFlags.dat");
+    ByteDataRAMStore theMultiChars=ByteDataRAMStore.load(inNormDir+"/MultiChars.dat");
+
+    String theTempFilename=inFilename+".tmp";
+    FileUtils.deleteFile(theTempFilename);
+    StoreFile theStoreFile=new StoreFile(theTempFilename,false);
+    try {
+      theStoreFile.open();
+      long[] theFileOffset=new long[] {kCompiledHeaderSize};
+      theMapChars.store(theStoreFile,theFileOffset);
+      theCharFlags.store(theStoreFile,theFileOffset);
+      theMultiChars.store(theStoreFile,theFileOffset);
+
+      // Built from the sources, so all RAM stores
+      long theInflectionsOffset=theFileOffset[0];
+      ((ByteDataHashRAMStore) theModel.mInflectionNorms).store(theStoreFile,theFileOffset);
+      ((ByteDataHashRAMStore) theModel.mInflectionVariants).store(theStoreFile,theFileOffset);
+      ((VarRAMStore) theModel.mInflectionMap).store(theStoreFile,theFileOffset);
+      ((VarDataRAMStore) theModel.mInflectionInverseMap).store(theStoreFile,theFileOffset);
+      storeIndex(theModel.mInflectionNormsIndex,theStoreFile,theFileOffset);
+      storeIndex(theModel.mInflectionVariantsIndex,theStoreFile,theFileOffset);
+
+      long theCompoundsOffset=0;
+      if (theHasCompounds) {
+        theCompoundsOffset=theFileOffset[0];
+        ((ByteDataHashRAMStore) theModel.mCompoundSpaced).store(theStoreFile,theFileOffset);
+        ((ByteDataHashRAMStore) theModel.mCompoundCompressed).store(theStoreFile,theFileOffset);
+        ((VarRAMStore) theModel.mCompoundMap).store(theStoreFile,theFileOffset);
+        ((VarDataRAMStore) theModel.mCompoundInverseMap).store(theStoreFile,theFileOffset);
+        storeIndex(theModel.mCompoundSpacedIndex,theStoreFile,theFileOffset);
+        storeIndex(theModel.mCompoundCompressedIndex,theStoreFile,theFileOffset);
+      }
+
+      // Header last, so a file cut short by a crash fails the length check
+      byte[] theHeaderBytes=Allocate.newBytes(kCompiledHeaderSize);
+      UTF8Utils.stringToUTF8Bytes(kCompiledMagicCookieVersion,theHeaderBytes);
+      Conversions.longToBytes(System.currentTimeMillis(),theHeaderBytes,8);
+      Conversions.longToBytes(theInflectionsOffset,theHeaderBytes,16);
+      Conversions.longToBytes(theCompoundsOffset,theHeaderBytes,24);
+      Conversions.longToBytes(theFileOffset[0],theHeaderBytes,32);
+      theStoreFile.seek(0);
+      theStoreFile.writeBytes(theHeaderBytes,0,kCompiledHeaderSize);
+    } finally {
+      theStoreFile.close();
+      theMapChars.close();
+      theCharFlags.close();
+      theMultiChars.close();
+      theModel.release();
+    }
+    FileUtils.moveFile(theTempFilename,inFilename);
+  }
+
+  public static void compile(String inNormDir) throws Exception {
+    compile(inNormDir,inNormDir+"/"+kCompiledFilename); }
+
+  private static void storeIndex(PerfectHashIndex inIndex, StoreFile inStoreFile, long[] ioFileOffset) {
+    ((VarRAMStore) inIndex.dangerousGetPilotStore()).store(inStoreFile,ioFileOffset);
+    ((VarRAMStore) inIndex.dangerousGetSlotStore()).store(inStoreFile,ioFileOffset);
+  }
+}
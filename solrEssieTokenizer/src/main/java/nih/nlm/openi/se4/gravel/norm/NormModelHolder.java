@@ -0,0 +1,213 @@
+//--------------------------------------------------------------------------------------------------------
+// NormModelHolder.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.norm;
+
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// NormModelHolder
+//
+// Holds the current NormModel of one user of the norm, and loads, reloads and publishes it as described
+//   in NormModel.  Each holder has its own model, from its own norm dir, and its own inflection memos
+//
+// The static routines of CharNorm, TermNorm, CompoundExpand and NormModel use the default holder, one
+//   per class loader - see NormModel.getDefaultHolder.  Callers that need a model of their own, eg one
+//   per search core, make a holder and pass it to the holder versions of those routines
+//
+// A holder holds models from one norm dir.  load refuses another dir once a model is loaded, rather
+//   than hand back dictionaries from the wrong dir.  reload(inNormDir) moves the holder to inNormDir
+//--------------------------------------------------------------------------------------------------------
+
+public final class NormModelHolder implements Constants {
+
+//--------------------------------------------------------------------------------------------------------
+// NormModelHolder member vars
+//--------------------------------------------------------------------------------------------------------
+
+  private final Object                       mLoadLock=new Object();    // Used as sync lock, so keep private
+  private volatile NormModel                 mModel;                     // current model, null until loaded
+  private volatile boolean                   mFstInflections;
+  private final ThreadLocal<InflectionMemo>  mMemos=new ThreadLocal<InflectionMemo>();
+
+//--------------------------------------------------------------------------------------------------------
+// NormModelHolder
+//--------------------------------------------------------------------------------------------------------
+
+  public NormModelHolder() { this(false); }
+
+  public NormModelHolder(boolean inFstInflections) { mFstInflections=inFstInflections; }
+
+//--------------------------------------------------------------------------------------------------------
+// FST inflections
+//
+// Whether models this holder loads from now on hold the inflections in an InflectionFst
+//--------------------------------------------------------------------------------------------------------
+
+  public boolean getFstInflections() { return mFstInflections; }
+  public void setFstInflections(boolean inFstInflections) { mFstInflections=inFstInflections; }
+
+//--------------------------------------------------------------------------------------------------------
+// current model
+//
+// getModel is the current model, unpinned, so only its CharNormTable is safe to use without acquire
+//--------------------------------------------------------------------------------------------------------
+
+  public NormModel getModel() { return mModel; }
+
+  // null if not loaded
+  public CharNormTable getCharNormTable() {
+    NormModel theModel=mModel;
+    return (theModel==null)?null:theModel.getCharNormTable();
+  }
+
+  // 0 if not loaded
+  public long getGeneration() {
+    NormModel theModel=mModel;
+    return (theModel==null)?0:theModel.getGeneration();
+  }
+
+  // null if not loaded
+  public String getNormDir() {
+    NormModel theModel=mModel;
+    return (theModel==null)?null:theModel.getNormDir();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// acquire
+//
+// Pins the current model, or returns null if not loaded - every acquire must be matched by a release of
+//   the model, in a finally
+//--------------------------------------------------------------------------------------------------------
+
+  public NormModel acquire() {
+    while (true) {
+      NormModel theModel=mModel;
+      if ((theModel==null)||(theModel.tryAcquire()))
+        return theModel;
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getMemo
+//
+// This thread's inflection memo for inModel, or null if memos are off
+//--------------------------------------------------------------------------------------------------------
+
+  InflectionMemo getMemo(NormModel inModel) { return InflectionMemo.getMemo(mMemos,inModel); }
+
+//--------------------------------------------------------------------------------------------------------
+// publish
+//
+// Makes inModel current, taking over the reference its builder holds, and releases the old model,
+//   which closes once its last reader is done
+//--------------------------------------------------------------------------------------------------------
+
+  private void publish(NormModel inModel) {
+    NormModel theOldModel;
+    synchronized(mLoadLock) {
+      theOldModel=mModel;
+      mModel=inModel;
+    }
+    if (theOldModel!=null)
+      theOldModel.release();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// load
+//
+// Loads whatever of the char norm, inflections and compounds is not loaded yet.  Does nothing if all
+//   are loaded
+//--------------------------------------------------------------------------------------------------------
+
+  public void load(String inNormDir, boolean inLoadInflections, boolean inLoadCompounds) throws Exception {
+    // Should always be called in single threaded section, but protect just in case
+    synchronized(mLoadLock) {
+      NormModel theModel=mModel;
+      checkNormDir(theModel,inNormDir);
+      if ((theModel!=null)&&
+          ((!inLoadInflections)||(theModel.hasInflections()))&&
+          ((!inLoadCompounds)||(theModel.hasCompounds())))
+        return;
+      boolean theLoadInflections=(inLoadInflections)||((theModel!=null)&&(theModel.hasInflections()));
+      boolean theLoadCompounds=(inLoadCompounds)||((theModel!=null)&&(theModel.hasCompounds()));
+      publish(new NormModel(inNormDir,theLoadInflections,theLoadCompounds,true,mFstInflections));
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// checkNormDir
+//
+// Throws if a model is loaded from a dir other than inNormDir - dirs compared after resolving links
+//--------------------------------------------------------------------------------------------------------
+
+  public void checkNormDir(String inNormDir) { checkNormDir(mModel,inNormDir); }
+
+  private static void checkNormDir(NormModel inModel, String inNormDir) {
+    if ((inModel!=null)&&(!NormModel.isSameNormDir(inModel.getNormDir(),inNormDir)))
+      throw new RuntimeException("Norm loaded from "+inModel.getNormDir()+", cannot also load from "+inNormDir);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// clearTerms
+//
+// Drops the inflections and compounds, keeping the char norm
+//--------------------------------------------------------------------------------------------------------
+
+  public void clearTerms() {
+    synchronized(mLoadLock) {
+      NormModel theModel=mModel;
+      if ((theModel!=null)&&((theModel.hasInflections())||(theModel.hasCompounds())))
+        publish(new NormModel(theModel));
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// reload
+//
+// Builds a new model from inNormDir, with the same dictionaries as the current one, while readers carry
+//   on with the current one, then swaps it in.  If the load fails, the current model stays
+// returns the new model, unpinned
+//
+// Holds mLoadLock while building, so reloads and loads publish one at a time, in call order, and a
+//   reload cannot drop dictionaries a load added meanwhile.  Readers never take mLoadLock
+//--------------------------------------------------------------------------------------------------------
+
+  public NormModel reload(String inNormDir) throws Exception {
+    synchronized(mLoadLock) {
+      NormModel theModel=mModel;
+      boolean theLoadInflections=(theModel!=null)&&(theModel.hasInflections());
+      boolean theLoadCompounds=(theModel!=null)&&(theModel.hasCompounds());
+      NormModel theNewModel=new NormModel(inNormDir,theLoadInflections,theLoadCompounds,true,mFstInflections);
+      publish(theNewModel);
+      return theNewModel;
+    }
+  }
+
+  public NormModel reload() throws Exception {
+    synchronized(mLoadLock) {
+      NormModel theModel=mModel;
+      if (theModel==null)
+        throw new RuntimeException("Norm not loaded");
+      return reload(theModel.getNormDir());
+    }
+  }
+
+  // Reloads on a daemon thread, returned so the caller can join it
+  public Thread reloadInBackground(final String inNormDir) {
+    Thread theThread=new Thread("NormModelReload") {
+      public void run() {
+        try {
+          reload(inNormDir);
+        } catch (Throwable e) {
+          System.err.println(FormatUtils.formatException("Cannot reload norm from "+inNormDir,e));
+        }
+      }
+    };
+    theThread.setDaemon(true);
+    theThread.start();
+    return theThread;
+  }
+
+}
@@ -12,23 +12,38 @@ import gravel.utils.*;
 
 public class NormTokenizer implements Constants {
 
+//--------------------------------------------------------------------------------------------------------
+// NormTokenizer member vars
+//--------------------------------------------------------------------------------------------------------
+
+  // CharNormTable findTokens was given, or of the current NormModel, so a whole text is tokenized with 
+  //   one table without going back to the model for every char.  null outside findTokens
+  private CharNormTable  mCharNormTable;
+
 //--------------------------------------------------------------------------------------------------------
 // isWhitespace
 //--------------------------------------------------------------------------------------------------------
 
-  public boolean isWhitespace(char inChar) { return CharNorm.isWhitespace(inChar); } 
+  public boolean isWhitespace(char inChar) { 
+    CharNormTable theTable=mCharNormTable;
+    return (theTable!=null)?theTable.isWhitespace(inChar):CharNorm.isWhitespace(inChar); } 
 
 //--------------------------------------------------------------------------------------------------------
 // isLetter
 //--------------------------------------------------------------------------------------------------------
 
-  public boolean isLetter(char inChar) { return CharNorm.isLetter(inChar); }
+  public boolean isLetter(char inChar) { 
+    CharNormTable theTable=mCharNormTable;
+    return (theTable!=null)?theTable.isLetter(inChar):CharNorm.isLetter(inChar); }
 
 //--------------------------------------------------------------------------------------------------------
 // isUpperCaseLetter
 //--------------------------------------------------------------------------------------------------------
 
   public boolean isUpperCaseLetter(char inChar) { 
+    CharNormTable theTable=mCharNormTable;
+    if (theTable!=null)
+      return theTable.isUpperCaseLetter(inChar);
     return (CharNorm.isLetter(inChar)&&CharNorm.isUpperCaseLetter(inChar)); }
 
 //--------------------------------------------------------------------------------------------------------
@@ -36,13 +51,18 @@ public class NormTokenizer implements Constants {
 //--------------------------------------------------------------------------------------------------------
 
   public boolean isLowerCaseLetter(char inChar) { 
+    CharNormTable theTable=mCharNormTable;
+    if (theTable!=null)
+      return theTable.isLowerCaseLetter(inChar);
     return (CharNorm.isLetter(inChar)&&CharNorm.isLowerCaseLetter(inChar)); }
 
 //--------------------------------------------------------------------------------------------------------
 // isDigit
 //--------------------------------------------------------------------------------------------------------
 
-  public boolean isDigit(char inChar) { return CharNorm.isDigit(inChar); }
+  public boolean isDigit(char inChar) { 
+    CharNormTable theTable=mCharNormTable;
+    return (theTable!=null)?theTable.isDigit(inChar):CharNorm.isDigit(inChar); }
 
 //--------------------------------------------------------------------------------------------------------
 // isPunctuation
@@ -244,10 +264,33 @@ public class NormTokenizer implements Constants {
 
 //--------------------------------------------------------------------------------------------------------
 // findTokens
-//--------------------------------------------------------------------------------------------------------
+//
+// Finds at most inMaxNTokens tokens - if the text has more, stops there and returns inMaxNTokens+1, so 
+//   the token arrays need only hold inMaxNTokens
+// inTable is the table of the model the chars were normed with, else the current one
+//--------------------------------------------------------------------------------------------------------
+
+  public int findTokens(CharNormTable inTable, char[] inChars, int inCharN, int inNChars, 
+      int[] ioTokenCharNs, int[] ioTokenNCharss, int inMaxNTokens) {
+    mCharNormTable=inTable;
+    try {
+      return findTokensWithTable(inChars,inCharN,inNChars,ioTokenCharNs,ioTokenNCharss,inMaxNTokens);
+    } finally {
+      mCharNormTable=null;
+    }
+  }
+
+  public int findTokens(char[] inChars, int inCharN, int inNChars, 
+      int[] ioTokenCharNs, int[] ioTokenNCharss, int inMaxNTokens) {
+    return findTokens(CharNorm.getCharNormTable(),inChars,inCharN,inNChars,ioTokenCharNs,ioTokenNCharss,
+        inMaxNTokens); }
 
   public int findTokens(char[] inChars, int inCharN, int inNChars, 
       int[] ioTokenCharNs, int[] ioTokenNCharss) {
+    return findTokens(inChars,inCharN,inNChars,ioTokenCharNs,ioTokenNCharss,Integer.MAX_VALUE); }
+
+  private int findTokensWithTable(char[] inChars, int inCharN, int inNChars, 
+      int[] ioTokenCharNs, int[] ioTokenNCharss, int inMaxNTokens) {
 
     int theCharN=inCharN;
     int theEndCharN=inCharN+inNChars;
@@ -266,6 +309,8 @@ public class NormTokenizer implements Constants {
       // If reached end of buffer, there are no more tokens
       if (theCharN==theEndCharN)
         break;
+      if (theTokenN==inMaxNTokens)
+        return inMaxNTokens+1;
   
       if (ioTokenCharNs!=null)
         ioTokenCharNs[theTokenN]=theCharN;
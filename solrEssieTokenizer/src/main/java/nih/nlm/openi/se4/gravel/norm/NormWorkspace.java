@@ -0,0 +1,155 @@
+//--------------------------------------------------------------------------------------------------------
+// NormWorkspace.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.norm;
+
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// NormWorkspace
+//
+// Buffers for TermNorm.getNormTokens, kept from call to call, and the norm tokens of the last call, as
+//   columns rather than an object per token
+//
+// Norm token i is NormChars[NormCharN(i)..NormEndCharN(i)), normed from the raw chars
+//   [FromCharN(i)..FromEndCharN(i)), and RuleFlags(i) holds the kNorm..Flag of each rule that changed it
+//
+// Not thread safe - keep one per thread.  The buffers only grow, to fit the biggest text normed so far
+//--------------------------------------------------------------------------------------------------------
+
+public class NormWorkspace implements Constants {
+
+//--------------------------------------------------------------------------------------------------------
+// NormWorkspace consts
+//--------------------------------------------------------------------------------------------------------
+
+  private static final int       kInitialNChars=256;
+
+//--------------------------------------------------------------------------------------------------------
+// NormWorkspace member vars
+//--------------------------------------------------------------------------------------------------------
+
+  // Char norm of the raw text, and the raw char each norm char came from
+  char[]          mToChars;
+  int[]           mFromForToCharNs;
+
+  // Thick tokens found in the char norm
+  NormTokenizer   mTokenizer;
+  int[]           mTokenCharNs;
+  int[]           mTokenNCharss;
+
+  // Norm token columns
+  char[]          mNormChars;
+  int[]           mNormCharNs;
+  int[]           mNormEndCharNs;
+  int[]           mFromCharNs;
+  int[]           mFromEndCharNs;
+  int[]           mRuleFlags;
+  int             mNTokens;
+
+//--------------------------------------------------------------------------------------------------------
+// NormWorkspace
+//--------------------------------------------------------------------------------------------------------
+
+  public NormWorkspace() { this(new NormTokenizer()); }
+
+  // Tokenizer to find thick tokens with, eg a DfaNormTokenizer
+  public NormWorkspace(NormTokenizer inTokenizer) {
+    mToChars=new char[kInitialNChars];
+    mFromForToCharNs=new int[kInitialNChars];
+    mTokenizer=inTokenizer;
+    mTokenCharNs=new int[kInitialNChars/4+16];
+    mTokenNCharss=new int[kInitialNChars/4+16];
+    mNormChars=new char[kInitialNChars];
+    mNormCharNs=new int[kInitialNChars/4+16];
+    mNormEndCharNs=new int[kInitialNChars/4+16];
+    mFromCharNs=new int[kInitialNChars/4+16];
+    mFromEndCharNs=new int[kInitialNChars/4+16];
+    mRuleFlags=new int[kInitialNChars/4+16];
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// gets
+//--------------------------------------------------------------------------------------------------------
+
+  public int getNTokens() { return mNTokens; }
+
+  public char[] getNormChars() { return mNormChars; }
+  public int getNormCharN(int inTokenN) { return mNormCharNs[inTokenN]; }
+  public int getNormEndCharN(int inTokenN) { return mNormEndCharNs[inTokenN]; }
+  public int getNormNChars(int inTokenN) { return mNormEndCharNs[inTokenN]-mNormCharNs[inTokenN]; }
+
+  public int getFromCharN(int inTokenN) { return mFromCharNs[inTokenN]; }
+  public int getFromEndCharN(int inTokenN) { return mFromEndCharNs[inTokenN]; }
+  public int getFromNChars(int inTokenN) { return mFromEndCharNs[inTokenN]-mFromCharNs[inTokenN]; }
+
+  public int getRuleFlags(int inTokenN) { return mRuleFlags[inTokenN]; }
+
+  public String getNormToken(int inTokenN) {
+    return new String(mNormChars,mNormCharNs[inTokenN],getNormNChars(inTokenN)); }
+
+  public String[] getNormTokens() {
+    String[] theNormTokens=new String[mNTokens];
+    for (int i=0; i<mNTokens; i++)
+      theNormTokens[i]=getNormToken(i);
+    return theNormTokens;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// copyTokens
+//
+// Packs the norm tokens into the given arrays, the way the packed TermNorm.getNormTokens does
+// ioTokenCharNs and ioTokenNChars may be null - returns number of norm tokens
+//--------------------------------------------------------------------------------------------------------
+
+  public int copyTokens(char[] ioNormChars, int[] ioNormCharNs, int[] ioNormNChars,
+      int[] ioTokenCharNs, int[] ioTokenNChars) {
+    if (mNTokens>0)
+      System.arraycopy(mNormChars,0,ioNormChars,0,mNormEndCharNs[mNTokens-1]);
+    for (int i=0; i<mNTokens; i++) {
+      ioNormCharNs[i]=mNormCharNs[i];
+      ioNormNChars[i]=mNormEndCharNs[i]-mNormCharNs[i];
+      if (ioTokenCharNs!=null)
+        ioTokenCharNs[i]=mFromCharNs[i];
+      if (ioTokenNChars!=null)
+        ioTokenNChars[i]=mFromEndCharNs[i]-mFromCharNs[i];
+    }
+    return mNTokens;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// ensure capacity
+//--------------------------------------------------------------------------------------------------------
+
+  private static int grow(int inSize, int inNeeded) { return Math.max(inNeeded,inSize+(inSize>>1)); }
+
+  void ensureToCapacity(int inNToChars) {
+    if (mToChars.length<inNToChars) {
+      int theSize=grow(mToChars.length,inNToChars);
+      mToChars=new char[theSize];
+      mFromForToCharNs=new int[theSize];
+    }
+  }
+
+  void ensureTokenCapacity(int inNTokens) {
+    if (mTokenCharNs.length<inNTokens) {
+      int theSize=grow(mTokenCharNs.length,inNTokens);
+      mTokenCharNs=new int[theSize];
+      mTokenNCharss=new int[theSize];
+    }
+  }
+
+  void ensureNormCapacity(int inNNormChars, int inNTokens) {
+    if (mNormChars.length<inNNormChars)
+      mNormChars=new char[grow(mNormChars.length,inNNormChars)];
+    if (mNormCharNs.length<inNTokens) {
+      int theSize=grow(mNormCharNs.length,inNTokens);
+      mNormCharNs=new int[theSize];
+      mNormEndCharNs=new int[theSize];
+      mFromCharNs=new int[theSize];
+      mFromEndCharNs=new int[theSize];
+      mRuleFlags=new int[theSize];
+    }
+  }
+}
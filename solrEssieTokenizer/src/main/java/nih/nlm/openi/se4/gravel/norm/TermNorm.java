@@ -10,7 +10,6 @@ import gravel.store.data.*;
 import gravel.store.hash.*;
 import gravel.store.var.*;
 import gravel.utils.*;
-import gravel.xml.*;
 
 //--------------------------------------------------------------------------------------------------------
 // TermNorm
@@ -29,246 +28,78 @@ public class TermNorm implements Constants {
   public static final int        kNormInflectionsFlag=16;  
   public static final int        kFullNorm=kNormHyphensFlag|kNormNumbersFlag|kNormRunsOfPunctFlag|
                                      kNormPossessivesFlag|kNormInflectionsFlag;  
-
-  private static final Object    kLoadLock=new Object();    // Used as sync lock, so keep private
+  public static final int        kDecodeEscapesFlag=32;     // Input option, not part of kFullNorm
 
 //--------------------------------------------------------------------------------------------------------
-// TermNorm class vars
+// gets
+//
+// Stores of the current NormModel, null if not loaded, or if inflections in FST - not pinned, so may be
+//   closed by a reload while in use.  Use NormModel.acquire to read them safely
 //--------------------------------------------------------------------------------------------------------
 
-  private static ByteDataHashRAMStore  gInflectionNorms;      // preferred form for inflection variants
-  private static ByteDataHashRAMStore  gInflectionVariants;   // all inflection variants (including norm form)
-  private static VarRAMStore           gInflectionMap;        // index of norm for each variant
-  private static VarDataRAMStore       gInflectionInverseMap; // indexes of all variants for each norm
+  public static ByteDataHashStore getInflectionNorms() { 
+    NormModel theModel=NormModel.getModel();
+    return (theModel==null)?null:theModel.getInflectionNorms(); 
+  }
 
-//--------------------------------------------------------------------------------------------------------
-// gets
-//--------------------------------------------------------------------------------------------------------
+  public static ByteDataHashStore getInflectionVariants() {
+    NormModel theModel=NormModel.getModel();
+    return (theModel==null)?null:theModel.getInflectionVariants(); 
+  }
 
-  public static ByteDataHashRAMStore getInflectionNorms() { return gInflectionNorms; }
-  public static ByteDataHashRAMStore getInflectionVariants() { return gInflectionVariants; }
-  public static VarRAMStore getInflectionMap() { return gInflectionMap; }
-  public static VarDataRAMStore getInflectionInverseMap() { return gInflectionInverseMap; }
+  public static VarStore getInflectionMap() {
+    NormModel theModel=NormModel.getModel();
+    return (theModel==null)?null:theModel.getInflectionMap(); 
+  }
+
+  public static VarDataStore getInflectionInverseMap() {
+    NormModel theModel=NormModel.getModel();
+    return (theModel==null)?null:theModel.getInflectionInverseMap(); 
+  }
 
 //--------------------------------------------------------------------------------------------------------
 // clear
+//
+// Drops the inflections, and the compounds built on them, keeping the char norm
 //--------------------------------------------------------------------------------------------------------
 
-  public static void clear() {
-    synchronized(kLoadLock) {
-      if (gInflectionNorms!=null) {
-        gInflectionNorms.close();
-        gInflectionVariants.close();
-        gInflectionMap.close();
-        gInflectionInverseMap.close();
-        gInflectionNorms=null;
-        gInflectionVariants=null;
-        gInflectionMap=null;
-        gInflectionInverseMap=null;
-      }
-    }
-  }
+  public static void clear() { NormModel.clearTerms(); }
 
 //--------------------------------------------------------------------------------------------------------
 // isLoaded
 //--------------------------------------------------------------------------------------------------------
 
   public static boolean isLoaded() {
-    return (gInflectionNorms!=null); }
+    NormModel theModel=NormModel.getModel();
+    return ((theModel!=null)&&(theModel.hasInflections())); 
+  }
 
 //--------------------------------------------------------------------------------------------------------
 // load
 //--------------------------------------------------------------------------------------------------------
 
-  public static void load(String inNormDir) throws Exception {   
-    CharNorm.load(inNormDir);
-
-    // Should always be called in single threaded section, but protect just in case
-    synchronized(kLoadLock) {
-      if (!isLoaded())  {
-        gInflectionNorms=new ByteDataHashRAMStore();
-        gInflectionVariants=new ByteDataHashRAMStore();
-        gInflectionMap=new VarRAMStore();
-        gInflectionInverseMap=null;
-        
-        X2OParser.xmlFileToObject(new X2OBuilder() {
-          public Object buildObject(X2OData inX2OData) throws Exception {
-            String theTagname=inX2OData.getTagname();
-            if ((theTagname.equals("norm"))||(theTagname.equals("variant")))
-              return inX2OData.getText();
-            else if (theTagname.equals("inflection")) {
-              String theNorm=(String) inX2OData.getFirstChildElmt("norm");
-              gInflectionNorms.appendUTF8(theNorm);
-              long theNormDx=gInflectionNorms.getSize()-1;
-              gInflectionVariants.appendUTF8(theNorm);
-              gInflectionMap.appendVar(theNormDx);
-              Object[] theVariants=inX2OData.getChildElmts("variant");
-              for (int i=0; i<theVariants.length; i++) {
-                gInflectionVariants.appendUTF8((String) theVariants[i]);
-                gInflectionMap.appendVar(theNormDx);
-              }
-            }
-            return null;
-          }
-        },inNormDir+"/Inflections.xml");
-    
-        gInflectionNorms.compact();
-        gInflectionVariants.compact();
-        gInflectionMap.compact();
-        gInflectionInverseMap=MapUtils.invertNTo1Map(gInflectionMap,gInflectionNorms.getSize(),true);
-      }
-    }
-  }
+  public static void load(String inNormDir) throws Exception { NormModel.load(inNormDir,true,false); }
 
 //--------------------------------------------------------------------------------------------------------
-// setInflections
+// dropChars
+//
+// Drops ioChars[inCharN..inDropEndCharN) from token ending at inEndCharN - returns new end of token
 //--------------------------------------------------------------------------------------------------------
 
-  static void setInflections(
-      ByteDataHashRAMStore  inInflectionNorms, 
-      ByteDataHashRAMStore  inInflectionVariants, 
-      VarRAMStore           inInflectionMap, 
-      VarDataRAMStore       inInflectionInverseMap) {
-    synchronized(kLoadLock) {
-      if (gInflectionNorms!=null) {
-        gInflectionNorms.close();
-        gInflectionVariants.close();
-        gInflectionMap.close();
-        gInflectionInverseMap.close();
-      }
-      gInflectionNorms=inInflectionNorms;
-      gInflectionVariants=inInflectionVariants;
-      gInflectionMap=inInflectionMap;
-      gInflectionInverseMap=inInflectionInverseMap;
-    }
+  private static int dropChars(char[] ioChars, int inCharN, int inDropEndCharN, int inEndCharN) {
+    System.arraycopy(ioChars,inDropEndCharN,ioChars,inCharN,inEndCharN-inDropEndCharN);
+    return inEndCharN-(inDropEndCharN-inCharN);
   }
 
-//--------------------------------------------------------------------------------------------------------
-// Inner class Info
-//--------------------------------------------------------------------------------------------------------
-
-  static class Info {
-    
-    char[]   mTokenChars;
-    int      mCharN;
-    int      mEndCharN;
-    int[]    mFromForToCharNs;
-    
-    Info(char[] inTokenChars, int inCharN, int inEndCharN, int[] inFromForToCharNs) {
-      mTokenChars=inTokenChars;
-      mCharN=inCharN;
-      mEndCharN=inEndCharN;
-      mFromForToCharNs=inFromForToCharNs;
-    }
-    
-    char getFirstChar() { return mTokenChars[mCharN]; }
-    char getLastChar() { return mTokenChars[mEndCharN-1]; }
-    char getChar(int inCharN) { 
-      if ((inCharN<mCharN)||(inCharN>=mEndCharN))
-        throw new RuntimeException("CharN, "+inCharN+", outside range, "+mCharN+"-"+mEndCharN);
-      return mTokenChars[inCharN]; 
-    }
-
-    String getPartialToken(int inCharN, int inEndCharN) { 
-      if ((inCharN<mCharN)||(inCharN>=mEndCharN))
-        throw new RuntimeException("CharN, "+inCharN+", outside range, "+mCharN+"-"+mEndCharN);
-      if ((inEndCharN<=mCharN)||(inEndCharN>mEndCharN))
-        throw new RuntimeException("EndCharN, "+inEndCharN+", outside range, "+mCharN+"-"+mEndCharN);
-      return new String(mTokenChars,inCharN,inEndCharN-inCharN); 
-    }
-    String getToken() { return getPartialToken(mCharN,mEndCharN); }
-    
-    int getCharN() { return mCharN; }
-    int getEndCharN() { return mEndCharN; }
-    int getNChars() { return getEndCharN()-getCharN(); }
-
-    int getFromCharN(int inCharN) { return mFromForToCharNs[inCharN]; }
-    int getFromCharN() { return mFromForToCharNs[mCharN]; }
-    int getFromEndCharN() { return mFromForToCharNs[mEndCharN]; }
-    int getFromNChars() { return getFromEndCharN()-getFromCharN(); }
-
-    int indexOf(char inChar, int inCharN, int inEndCharN) {
-      for (int i=inCharN; i<inEndCharN; i++)
-        if (mTokenChars[i]==inChar)
-          return i;
-      return kNotFound;
-    }
-    int indexOf(char inChar, int inCharN) { return indexOf(inChar,inCharN,mEndCharN); }
-    int indexOf(char inChar) { return indexOf(inChar,mCharN); }
-
-    int lastIndexOf(char inChar, int inCharN, int inEndCharN) {
-      for (int i=inEndCharN-1; i>=inCharN; i--)
-        if (mTokenChars[i]==inChar)
-          return i;
-      return kNotFound;
-    }
-    int lastIndexOf(char inChar, int inEndCharN) { return lastIndexOf(inChar,mCharN,inEndCharN); }
-    int lastIndexOf(char inChar) { return lastIndexOf(inChar,mEndCharN); }
-    
-    void dropChars(int inCharN, int inEndCharN) {
-      if ((inCharN<mCharN)||(inCharN>=mEndCharN))
-        throw new RuntimeException("Drop start out of range: "+inCharN+":"+mCharN+"-"+mEndCharN+"  "+getChar(inCharN)+":"+getToken());
-      if ((inEndCharN<=mCharN)||(inCharN>mEndCharN))
-        throw new RuntimeException("Drop end out of range: "+inEndCharN+":"+mCharN+"-"+mEndCharN+"  "+getChar(inEndCharN)+":"+getToken());
-      if ((inCharN>=inEndCharN))
-        throw new RuntimeException("Drop start greater or equal end: "+inCharN+">="+inEndCharN);
-      int theNDropped=inEndCharN-inCharN;
-      for (int i=inEndCharN; i<mEndCharN; i++) {
-        mTokenChars[i-theNDropped]=mTokenChars[i];
-        mFromForToCharNs[i-theNDropped]=mFromForToCharNs[i];
-      }
-      mFromForToCharNs[mEndCharN-theNDropped]=mFromForToCharNs[mEndCharN];
-      mEndCharN-=theNDropped;
-    }
-    void dropChar(int inCharN) { dropChars(inCharN,inCharN+1); }
-    
-    Info split(int inCharN) {
-      if ((inCharN<=mCharN)||(inCharN>=mEndCharN))
-        throw new RuntimeException("Split out of range: "+inCharN+":"+mCharN+"-"+mEndCharN+"  "+getChar(inCharN)+":"+getToken());
-      int theEndCharN=mEndCharN;
-      mEndCharN=inCharN;
-      return new Info(mTokenChars,inCharN,theEndCharN,mFromForToCharNs); 
-    }
-    
-    void merge(Info inInfo) {
-      int theNewEndpos=mEndCharN+inInfo.getNChars();
-      if (mEndCharN<inInfo.getCharN()) {
-        int theOffset=inInfo.getCharN()-mEndCharN;
-        for (int i=mEndCharN; i<theNewEndpos; i++) {
-          mTokenChars[i]=inInfo.getChar(theOffset+i);
-          mFromForToCharNs[i]=inInfo.getFromCharN(theOffset+i);
-        }
-        mFromForToCharNs[theNewEndpos]=inInfo.getFromCharN(theOffset+theNewEndpos);
-      }
-      mEndCharN=theNewEndpos;
-    }
-   
-    void replaceToken(String inToken) {
-      if (inToken.length()>getNChars())
-        throw new RuntimeException("Replace with larger token: "+getToken()+" --> "+inToken);
-      for (int i=0; i<inToken.length(); i++) 
-        mTokenChars[mCharN+i]=inToken.charAt(i);
-      int theEndCharN=mCharN+inToken.length();
-      if (theEndCharN<mEndCharN)
-        dropChars(theEndCharN,mEndCharN);
-    }
-    
-    void replacePartialToken(String inPartialToken, int inCharN, int inEndCharN) {
-      if (inPartialToken.length()>(inEndCharN-inCharN))
-        throw new RuntimeException("Replace with larger partial token: "+
-            getPartialToken(inCharN,inEndCharN)+" --> "+inPartialToken);
-      for (int i=0; i<inPartialToken.length(); i++) 
-        mTokenChars[inCharN+i]=inPartialToken.charAt(i);
-      int thePartEndCharN=inCharN+inPartialToken.length();
-      if (thePartEndCharN<inEndCharN)
-        dropChars(thePartEndCharN,inEndCharN);
-    }
-    
-    void replaceChar(char inNewChar, int inCharN) {
-      mTokenChars[inCharN]=inNewChar;
-    }
+  // Drops every inChar in one sweep, so long runs of commas or apos stay linear
+  private static int dropAll(char[] ioChars, int inCharN, int inEndCharN, char inChar) {
+    int theToCharN=inCharN;
+    for (int i=inCharN; i<inEndCharN; i++)
+      if (ioChars[i]!=inChar)
+        ioChars[theToCharN++]=ioChars[i];
+    return theToCharN;
   }
-  
+
 //--------------------------------------------------------------------------------------------------------
 // normalizeHyphens
 //
@@ -282,144 +113,111 @@ public class TermNorm implements Constants {
 // In case 3, collapse to single leading hyphen and remove all trailing hyphens
 //--------------------------------------------------------------------------------------------------------
 
-  private static void normalizeHyphens(ArrayList inInfoList, int inIndex, Info inInfo) {
+  private static int normalizeHyphens(CharNormTable inTable, char[] ioChars, int inCharN, int inEndCharN) {
 
     // If no hyphens, quick fail
-    boolean theHasLeading=(inInfo.getFirstChar()=='-');
-    boolean theHasTrailing=(inInfo.getLastChar()=='-');
+    boolean theHasLeading=(ioChars[inCharN]=='-');
+    boolean theHasTrailing=(ioChars[inEndCharN-1]=='-');
     if ((!theHasLeading)&&(!theHasTrailing))
-      return;
+      return inEndCharN;
 
     // Reduce multiple leading hyphens to single leading hyphen
-    int theCharN=inInfo.getCharN();
-    while ((inInfo.getNChars()>1)&&(inInfo.getChar(theCharN+1)=='-'))
-      inInfo.dropChar(theCharN+1);
+    int theRunEndCharN=inCharN+1;
+    while ((theRunEndCharN<inEndCharN)&&(ioChars[theRunEndCharN]=='-'))
+      theRunEndCharN++;
+    int theEndCharN=dropChars(ioChars,inCharN+1,theRunEndCharN,inEndCharN);
     
     // If reduced token to single char, then it was case 1, all hyphens, and we're done
-    if (inInfo.getNChars()==1)
-      return;
+    if (theEndCharN-inCharN==1)
+      return theEndCharN;
     
     // Must be case 2 or 3, so remove all trailing hyphens
-    while (inInfo.getLastChar()=='-')
-      inInfo.dropChar(inInfo.getEndCharN()-1);
+    while (ioChars[theEndCharN-1]=='-')
+      theEndCharN--;
 
     // If no leading hyphens, we're done
     if (!theHasLeading)
-      return;
+      return theEndCharN;
 
     // If first non-hyphen char is a digit (NormTokenizer does not recognize numbers starting with decimal pt), 
     //   then it was case 3, number with hyphens, and we're done
-    char theChar=inInfo.getChar(theCharN+1);
-    if (CharNorm.isDigit(theChar))
-      return;
+    if (inTable.isDigit(ioChars[inCharN+1]))
+      return theEndCharN;
     
     // Case 2, word with hyphens, drop final leading hyphen
-    inInfo.replaceChar(inInfo.getChar(theCharN+1),theCharN);
-    inInfo.dropChar(theCharN+1);
-  }
-
-  private static void normalizeHyphens(ArrayList inInfoList) {
-    for (int i=inInfoList.size()-1; i>=0; i--) {
-      Info theInfo=(Info) inInfoList.get(i);
-      normalizeHyphens(inInfoList,i,theInfo);
-    }
+    return dropChars(ioChars,inCharN,inCharN+1,theEndCharN);
   }
 
 //--------------------------------------------------------------------------------------------------------
-// normalizeNumbers
+// normalizeNumber
+//
+// returns new end of token, or kNotFound if token is dropped altogether
 //--------------------------------------------------------------------------------------------------------
 
-  private static void normalizeNumbers(ArrayList inInfoList, int inIndex, Info inInfo) {
+  private static int normalizeNumber(CharNormTable inTable, char[] ioChars, int inCharN, int inEndCharN) {
     
     // If not a number, bail
     // Numbers start with a digit with an optional leading hyphen 
-    char theFirstChar=inInfo.getFirstChar();
+    char theFirstChar=ioChars[inCharN];
     if (theFirstChar!='-') {
-      if (!CharNorm.isDigit(theFirstChar))
-        return;
+      if (!inTable.isDigit(theFirstChar))
+        return inEndCharN;
     } else {
-      if (inInfo.getNChars()==1)
-        return;
-      char theSecondChar=inInfo.getChar(inInfo.getCharN()+1);
-      if (!CharNorm.isDigit(theSecondChar))
-        return;
+      if (inEndCharN-inCharN==1)
+        return inEndCharN;
+      if (!inTable.isDigit(ioChars[inCharN+1]))
+        return inEndCharN;
     }
 
     // Remove trailing 0 after decimal pt
-    if (inInfo.lastIndexOf('.')>0)
-      while (inInfo.getLastChar()=='0')
-        inInfo.dropChar(inInfo.getEndCharN()-1);
+    int theEndCharN=inEndCharN;
+    for (int i=inCharN+1; i<inEndCharN; i++)
+      if (ioChars[i]=='.') {
+        while (ioChars[theEndCharN-1]=='0')
+          theEndCharN--;
+        break;
+      }
        
     // Drop trailing decimal pt
-    if (inInfo.getLastChar()=='.')  
-      inInfo.dropChar(inInfo.getEndCharN()-1);
+    if (ioChars[theEndCharN-1]=='.')  
+      theEndCharN--;
     
-    // Remove all commas
-    int theCharN=inInfo.lastIndexOf(',');
-    while (theCharN!=kNotFound) {
-      if (inInfo.getNChars()==1) {  
-        inInfoList.remove(inIndex);
-        return;
-      } else if (theCharN==inInfo.getCharN()) {
-        inInfo.replaceChar(inInfo.getChar(theCharN+1),theCharN);
-        inInfo.dropChar(theCharN+1);
-        return;
-      } else {
-        inInfo.dropChar(theCharN);
-        theCharN=inInfo.lastIndexOf(',');
-      }
-    }
-  }
-
-  private static void normalizeNumbers(ArrayList inInfoList) {
-    for (int i=inInfoList.size()-1; i>=0; i--) {
-      Info theInfo=(Info) inInfoList.get(i);
-      normalizeNumbers(inInfoList,i,theInfo);
+    // Remove all commas - a leading comma takes the whole token with it if nothing else is left
+    theEndCharN=dropAll(ioChars,inCharN+1,theEndCharN,',');
+    if (ioChars[inCharN]==',') {
+      if (theEndCharN-inCharN==1)
+        return kNotFound;
+      return dropChars(ioChars,inCharN,inCharN+1,theEndCharN);
     }
+    return theEndCharN;
   }
 
 //--------------------------------------------------------------------------------------------------------
-// normalizePossessives
+// normalizePossessive
 //--------------------------------------------------------------------------------------------------------
 
-  private static void normalizePossessive(ArrayList inInfoList, int inIndex, Info inInfo) {
+  private static int normalizePossessive(CharNormTable inTable, char[] ioChars, int inCharN, int inEndCharN) {
     
     // If not a word, bail
     // Words start with a letter or apos
-    char theFirstChar=inInfo.getFirstChar();
-    if ((!CharNorm.isLetter(theFirstChar))&&(theFirstChar!='\''))
-      return;
+    char theFirstChar=ioChars[inCharN];
+    if ((!inTable.isLetter(theFirstChar))&&(theFirstChar!='\''))
+      return inEndCharN;
 
     // Remove trailing 's
-    int theEndCharN=inInfo.getEndCharN();
-    if ((inInfo.getNChars()>2)&&(inInfo.getChar(theEndCharN-2)=='\'')&&(inInfo.getChar(theEndCharN-1)=='s')) 
-      inInfo.dropChars(theEndCharN-2,theEndCharN);
-
-    // Remove all other apos
-    int theCharN=inInfo.lastIndexOf('\'');
-    while (theCharN!=kNotFound) {
-      if (inInfo.getNChars()==1) {  
-        return; // word was all apos - norm to single apos
-      } else if (theCharN==inInfo.getCharN()) {
-        inInfo.replaceChar(inInfo.getChar(theCharN+1),theCharN);
-        inInfo.dropChar(theCharN+1);
-        return;
-      } else {
-        inInfo.dropChar(theCharN);
-        theCharN=inInfo.lastIndexOf('\'');
-      }
-    }
-  }
-
-  private static void normalizePossessives(ArrayList inInfoList) {
-    for (int i=inInfoList.size()-1; i>=0; i--) {
-      Info theInfo=(Info) inInfoList.get(i);
-      normalizePossessive(inInfoList,i,theInfo);
-    }
+    int theEndCharN=inEndCharN;
+    if ((theEndCharN-inCharN>2)&&(ioChars[theEndCharN-2]=='\'')&&(ioChars[theEndCharN-1]=='s')) 
+      theEndCharN-=2;
+
+    // Remove all other apos - if word was all apos, norm to single apos
+    theEndCharN=dropAll(ioChars,inCharN+1,theEndCharN,'\'');
+    if ((ioChars[inCharN]=='\'')&&(theEndCharN-inCharN>1))
+      theEndCharN=dropChars(ioChars,inCharN,inCharN+1,theEndCharN);
+    return theEndCharN;
   }
 
 //--------------------------------------------------------------------------------------------------------
-// normalizeRunsOfPunctuation
+// normalizeRunOfPunctuation
 // Keep:
 //   .
 //   ..
@@ -428,44 +226,39 @@ public class TermNorm implements Constants {
 // 5+ char runs norm to 4 char run
 //--------------------------------------------------------------------------------------------------------
 
-  private static void normalizeRunsOfPunctuation(ArrayList inInfoList, int inIndex, Info inInfo) {
+  private static int normalizeRunOfPunctuation(CharNormTable inTable, char[] ioChars, int inCharN, int inEndCharN) {
     
     // If not punctuation, bail
-    int theCharN=inInfo.getCharN();
-    char theFirstChar=inInfo.getChar(theCharN);
-    if (!CharNorm.isPunctuation(theFirstChar))
-      return;
+    char theFirstChar=ioChars[inCharN];
+    if (!inTable.isPunctuation(theFirstChar))
+      return inEndCharN;
     
     // Will norm runs of 5+ punctuation marks into a run of 4
-    int theNChars=inInfo.getNChars();
-    if (theNChars<5)
-      return;
+    if (inEndCharN-inCharN<5)
+      return inEndCharN;
     
     // Make sure this is a run
-    for (int i=1; i<theNChars; i++)
-      if (inInfo.getChar(theCharN+i)!=theFirstChar)
-        return;
+    for (int i=inCharN+1; i<inEndCharN; i++)
+      if (ioChars[i]!=theFirstChar)
+        return inEndCharN;
 
     // Remove trailing punctuation
-    inInfo.dropChars(theCharN+4,inInfo.getEndCharN());
-  }
-
-  private static void normalizeRunsOfPunctuation(ArrayList inInfoList) {
-    for (int i=inInfoList.size()-1; i>=0; i--) {
-      Info theInfo=(Info) inInfoList.get(i);
-      normalizeRunsOfPunctuation(inInfoList,i,theInfo);
-    }
+    return inCharN+4;
   }
 
 //--------------------------------------------------------------------------------------------------------
 // normalizeInflection
 //--------------------------------------------------------------------------------------------------------
 
-  private static String normalizeInflection(String inToken) {
-    if (gInflectionMap!=null) {    
-      long theIndex=gInflectionVariants.getIndex(inToken);
+  static String normalizeInflection(NormModel inModel, String inToken) {
+    if ((inModel!=null)&&(inModel.getInflectionFst()!=null)) {
+      String theNorm=inModel.getInflectionFst().getNorm(inToken);
+      if ((theNorm!=null)&&(!theNorm.equals(inToken)))
+        return theNorm;
+    } else if ((inModel!=null)&&(inModel.hasInflections())) {    
+      long theIndex=inModel.getInflectionVariantsIndex().getIndex(inToken);
       if (theIndex!=kNotFound) {
-        String theNorm=gInflectionNorms.getUTF8(gInflectionMap.getLong(theIndex));
+        String theNorm=inModel.getInflectionNorms().getUTF8(inModel.getInflectionMap().getLong(theIndex));
         if (!theNorm.equals(inToken)) 
           return theNorm;
       }
@@ -473,46 +266,97 @@ public class TermNorm implements Constants {
     return null;
   }
 
-  private static void normalizeInflection(Info inInfo) {
-    int theCharN=inInfo.getCharN();
-    while (theCharN<inInfo.getEndCharN()) {
-      while ((theCharN<inInfo.getEndCharN())&&(!CharNorm.isLetter(inInfo.getChar(theCharN))))
-        theCharN++;
-      if (theCharN<inInfo.getEndCharN()) {
-        int theEndCharN=theCharN+1;
-        while ((theEndCharN<inInfo.getEndCharN())&&(CharNorm.isLetter(inInfo.getChar(theEndCharN))))
-          theEndCharN++;
-        String theNorm=normalizeInflection(inInfo.getPartialToken(theCharN,theEndCharN));
-        if (theNorm!=null) {
-          inInfo.replacePartialToken(theNorm,theCharN,theEndCharN);             
-          theEndCharN=theCharN+theNorm.length();
-        }
-        theCharN=theEndCharN+1;
+  // Norms each run of letters in the token, compacting as it goes, so each char is moved at most once
+  // Sets kNormInflectionsFlag in ioRuleFlags[inTokenN] if any run is normed
+  // Runs are looked up through ioMemo, if not null
+  private static int normalizeInflection(NormModel inModel, InflectionMemo ioMemo, char[] ioChars, 
+      int inCharN, int inEndCharN, int[] ioRuleFlags, int inTokenN) {
+    if ((inModel==null)||(!inModel.hasInflections()))
+      return inEndCharN;    
+    CharNormTable theTable=inModel.getCharNormTable();
+    int theToCharN=inCharN;
+    int theCharN=inCharN;
+    while (theCharN<inEndCharN) {
+      if (!theTable.isLetter(ioChars[theCharN])) {
+        ioChars[theToCharN++]=ioChars[theCharN++];
+        continue;
       }
+      int theRunEndCharN=theCharN+1;
+      while ((theRunEndCharN<inEndCharN)&&(theTable.isLetter(ioChars[theRunEndCharN])))
+        theRunEndCharN++;
+      int theRunNChars=theRunEndCharN-theCharN;
+      String theNorm;
+      if (ioMemo!=null)
+        theNorm=ioMemo.normalizeInflection(inModel,ioChars,theCharN,theRunNChars);
+      else
+        theNorm=normalizeInflection(inModel,new String(ioChars,theCharN,theRunNChars));
+      if (theNorm!=null) {
+        if (theNorm.length()>theRunNChars)
+          throw new RuntimeException("Replace with larger partial token: "+
+              (new String(ioChars,theCharN,theRunNChars))+" --> "+theNorm);
+        theNorm.getChars(0,theNorm.length(),ioChars,theToCharN);
+        theToCharN+=theNorm.length();
+        ioRuleFlags[inTokenN]|=kNormInflectionsFlag;
+      } else {
+        System.arraycopy(ioChars,theCharN,ioChars,theToCharN,theRunNChars);
+        theToCharN+=theRunNChars;
+      }
+      theCharN=theRunEndCharN;
     }
+    return theToCharN;
   }
 
-  private static void normalizeInflections(ArrayList inInfoList) {
-    if (gInflectionMap==null)
-      return;    
-    for (int i=inInfoList.size()-1; i>=0; i--) {
-      Info theInfo=(Info) inInfoList.get(i);
-      normalizeInflection(theInfo);
-    }
-  }
-
-//--------------------------------------------------------------------------------------------------------
-// showInfos
 //--------------------------------------------------------------------------------------------------------
-/*
-  private static void showInfos(ArrayList inInfoList) {
-    for (int i=0; i<inInfoList.size(); i++) {
-      Info theInfo=(Info) inInfoList.get(i);     
-      System.out.print(theInfo.getToken()+' ');
+// normToken
+//
+// Applies every rule in inNormStrategyFlags to norm token inTokenN of ioWorkspace, already copied to 
+//   NormChars[NormCharN..inEndCharN), in one go, in the order the rules have always been applied.  Rules 
+//   only look inside their token, and never move its start, so each token can be finished before moving 
+//   on to the next.  Sets NormEndCharN and RuleFlags for the token.  Chars are classed by the table of
+//   inModel, and inflections come from inModel, through ioMemo if not null
+// returns false if token is dropped altogether
+//--------------------------------------------------------------------------------------------------------
+
+  private static boolean normToken(NormModel inModel, InflectionMemo ioMemo, NormWorkspace ioWorkspace, 
+      int inTokenN, int inEndCharN, int inNormStrategyFlags) {
+    CharNormTable theTable=inModel.getCharNormTable();
+    char[] theChars=ioWorkspace.mNormChars;
+    int theCharN=ioWorkspace.mNormCharNs[inTokenN];
+    int theEndCharN=inEndCharN;
+    int theRuleFlags=0;
+    if ((inNormStrategyFlags&kNormHyphensFlag)!=0) {
+      int theNewEndCharN=normalizeHyphens(theTable,theChars,theCharN,theEndCharN);
+      if (theNewEndCharN!=theEndCharN)
+        theRuleFlags|=kNormHyphensFlag;
+      theEndCharN=theNewEndCharN;
     }
-    System.out.println();
+    if ((inNormStrategyFlags&kNormNumbersFlag)!=0) {
+      int theNewEndCharN=normalizeNumber(theTable,theChars,theCharN,theEndCharN);
+      if (theNewEndCharN==kNotFound)
+        return false;
+      if (theNewEndCharN!=theEndCharN)
+        theRuleFlags|=kNormNumbersFlag;
+      theEndCharN=theNewEndCharN;
+    }
+    if ((inNormStrategyFlags&kNormRunsOfPunctFlag)!=0) {
+      int theNewEndCharN=normalizeRunOfPunctuation(theTable,theChars,theCharN,theEndCharN);
+      if (theNewEndCharN!=theEndCharN)
+        theRuleFlags|=kNormRunsOfPunctFlag;
+      theEndCharN=theNewEndCharN;
+    }
+    if ((inNormStrategyFlags&kNormPossessivesFlag)!=0) {
+      int theNewEndCharN=normalizePossessive(theTable,theChars,theCharN,theEndCharN);
+      if (theNewEndCharN!=theEndCharN)
+        theRuleFlags|=kNormPossessivesFlag;
+      theEndCharN=theNewEndCharN;
+    }
+    ioWorkspace.mRuleFlags[inTokenN]=theRuleFlags;
+    if ((inNormStrategyFlags&kNormInflectionsFlag)!=0)
+      theEndCharN=normalizeInflection(inModel,ioMemo,theChars,theCharN,theEndCharN,
+          ioWorkspace.mRuleFlags,inTokenN);
+    ioWorkspace.mNormEndCharNs[inTokenN]=theEndCharN;
+    return true;
   }
-*/
 
 //--------------------------------------------------------------------------------------------------------
 // getNormTokens
@@ -537,15 +381,28 @@ public class TermNorm implements Constants {
 //   4) Truncate long runs of punctuation like: ____________________________
 //   4) Recognize numbers
 //--------------------------------------------------------------------------------------------------------
-  
-  public static String[] getNormTokens(char[] inFromChars, int inFromCharN, int inFromNChars,
-      int[] ioTokenCharNs, int[] ioTokenNChars, int inNormStrategyFlags) {
 
-    try {
+  // Size of the char norm buffer - norm tokens never hold more chars than this
+  public static int calcMaxNNormChars(int inFromNChars) { return (int) (inFromNChars*1.1+64); }
 
-      int theEstimatedNToChars=(int) (inFromNChars*1.1+64);
-      char[] theToChars=new char[theEstimatedNToChars];
-      int[]  theFromForToCharNs=new int[theEstimatedNToChars];
+  // Norms into ioWorkspace, or a new workspace if null, and returns it - norm tokens are left in its 
+  //   columns, so the caller can read them without a String or an object per token
+  // The NormModel of inHolder is pinned for the whole text, so a reload part way through does not mix 
+  //   dictionaries.  The versions without a holder use the default holder
+  public static NormWorkspace getNormTokens(NormModelHolder inHolder, 
+      char[] inFromChars, int inFromCharN, int inFromNChars, NormWorkspace ioWorkspace, int inNormStrategyFlags) {
+
+    NormWorkspace theWorkspace=(ioWorkspace!=null)?ioWorkspace:new NormWorkspace();
+    theWorkspace.mNTokens=0;
+    NormModel theModel=inHolder.acquire();
+    CharNormTable theTable=(theModel==null)?null:theModel.getCharNormTable();
+    InflectionMemo theMemo=(((inNormStrategyFlags&kNormInflectionsFlag)!=0)&&
+        (theModel!=null)&&(theModel.hasInflections()))?inHolder.getMemo(theModel):null;
+    try {
+      int theMaxNToChars=calcMaxNNormChars(inFromNChars);
+      theWorkspace.ensureToCapacity(theMaxNToChars);
+      char[] theToChars=theWorkspace.mToChars;
+      int[]  theFromForToCharNs=theWorkspace.mFromForToCharNs;
 
       // CharNorm includes
       //   Lowercase
@@ -555,57 +412,123 @@ public class TermNorm implements Constants {
       //   Blank control chars
       //   Remove undefined chars - reduces string length
       //   Collapse redundant symbols into one, which is similar to lowercasing
-      int theNToChars=CharNorm.normChars(inFromChars,inFromCharN,inFromNChars,
-          theToChars,0,theFromForToCharNs);
+      //   Blank literal \n, \t and \r escapes, if kDecodeEscapesFlag
+      int theNToChars=CharNorm.normChars(theTable,inFromChars,inFromCharN,inFromNChars,
+          theToChars,0,theFromForToCharNs,(inNormStrategyFlags&kDecodeEscapesFlag)!=0);
 
-      int theEstimatedNTokens=theNToChars/4+16;
-      int[] theTokenCharNs=new int[theEstimatedNTokens];
-      int[] theTokenNCharss=new int[theEstimatedNTokens];
+      // Buffers are kept from call to call, so may be bigger than this text needs - hold to the sizes 
+      //   they have always had, so the same texts fail to norm
+      if (theNToChars>=theMaxNToChars)
+        throw new RuntimeException("Text expands past calcMaxNNormChars:  "+
+            theNToChars+" norm chars, limit "+theMaxNToChars);
+
+      int theMaxNTokens=theNToChars/4+16;
+      theWorkspace.ensureTokenCapacity(theMaxNTokens);
 
       // Tokenize to words (aka thick tokens)
       // Is a little more clever than breaking on whitespace
       // Will usually separate a word from adjacent punctuation
       // Will usually not break up a word that contains punctuation
       //   (lymphoma, non-hodjkin's?)  -->  (  lymphoma  ,  non-hodjkin's  ?  )
-      int theNTokens=new NormTokenizer().findTokens(theToChars,0,theNToChars,
-          theTokenCharNs,theTokenNCharss);
-
-      ArrayList theInfoList=new ArrayList((int) Math.round(theNTokens*1.1+4));
-      for (int i=0; i<theNTokens; i++) 
-        theInfoList.add(new Info(theToChars,theTokenCharNs[i],theTokenCharNs[i]+theTokenNCharss[i],
-            theFromForToCharNs));    
-
-      // Do the work
-      if ((inNormStrategyFlags&kNormHyphensFlag)!=0)
-        normalizeHyphens(theInfoList);
-      if ((inNormStrategyFlags&kNormNumbersFlag)!=0)
-        normalizeNumbers(theInfoList);
-      if ((inNormStrategyFlags&kNormRunsOfPunctFlag)!=0)
-        normalizeRunsOfPunctuation(theInfoList);
-      if ((inNormStrategyFlags&kNormPossessivesFlag)!=0)
-        normalizePossessives(theInfoList);
-      if ((inNormStrategyFlags&kNormInflectionsFlag)!=0)
-        normalizeInflections(theInfoList);  
-
-      String[] theNormTokens=new String[theInfoList.size()];
-      for (int i=0; i<theInfoList.size(); i++) {
-        Info theInfo=(Info) theInfoList.get(i);     
-        theNormTokens[i]=theInfo.getToken();
-        if ((theNormTokens[i].length()==0)||(theInfo.getFromNChars()==0) )
-          throw new RuntimeException();
-        if (ioTokenCharNs!=null)
-          ioTokenCharNs[i]=theInfo.getFromCharN();
-        if (ioTokenNChars!=null)
-          ioTokenNChars[i]=theInfo.getFromNChars();
+      int[] theTokenCharNs=theWorkspace.mTokenCharNs;
+      int[] theTokenNCharss=theWorkspace.mTokenNCharss;
+      int theNTokens=theWorkspace.mTokenizer.findTokens(theTable,theToChars,0,theNToChars,
+          theTokenCharNs,theTokenNCharss,theMaxNTokens);
+      if (theNTokens>theMaxNTokens)
+        throw new RuntimeException("Text has more tokens than 1 per 4 norm chars plus 16:  limit "+
+            theMaxNTokens);
+
+      // Norm each token straight into the norm chars, right behind the norm tokens before it
+      // Rules never move the raw text range of a token, so it comes from the token as found
+      // Failures are held to the end and reported as they always have been - the last token with a 
+      //   bad inflection, else an empty token
+      theWorkspace.ensureNormCapacity(theNToChars,theNTokens);
+      char[] theNormChars=theWorkspace.mNormChars;
+      RuntimeException theFailure=null;
+      boolean theHasEmpty=false;
+      int theNNormTokens=0;
+      int theNormCharN=0;
+      for (int i=0; i<theNTokens; i++) {
+        int theCharN=theTokenCharNs[i];
+        int theEndCharN=theCharN+theTokenNCharss[i];
+        System.arraycopy(theToChars,theCharN,theNormChars,theNormCharN,theEndCharN-theCharN);
+        theWorkspace.mNormCharNs[theNNormTokens]=theNormCharN;
+        try {
+          if (!normToken(theModel,theMemo,theWorkspace,theNNormTokens,theNormCharN+(theEndCharN-theCharN),
+              inNormStrategyFlags))
+            continue;
+        } catch (RuntimeException e) {
+          theFailure=e;
+          continue;
+        }
+        int theNormEndCharN=theWorkspace.mNormEndCharNs[theNNormTokens];
+        int theFromCharN=theFromForToCharNs[theCharN];
+        int theFromEndCharN=theFromForToCharNs[theEndCharN];
+        if ((theNormEndCharN==theNormCharN)||(theFromEndCharN==theFromCharN)) {
+          theHasEmpty=true;
+          continue;
+        }
+        theWorkspace.mFromCharNs[theNNormTokens]=theFromCharN;
+        theWorkspace.mFromEndCharNs[theNNormTokens]=theFromEndCharN;
+        theNNormTokens++;
+        theNormCharN=theNormEndCharN;
       }
+      if (theFailure!=null)
+        throw theFailure;
+      if (theHasEmpty)
+        throw new RuntimeException();
 
-      return theNormTokens;
+      theWorkspace.mNTokens=theNNormTokens;
+      return theWorkspace;
     } catch (Exception e) {
       throw new RuntimeException("Failed to norm: "+
           (new String(inFromChars,inFromCharN,inFromNChars)),e);
+    } finally {
+      if (theMemo!=null)
+        theMemo.flushStats();
+      if (theModel!=null)
+        theModel.release();
     }
   }
 
+  public static NormWorkspace getNormTokens(char[] inFromChars, int inFromCharN, int inFromNChars,
+      NormWorkspace ioWorkspace, int inNormStrategyFlags) {
+    return getNormTokens(NormModel.getDefaultHolder(),inFromChars,inFromCharN,inFromNChars,ioWorkspace,
+        inNormStrategyFlags); }
+
+  // Packs the chars of all norm tokens into ioNormChars, which must hold calcMaxNNormChars(inFromNChars) 
+  //   chars, with each token's place in ioNormCharNs and ioNormNChars - returns number of norm tokens
+  public static int getNormTokens(NormModelHolder inHolder, char[] inFromChars, int inFromCharN, int inFromNChars,
+      char[] ioNormChars, int[] ioNormCharNs, int[] ioNormNChars, 
+      int[] ioTokenCharNs, int[] ioTokenNChars, int inNormStrategyFlags) {
+    return getNormTokens(inHolder,inFromChars,inFromCharN,inFromNChars,(NormWorkspace) null,inNormStrategyFlags).
+        copyTokens(ioNormChars,ioNormCharNs,ioNormNChars,ioTokenCharNs,ioTokenNChars);
+  }
+
+  public static int getNormTokens(char[] inFromChars, int inFromCharN, int inFromNChars,
+      char[] ioNormChars, int[] ioNormCharNs, int[] ioNormNChars, 
+      int[] ioTokenCharNs, int[] ioTokenNChars, int inNormStrategyFlags) {
+    return getNormTokens(NormModel.getDefaultHolder(),inFromChars,inFromCharN,inFromNChars,
+        ioNormChars,ioNormCharNs,ioNormNChars,ioTokenCharNs,ioTokenNChars,inNormStrategyFlags); }
+
+  public static String[] getNormTokens(NormModelHolder inHolder, char[] inFromChars, int inFromCharN, 
+      int inFromNChars, int[] ioTokenCharNs, int[] ioTokenNChars, int inNormStrategyFlags) {
+    NormWorkspace theWorkspace=getNormTokens(inHolder,inFromChars,inFromCharN,inFromNChars,(NormWorkspace) null,
+        inNormStrategyFlags);
+    for (int i=0; i<theWorkspace.getNTokens(); i++) {
+      if (ioTokenCharNs!=null)
+        ioTokenCharNs[i]=theWorkspace.getFromCharN(i);
+      if (ioTokenNChars!=null)
+        ioTokenNChars[i]=theWorkspace.getFromNChars(i);
+    }
+    return theWorkspace.getNormTokens();
+  }
+
+  public static String[] getNormTokens(char[] inFromChars, int inFromCharN, int inFromNChars,
+      int[] ioTokenCharNs, int[] ioTokenNChars, int inNormStrategyFlags) {
+    return getNormTokens(NormModel.getDefaultHolder(),inFromChars,inFromCharN,inFromNChars,
+        ioTokenCharNs,ioTokenNChars,inNormStrategyFlags); }
+
   public static String[] getNormTokens(char[] inChars, int inCharN, int inNChars) { 
     return getNormTokens(inChars,inCharN,inNChars,null,null,kFullNorm); }
 
@@ -614,15 +537,21 @@ public class TermNorm implements Constants {
 
   public static String[] getNormTokens(char[] inChars) { return getNormTokens(inChars,null,null); }
 
-  public static String[] getNormTokens(String inString, 
+  public static String[] getNormTokens(NormModelHolder inHolder, String inString, 
       int[] ioTokenCharNs, int[] ioTokenNCharss, int inNormStrategyFlags) {
     int theNChars=inString.length();
     char[] theChars=new char[theNChars];
     inString.getChars(0,theNChars,theChars,0);
-    String[] theTokens=getNormTokens(theChars,0,theNChars,ioTokenCharNs,ioTokenNCharss,inNormStrategyFlags); 
+    String[] theTokens=getNormTokens(inHolder,theChars,0,theNChars,ioTokenCharNs,ioTokenNCharss,
+        inNormStrategyFlags); 
     return theTokens;
   }
 
+  public static String[] getNormTokens(String inString, 
+      int[] ioTokenCharNs, int[] ioTokenNCharss, int inNormStrategyFlags) {
+    return getNormTokens(NormModel.getDefaultHolder(),inString,ioTokenCharNs,ioTokenNCharss,
+        inNormStrategyFlags); }
+
   public static String[] getNormTokens(String inString, int[] ioTokenCharNs, int[] ioTokenNCharss) {
     return getNormTokens(inString,ioTokenCharNs,ioTokenNCharss,kFullNorm); }
 
@@ -698,20 +627,39 @@ public class TermNorm implements Constants {
 // expandInflections
 //--------------------------------------------------------------------------------------------------------
 
+  // returns all inflection variants of norm token (including norm token), or null if there are none
+  public static String[] expandInflection(NormModelHolder inHolder, String inNormToken) {
+    NormModel theModel=inHolder.acquire();
+    try {
+      if ((theModel==null)||(!theModel.hasInflections()))
+        throw new RuntimeException("Inflections not loaded");
+      if (theModel.getInflectionFst()!=null)
+        return theModel.getInflectionFst().getVariants(inNormToken);
+      long theIndex=theModel.getInflectionNormsIndex().getIndex(inNormToken);
+      if (theIndex==kNotFound) 
+        return null;
+      int[] theIndexes=theModel.getInflectionInverseMap().getInts(theIndex);
+      String[] theVariants=new String[theIndexes.length];
+      for (int j=0; j<theIndexes.length; j++) 
+        theVariants[j]=theModel.getInflectionVariants().getUTF8(theIndexes[j]);
+      return theVariants;
+    } finally {
+      if (theModel!=null)
+        theModel.release();
+    }
+  }
+
+  public static String[] expandInflection(String inNormToken) {
+    return expandInflection(NormModel.getDefaultHolder(),inNormToken); }
+
   public static String[][] expandInflections(String[] inNormTokens) {
     int theNTokens=inNormTokens.length;
     String[][] theExpansion=new String[theNTokens][];
     for (int i=0; i<theNTokens; i++) {
       String theNormToken=inNormTokens[i];
-      long theIndex=gInflectionNorms.getIndex(theNormToken);
-      if (theIndex==kNotFound) 
+      theExpansion[i]=expandInflection(theNormToken);
+      if (theExpansion[i]==null) 
         theExpansion[i]=new String[] {theNormToken};
-      else {
-        int[] theIndexes=gInflectionInverseMap.getInts(theIndex);
-        theExpansion[i]=new String[theIndexes.length];
-        for (int j=0; j<theIndexes.length; j++) 
-          theExpansion[i][j]=gInflectionVariants.getUTF8(theIndexes[j]);
-      }
     }
     return theExpansion;
   }
@@ -0,0 +1,431 @@
+//--------------------------------------------------------------------------------------------------------
+// TestNormModel.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.norm;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import gravel.store.hash.*;
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// TestNormModel
+//
+// Norms a sample of terms with the model loaded from the sources, from the compiled file mapped and read
+//   onto the heap, and with the inflections in an InflectionFst, and checks all agree, and that the
+//   perfect hash indexes of the compiled loads find every key where the hash indexes of the stores do.
+//   Then reloads over and over while reader threads norm the same terms, and checks the readers never
+//   see a wrong norm or a failure.  Then does the load checks again on a dictionary listing norms,
+//   variants and compounds twice, and checks each listed twice goes to its later listing
+//
+// Works on a copy of the norm dir sources in a temp dir, so the compiled file in the norm dir is never
+//   touched
+//--------------------------------------------------------------------------------------------------------
+
+public class TestNormModel {
+
+//--------------------------------------------------------------------------------------------------------
+// TestNormModel consts
+//--------------------------------------------------------------------------------------------------------
+
+  public static final String   kNormDir="D:/DataWorkspace/SE5/Refs/Norm/derived";
+  public static final int      kNSampleTerms=10000;
+  public static final int      kNReaders=4;
+  public static final int      kNReloads=20;
+
+  private static final String[] kTestTerms=new String[] {
+      "pot",
+      "POTS",
+      "Pot's",
+      "heart attack",
+      "Waldenstrom’s macroglobulinemia",
+      "non-hodgkin's lymphoma",
+      "(Lymphoma, Non-Hodjkin's?)",
+      "x ray",
+      "x-ray",
+      "xray",
+      "retin-a",
+      "b-ring",
+      "cancers cancers- cancers)",
+      "The ﬁrst Æsthetic café RUNNING ran № 5 Ⅷ",
+  };
+
+  // mouse listed twice, mouses under mouse and later under mousse, x ray under xray and later under
+  //   xrays, and xray itself twice
+  private static final String kDuplicateInflections=
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"+
+      "<inflections>\n"+
+      "<inflection><norm>mouse</norm><variant>mice</variant><variant>mouses</variant></inflection>\n"+
+      "<inflection><norm>mousse</norm><variant>mousses</variant></inflection>\n"+
+      "<inflection><norm>mouse</norm><variant>meese</variant></inflection>\n"+
+      "<inflection><norm>mousse</norm><variant>mouses</variant></inflection>\n"+
+      "</inflections>\n";
+  private static final String kDuplicateCompounds=
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"+
+      "<compounds>\n"+
+      "<compound><compressed>xray</compressed><spaced>x ray</spaced></compound>\n"+
+      "<compound><compressed>heartattack</compressed><spaced>heart attack</spaced></compound>\n"+
+      "<compound><compressed>xrays</compressed><spaced>x ray</spaced><spaced>x rays</spaced></compound>\n"+
+      "<compound><compressed>xray</compressed><spaced>x-ray</spaced></compound>\n"+
+      "</compounds>\n";
+  private static final String[] kDuplicateTerms=new String[] {
+      "mouse", "meese", "mouses", "mousse", "mousses", "x ray", "x rays", "xray", "xrays",
+      "x-ray", "heart attack" };
+
+//--------------------------------------------------------------------------------------------------------
+// copySources
+//
+// Copies everything in inNormDir but the compiled file into a new temp dir, and returns the temp dir
+//--------------------------------------------------------------------------------------------------------
+
+  private static String copySources(String inNormDir) throws Exception {
+    String theTestDir=Files.createTempDirectory("TestNormModel").toString();
+    File[] theFiles=new File(inNormDir).listFiles();
+    if (theFiles==null)
+      throw new RuntimeException("Not a norm dir:  "+inNormDir);
+    for (int i=0; i<theFiles.length; i++)
+      if ((theFiles[i].isFile())&&(!theFiles[i].getName().equals(NormModel.kCompiledFilename)))
+        FileUtils.copyBinaryFile(theFiles[i].getPath(),theTestDir+"/"+theFiles[i].getName());
+    return theTestDir;
+  }
+
+  private static void deleteDir(String inDir) throws Exception {
+    File[] theFiles=new File(inDir).listFiles();
+    for (int i=0; i<theFiles.length; i++)
+      FileUtils.deleteFile(theFiles[i].getPath());
+    FileUtils.deleteFile(inDir);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// sampleTerms
+//
+// The test terms, plus up to kNSampleTerms inflection variants and spaced compounds, evenly spaced
+//   through the stores of the loaded model
+//--------------------------------------------------------------------------------------------------------
+
+  private static String[] sampleTerms() {
+    ArrayList<String> theTerms=new ArrayList<String>(Arrays.asList(kTestTerms));
+    NormModel theModel=NormModel.acquire();
+    try {
+      sampleTerms(theModel.getInflectionVariants(),theTerms);
+      sampleTerms(theModel.getCompoundSpaced(),theTerms);
+    } finally {
+      theModel.release();
+    }
+    return theTerms.toArray(new String[theTerms.size()]);
+  }
+
+  private static void sampleTerms(ByteDataHashStore inStore, ArrayList<String> ioTerms) {
+    long theNTerms=inStore.getSize();
+    long theStep=Math.max(1,theNTerms/kNSampleTerms);
+    for (long i=0; i<theNTerms; i+=theStep)
+      ioTerms.add(inStore.getUTF8(i));
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// normTerms
+//
+// One line per term - its norm tokens, their inflection expansions and its compound expansions, or the
+//   failure, for a term that does not norm
+//--------------------------------------------------------------------------------------------------------
+
+  private static String[] normTerms(String[] inTerms) {
+    String[] theLines=new String[inTerms.length];
+    for (int i=0; i<inTerms.length; i++)
+      try {
+        theLines[i]=normTerm(inTerms[i]);
+      } catch (RuntimeException e) {
+        Throwable theCause=(e.getCause()!=null)?e.getCause():e;
+        theLines[i]="Failed:  "+theCause.getMessage();
+      }
+    return theLines;
+  }
+
+  private static String normTerm(String inTerm) {
+    String[] theNormTokens=TermNorm.getNormTokens(inTerm);
+    StringBuilder theLine=new StringBuilder(TermNorm.normTerm(theNormTokens));
+    String[][] theExpansions=TermNorm.expandInflections(theNormTokens);
+    for (int i=0; i<theExpansions.length; i++)
+      theLine.append(" | ").append((theExpansions[i]==null)?"":TermNorm.normTerm(theExpansions[i]));
+    String[] theCompounds=CompoundExpand.expandNormTerm(TermNorm.normTerm(inTerm));
+    for (int i=0; i<theCompounds.length; i++)
+      theLine.append(" || ").append(theCompounds[i]);
+    return theLine.toString();
+  }
+
+  // Number of terms whose lines differ
+  private static int compareNorms(String inTitle, String[] inTerms, String[] inExpected, String[] inActual) {
+    int theNDiffs=0;
+    for (int i=0; i<inTerms.length; i++)
+      if (!inExpected[i].equals(inActual[i])) {
+        if (theNDiffs++<5)
+          System.out.println("    "+inTerms[i]+"  -->  "+inExpected[i]+"  but  "+inActual[i]);
+      }
+    System.out.println(inTitle+":  "+inTerms.length+" terms, "+theNDiffs+" differ");
+    return theNDiffs;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// compareIndexes
+//
+// Number of keys of the stores of the loaded model the perfect hash indexes find at another index than
+//   the hash indexes of the stores
+//--------------------------------------------------------------------------------------------------------
+
+  private static int compareIndexes(String inTitle) {
+    NormModel theModel=NormModel.acquire();
+    try {
+      int theNDiffs=compareIndexes(theModel.getInflectionNormsIndex(),theModel.getInflectionNorms())+
+          compareIndexes(theModel.getInflectionVariantsIndex(),theModel.getInflectionVariants())+
+          compareIndexes(theModel.getCompoundSpacedIndex(),theModel.getCompoundSpaced())+
+          compareIndexes(theModel.getCompoundCompressedIndex(),theModel.getCompoundCompressed());
+      System.out.println(inTitle+" indexes:  "+theNDiffs+" keys differ");
+      return theNDiffs;
+    } finally {
+      theModel.release();
+    }
+  }
+
+  private static int compareIndexes(PerfectHashIndex inIndex, ByteDataHashStore inStore) {
+    int theNDiffs=0;
+    long theNKeys=inStore.getSize();
+    for (long i=0; i<theNKeys; i++) {
+      String theKey=inStore.getUTF8(i);
+      if (inIndex.getIndex(theKey)!=inStore.getIndex(theKey)) {
+        if (theNDiffs++<5)
+          System.out.println("    "+theKey+" at "+inIndex.getIndex(theKey)+", not "+inStore.getIndex(theKey));
+      }
+    }
+    return theNDiffs;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// loadTests
+//--------------------------------------------------------------------------------------------------------
+
+  private static int loadTests(String inTestDir, String[] inTerms, String[] inExpected) throws Exception {
+
+    long theStartTime=System.currentTimeMillis();
+    System.out.println(FormatUtils.reportHeader("Sources vs compiled loads",theStartTime));
+
+    int theNDiffs=0;
+    NormModel.compile(inTestDir);
+
+    NormModel.setMapCompiled(true);
+    NormModel.reload(inTestDir);
+    if (!(NormModel.getModel().getInflectionNorms() instanceof ByteDataHashMappedStore))
+      throw new RuntimeException("Compiled file not mapped");
+    theNDiffs+=compareNorms("Mapped",inTerms,inExpected,normTerms(inTerms));
+    theNDiffs+=compareIndexes("Mapped");
+
+    NormModel.setMapCompiled(false);
+    NormModel.reload(inTestDir);
+    if (!(NormModel.getModel().getInflectionNorms() instanceof ByteDataHashRAMStore))
+      throw new RuntimeException("Compiled file not read onto heap");
+    theNDiffs+=compareNorms("Heap",inTerms,inExpected,normTerms(inTerms));
+    theNDiffs+=compareIndexes("Heap");
+
+    NormModel.setFstInflections(true);
+    NormModel.reload(inTestDir);
+    NormModel.setFstInflections(false);
+    if (NormModel.getModel().getInflectionFst()==null)
+      throw new RuntimeException("Inflections not in FST");
+    theNDiffs+=compareNorms("FST",inTerms,inExpected,normTerms(inTerms));
+
+    System.out.println(FormatUtils.reportFooter(theStartTime));
+    return theNDiffs;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// reloadTests
+//
+// Reloads kNReloads times, switching between mapped and heap, while kNReaders threads norm the terms -
+//   waits for each reader to finish a pass between reloads, so every reload lands under readers
+//--------------------------------------------------------------------------------------------------------
+
+  private static int reloadTests(String inTestDir, final String[] inTerms, final String[] inExpected)
+      throws Exception {
+
+    long theStartTime=System.currentTimeMillis();
+    System.out.println(FormatUtils.reportHeader("Reloads under readers",theStartTime));
+
+    final AtomicBoolean theDone=new AtomicBoolean(false);
+    final AtomicInteger theNPasses=new AtomicInteger(0);
+    final AtomicInteger theNDiffs=new AtomicInteger(0);
+    final AtomicInteger theNFailures=new AtomicInteger(0);
+    Thread[] theReaders=new Thread[kNReaders];
+    for (int i=0; i<kNReaders; i++) {
+      theReaders[i]=new Thread("TestNormModelReader"+i) {
+        public void run() {
+          while (!theDone.get()) {
+            try {
+              String[] theActual=normTerms(inTerms);
+              for (int j=0; j<inTerms.length; j++)
+                if (!inExpected[j].equals(theActual[j]))
+                  theNDiffs.incrementAndGet();
+            } catch (Throwable e) {
+              if (theNFailures.getAndIncrement()<5)
+                System.out.println(FormatUtils.formatException("Reader failed",e));
+            }
+            theNPasses.incrementAndGet();
+          }
+        }
+      };
+      theReaders[i].start();
+    }
+
+    try {
+      for (int i=0; i<kNReloads; i++) {
+        int theNPassesBefore=theNPasses.get();
+        NormModel.setMapCompiled((i&1)==0);
+        NormModel.reload(inTestDir);
+        while (theNPasses.get()<theNPassesBefore+kNReaders)
+          Thread.sleep(1);
+      }
+    } finally {
+      theDone.set(true);
+      for (int i=0; i<kNReaders; i++)
+        theReaders[i].join();
+      NormModel.setMapCompiled(false);
+      NormModel.reload(inTestDir);
+    }
+
+    System.out.println(kNReloads+" reloads, "+theNPasses.get()+" reader passes, "+
+        theNDiffs.get()+" wrong norms, "+theNFailures.get()+" failures");
+    System.out.println(FormatUtils.reportFooter(theStartTime));
+    return theNDiffs.get()+theNFailures.get();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// duplicateTests
+//
+// The load checks on a copy of the char norm of inNormDir with kDuplicateInflections and
+//   kDuplicateCompounds, and mouses and x ray checked against their later listings
+//--------------------------------------------------------------------------------------------------------
+
+  private static int duplicateTests(String inNormDir) throws Exception {
+
+    long theStartTime=System.currentTimeMillis();
+    System.out.println(FormatUtils.reportHeader("Listed twice",theStartTime));
+
+    String theTestDir=copySources(inNormDir);
+    try {
+      FileUtils.saveBinaryFile(UTF8Utils.stringToUTF8Bytes(kDuplicateInflections),
+          theTestDir+"/Inflections.xml");
+      FileUtils.saveBinaryFile(UTF8Utils.stringToUTF8Bytes(kDuplicateCompounds),theTestDir+"/Compounds.xml");
+      NormModel.reload(theTestDir);
+      String[] theExpected=normTerms(kDuplicateTerms);
+
+      int theNDiffs=0;
+      if (!TermNorm.normTerm("mouses").equals("mousse"))
+        theNDiffs++;
+      if (!TermNorm.normTerm("meese").equals("mouse"))
+        theNDiffs++;
+      if (!Arrays.asList(CompoundExpand.expandNormTerm("x ray")).contains("xrays"))
+        theNDiffs++;
+      System.out.println("Later listings:  "+theNDiffs+" wrong");
+      theNDiffs+=loadTests(theTestDir,kDuplicateTerms,theExpected);
+
+      System.out.println(FormatUtils.reportFooter(theStartTime));
+      return theNDiffs;
+    } finally {
+      NormModel.setMapCompiled(false);
+      NormModel.reload(inNormDir);
+      deleteDir(theTestDir);
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// holderTests
+//
+// A second NormModelHolder, on a copy of inNormDir with kDuplicateInflections, norms with its own model
+//   while the default holder keeps norming inTerms with inNormDir
+//--------------------------------------------------------------------------------------------------------
+
+  private static int holderTests(String inNormDir, String[] inTerms, String[] inExpected) throws Exception {
+
+    long theStartTime=System.currentTimeMillis();
+    System.out.println(FormatUtils.reportHeader("Two holders",theStartTime));
+
+    String theTestDir=copySources(inNormDir);
+    NormModelHolder theHolder=new NormModelHolder();
+    try {
+      FileUtils.saveBinaryFile(UTF8Utils.stringToUTF8Bytes(kDuplicateInflections),
+          theTestDir+"/Inflections.xml");
+      theHolder.load(theTestDir,true,false);
+
+      int theNDiffs=0;
+      String[] theTokens=TermNorm.getNormTokens(theHolder,"mouses",null,null,TermNorm.kFullNorm);
+      if (!TermNorm.normTerm(theTokens).equals("mousse"))
+        theNDiffs++;
+      if (theHolder.getModel()==NormModel.getModel())
+        theNDiffs++;
+      try {
+        theHolder.load(inNormDir,true,false);
+        theNDiffs++;
+      } catch (RuntimeException e) {
+      }
+      System.out.println("Second holder:  "+theNDiffs+" wrong");
+      theNDiffs+=compareNorms("Default holder",inTerms,inExpected,normTerms(inTerms));
+
+      System.out.println(FormatUtils.reportFooter(theStartTime));
+      return theNDiffs;
+    } finally {
+      theHolder.clearTerms();
+      deleteDir(theTestDir);
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// run
+//--------------------------------------------------------------------------------------------------------
+
+  private static void run(String inNormDir) throws Exception {
+
+    long theStartTime=System.currentTimeMillis();
+    System.out.println(FormatUtils.reportHeader("Test Norm Model",theStartTime));
+
+    boolean theMapCompiled=NormModel.getMapCompiled();
+    String theTestDir=copySources(inNormDir);
+    try {
+
+      // No compiled file in the test dir, so from the sources
+      CompoundExpand.load(theTestDir);
+      if (!(NormModel.getModel().getInflectionNorms() instanceof ByteDataHashRAMStore))
+        throw new RuntimeException("Sources not loaded onto heap");
+      String[] theTerms=sampleTerms();
+      String[] theExpected=normTerms(theTerms);
+
+      int theNFailures=loadTests(theTestDir,theTerms,theExpected)+
+          reloadTests(theTestDir,theTerms,theExpected)+
+          duplicateTests(theTestDir)+
+          holderTests(theTestDir,theTerms,theExpected);
+      if (theNFailures>0)
+        throw new RuntimeException("Test Norm Model failed:  "+theNFailures);
+
+    } finally {
+      NormModel.setMapCompiled(theMapCompiled);
+      deleteDir(theTestDir);
+    }
+
+    System.out.println(FormatUtils.reportFooter(theStartTime));
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// main
+//--------------------------------------------------------------------------------------------------------
+
+  public static void main(String[] args) {
+    try {
+      run((args.length>0)?args[0]:kNormDir);
+    } catch (Throwable e) {
+      e.printStackTrace(System.err);
+      System.exit(1);
+    }
+  }
+
+}
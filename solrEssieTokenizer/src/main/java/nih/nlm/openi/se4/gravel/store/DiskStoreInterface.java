@@ -22,6 +22,22 @@ public interface DiskStoreInterface extends StoreInterface {
 
   public long getFileSize();
 
+//--------------------------------------------------------------------------------------------------------
+// flush
+//
+// Writes anything held in memory to the file - the OS may still hold it
+//--------------------------------------------------------------------------------------------------------
+
+  public void flush();
+
+//--------------------------------------------------------------------------------------------------------
+// sync
+//
+// Flushes, and forces the file to disk
+//--------------------------------------------------------------------------------------------------------
+
+  public void sync();
+
 //--------------------------------------------------------------------------------------------------------
 // copy
 //--------------------------------------------------------------------------------------------------------
@@ -7,6 +7,7 @@ package gravel.store.data;
 import gravel.store.*;
 import gravel.store.plain.*;
 import gravel.store.var.*;
+import gravel.utils.*;
 
 //--------------------------------------------------------------------------------------------------------
 // ByteDataDiskStore
@@ -66,6 +67,33 @@ public class ByteDataDiskStore extends ByteDataStore implements DiskStoreInterfa
   public long getFileSize() { 
     return getByteStore().getFileSize()+getOffsetStore().getFileSize(); }
 
+//--------------------------------------------------------------------------------------------------------
+// flush
+//--------------------------------------------------------------------------------------------------------
+
+  public void flush() {
+    getByteStore().flush();
+    getOffsetStore().flush();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// sync
+//--------------------------------------------------------------------------------------------------------
+
+  public void sync() {
+    getByteStore().sync();
+    getOffsetStore().sync();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setBlockCache
+//--------------------------------------------------------------------------------------------------------
+
+  public void setBlockCache(BlockCache inBlockCache) {
+    getByteStore().setBlockCache(inBlockCache);
+    getOffsetStore().setBlockCache(inBlockCache);
+  }
+
 //--------------------------------------------------------------------------------------------------------
 // copy
 //--------------------------------------------------------------------------------------------------------
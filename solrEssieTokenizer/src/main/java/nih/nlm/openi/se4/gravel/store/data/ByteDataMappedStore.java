@@ -0,0 +1,60 @@
+//--------------------------------------------------------------------------------------------------------
+// ByteDataMappedStore.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.store.data;
+
+import gravel.store.plain.*;
+import gravel.store.var.*;
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// ByteDataMappedStore
+//
+// Read only ByteDataStore over memory mapped stores
+//--------------------------------------------------------------------------------------------------------
+
+public class ByteDataMappedStore extends ByteDataStore {
+
+//--------------------------------------------------------------------------------------------------------
+// ByteDataMappedStore
+//--------------------------------------------------------------------------------------------------------
+
+  private ByteDataMappedStore(ByteMappedStore inByteStore, VarMappedStore inOffsetStore) {
+    super(inByteStore,inOffsetStore); }
+
+//--------------------------------------------------------------------------------------------------------
+// load
+//--------------------------------------------------------------------------------------------------------
+
+  public static ByteDataMappedStore load(String inFilename) {
+    ByteMappedStore theByteStore=ByteMappedStore.load(inFilename); 
+    VarMappedStore theOffsetStore=VarMappedStore.load(makeOffsetFilename(inFilename)); 
+    return new ByteDataMappedStore(theByteStore,theOffsetStore);
+  }
+
+  public static ByteDataMappedStore load(StoreFile inStoreFile, long[] ioFileOffset) {
+    ByteMappedStore theByteStore=ByteMappedStore.load(inStoreFile,ioFileOffset); 
+    VarMappedStore theOffsetStore=VarMappedStore.load(inStoreFile,ioFileOffset); 
+    return new ByteDataMappedStore(theByteStore,theOffsetStore);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getByteStore
+//--------------------------------------------------------------------------------------------------------
+
+  protected ByteMappedStore getByteStore() { return (ByteMappedStore) super.getByteStore(); }
+
+//--------------------------------------------------------------------------------------------------------
+// getOffsetStore
+//--------------------------------------------------------------------------------------------------------
+
+  protected VarMappedStore getOffsetStore() { return (VarMappedStore) super.getOffsetStore(); }
+
+//--------------------------------------------------------------------------------------------------------
+// getFilename
+//--------------------------------------------------------------------------------------------------------
+
+  public String getFilename() { return getByteStore().getFilename(); }
+
+}
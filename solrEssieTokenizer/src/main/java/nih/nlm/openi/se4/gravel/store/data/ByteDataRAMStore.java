@@ -7,6 +7,7 @@ package gravel.store.data;
 import gravel.store.*;
 import gravel.store.plain.*;
 import gravel.store.var.*;
+import gravel.utils.*;
 
 //--------------------------------------------------------------------------------------------------------
 // ByteDataRAMStore
@@ -87,6 +88,21 @@ public class ByteDataRAMStore extends ByteDataStore implements RAMStoreInterface
 
   public void store(String inFilename) { store(inFilename,true); }
 
+//--------------------------------------------------------------------------------------------------------
+// load / store - shared file
+//--------------------------------------------------------------------------------------------------------
+
+  public static ByteDataRAMStore load(StoreFile inStoreFile, long[] ioFileOffset) {
+    ByteRAMStore theByteStore=ByteRAMStore.load(inStoreFile,ioFileOffset); 
+    VarRAMStore theOffsetStore=VarRAMStore.load(inStoreFile,ioFileOffset); 
+    return new ByteDataRAMStore(theByteStore,theOffsetStore);
+  }
+
+  public void store(StoreFile ioStoreFile, long[] ioFileOffset) { 
+    getByteStore().store(ioStoreFile,ioFileOffset); 
+    getOffsetStore().store(ioStoreFile,ioFileOffset); 
+  }
+
 //--------------------------------------------------------------------------------------------------------
 // getByteStore
 //--------------------------------------------------------------------------------------------------------
@@ -6,6 +6,7 @@ package gravel.store.data;
 
 import gravel.store.*;
 import gravel.store.var.*;
+import gravel.utils.*;
 
 //--------------------------------------------------------------------------------------------------------
 // VarDataDiskStore
@@ -65,6 +66,33 @@ public class VarDataDiskStore extends VarDataStore implements DiskStoreInterface
   public long getFileSize() { 
     return getVarStore().getFileSize()+getOffsetStore().getFileSize(); }
 
+//--------------------------------------------------------------------------------------------------------
+// flush
+//--------------------------------------------------------------------------------------------------------
+
+  public void flush() {
+    getVarStore().flush();
+    getOffsetStore().flush();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// sync
+//--------------------------------------------------------------------------------------------------------
+
+  public void sync() {
+    getVarStore().sync();
+    getOffsetStore().sync();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setBlockCache
+//--------------------------------------------------------------------------------------------------------
+
+  public void setBlockCache(BlockCache inBlockCache) {
+    getVarStore().setBlockCache(inBlockCache);
+    getOffsetStore().setBlockCache(inBlockCache);
+  }
+
 //--------------------------------------------------------------------------------------------------------
 // copy
 //--------------------------------------------------------------------------------------------------------
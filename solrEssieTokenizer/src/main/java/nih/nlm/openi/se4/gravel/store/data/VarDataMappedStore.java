@@ -0,0 +1,59 @@
+//--------------------------------------------------------------------------------------------------------
+// VarDataMappedStore.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.store.data;
+
+import gravel.store.var.*;
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// VarDataMappedStore
+//
+// Read only VarDataStore over memory mapped stores
+//--------------------------------------------------------------------------------------------------------
+
+public class VarDataMappedStore extends VarDataStore {
+
+//--------------------------------------------------------------------------------------------------------
+// VarDataMappedStore
+//--------------------------------------------------------------------------------------------------------
+
+  private VarDataMappedStore(VarMappedStore inVarStore, VarMappedStore inOffsetStore) {
+    super(inVarStore,inOffsetStore); }
+
+//--------------------------------------------------------------------------------------------------------
+// load
+//--------------------------------------------------------------------------------------------------------
+
+  public static VarDataMappedStore load(String inFilename) {
+    VarMappedStore theVarStore=VarMappedStore.load(inFilename); 
+    VarMappedStore theOffsetStore=VarMappedStore.load(makeOffsetFilename(inFilename)); 
+    return new VarDataMappedStore(theVarStore,theOffsetStore);
+  }
+
+  public static VarDataMappedStore load(StoreFile inStoreFile, long[] ioFileOffset) {
+    VarMappedStore theVarStore=VarMappedStore.load(inStoreFile,ioFileOffset); 
+    VarMappedStore theOffsetStore=VarMappedStore.load(inStoreFile,ioFileOffset); 
+    return new VarDataMappedStore(theVarStore,theOffsetStore);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getVarStore
+//--------------------------------------------------------------------------------------------------------
+
+  protected VarMappedStore getVarStore() { return (VarMappedStore) super.getVarStore(); } 
+
+//--------------------------------------------------------------------------------------------------------
+// getOffsetStore
+//--------------------------------------------------------------------------------------------------------
+
+  protected VarMappedStore getOffsetStore() { return (VarMappedStore) super.getOffsetStore(); }
+
+//--------------------------------------------------------------------------------------------------------
+// getFilename
+//--------------------------------------------------------------------------------------------------------
+
+  public String getFilename() { return getVarStore().getFilename(); }
+
+}
@@ -110,6 +110,21 @@ public class VarDataRAMStore extends VarDataStore implements RAMStoreInterface {
 
   public void store(String inFilename) { store(inFilename,true); }
 
+//--------------------------------------------------------------------------------------------------------
+// load / store - shared file
+//--------------------------------------------------------------------------------------------------------
+
+  public static VarDataRAMStore load(StoreFile inStoreFile, long[] ioFileOffset) {
+    VarRAMStore theVarStore=VarRAMStore.load(inStoreFile,ioFileOffset); 
+    VarRAMStore theOffsetStore=VarRAMStore.load(inStoreFile,ioFileOffset); 
+    return new VarDataRAMStore(theVarStore,theOffsetStore);
+  }
+
+  public void store(StoreFile ioStoreFile, long[] ioFileOffset) { 
+    getVarStore().store(ioStoreFile,ioFileOffset); 
+    getOffsetStore().store(ioStoreFile,ioFileOffset); 
+  }
+
 //--------------------------------------------------------------------------------------------------------
 // getVarStore
 //--------------------------------------------------------------------------------------------------------
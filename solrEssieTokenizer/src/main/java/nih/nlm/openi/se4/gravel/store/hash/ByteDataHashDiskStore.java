@@ -7,6 +7,7 @@ package gravel.store.hash;
 import gravel.store.*;
 import gravel.store.data.*;
 import gravel.store.var.*;
+import gravel.utils.*;
 
 //--------------------------------------------------------------------------------------------------------
 // ByteDataHashDiskStore
@@ -87,6 +88,39 @@ public class ByteDataHashDiskStore extends ByteDataHashStore implements DiskStor
     return getKeyStore().getFileSize()+getHashStore().getFileSize()+
         getLookupStore().getFileSize()+getPtrStore().getFileSize(); }
 
+//--------------------------------------------------------------------------------------------------------
+// flush
+//--------------------------------------------------------------------------------------------------------
+
+  public void flush() {
+    getKeyStore().flush();
+    getHashStore().flush();
+    getLookupStore().flush();
+    getPtrStore().flush();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// sync
+//--------------------------------------------------------------------------------------------------------
+
+  public void sync() {
+    getKeyStore().sync();
+    getHashStore().sync();
+    getLookupStore().sync();
+    getPtrStore().sync();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setBlockCache
+//--------------------------------------------------------------------------------------------------------
+
+  public void setBlockCache(BlockCache inBlockCache) {
+    getKeyStore().setBlockCache(inBlockCache);
+    getHashStore().setBlockCache(inBlockCache);
+    getLookupStore().setBlockCache(inBlockCache);
+    getPtrStore().setBlockCache(inBlockCache);
+  }
+
 //--------------------------------------------------------------------------------------------------------
 // copy
 //--------------------------------------------------------------------------------------------------------
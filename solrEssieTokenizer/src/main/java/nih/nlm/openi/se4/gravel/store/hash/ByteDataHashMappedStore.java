@@ -0,0 +1,60 @@
+//--------------------------------------------------------------------------------------------------------
+// ByteDataHashMappedStore.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.store.hash;
+
+import gravel.store.data.*;
+import gravel.store.var.*;
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// ByteDataHashMappedStore
+//
+// Read only ByteDataHashStore over memory mapped stores - keys and all three indexes are mapped as
+//   stored, so lookups work with nothing rebuilt
+//--------------------------------------------------------------------------------------------------------
+
+public class ByteDataHashMappedStore extends ByteDataHashStore {
+
+//--------------------------------------------------------------------------------------------------------
+// ByteDataHashMappedStore
+//--------------------------------------------------------------------------------------------------------
+
+  private ByteDataHashMappedStore(ByteDataMappedStore inByteData, VarMappedStore inHashStore,
+      VarMappedStore inLookupStore, VarMappedStore inPtrStore) {
+    super(inByteData,inHashStore,inLookupStore,inPtrStore); }
+
+//--------------------------------------------------------------------------------------------------------
+// load
+//--------------------------------------------------------------------------------------------------------
+
+  public static ByteDataHashMappedStore load(String inFilename) {
+    ByteDataMappedStore theKeyStore=ByteDataMappedStore.load(inFilename); 
+    VarMappedStore theHashStore=VarMappedStore.load(makeHashFilename(inFilename)); 
+    VarMappedStore theLookupStore=VarMappedStore.load(makeLookupFilename(inFilename)); 
+    VarMappedStore thePtrStore=VarMappedStore.load(makePtrFilename(inFilename)); 
+    return new ByteDataHashMappedStore(theKeyStore,theHashStore,theLookupStore,thePtrStore);
+  }
+
+  public static ByteDataHashMappedStore load(StoreFile inStoreFile, long[] ioFileOffset) {
+    ByteDataMappedStore theKeyStore=ByteDataMappedStore.load(inStoreFile,ioFileOffset); 
+    VarMappedStore theHashStore=VarMappedStore.load(inStoreFile,ioFileOffset); 
+    VarMappedStore theLookupStore=VarMappedStore.load(inStoreFile,ioFileOffset); 
+    VarMappedStore thePtrStore=VarMappedStore.load(inStoreFile,ioFileOffset); 
+    return new ByteDataHashMappedStore(theKeyStore,theHashStore,theLookupStore,thePtrStore);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getKeyStore
+//--------------------------------------------------------------------------------------------------------
+
+  protected ByteDataMappedStore getKeyStore() { return (ByteDataMappedStore) super.getKeyStore(); }
+
+//--------------------------------------------------------------------------------------------------------
+// getFilename
+//--------------------------------------------------------------------------------------------------------
+
+  public String getFilename() { return getKeyStore().getFilename(); }
+
+}
@@ -7,6 +7,7 @@ package gravel.store.hash;
 import gravel.store.*;
 import gravel.store.data.*;
 import gravel.store.var.*;
+import gravel.utils.*;
 
 //--------------------------------------------------------------------------------------------------------
 // ByteDataHashRAMStore
@@ -112,6 +113,27 @@ public class ByteDataHashRAMStore extends ByteDataHashStore implements RAMStoreI
 
   public void store(String inFilename) { store(inFilename,true); }
 
+//--------------------------------------------------------------------------------------------------------
+// load / store - shared file
+//
+// Keys and all three indexes, so loading rebuilds nothing
+//--------------------------------------------------------------------------------------------------------
+
+  public static ByteDataHashRAMStore load(StoreFile inStoreFile, long[] ioFileOffset) {
+    ByteDataRAMStore theKeyStore=ByteDataRAMStore.load(inStoreFile,ioFileOffset); 
+    VarRAMStore theHashStore=VarRAMStore.load(inStoreFile,ioFileOffset); 
+    VarRAMStore theLookupStore=VarRAMStore.load(inStoreFile,ioFileOffset); 
+    VarRAMStore thePtrStore=VarRAMStore.load(inStoreFile,ioFileOffset); 
+    return new ByteDataHashRAMStore(theKeyStore,theHashStore,theLookupStore,thePtrStore);
+  }
+
+  public void store(StoreFile ioStoreFile, long[] ioFileOffset) { 
+    getKeyStore().store(ioStoreFile,ioFileOffset); 
+    getHashStore().store(ioStoreFile,ioFileOffset); 
+    getLookupStore().store(ioStoreFile,ioFileOffset); 
+    getPtrStore().store(ioStoreFile,ioFileOffset); 
+  }
+
 //--------------------------------------------------------------------------------------------------------
 // getKeyStore
 //--------------------------------------------------------------------------------------------------------
@@ -0,0 +1,383 @@
+//--------------------------------------------------------------------------------------------------------
+// PerfectHashIndex.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.store.hash;
+
+import gravel.sort.*;
+import gravel.store.data.*;
+import gravel.store.var.*;
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// PerfectHashIndex
+//
+// Read only index over a ByteDataStore that will not change again, such as the norm dictionaries.  A
+//   lookup is one hash, one pilot, one slot and one key compare - no chain to walk, no hash to check
+//
+// Built hash and displace (CHD) style - keys hash to buckets of about kBucketSize, and each bucket gets
+//   the smallest pilot that sends all of its keys to free slots, biggest buckets first.  60% of keys go
+//   to 30% of buckets, as in PTHash, so the last buckets placed, into the last free slots, are mostly
+//   single keys.  The pilots are the perfect hash function, at about 3 bits per key.  There are just over 1 slot per key, and each
+//   slot holds the index of its key in the key store, or kNotFound, since the index must give back the
+//   store's own indexes, not an order of its choosing
+//
+// The pilot store holds the seed in param 1, so the index is stored and loaded as 2 VarStores, and
+//   wrap puts it back together over the same keys.  The key store belongs to the caller, and is not
+//   closed with the index
+//--------------------------------------------------------------------------------------------------------
+
+public class PerfectHashIndex implements Constants {
+
+//--------------------------------------------------------------------------------------------------------
+// PerfectHashIndex consts
+//--------------------------------------------------------------------------------------------------------
+
+  public static final int       kBucketSize=5;        // mean keys per bucket
+  public static final double    kFillFactor=0.99;     // keys per slot
+  public static final int       kMaxPilot=0x7fff;     // so pilots fit in 2 bytes
+  public static final int       kMaxNSeeds=32;
+
+//--------------------------------------------------------------------------------------------------------
+// PerfectHashIndex member vars
+//--------------------------------------------------------------------------------------------------------
+
+  private ByteDataStore   mKeyStore;
+  private VarStore        mPilotStore;
+  private VarStore        mSlotStore;
+  private long            mSeed;
+  private long            mNBuckets;
+  private long            mNSlots;
+
+//--------------------------------------------------------------------------------------------------------
+// PerfectHashIndex
+//--------------------------------------------------------------------------------------------------------
+
+  private PerfectHashIndex(ByteDataStore inKeyStore, VarStore inPilotStore, VarStore inSlotStore) {
+    if (inPilotStore.getNParams()<2)
+      throw new StoreException("PerfectHashIndex pilots have no seed");
+    if ((inPilotStore.getSize()<1)||(inSlotStore.getSize()<Math.max(1,inKeyStore.getSize())))
+      throw new StoreException("PerfectHashIndex does not fit keys: "+inKeyStore.getSize()+
+          " keys, "+inSlotStore.getSize()+" slots");
+    mKeyStore=inKeyStore;
+    mPilotStore=inPilotStore;
+    mSlotStore=inSlotStore;
+    mSeed=inPilotStore.getParam(1);
+    mNBuckets=inPilotStore.getSize();
+    mNSlots=inSlotStore.getSize();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// wrap
+//
+// Index over inKeyStore from the pilot and slot stores of an index built over the same keys
+//--------------------------------------------------------------------------------------------------------
+
+  public static PerfectHashIndex wrap(ByteDataStore inKeyStore, VarStore inPilotStore, VarStore inSlotStore) {
+    return new PerfectHashIndex(inKeyStore,inPilotStore,inSlotStore); }
+
+//--------------------------------------------------------------------------------------------------------
+// close
+//--------------------------------------------------------------------------------------------------------
+
+  public void close() {
+    if (mPilotStore!=null) {
+      mPilotStore.close();
+      mPilotStore=null;
+    }
+    if (mSlotStore!=null) {
+      mSlotStore.close();
+      mSlotStore=null;
+    }
+    mKeyStore=null;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// gets
+//--------------------------------------------------------------------------------------------------------
+
+  public long getSize() { return mKeyStore.getSize(); }
+
+  // unprotected access to inner stores - for storing the index
+  public VarStore dangerousGetPilotStore() { return mPilotStore; }
+  public VarStore dangerousGetSlotStore() { return mSlotStore; }
+
+  // Size of the hash function alone, without the slots
+  public double getBitsPerKey() {
+    return 8.0*mPilotStore.getByteSize()/Math.max(1,mKeyStore.getSize()); }
+
+  public long getMemory() {
+    return kObjectMemory+3*kReferenceMemory+3*kLongMemory+mPilotStore.getMemory()+mSlotStore.getMemory(); }
+
+//--------------------------------------------------------------------------------------------------------
+// hash
+//
+// Every byte counts, unlike HashUtils.hash, which skips through long keys, since 2 keys in one bucket
+//   with the same hash can never be split by a pilot
+//--------------------------------------------------------------------------------------------------------
+
+  private static long mix(long inHash) {
+    long theHash=inHash;
+    theHash^=(theHash>>>33);
+    theHash*=0xff51afd7ed558ccdL;
+    theHash^=(theHash>>>33);
+    theHash*=0xc4ceb9fe1a85ec53L;
+    theHash^=(theHash>>>33);
+    return theHash;
+  }
+
+  private static long hash(long inSeed, byte[] inBytes, int inByteDelta, int inNBytes) {
+    long theHash=inSeed^(inNBytes*HashUtils.kBigPrime2);
+    for (int i=0; i<inNBytes; i++) {
+      theHash^=(inBytes[inByteDelta+i]&0x00ff);
+      theHash*=HashUtils.kBigPrime;
+    }
+    return mix(theHash);
+  }
+
+  private static long hashToBucket(long inHash, long inNBuckets) {
+    long theNDenseBuckets=(inNBuckets*3+9)/10;
+    long theHash=inHash>>>1;
+    if ((theHash%10<6)||(theNDenseBuckets==inNBuckets))
+      return (theHash/10)%theNDenseBuckets;
+    else
+      return theNDenseBuckets+(theHash/10)%(inNBuckets-theNDenseBuckets);
+  }
+
+  private static long hashToSlot(long inHash, long inPilot, long inNSlots) {
+    return (mix(inHash^(inPilot*HashUtils.kBigPrime3))>>>1)%inNSlots; }
+
+//--------------------------------------------------------------------------------------------------------
+// build
+//
+// Tries seeds until one gives every bucket a pilot - the first nearly always does
+// A key stored twice is found at its later index, as with HashStore
+//--------------------------------------------------------------------------------------------------------
+
+  public static PerfectHashIndex build(ByteDataStore inKeyStore) {
+    long theNKeys=inKeyStore.getSize();
+    if (theNKeys>Integer.MAX_VALUE/2)
+      throw new StoreException("Too many keys for PerfectHashIndex: "+theNKeys);
+    int theNBuckets=(int) Math.max(1,(theNKeys+kBucketSize-1)/kBucketSize);
+    int theNSlots=(int) Math.max(1,Math.ceil(theNKeys/kFillFactor));
+
+    long[] theHashes=Allocate.newLongs((int) theNKeys);
+    int[] thePilots=Allocate.newInts(theNBuckets);
+    int[] theSlotIndexes=Allocate.newInts(theNSlots);
+    for (int theSeedN=0; theSeedN<kMaxNSeeds; theSeedN++) {
+      long theSeed=HashUtils.kBigPrime*(theSeedN+1);
+      hashKeys(inKeyStore,theSeed,theHashes);
+      if (findPilots(inKeyStore,theHashes,theNBuckets,theNSlots,thePilots,theSlotIndexes)) {
+        int theMaxPilot=0;
+        for (int i=0; i<theNBuckets; i++)
+          theMaxPilot=Math.max(theMaxPilot,thePilots[i]);
+        VarRAMStore thePilotStore=new VarRAMStore(Conversions.calcVarLongSize(theMaxPilot),theNBuckets);
+        thePilotStore.appendVars(thePilots,0,theNBuckets);
+        thePilotStore.setParam(1,theSeed);
+        VarRAMStore theSlotStore=new VarRAMStore(Conversions.calcVarLongSize(theNKeys),theNSlots);
+        theSlotStore.appendVars(theSlotIndexes,0,theNSlots);
+        return new PerfectHashIndex(inKeyStore,thePilotStore,theSlotStore);
+      }
+    }
+    throw new StoreException("Cannot build PerfectHashIndex over "+theNKeys+" keys");
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// hashKeys
+//--------------------------------------------------------------------------------------------------------
+
+  private static void hashKeys(ByteDataStore inKeyStore, long inSeed, long[] ioHashes) {
+    SliceStore theSliceStore=SliceStore.getSliceStore();
+    byte[] theByteSlice=theSliceStore.getByteSlice();
+    for (int i=0; i<ioHashes.length; i++) {
+      int theNBytes=(int) inKeyStore.getNBytes(i);
+      if (theNBytes>theByteSlice.length) {
+        theSliceStore.putByteSlice(theByteSlice);
+        theByteSlice=Allocate.newBytes(theNBytes*2+1);
+      }
+      inKeyStore.getBytes(i,theByteSlice,0);
+      ioHashes[i]=hash(inSeed,theByteSlice,0,theNBytes);
+    }
+    theSliceStore.putByteSlice(theByteSlice);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// findPilots
+//
+// Fills ioPilots for each bucket and ioSlotIndexes for each slot
+// returns false if some bucket has no pilot, or two different keys in it have the same hash, so another
+//   seed is needed
+//--------------------------------------------------------------------------------------------------------
+
+  private static boolean findPilots(ByteDataStore inKeyStore, long[] inHashes, int inNBuckets, int inNSlots,
+      int[] ioPilots, int[] ioSlotIndexes) {
+
+    // Keys by bucket
+    int theNKeys=inHashes.length;
+    int[] theBucketStarts=Allocate.newInts(inNBuckets+1);
+    for (int i=0; i<theNKeys; i++)
+      theBucketStarts[(int) hashToBucket(inHashes[i],inNBuckets)+1]++;
+    int theMaxBucketSize=0;
+    for (int i=0; i<inNBuckets; i++) {
+      theMaxBucketSize=Math.max(theMaxBucketSize,theBucketStarts[i+1]);
+      theBucketStarts[i+1]+=theBucketStarts[i];
+    }
+    int[] theBucketKeys=Allocate.newInts(theNKeys);
+    int[] theBucketFills=Allocate.newInts(inNBuckets);
+    for (int i=0; i<theNKeys; i++) {
+      int theBucketN=(int) hashToBucket(inHashes[i],inNBuckets);
+      theBucketKeys[theBucketStarts[theBucketN]+theBucketFills[theBucketN]++]=i;
+    }
+
+    // Buckets biggest first, while most slots are free
+    int[] theSizeStarts=Allocate.newInts(theMaxBucketSize+2);
+    for (int i=0; i<inNBuckets; i++)
+      theSizeStarts[theMaxBucketSize-(theBucketStarts[i+1]-theBucketStarts[i])+1]++;
+    for (int i=0; i<=theMaxBucketSize; i++)
+      theSizeStarts[i+1]+=theSizeStarts[i];
+    int[] theBucketOrder=Allocate.newInts(inNBuckets);
+    for (int i=0; i<inNBuckets; i++)
+      theBucketOrder[theSizeStarts[theMaxBucketSize-(theBucketStarts[i+1]-theBucketStarts[i])]++]=i;
+
+    for (int i=0; i<inNBuckets; i++)
+      ioPilots[i]=0;
+    for (int i=0; i<inNSlots; i++)
+      ioSlotIndexes[i]=kNotFound;
+    long[] theSlots=Allocate.newLongs(theMaxBucketSize);
+    for (int b=0; b<inNBuckets; b++) {
+      int theBucketN=theBucketOrder[b];
+      int theStart=theBucketStarts[theBucketN];
+      int theSize=theBucketStarts[theBucketN+1]-theStart;
+      if (theSize==0)
+        break;  // rest are empty too
+
+      // Keys in a bucket are in index order, so of a key stored twice, drop the earlier, and start over
+      for (int j=1; j<theSize; j++)
+        for (int k=0; k<j; k++)
+          if (inHashes[theBucketKeys[theStart+j]]==inHashes[theBucketKeys[theStart+k]]) {
+            if (!isSameKey(inKeyStore,theBucketKeys[theStart+j],theBucketKeys[theStart+k]))
+              return false;
+            System.arraycopy(theBucketKeys,theStart+k+1,theBucketKeys,theStart+k,theSize-k-1);
+            theSize--;
+            j=0;
+            break;
+          }
+
+      int thePilot=0;
+      while (true) {
+        boolean theFits=true;
+        for (int j=0; (j<theSize)&&(theFits); j++) {
+          long theSlot=hashToSlot(inHashes[theBucketKeys[theStart+j]],thePilot,inNSlots);
+          if (ioSlotIndexes[(int) theSlot]!=kNotFound)
+            theFits=false;
+          for (int k=0; (k<j)&&(theFits); k++)
+            if (theSlots[k]==theSlot)
+              theFits=false;
+          theSlots[j]=theSlot;
+        }
+        if (theFits)
+          break;
+        if (++thePilot>kMaxPilot)
+          return false;
+      }
+      ioPilots[theBucketN]=thePilot;
+      for (int j=0; j<theSize; j++)
+        ioSlotIndexes[(int) theSlots[j]]=theBucketKeys[theStart+j];
+    }
+    return true;
+  }
+
+  private static boolean isSameKey(ByteDataStore inKeyStore, long inIndex1, long inIndex2) {
+    byte[] theBytes1=inKeyStore.getBytes(inIndex1);
+    byte[] theBytes2=inKeyStore.getBytes(inIndex2);
+    return (Comparisons.compareBytes(theBytes1,0,theBytes1.length,theBytes2,0,theBytes2.length,
+        Comparisons.kBinary)==0);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getIndex
+//
+// If key in store, returns index, else returns kNotFound
+//--------------------------------------------------------------------------------------------------------
+
+  // ioScratch from inScratchDelta on is room for the stored key, to compare with
+  private long getIndex(byte[] inBytes, int inByteDelta, int inNBytes, byte[] ioScratch, int inScratchDelta) {
+    long theHash=hash(mSeed,inBytes,inByteDelta,inNBytes);
+    long thePilot=mPilotStore.getLong(hashToBucket(theHash,mNBuckets));
+    long theIndex=mSlotStore.getLong(hashToSlot(theHash,thePilot,mNSlots));
+    if ((theIndex==kNotFound)||(mKeyStore.getNBytes(theIndex)!=inNBytes))
+      return kNotFound;
+    mKeyStore.getBytes(theIndex,ioScratch,inScratchDelta);
+    if (Comparisons.compareBytes(ioScratch,inScratchDelta,inNBytes,
+        inBytes,inByteDelta,inNBytes,Comparisons.kBinary)!=0)
+      return kNotFound;
+    return theIndex;
+  }
+
+  public long getIndex(byte[] inBytes, int inByteDelta, int inNBytes) {
+    if (inNBytes>SliceStore.kByteSliceSize)
+      return getIndex(inBytes,inByteDelta,inNBytes,Allocate.newBytes(inNBytes),0);
+    else {
+      SliceStore theSliceStore=SliceStore.getSliceStore();
+      byte[] theByteSlice=theSliceStore.getByteSlice();
+      long theIndex=getIndex(inBytes,inByteDelta,inNBytes,theByteSlice,0);
+      theSliceStore.putByteSlice(theByteSlice);
+      return theIndex;
+    }
+  }
+
+  public long getIndex(byte[] inBytes) { return getIndex(inBytes,0,inBytes.length); }
+
+//--------------------------------------------------------------------------------------------------------
+// getIndex
+//
+// If key in store, returns index, else returns kNotFound
+//--------------------------------------------------------------------------------------------------------
+
+  public long getIndex(char[] inChars, int inCharDelta, int inNChars) {
+    if (inNChars*2.4+10>SliceStore.kByteSliceSize)
+      return getIndex(UTF8Utils.charsToUTF8Bytes(inChars,inCharDelta,inNChars));
+    else {
+      SliceStore theSliceStore=SliceStore.getSliceStore();
+      byte[] theByteSlice=theSliceStore.getByteSlice();
+      int theNBytes=UTF8Utils.charsToUTF8Bytes(inChars,inCharDelta,inNChars,theByteSlice,0);
+      long theIndex=(2*theNBytes>theByteSlice.length)?getIndex(theByteSlice,0,theNBytes):
+          getIndex(theByteSlice,0,theNBytes,theByteSlice,theNBytes);
+      theSliceStore.putByteSlice(theByteSlice);
+      return theIndex;
+    }
+  }
+
+  public long getIndex(char[] inChars) { return getIndex(inChars,0,inChars.length); }
+
+//--------------------------------------------------------------------------------------------------------
+// getIndex
+//
+// If key in store, returns index, else returns kNotFound
+//--------------------------------------------------------------------------------------------------------
+
+  public long getIndex(String inString) {
+    int theLength=inString.length();
+    if (theLength*2.4+10>SliceStore.kByteSliceSize)
+      return getIndex(UTF8Utils.stringToUTF8Bytes(inString));
+    else {
+      SliceStore theSliceStore=SliceStore.getSliceStore();
+      byte[] theByteSlice=theSliceStore.getByteSlice();
+      int theNBytes=UTF8Utils.stringToUTF8Bytes(inString,theByteSlice,0);
+      long theIndex=(2*theNBytes>theByteSlice.length)?getIndex(theByteSlice,0,theNBytes):
+          getIndex(theByteSlice,0,theNBytes,theByteSlice,theNBytes);
+      theSliceStore.putByteSlice(theByteSlice);
+      return theIndex;
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// isKnown
+//--------------------------------------------------------------------------------------------------------
+
+  public boolean isKnown(byte[] inBytes, int inByteDelta, int inNBytes) {
+    return (getIndex(inBytes,inByteDelta,inNBytes)!=kNotFound); }
+
+  public boolean isKnown(String inString) { return (getIndex(inString)!=kNotFound); }
+
+}
@@ -0,0 +1,189 @@
+//--------------------------------------------------------------------------------------------------------
+// TestPerfectHashIndex.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.store.hash;
+
+import java.util.*;
+
+import gravel.store.data.*;
+import gravel.store.var.*;
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// TestPerfectHashIndex
+//
+// Builds PerfectHashIndexes over random keys, with keys listed twice, the empty key and keys too long
+//   for a byte slice, and checks each key is found at its last index, by bytes, chars and String, and
+//   that keys not in the store are not found - before and after storing and loading the index
+//--------------------------------------------------------------------------------------------------------
+
+public class TestPerfectHashIndex {
+
+//--------------------------------------------------------------------------------------------------------
+// TestPerfectHashIndex consts
+//--------------------------------------------------------------------------------------------------------
+
+  public static final int[]    kNKeyss=new int[] {0,1,2,5,100,10000,200000};
+  public static final String   kKeyChars="abcdefghijklmnopqrstuvwxyz0123456789-' éßæ中";
+
+//--------------------------------------------------------------------------------------------------------
+// makeKeys
+//
+// inNKeys random keys, about 1 in 20 of them a repeat of an earlier key, plus the empty key and a few
+//   long keys when there is room
+//--------------------------------------------------------------------------------------------------------
+
+  private static String[] makeKeys(int inNKeys, Random inRandom) {
+    String[] theKeys=new String[inNKeys];
+    for (int i=0; i<inNKeys; i++) {
+      if ((i>0)&&(inRandom.nextInt(20)==0))
+        theKeys[i]=theKeys[inRandom.nextInt(i)];
+      else {
+        int theLength=(inRandom.nextInt(100)==0)?SliceStore.kByteSliceSize/2+inRandom.nextInt(100):
+            1+inRandom.nextInt(12);
+        StringBuilder theKey=new StringBuilder();
+        for (int j=0; j<theLength; j++)
+          theKey.append(kKeyChars.charAt(inRandom.nextInt(kKeyChars.length())));
+        theKeys[i]=theKey.toString();
+      }
+    }
+    if (inNKeys>2)
+      theKeys[inRandom.nextInt(inNKeys)]="";
+    return theKeys;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// checkIndex
+//
+// returns the number of keys found at the wrong index, and of missing keys found
+//--------------------------------------------------------------------------------------------------------
+
+  private static int checkIndex(PerfectHashIndex inIndex, String[] inKeys, Random inRandom) {
+
+    // Each key at its last index
+    HashMap<String,Integer> theLastIndexes=new HashMap<String,Integer>();
+    for (int i=0; i<inKeys.length; i++)
+      theLastIndexes.put(inKeys[i],i);
+
+    int theNFailures=0;
+    for (int i=0; i<inKeys.length; i++) {
+      long theExpected=theLastIndexes.get(inKeys[i]);
+      byte[] theBytes=UTF8Utils.stringToUTF8Bytes(inKeys[i]);
+      if ((inIndex.getIndex(inKeys[i])!=theExpected)||
+          (inIndex.getIndex(inKeys[i].toCharArray())!=theExpected)||
+          (inIndex.getIndex(theBytes)!=theExpected)) {
+        if (theNFailures++<5)
+          System.out.println("    "+inKeys[i]+" not at "+theExpected+":  "+inIndex.getIndex(inKeys[i]));
+      }
+    }
+
+    // Keys not in the store, some a byte off a key that is
+    for (int i=0; i<inKeys.length; i++) {
+      String theMissing=(inKeys.length==0)?"missing":inKeys[inRandom.nextInt(inKeys.length)]+
+          kKeyChars.charAt(inRandom.nextInt(kKeyChars.length()));
+      if ((!theLastIndexes.containsKey(theMissing))&&(inIndex.isKnown(theMissing))) {
+        if (theNFailures++<5)
+          System.out.println("    "+theMissing+" found at "+inIndex.getIndex(theMissing));
+      }
+    }
+    return theNFailures;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// storeAndLoad
+//
+// The index stored to a file and loaded back over the same keys
+//--------------------------------------------------------------------------------------------------------
+
+  private static PerfectHashIndex storeAndLoad(PerfectHashIndex inIndex, ByteDataStore inKeyStore)
+      throws Exception {
+    String theFilename=FileUtils.makeTempFile(System.getProperty("java.io.tmpdir"),
+        "TestPerfectHashIndex",".dat");
+    try {
+      StoreFile theStoreFile=new StoreFile(theFilename,false);
+      theStoreFile.open();
+      long[] theFileOffset=new long[] {0};
+      ((VarRAMStore) inIndex.dangerousGetPilotStore()).store(theStoreFile,theFileOffset);
+      ((VarRAMStore) inIndex.dangerousGetSlotStore()).store(theStoreFile,theFileOffset);
+      theStoreFile.close();
+
+      theStoreFile=new StoreFile(theFilename,true);
+      theStoreFile.open();
+      theFileOffset[0]=0;
+      VarRAMStore thePilotStore=VarRAMStore.load(theStoreFile,theFileOffset);
+      VarRAMStore theSlotStore=VarRAMStore.load(theStoreFile,theFileOffset);
+      theStoreFile.close();
+      return PerfectHashIndex.wrap(inKeyStore,thePilotStore,theSlotStore);
+    } finally {
+      FileUtils.deleteFile(theFilename);
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// randomTests
+//--------------------------------------------------------------------------------------------------------
+
+  private static int randomTests() throws Exception {
+
+    long theStartTime=System.currentTimeMillis();
+    System.out.println(FormatUtils.reportHeader("Random keys",theStartTime));
+
+    int theNFailures=0;
+    Random theRandom=new Random(42);
+    for (int i=0; i<kNKeyss.length; i++) {
+      String[] theKeys=makeKeys(kNKeyss[i],theRandom);
+      ByteDataRAMStore theKeyStore=new ByteDataRAMStore(Math.max(1,theKeys.length),
+          Math.max(1,theKeys.length*8));
+      theKeyStore.appendUTF8s(theKeys);
+
+      long theBuildTime=System.currentTimeMillis();
+      PerfectHashIndex theIndex=PerfectHashIndex.build(theKeyStore);
+      theBuildTime=System.currentTimeMillis()-theBuildTime;
+      int theNBuiltFailures=checkIndex(theIndex,theKeys,theRandom);
+      PerfectHashIndex theLoadedIndex=storeAndLoad(theIndex,theKeyStore);
+      int theNLoadedFailures=checkIndex(theLoadedIndex,theKeys,theRandom);
+      System.out.println(theKeys.length+" keys:  built in "+theBuildTime+" ms, "+
+          FormatUtils.formatDouble(theIndex.getBitsPerKey(),2)+" bits per key, "+
+          theNBuiltFailures+" failures built, "+theNLoadedFailures+" failures loaded");
+      theNFailures+=theNBuiltFailures+theNLoadedFailures;
+
+      theLoadedIndex.close();
+      theIndex.close();
+      theKeyStore.close();
+    }
+
+    System.out.println(FormatUtils.reportFooter(theStartTime));
+    return theNFailures;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// run
+//--------------------------------------------------------------------------------------------------------
+
+  private static void run() throws Exception {
+
+    long theStartTime=System.currentTimeMillis();
+    System.out.println(FormatUtils.reportHeader("Test Perfect Hash Index",theStartTime));
+
+    int theNFailures=randomTests();
+    if (theNFailures>0)
+      throw new RuntimeException("Test Perfect Hash Index failed:  "+theNFailures);
+
+    System.out.println(FormatUtils.reportFooter(theStartTime));
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// main
+//--------------------------------------------------------------------------------------------------------
+
+  public static void main(String[] args) {
+    try {
+      run();
+    } catch (Throwable e) {
+      e.printStackTrace(System.err);
+      System.exit(1);
+    }
+  }
+
+}
@@ -7,6 +7,7 @@ package gravel.store.hash;
 import gravel.store.*;
 import gravel.store.data.*;
 import gravel.store.var.*;
+import gravel.utils.*;
 
 //--------------------------------------------------------------------------------------------------------
 // VarDataHashDiskStore
@@ -86,6 +87,39 @@ public class VarDataHashDiskStore extends VarDataHashStore implements DiskStoreI
     return getKeyStore().getFileSize()+getLookupStore().getFileSize()+
         getPtrStore().getFileSize(); }
 
+//--------------------------------------------------------------------------------------------------------
+// flush
+//--------------------------------------------------------------------------------------------------------
+
+  public void flush() {
+    getKeyStore().flush();
+    getHashStore().flush();
+    getLookupStore().flush();
+    getPtrStore().flush();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// sync
+//--------------------------------------------------------------------------------------------------------
+
+  public void sync() {
+    getKeyStore().sync();
+    getHashStore().sync();
+    getLookupStore().sync();
+    getPtrStore().sync();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setBlockCache
+//--------------------------------------------------------------------------------------------------------
+
+  public void setBlockCache(BlockCache inBlockCache) {
+    getKeyStore().setBlockCache(inBlockCache);
+    getHashStore().setBlockCache(inBlockCache);
+    getLookupStore().setBlockCache(inBlockCache);
+    getPtrStore().setBlockCache(inBlockCache);
+  }
+
 //--------------------------------------------------------------------------------------------------------
 // copy
 //--------------------------------------------------------------------------------------------------------
@@ -6,6 +6,7 @@ package gravel.store.hash;
 
 import gravel.store.*;
 import gravel.store.var.*;
+import gravel.utils.*;
 
 //--------------------------------------------------------------------------------------------------------
 // VarHashDiskStore
@@ -76,6 +77,36 @@ public class VarHashDiskStore extends VarHashStore implements DiskStoreInterface
   public long getFileSize() { 
     return getKeyStore().getFileSize()+getLookupStore().getFileSize()+getPtrStore().getFileSize(); }
 
+//--------------------------------------------------------------------------------------------------------
+// flush
+//--------------------------------------------------------------------------------------------------------
+
+  public void flush() {
+    getKeyStore().flush();
+    getLookupStore().flush();
+    getPtrStore().flush();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// sync
+//--------------------------------------------------------------------------------------------------------
+
+  public void sync() {
+    getKeyStore().sync();
+    getLookupStore().sync();
+    getPtrStore().sync();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setBlockCache
+//--------------------------------------------------------------------------------------------------------
+
+  public void setBlockCache(BlockCache inBlockCache) {
+    getKeyStore().setBlockCache(inBlockCache);
+    getLookupStore().setBlockCache(inBlockCache);
+    getPtrStore().setBlockCache(inBlockCache);
+  }
+
 //--------------------------------------------------------------------------------------------------------
 // copy
 //--------------------------------------------------------------------------------------------------------
@@ -5,12 +5,20 @@
 package gravel.store.plain;
 
 import java.io.*;
+import java.util.*;
 
 import gravel.store.*;
 import gravel.utils.*;
 
 //--------------------------------------------------------------------------------------------------------
 // ByteDiskStore
+//
+// One StoreFile, read and written at file offsets, so threads share it and its write behind buffer.  Size
+//   and params are written to the header on flush, sync and close, rather than on every change, so
+//   appends stay sequential - the file is only consistent, for another reader, after one of them
+//
+// Reads can go through a BlockCache, shared with other stores - see setBlockCache.  Worth it for small
+//   random reads, like hash lookups.  Writes invalidate the pages they touch
 //--------------------------------------------------------------------------------------------------------
 
 public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
@@ -25,7 +33,8 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
   //    5       1     number of params
   //   6-7      2     avail
   //   8-15     8     store size (store capacity is file length minus header length)
-  //  16-31    16     avail - could use as offset to next store in file - would determine capacity
+  //  16-23     8     offset of next store in file, when several stores share one file, else avail
+  //  24-31     8     avail
   //  32-63    32     4 long params 
   
   public static final int      kFileHeaderSize=64;  // in bytes
@@ -39,7 +48,10 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
 
   private boolean       mReadOnly;
   private String        mFilename;
-  private BasePool      mFilePool;
+  private StoreFile     mStoreFile;
+  private boolean       mHeaderDirty;   // size or params changed since header written
+  private BlockCache    mBlockCache;    // null if not cached
+  private long          mCacheId;
 
 //--------------------------------------------------------------------------------------------------------
 // ByteDiskStore - create
@@ -56,30 +68,14 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
       }
       FileUtils.deleteFile(inFilename);
 
-      StoreFile theStoreFile=new StoreFile(inFilename,false);
-      theStoreFile.open();
-      theStoreFile.setLength(getFileSize());
-      
-      SliceStore theSliceStore=SliceStore.getSliceStore();
-      byte[] theHeaderBytes=Allocate.newBytes(kFileHeaderSize);
-      UTF8Utils.stringToUTF8Bytes(kMagicCookieVersion,theHeaderBytes);
-      if (inParams!=null)
-        theHeaderBytes[5]=(byte) inParams.length;
-      Conversions.longToBytes(getSize(),theHeaderBytes,8);
-      if (inParams!=null) 
-        Conversions.longsToBytes(inParams,0,inParams.length,theHeaderBytes,32);
-      
-      theStoreFile.seek(0);
-      theStoreFile.writeBytes(theHeaderBytes,0,kFileHeaderSize);
-      
-      theSliceStore.putByteSlice(theHeaderBytes);
+      mStoreFile=new StoreFile(inFilename,false);
+      mStoreFile.open();
+      mStoreFile.setLength(getFileSize());
 
       mReadOnly=false;
       mFilename=inFilename;
-      mFilePool=new BasePool(1) {      
-        protected PoolObjectInterface newPoolObject() { 
-          return new StoreFile(mFilename,mReadOnly); }};
-      mFilePool.putPoolObject(theStoreFile);
+      mHeaderDirty=true;
+      flushHeader();
 
     } catch (Exception e) {
       throw new StoreException("Cannot create "+inFilename,e);
@@ -115,7 +111,8 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
 
       StoreFile theStoreFile=new StoreFile(inFilename,mReadOnly);
       theStoreFile.open();
-      theStoreFile.readBytes(theHeaderBytes,0,kFileHeaderSize);
+      mStoreFile=theStoreFile;
+      theStoreFile.readBytes(0,theHeaderBytes,0,kFileHeaderSize);
       long theLength=theStoreFile.getLength();
 
       if (!UTF8Utils.bytesToUTF8String(theHeaderBytes,0,4).equals(kMagicCookieVersion))
@@ -141,12 +138,13 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
       theSliceStore.putByteSlice(theHeaderBytes);
       
       mFilename=inFilename;
-      mFilePool=new BasePool(1) {      
-        protected PoolObjectInterface newPoolObject() { 
-          return new StoreFile(mFilename,mReadOnly); }};
-      mFilePool.putPoolObject(theStoreFile);
+      mHeaderDirty=false;
 
     } catch (Exception e) {
+      if (mStoreFile!=null) {
+        mStoreFile.close();
+        mStoreFile=null;
+      }
       throw new StoreException("Cannot open "+inFilename,e);
     }
   }
@@ -163,12 +161,18 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
 //--------------------------------------------------------------------------------------------------------
 
   public void close() {
-    mFilename=null;
-    if (mFilePool!=null) {
-      mFilePool.close();
-      mFilePool=null;
+    StoreFile theStoreFile=mStoreFile;
+    try {
+      if ((theStoreFile!=null)&&(!getIsClosed()))
+        flushHeader();
+    } finally {
+      mFilename=null;
+      mStoreFile=null;
+      mBlockCache=null;
+      if (theStoreFile!=null)
+        theStoreFile.close();
+      super.close();
     }
-    super.close();
   }
 
 //--------------------------------------------------------------------------------------------------------
@@ -210,9 +214,9 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
       if (getIsClosed())
         throw new StoreException("Store closed");
     long theMemory=super.getMemory()+
-        3*kReferenceMemory+kBooleanMemory+kLongMemory+
+        4*kReferenceMemory+kBooleanMemory+2*kLongMemory+
         Allocate.getStringMemory(mFilename)+
-        2*k1K;  // Extra 2K is approx for FilePool - Don't know what to do about cache
+        StoreFile.kWriteBufferSize+k1K;  // Extra 1K is approx for StoreFile - BlockCache is shared, not counted
     return theMemory;
   }
 
@@ -230,20 +234,71 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
     if (kRangeChecking) 
       if (getIsClosed())
         throw new StoreException("Store closed");
-    try {
-      return (StoreFile) mFilePool.getPoolObject(); 
-    } catch (StoreException e) {
-      throw e;
-    } catch (Exception e) {
-      throw new StoreException("Cannot get store file "+mFilename,e);
+    return mStoreFile;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setBlockCache
+//
+// Reads go through inBlockCache, or straight to the file if null.  Typically BlockCache.getBlockCache()
+//--------------------------------------------------------------------------------------------------------
+
+  public synchronized void setBlockCache(BlockCache inBlockCache) {
+    mBlockCache=inBlockCache;
+    mCacheId=BlockCache.newCacheId();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getBlockCache
+//--------------------------------------------------------------------------------------------------------
+
+  public BlockCache getBlockCache() { return mBlockCache; }
+
+//--------------------------------------------------------------------------------------------------------
+// flushHeader
+//
+// Writes size and params to the header, if changed since last written - other header bytes kept
+//--------------------------------------------------------------------------------------------------------
+
+  private synchronized void flushHeader() {
+    if (mHeaderDirty) {
+      byte[] theHeaderBytes=new byte[kFileHeaderSize];
+      mStoreFile.readBytes(0,theHeaderBytes,0,kFileHeaderSize);
+      UTF8Utils.stringToUTF8Bytes(kMagicCookieVersion,theHeaderBytes);
+      Arrays.fill(theHeaderBytes,32,kFileHeaderSize,(byte) 0);
+      int theNParams=getNParams();
+      theHeaderBytes[5]=(byte) theNParams;
+      Conversions.longToBytes(getSize(),theHeaderBytes,8);
+      for (int i=0; i<theNParams; i++)
+        Conversions.longToBytes(getParam(i),theHeaderBytes,32+i*8);
+      mStoreFile.writeBytes(0,theHeaderBytes,0,kFileHeaderSize);
+      mHeaderDirty=false;
     }
   }
 
 //--------------------------------------------------------------------------------------------------------
-// putStoreFile
+// flush
+//
+// Writes the header and any buffered writes to the file
+//--------------------------------------------------------------------------------------------------------
+
+  public void flush() {
+    StoreFile theStoreFile=getStoreFile();
+    flushHeader();
+    theStoreFile.flush();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// sync
+//
+// Flushes, and forces the file to disk
 //--------------------------------------------------------------------------------------------------------
 
-  private void putStoreFile(StoreFile inStoreFile) { mFilePool.putPoolObject(inStoreFile); }
+  public void sync() {
+    StoreFile theStoreFile=getStoreFile();
+    flushHeader();
+    theStoreFile.sync();
+  }
 
 //--------------------------------------------------------------------------------------------------------
 // setSize
@@ -253,14 +308,8 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
     long theOldSize=getSize();
     super.setSize(inSize);
     long theNewSize=getSize();
-    if (theOldSize!=theNewSize) {
-      byte[] theBytes=new byte[8];
-      Conversions.longToBytes(theNewSize,theBytes,0);
-      StoreFile theStoreFile=getStoreFile();
-      theStoreFile.seek(8);      
-      theStoreFile.writeBytes(theBytes); 
-      putStoreFile(theStoreFile);
-    }
+    if (theOldSize!=theNewSize)
+      mHeaderDirty=true;
   }
   
 //--------------------------------------------------------------------------------------------------------
@@ -277,9 +326,10 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
         throw new StoreException("Store closed");
 
     if (theNewCapacity!=theOldCapacity) {
-      StoreFile theStoreFile=getStoreFile();
-      theStoreFile.setLength(calcFileOffset(theNewCapacity));
-      putStoreFile(theStoreFile);
+      getStoreFile().setLength(calcFileOffset(theNewCapacity));
+      // Cached last page is short or past end - drop all pages
+      if (mBlockCache!=null)
+        mCacheId=BlockCache.newCacheId();
     }
   }
 
@@ -291,12 +341,8 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
     int theOldNParams=getNParams();
     super.setNParams(inNParams);
     int theNewNParams=getNParams();
-    if (theOldNParams!=theNewNParams) {
-      StoreFile theStoreFile=getStoreFile();
-      theStoreFile.seek(5);
-      theStoreFile.writeByte((byte) inNParams); 
-      putStoreFile(theStoreFile);
-    }
+    if (theOldNParams!=theNewNParams)
+      mHeaderDirty=true;
   }
 
 //--------------------------------------------------------------------------------------------------------
@@ -309,14 +355,8 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
     long theOldParam=getParam(inIndex);
     super.setParam(inIndex,inParam);
     long theNewParam=getParam(inIndex);
-    if (theOldParam!=theNewParam) {
-      byte[] theBytes=new byte[8];
-      Conversions.longToBytes(theNewParam,theBytes,0);
-      StoreFile theStoreFile=getStoreFile();
-      theStoreFile.seek(32+inIndex*8);
-      theStoreFile.writeBytes(theBytes,0,8); 
-      putStoreFile(theStoreFile);
-    }
+    if (theOldParam!=theNewParam)
+      mHeaderDirty=true;
   }
  
 //--------------------------------------------------------------------------------------------------------
@@ -328,11 +368,10 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
   public void copy(String inFilename, boolean inCompact) {
     if (!mFilename.equals(inFilename)) {
       try {
-        mFilePool.drain();
+        flush();
         FileUtils.copyBinaryFile(mFilename,inFilename);
         if (inCompact)
           FileUtils.setFileLength(inFilename,calcFileOffset(getSize()));
-        mFilePool.stopDrain();
       } catch (Exception e) {
         throw new StoreException("Cannot copy "+mFilename+" --> "+inFilename,e);
       }
@@ -369,11 +408,10 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
         throw new StoreException("Offset past end: "+inOffset+">="+getSize());
     }
       
-    StoreFile theStoreFile=getStoreFile();
-    theStoreFile.seek(calcFileOffset(inOffset));
-    byte theByte=theStoreFile.readByte(); 
-    putStoreFile(theStoreFile);
-    return theByte;
+    BlockCache theBlockCache=mBlockCache;
+    if (theBlockCache!=null)
+      return theBlockCache.readByte(mCacheId,getStoreFile(),getFileSize(),calcFileOffset(inOffset));
+    return getStoreFile().readByte(calcFileOffset(inOffset));
   }
 
 //--------------------------------------------------------------------------------------------------------
@@ -411,10 +449,12 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
     }
     
     if (inNBytes>0) {
-      StoreFile theStoreFile=getStoreFile();
-      theStoreFile.seek(calcFileOffset(inOffset));
-      theStoreFile.readBytes(ioBytes,inByteDelta,inNBytes); 
-      putStoreFile(theStoreFile);
+      BlockCache theBlockCache=mBlockCache;
+      if (theBlockCache!=null)
+        theBlockCache.readBytes(mCacheId,getStoreFile(),getFileSize(),
+            calcFileOffset(inOffset),ioBytes,inByteDelta,inNBytes);
+      else
+        getStoreFile().readBytes(calcFileOffset(inOffset),ioBytes,inByteDelta,inNBytes);
     }
   }
 
@@ -432,10 +472,10 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
         throw new StoreException("Offset past end: "+inOffset+">="+getSize());
     }
       
-    StoreFile theStoreFile=getStoreFile();
-    theStoreFile.seek(calcFileOffset(inOffset));
-    theStoreFile.writeByte(inByte); 
-    putStoreFile(theStoreFile);
+    getStoreFile().writeByte(calcFileOffset(inOffset),inByte);
+    BlockCache theBlockCache=mBlockCache;
+    if (theBlockCache!=null)
+      theBlockCache.invalidate(mCacheId,calcFileOffset(inOffset),1);
   }
 
 //--------------------------------------------------------------------------------------------------------
@@ -512,10 +552,10 @@ public class ByteDiskStore extends ByteStore implements DiskStoreInterface {
     }
 
     if (inNBytes>0) {
-      StoreFile theStoreFile=getStoreFile();
-      theStoreFile.seek(calcFileOffset(inOffset));
-      theStoreFile.writeBytes(inBytes,inByteDelta,inNBytes); 
-      putStoreFile(theStoreFile);
+      getStoreFile().writeBytes(calcFileOffset(inOffset),inBytes,inByteDelta,inNBytes);
+      BlockCache theBlockCache=mBlockCache;
+      if (theBlockCache!=null)
+        theBlockCache.invalidate(mCacheId,calcFileOffset(inOffset),inNBytes);
     }
   }
  
@@ -0,0 +1,732 @@
+//--------------------------------------------------------------------------------------------------------
+// ByteMappedStore.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.store.plain;
+
+import java.nio.*;
+
+import gravel.store.*;
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// ByteMappedStore
+//
+// Store over a memory mapped file, in ByteDiskStore layout - either a whole store file, or one store in a
+//   file that several stores share, see ByteRAMStore.store(StoreFile,long[])
+//
+// The bytes live in the OS page cache, not the heap, so every process that maps the same file shares one
+//   copy, loading is a map rather than a read, and a random read is a memory access rather than a seek
+//   and read.  Mapped in segments of 1G, since a MappedByteBuffer cannot hold more than 2G
+//
+// Read only when loaded from a shared file, or by load(String) - any change throws.  Read write when
+//   created, or loaded by load(String,false) - the header is mapped too, so size and params changes are
+//   written in place, and growing the capacity grows the file and maps the new segments.  Full segments
+//   are kept on remap, so readers holding the old segments still see every write
+//
+// Reads are absolute gets, so safe from any number of threads.  Writes change only the bytes written, as
+//   in ByteRAMStore.  flush has nothing to do, since writes land in the page cache - sync forces them to
+//   disk, and close syncs.  A shrunk capacity is cut from the file at close
+//
+// close drops the segments, and the OS unmaps them when they are garbage collected - never explicitly,
+//   since a reader still holding a segment would crash the JVM
+//--------------------------------------------------------------------------------------------------------
+
+public class ByteMappedStore extends ByteStore implements DiskStoreInterface {
+
+//--------------------------------------------------------------------------------------------------------
+// ByteMappedStore consts
+//--------------------------------------------------------------------------------------------------------
+
+  public static final int      kSegmentShift=30;
+  public static final long     kSegmentSize=1L<<kSegmentShift;
+  public static final long     kSegmentMask=kSegmentSize-1;
+
+//--------------------------------------------------------------------------------------------------------
+// ByteMappedStore member vars
+//--------------------------------------------------------------------------------------------------------
+
+  private String                        mFilename;
+  private boolean                       mReadOnly;
+  private boolean                       mShared;      // one of several stores in its file
+  private StoreFile                     mStoreFile;   // open only if read write
+  private MappedByteBuffer              mHeader;      // only if read write
+  private volatile MappedByteBuffer[]   mSegments;
+
+//--------------------------------------------------------------------------------------------------------
+// ByteMappedStore
+//--------------------------------------------------------------------------------------------------------
+
+  private ByteMappedStore(String inFilename, long inSize, long[] inParams, MappedByteBuffer[] inSegments,
+      boolean inShared) {
+    super(inSize,inSize,inParams);
+    mFilename=inFilename;
+    mReadOnly=true;
+    mShared=inShared;
+    mSegments=inSegments;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// ByteMappedStore - create
+//
+// Read write, in a new file
+//--------------------------------------------------------------------------------------------------------
+
+  public ByteMappedStore(String inFilename, long inCapacity, long[] inParams) {
+    super(0,inCapacity,inParams);
+    try {
+
+      int thePos=Math.max(inFilename.lastIndexOf('/'),inFilename.lastIndexOf('\\'));
+      if (thePos>0) {
+        String theDirname=inFilename.substring(0,thePos);
+        DirUtils.makeDir(theDirname,false);
+      }
+      FileUtils.deleteFile(inFilename);
+
+      mStoreFile=new StoreFile(inFilename,false);
+      mStoreFile.open();
+      mStoreFile.setLength(getFileSize());
+
+      mHeader=mStoreFile.map(0,ByteDiskStore.kFileHeaderSize);
+      byte[] theCookieBytes=UTF8Utils.stringToUTF8Bytes(ByteDiskStore.kMagicCookieVersion);
+      for (int i=0; i<4; i++)
+        mHeader.put(i,theCookieBytes[i]);
+      writeHeader();
+
+      mFilename=inFilename;
+      mReadOnly=false;
+      mSegments=mapSegments(mStoreFile,ByteDiskStore.kFileHeaderSize,getCapacity(),null);
+
+    } catch (Exception e) {
+      if (mStoreFile!=null) {
+        mStoreFile.close();
+        mStoreFile=null;
+      }
+      throw new StoreException("Cannot create "+inFilename,e);
+    }
+  }
+
+  public ByteMappedStore(String inFilename, long inCapacity) {
+    this(inFilename,inCapacity,null); }
+
+  public ByteMappedStore(String inFilename) { this(inFilename,16); }
+
+//--------------------------------------------------------------------------------------------------------
+// mapSegments
+//
+// Segments over inNBytes of the file from inFileOffset, keeping the full segments of inOldSegments
+//--------------------------------------------------------------------------------------------------------
+
+  private static MappedByteBuffer[] mapSegments(StoreFile inStoreFile, long inFileOffset, long inNBytes,
+      MappedByteBuffer[] inOldSegments) {
+    int theNSegments=(int) ((inNBytes+kSegmentMask)>>>kSegmentShift);
+    MappedByteBuffer[] theSegments=new MappedByteBuffer[Math.max(1,theNSegments)];
+    for (int i=0; i<theSegments.length; i++) {
+      long theSegmentOffset=i*kSegmentSize;
+      long theNBytes=Math.min(kSegmentSize,inNBytes-theSegmentOffset);
+      if ((inOldSegments!=null)&&(i<inOldSegments.length)&&(inOldSegments[i].limit()==theNBytes))
+        theSegments[i]=inOldSegments[i];
+      else
+        theSegments[i]=inStoreFile.map(inFileOffset+theSegmentOffset,theNBytes);
+    }
+    return theSegments;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// map
+//
+// Reads the header at inFileOffset and maps the store bytes after it, read only
+// Leaves ioNextFileOffset[0] at the offset of the next store, if the header has one, else 0
+//--------------------------------------------------------------------------------------------------------
+
+  private static ByteMappedStore map(StoreFile inStoreFile, long inFileOffset, long[] ioNextFileOffset,
+      boolean inShared) {
+    String theFilename=inStoreFile.getFilename();
+    byte[] theHeaderBytes=Allocate.newBytes(ByteDiskStore.kFileHeaderSize);
+    inStoreFile.readBytes(inFileOffset,theHeaderBytes,0,ByteDiskStore.kFileHeaderSize);
+    if (!UTF8Utils.bytesToUTF8String(theHeaderBytes,0,4).equals(ByteDiskStore.kMagicCookieVersion))
+      throw new StoreException("Store file corrupt at "+inFileOffset+":  "+theFilename);
+
+    long theFileOffset=inFileOffset+ByteDiskStore.kFileHeaderSize;
+    long theSize=Conversions.bytesToLong(theHeaderBytes,8);
+    int theNParams=theHeaderBytes[5];
+    if ((theSize<0)||(theFileOffset+theSize>inStoreFile.getLength())||
+        (theNParams<0)||(theNParams>ByteDiskStore.kNParams))
+      throw new StoreException("Store file corrupt at "+inFileOffset+":  "+theFilename);
+    long[] theParams=null;
+    if (theNParams>0) {
+      theParams=new long[theNParams];
+      for (int i=0; i<theNParams; i++)
+        theParams[i]=Conversions.bytesToLong(theHeaderBytes,32+i*8);
+    }
+    ioNextFileOffset[0]=Conversions.bytesToLong(theHeaderBytes,16);
+
+    MappedByteBuffer[] theSegments=mapSegments(inStoreFile,theFileOffset,theSize,null);
+    return new ByteMappedStore(theFilename,theSize,theParams,theSegments,inShared);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// load
+//
+// Read only unless inReadOnly is false - read write maps the whole file, so capacity is the file length
+//   less the header, as for ByteDiskStore
+//--------------------------------------------------------------------------------------------------------
+
+  public static ByteMappedStore load(String inFilename, boolean inReadOnly) {
+    StoreFile theStoreFile=new StoreFile(inFilename,inReadOnly);
+    try {
+      theStoreFile.open();
+      ByteMappedStore theByteMappedStore=map(theStoreFile,0,new long[1],false);
+      if (!inReadOnly) {
+        long theCapacity=theStoreFile.getLength()-ByteDiskStore.kFileHeaderSize;
+        theByteMappedStore.mStoreFile=theStoreFile;
+        theByteMappedStore.mHeader=theStoreFile.map(0,ByteDiskStore.kFileHeaderSize);
+        theByteMappedStore.mReadOnly=false;
+        theByteMappedStore.setCapacity(theCapacity);
+      }
+      return theByteMappedStore;
+    } catch (StoreException e) {
+      theStoreFile.close();
+      throw e;
+    } catch (Exception e) {
+      theStoreFile.close();
+      throw new StoreException("Cannot map "+inFilename,e);
+    } finally {
+      if (inReadOnly)
+        theStoreFile.close();
+    }
+  }
+
+  public static ByteMappedStore load(String inFilename) { return load(inFilename,true); }
+
+//--------------------------------------------------------------------------------------------------------
+// load - from shared file
+//
+// Maps a store written by ByteRAMStore.store(StoreFile,long[]) at ioFileOffset[0], and moves
+//   ioFileOffset[0] past it.  Read only.  inStoreFile must be open read only, and may be closed once all
+//   are mapped
+//--------------------------------------------------------------------------------------------------------
+
+  public static ByteMappedStore load(StoreFile inStoreFile, long[] ioFileOffset) {
+    long theFileOffset=ioFileOffset[0];
+    long[] theNextFileOffset=new long[1];
+    ByteMappedStore theByteMappedStore=map(inStoreFile,theFileOffset,theNextFileOffset,true);
+    if (theNextFileOffset[0]!=theFileOffset+ByteDiskStore.kFileHeaderSize+theByteMappedStore.getSize())
+      throw new StoreException("Store file corrupt at "+theFileOffset+":  "+inStoreFile.getFilename());
+    ioFileOffset[0]=theNextFileOffset[0];
+    return theByteMappedStore;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// close
+//
+// Syncs if read write, and cuts the file to the capacity
+//--------------------------------------------------------------------------------------------------------
+
+  public void close() {
+    StoreFile theStoreFile=mStoreFile;
+    long theFileSize=(getIsClosed())?kNotFound:getFileSize();
+    try {
+      if ((theStoreFile!=null)&&(!getIsClosed()))
+        sync();
+    } finally {
+      mFilename=null;
+      mStoreFile=null;
+      mHeader=null;
+      mSegments=null;
+      super.close();
+      if (theStoreFile!=null) {
+        try {
+          if ((theFileSize!=kNotFound)&&(theStoreFile.getLength()>theFileSize))
+            theStoreFile.setLength(theFileSize);
+        } catch (StoreException e) {
+          // Some systems cannot cut a file still mapped - the slack is harmless
+        }
+        theStoreFile.close();
+      }
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getIsClosed
+//--------------------------------------------------------------------------------------------------------
+
+  public boolean getIsClosed() { return (mSegments==null); }
+
+//--------------------------------------------------------------------------------------------------------
+// getFilename
+//--------------------------------------------------------------------------------------------------------
+
+  public String getFilename() { return mFilename; }
+
+//--------------------------------------------------------------------------------------------------------
+// getFileSize
+//--------------------------------------------------------------------------------------------------------
+
+  public long getFileSize() { return getCapacity()+ByteDiskStore.kFileHeaderSize; }
+
+//--------------------------------------------------------------------------------------------------------
+// getReadOnly
+//--------------------------------------------------------------------------------------------------------
+
+  public boolean getReadOnly() { return mReadOnly; }
+
+//--------------------------------------------------------------------------------------------------------
+// getMemory
+//--------------------------------------------------------------------------------------------------------
+
+  public long getMemory() {
+    if (kRangeChecking)
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+    long theMemory=super.getMemory()+
+        5*kReferenceMemory+2*kBooleanMemory+
+        Allocate.getStringMemory(mFilename)+
+        Allocate.getArrayMemory(mSegments)+
+        mSegments.length*k1K;  // approx for each MappedByteBuffer - mapped bytes are not on the heap
+    if (mStoreFile!=null)
+      theMemory+=k1K+k1K;    // approx for StoreFile and header
+    return theMemory;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getContentMemory
+//--------------------------------------------------------------------------------------------------------
+
+  public long getContentMemory() { return 0; }
+
+//--------------------------------------------------------------------------------------------------------
+// flush
+//
+// Nothing to write - mapped writes are already in the page cache
+//--------------------------------------------------------------------------------------------------------
+
+  public void flush() {
+    if (kRangeChecking)
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// sync
+//
+// Forces the header and segments to disk, if read write
+//--------------------------------------------------------------------------------------------------------
+
+  public void sync() {
+    if (kRangeChecking)
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+    if (!mReadOnly) {
+      mHeader.force();
+      MappedByteBuffer[] theSegments=mSegments;
+      for (int i=0; i<theSegments.length; i++)
+        theSegments[i].force();
+      mStoreFile.sync();
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// copy
+//
+// Not for a store in a shared file
+//--------------------------------------------------------------------------------------------------------
+
+  public void copy(String inFilename, boolean inCompact) {
+    if (mShared)
+      throw new StoreException("Cannot copy store in shared file "+mFilename);
+    if (!mFilename.equals(inFilename)) {
+      try {
+        FileUtils.copyBinaryFile(mFilename,inFilename);
+        if (inCompact)
+          FileUtils.setFileLength(inFilename,getSize()+ByteDiskStore.kFileHeaderSize);
+        else
+          FileUtils.setFileLength(inFilename,getFileSize());
+      } catch (Exception e) {
+        throw new StoreException("Cannot copy "+mFilename+" --> "+inFilename,e);
+      }
+    }
+  }
+
+  public void copy(String inFilename) { copy(inFilename,true); }
+
+//--------------------------------------------------------------------------------------------------------
+// closeAndDelete
+//
+// Not for a store in a shared file
+//--------------------------------------------------------------------------------------------------------
+
+  public void closeAndDelete() {
+    if (mShared)
+      throw new StoreException("Cannot delete store in shared file "+mFilename);
+    String theFilename=mFilename;
+    try {
+      close();
+      FileUtils.deleteFile(theFilename);
+    } catch (Exception e) {
+      throw new StoreException("Cannot close and delete "+theFilename,e);
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// read only - changes throw, except setting what is already set, which the nesting stores do
+//--------------------------------------------------------------------------------------------------------
+
+  private StoreException readOnly() {
+    return new StoreException("Mapped store is read only:  "+mFilename); }
+
+//--------------------------------------------------------------------------------------------------------
+// writeHeader
+//
+// Size and params into the mapped header
+//--------------------------------------------------------------------------------------------------------
+
+  private void writeHeader() {
+    int theNParams=getNParams();
+    mHeader.put(5,(byte) theNParams);
+    mHeader.putLong(8,getSize());
+    for (int i=0; i<ByteDiskStore.kNParams; i++)
+      mHeader.putLong(32+i*8,(i<theNParams)?getParam(i):0);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setSize
+//--------------------------------------------------------------------------------------------------------
+
+  public void setSize(long inSize) {
+    if (mReadOnly) {
+      if (inSize!=getSize())
+        throw readOnly();
+    } else if (inSize!=getSize()) {
+      super.setSize(inSize);
+      mHeader.putLong(8,inSize);
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setCapacity
+//
+// Grows the file first, if needed, then maps the new segments - a shrunk capacity is cut from the file
+//   at close, since segments may still be in use
+//--------------------------------------------------------------------------------------------------------
+
+  public void setCapacity(long inCapacity) {
+    if (mReadOnly) {
+      if (inCapacity!=getCapacity())
+        throw readOnly();
+      return;
+    }
+    long theOldCapacity=getCapacity();
+    super.setCapacity(inCapacity);
+    long theNewCapacity=getCapacity();
+
+    if (kRangeChecking)
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+
+    if (theNewCapacity!=theOldCapacity) {
+      long theFileSize=theNewCapacity+ByteDiskStore.kFileHeaderSize;
+      if (theFileSize>mStoreFile.getLength())
+        mStoreFile.setLength(theFileSize);
+      mSegments=mapSegments(mStoreFile,ByteDiskStore.kFileHeaderSize,theNewCapacity,mSegments);
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setNParams
+//--------------------------------------------------------------------------------------------------------
+
+  public void setNParams(int inNParams) {
+    if (mReadOnly) {
+      if (inNParams!=getNParams())
+        throw readOnly();
+    } else {
+      super.setNParams(inNParams);
+      writeHeader();
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setParam
+//--------------------------------------------------------------------------------------------------------
+
+  public void setParam(int inIndex, long inParam) {
+    if (mReadOnly) {
+      if (inParam!=getParam(inIndex))
+        throw readOnly();
+    } else {
+      super.setParam(inIndex,inParam);
+      writeHeader();
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getByte
+//--------------------------------------------------------------------------------------------------------
+
+  public byte getByte(long inOffset) {
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inOffset>=getSize())
+        throw new StoreException("Offset past end: "+inOffset+">="+getSize());
+    }
+    return mSegments[(int) (inOffset>>>kSegmentShift)].get((int) (inOffset&kSegmentMask));
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getVarLong
+//--------------------------------------------------------------------------------------------------------
+
+  public long getVarLong(long inOffset, int inLongSize) {
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if ((inLongSize<1)||(inLongSize>8))
+        throw new StoreException("Invalid LongSize: "+inLongSize);
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inOffset+inLongSize>getSize())
+        throw new StoreException("Offset+LongSize past end: "+inOffset+"+"+inLongSize+">"+getSize());
+    }
+
+    MappedByteBuffer[] theSegments=mSegments;
+    MappedByteBuffer theSegment=theSegments[(int) (inOffset>>>kSegmentShift)];
+    int theSegmentOffset=(int) (inOffset&kSegmentMask);
+    long theLong;
+
+    // Buffers are big endian, so one getLong if 8 bytes left in segment
+    if (theSegmentOffset+8<=theSegment.limit())
+      theLong=theSegment.getLong(theSegmentOffset)>>((8-inLongSize)<<3);  // Keeps sign
+
+    // else build long byte by byte - near end of store or crossing segment break
+    else {
+      theLong=theSegment.get(theSegmentOffset);  // First byte has sign
+      for (int i=1; i<inLongSize; i++) {
+        long theOffset=inOffset+i;
+        theLong<<=8;
+        theLong|=(theSegments[(int) (theOffset>>>kSegmentShift)].get((int) (theOffset&kSegmentMask))&0x00ff);
+      }
+    }
+    return theLong;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getVarDouble
+//--------------------------------------------------------------------------------------------------------
+
+  public double getVarDouble(long inOffset, int inDoubleSize) {
+    long theLong=getVarLong(inOffset,inDoubleSize);
+    theLong<<=(64-8*inDoubleSize);
+    return Conversions.longToDouble(theLong);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getBytes
+//--------------------------------------------------------------------------------------------------------
+
+  public void getBytes(long inOffset, byte[] ioBytes, int inByteDelta, int inNBytes) {
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inNBytes<0)
+        throw new StoreException("Negative NBytes: "+inNBytes);
+      if (inByteDelta<0)
+        throw new StoreException("Negative ByteDelta: "+inByteDelta);
+      if (inOffset+inNBytes>getSize())
+        throw new StoreException("Offset+NBytes past end: "+inOffset+"+"+inNBytes+">"+getSize());
+      if (inByteDelta+inNBytes>ioBytes.length)
+        throw new StoreException("ByteDelta+NBytes past end: "+inByteDelta+"+"+inNBytes+">"+ioBytes.length);
+    }
+
+    MappedByteBuffer[] theSegments=mSegments;
+    long theOffset=inOffset;
+    int theByteDelta=inByteDelta;
+    int theNBytesLeft=inNBytes;
+    while (theNBytesLeft>0) {
+      MappedByteBuffer theSegment=theSegments[(int) (theOffset>>>kSegmentShift)];
+      int theSegmentOffset=(int) (theOffset&kSegmentMask);
+      int theNBytes=Math.min(theNBytesLeft,theSegment.limit()-theSegmentOffset);
+
+      // Short runs, like most keys, byte by byte - bulk get needs its own buffer to set position on
+      if (theNBytes<32)
+        for (int i=0; i<theNBytes; i++)
+          ioBytes[theByteDelta+i]=theSegment.get(theSegmentOffset+i);
+      else {
+        ByteBuffer theBuffer=theSegment.duplicate();
+        theBuffer.position(theSegmentOffset);
+        theBuffer.get(ioBytes,theByteDelta,theNBytes);
+      }
+
+      theOffset+=theNBytes;
+      theByteDelta+=theNBytes;
+      theNBytesLeft-=theNBytes;
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setByte
+//--------------------------------------------------------------------------------------------------------
+
+  public void setByte(long inOffset, byte inByte) {
+    if (mReadOnly)
+      throw readOnly();
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inOffset>=getSize())
+        throw new StoreException("Offset past end: "+inOffset+">="+getSize());
+    }
+    mSegments[(int) (inOffset>>>kSegmentShift)].put((int) (inOffset&kSegmentMask),inByte);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setVarLong
+//--------------------------------------------------------------------------------------------------------
+
+  public void setVarLong(long inOffset, long inLong, int inLongSize) {
+    if (mReadOnly)
+      throw readOnly();
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if ((inLongSize<1)||(inLongSize>8))
+        throw new StoreException("Invalid LongSize: "+inLongSize);
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inOffset+inLongSize>getSize())
+        throw new StoreException("Offset+LongSize past end: "+inOffset+"+"+inLongSize+">"+getSize());
+    }
+
+    MappedByteBuffer[] theSegments=mSegments;
+    MappedByteBuffer theSegment=theSegments[(int) (inOffset>>>kSegmentShift)];
+    int theSegmentOffset=(int) (inOffset&kSegmentMask);
+    long theLong=inLong;
+
+    // Buffers are big endian, so one put for 8, 4 and 2 byte vars - others would have to read back the
+    //   bytes after them, and could race a writer of those
+    if (theSegmentOffset+inLongSize<=theSegment.limit()) {
+      switch (inLongSize) {
+        case 8:
+          theSegment.putLong(theSegmentOffset,theLong);
+          break;
+        case 4:
+          theSegment.putInt(theSegmentOffset,(int) theLong);
+          break;
+        case 2:
+          theSegment.putShort(theSegmentOffset,(short) theLong);
+          break;
+        default:
+          for (int i=theSegmentOffset+inLongSize-1; i>=theSegmentOffset; i--) {
+            theSegment.put(i,(byte) theLong);
+            theLong>>=8;
+          }
+      }
+
+    // VarLong crosses segment break
+    } else {
+      for (int i=inLongSize-1; i>=0; i--) {
+        long theOffset=inOffset+i;
+        theSegments[(int) (theOffset>>>kSegmentShift)].put((int) (theOffset&kSegmentMask),(byte) theLong);
+        theLong>>=8;
+      }
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setVarDouble
+//--------------------------------------------------------------------------------------------------------
+
+  public void setVarDouble(long inOffset, double inDouble, int inDoubleSize) {
+    long theLong=Conversions.doubleToLong(inDouble);
+    theLong>>=(64-8*inDoubleSize);
+    setVarLong(inOffset,theLong,inDoubleSize);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setBytes
+//--------------------------------------------------------------------------------------------------------
+
+  public void setBytes(long inOffset, byte inByte, long inNCopies) {
+    if (mReadOnly)
+      throw readOnly();
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inNCopies<0)
+        throw new StoreException("Negative NCopies: "+inNCopies);
+      if (inOffset+inNCopies>getSize())
+        throw new StoreException("Offset+NCopies past end: "+inOffset+"+"+inNCopies+">"+getSize());
+    }
+
+    MappedByteBuffer[] theSegments=mSegments;
+    long theOffset=inOffset;
+    long theNBytesLeft=inNCopies;
+    while (theNBytesLeft>0) {
+      MappedByteBuffer theSegment=theSegments[(int) (theOffset>>>kSegmentShift)];
+      int theSegmentOffset=(int) (theOffset&kSegmentMask);
+      int theNBytes=(int) Math.min(theNBytesLeft,theSegment.limit()-theSegmentOffset);
+      int theEnd=theSegmentOffset+theNBytes;
+      for (int i=theSegmentOffset; i<theEnd; i++)
+        theSegment.put(i,inByte);
+      theOffset+=theNBytes;
+      theNBytesLeft-=theNBytes;
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setBytes
+//--------------------------------------------------------------------------------------------------------
+
+  public void setBytes(long inOffset, byte[] inBytes, int inByteDelta, int inNBytes) {
+    if (mReadOnly)
+      throw readOnly();
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inNBytes<0)
+        throw new StoreException("Negative NBytes: "+inNBytes);
+      if (inByteDelta<0)
+        throw new StoreException("Negative ByteDelta: "+inByteDelta);
+      if (inOffset+inNBytes>getSize())
+        throw new StoreException("Offset+NBytes past end: "+inOffset+"+"+inNBytes+">"+getSize());
+      if (inByteDelta+inNBytes>inBytes.length)
+        throw new StoreException("ByteDelta+NBytes past end: "+inByteDelta+"+"+inNBytes+">"+inBytes.length);
+    }
+
+    MappedByteBuffer[] theSegments=mSegments;
+    long theOffset=inOffset;
+    int theByteDelta=inByteDelta;
+    int theNBytesLeft=inNBytes;
+    while (theNBytesLeft>0) {
+      MappedByteBuffer theSegment=theSegments[(int) (theOffset>>>kSegmentShift)];
+      int theSegmentOffset=(int) (theOffset&kSegmentMask);
+      int theNBytes=Math.min(theNBytesLeft,theSegment.limit()-theSegmentOffset);
+
+      // Short runs byte by byte, as in getBytes
+      if (theNBytes<32)
+        for (int i=0; i<theNBytes; i++)
+          theSegment.put(theSegmentOffset+i,inBytes[theByteDelta+i]);
+      else {
+        ByteBuffer theBuffer=theSegment.duplicate();
+        theBuffer.position(theSegmentOffset);
+        theBuffer.put(inBytes,theByteDelta,theNBytes);
+      }
+
+      theOffset+=theNBytes;
+      theByteDelta+=theNBytes;
+      theNBytesLeft-=theNBytes;
+    }
+  }
+
+}
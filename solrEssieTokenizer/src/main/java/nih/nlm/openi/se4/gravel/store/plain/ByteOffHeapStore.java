@@ -0,0 +1,526 @@
+//--------------------------------------------------------------------------------------------------------
+// ByteOffHeapStore.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.store.plain;
+
+import gravel.store.*;
+import gravel.utils.*;
+
+import sun.misc.*;
+
+//--------------------------------------------------------------------------------------------------------
+// ByteOffHeapStore
+//
+// ByteRAMStore with its bytes in native memory, off the Java heap, so big stores neither fill the old
+//   generation nor add to GC marking.  Same store and load file formats as ByteRAMStore
+//
+// Memory is in full slabs of 1M from Unsafe.allocateMemory, so growing just adds slabs, and never moves or
+//   frees one a reader on another thread may still be reading, as with the slices of ByteRAMStore.
+//   Shrinking keeps the slabs until close.  Slabs are freed by close, not by the garbage collector - a
+//   store never closed leaks its slabs, and a read after close may crash the JVM, so close only once all
+//   readers are done.  Needs Unsafe
+//--------------------------------------------------------------------------------------------------------
+
+public class ByteOffHeapStore extends ByteStore implements RAMStoreInterface {
+
+//--------------------------------------------------------------------------------------------------------
+// ByteOffHeapStore consts
+//--------------------------------------------------------------------------------------------------------
+
+  public static final int      kSlabShift=20;
+  public static final int      kSlabSize=1<<kSlabShift;   // 1M
+  public static final int      kSlabMask=kSlabSize-1;
+
+//--------------------------------------------------------------------------------------------------------
+// ByteOffHeapStore member vars
+//--------------------------------------------------------------------------------------------------------
+
+  private long[]        mSlabAddresses;
+
+//--------------------------------------------------------------------------------------------------------
+// ByteOffHeapStore - create
+//--------------------------------------------------------------------------------------------------------
+
+  public ByteOffHeapStore(long inCapacity, long[] inParams) {
+    super(0,inCapacity,inParams);
+    if (kUnsafe==null)
+      throw new StoreException("Off heap store needs Unsafe");
+    mSlabAddresses=new long[0];
+    allocateSlabs(getCapacity());
+  }
+
+  public ByteOffHeapStore(long inCapacity) { this(inCapacity,null); }
+
+  public ByteOffHeapStore() { this(64); }
+
+//--------------------------------------------------------------------------------------------------------
+// load
+//--------------------------------------------------------------------------------------------------------
+
+  // Note that off heap store will have capacity=size, as if compacted
+  public static ByteOffHeapStore load(ByteStore inByteStore) {
+    ByteOffHeapStore theByteOffHeapStore=new ByteOffHeapStore(inByteStore.getSize(),inByteStore.getParams());
+    try {
+      theByteOffHeapStore.appendByteStore(inByteStore);
+    } catch (RuntimeException e) {
+      theByteOffHeapStore.close();
+      throw e;
+    }
+    return theByteOffHeapStore;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// load
+//--------------------------------------------------------------------------------------------------------
+
+  public static ByteOffHeapStore load(String inFilename) {
+    ByteDiskStore theByteDiskStore=ByteDiskStore.load(inFilename);
+    try {
+      return load(theByteDiskStore);
+    } finally {
+      theByteDiskStore.close();
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// store
+//--------------------------------------------------------------------------------------------------------
+
+  public void store(String inFilename, boolean inCompact) {
+    if (kRangeChecking)
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+
+    long theCapacity=getCapacity();
+    if (inCompact)
+      theCapacity=getSize();
+
+    ByteDiskStore theByteDiskStore=new ByteDiskStore(inFilename,theCapacity,getParams());
+    theByteDiskStore.appendByteStore(this);
+    theByteDiskStore.close();
+  }
+
+  public void store(String inFilename) { store(inFilename,true); }
+
+//--------------------------------------------------------------------------------------------------------
+// load - from shared file
+//
+// Reads a store written by store(StoreFile,long[]), or ByteRAMStore.store(StoreFile,long[]), at
+//   ioFileOffset[0], and moves ioFileOffset[0] past it
+//--------------------------------------------------------------------------------------------------------
+
+  public static ByteOffHeapStore load(StoreFile inStoreFile, long[] ioFileOffset) {
+    String theFilename=inStoreFile.getFilename();
+    long theFileOffset=ioFileOffset[0];
+    SliceStore theSliceStore=SliceStore.getSliceStore();
+    byte[] theByteSlice=theSliceStore.getByteSlice();
+    try {
+      inStoreFile.seek(theFileOffset);
+      inStoreFile.readBytes(theByteSlice,0,ByteDiskStore.kFileHeaderSize);
+      if (!UTF8Utils.bytesToUTF8String(theByteSlice,0,4).equals(ByteDiskStore.kMagicCookieVersion))
+        throw new StoreException("Store file corrupt at "+theFileOffset+":  "+theFilename);
+
+      long theSize=Conversions.bytesToLong(theByteSlice,8);
+      long theNextFileOffset=Conversions.bytesToLong(theByteSlice,16);
+      int theNParams=theByteSlice[5];
+      if ((theSize<0)||(theNextFileOffset!=theFileOffset+ByteDiskStore.kFileHeaderSize+theSize)||
+          (theNParams<0)||(theNParams>ByteDiskStore.kNParams))
+        throw new StoreException("Store file corrupt at "+theFileOffset+":  "+theFilename);
+      long[] theParams=null;
+      if (theNParams>0) {
+        theParams=new long[theNParams];
+        for (int i=0; i<theNParams; i++)
+          theParams[i]=Conversions.bytesToLong(theByteSlice,32+i*8);
+      }
+
+      // Read through the slice into the slabs
+      ByteOffHeapStore theByteOffHeapStore=new ByteOffHeapStore(theSize,theParams);
+      try {
+        theByteOffHeapStore.setSize(theSize);
+        long theOffset=0;
+        while (theOffset<theSize) {
+          int theNBytes=(int) Math.min(theByteSlice.length,theSize-theOffset);
+          inStoreFile.readBytes(theByteSlice,0,theNBytes);
+          theByteOffHeapStore.setBytes(theOffset,theByteSlice,0,theNBytes);
+          theOffset+=theNBytes;
+        }
+      } catch (RuntimeException e) {
+        theByteOffHeapStore.close();
+        throw e;
+      }
+
+      ioFileOffset[0]=theNextFileOffset;
+      return theByteOffHeapStore;
+    } finally {
+      theSliceStore.putByteSlice(theByteSlice);
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// store - into shared file
+//
+// Writes the store, compacted, at ioFileOffset[0] as ByteRAMStore.store(StoreFile,long[]) does, and moves
+//   ioFileOffset[0] past the store
+//--------------------------------------------------------------------------------------------------------
+
+  public void store(StoreFile ioStoreFile, long[] ioFileOffset) {
+    if (kRangeChecking)
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+
+    long theSize=getSize();
+    long theFileOffset=ioFileOffset[0];
+    long theNextFileOffset=theFileOffset+ByteDiskStore.kFileHeaderSize+theSize;
+    long[] theParams=getParams();
+
+    byte[] theHeaderBytes=Allocate.newBytes(ByteDiskStore.kFileHeaderSize);
+    UTF8Utils.stringToUTF8Bytes(ByteDiskStore.kMagicCookieVersion,theHeaderBytes);
+    if (theParams!=null) {
+      theHeaderBytes[5]=(byte) theParams.length;
+      Conversions.longsToBytes(theParams,0,theParams.length,theHeaderBytes,32);
+    }
+    Conversions.longToBytes(theSize,theHeaderBytes,8);
+    Conversions.longToBytes(theNextFileOffset,theHeaderBytes,16);
+
+    ioStoreFile.seek(theFileOffset);
+    ioStoreFile.writeBytes(theHeaderBytes,0,ByteDiskStore.kFileHeaderSize);
+    SliceStore theSliceStore=SliceStore.getSliceStore();
+    byte[] theByteSlice=theSliceStore.getByteSlice();
+    try {
+      long theOffset=0;
+      while (theOffset<theSize) {
+        int theNBytes=(int) Math.min(theByteSlice.length,theSize-theOffset);
+        getBytes(theOffset,theByteSlice,0,theNBytes);
+        ioStoreFile.writeBytes(theByteSlice,0,theNBytes);
+        theOffset+=theNBytes;
+      }
+    } finally {
+      theSliceStore.putByteSlice(theByteSlice);
+    }
+
+    ioFileOffset[0]=theNextFileOffset;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// close
+//
+// Frees the slabs
+//--------------------------------------------------------------------------------------------------------
+
+  public synchronized void close() {
+    long[] theSlabAddresses=mSlabAddresses;
+    mSlabAddresses=null;
+    if (theSlabAddresses!=null)
+      for (int i=0; i<theSlabAddresses.length; i++)
+        kUnsafe.freeMemory(theSlabAddresses[i]);
+    super.close();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getIsClosed
+//--------------------------------------------------------------------------------------------------------
+
+  public boolean getIsClosed() { return (mSlabAddresses==null); }
+
+//--------------------------------------------------------------------------------------------------------
+// getContentMemory
+//--------------------------------------------------------------------------------------------------------
+
+  public long getContentMemory() { return getSize(); }
+
+//--------------------------------------------------------------------------------------------------------
+// getMemory
+//
+// Includes the slabs, though they are not on the heap
+//--------------------------------------------------------------------------------------------------------
+
+  public long getMemory() {
+    if (kRangeChecking)
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+    return super.getMemory()+
+        kReferenceMemory+
+        ((long) mSlabAddresses.length)*kSlabSize+
+        Allocate.getArrayMemory(mSlabAddresses);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// allocateSlabs
+//
+// Adds slabs until they hold inCapacity - slabs are never moved, resized or freed before close, so a
+//   reader holding the old slab addresses still reads live memory
+//--------------------------------------------------------------------------------------------------------
+
+  private void allocateSlabs(long inCapacity) {
+    int theOldNSlabs=mSlabAddresses.length;
+    int theNewNSlabs=(int) ((inCapacity+kSlabMask)>>>kSlabShift);
+    if (theNewNSlabs<=theOldNSlabs)
+      return;
+    long[] theSlabAddresses=new long[theNewNSlabs];
+    System.arraycopy(mSlabAddresses,0,theSlabAddresses,0,theOldNSlabs);
+    try {
+      for (int i=theOldNSlabs; i<theNewNSlabs; i++)
+        theSlabAddresses[i]=kUnsafe.allocateMemory(kSlabSize);
+    } catch (OutOfMemoryError e) {
+      for (int i=theOldNSlabs; i<theNewNSlabs; i++)
+        if (theSlabAddresses[i]!=0)
+          kUnsafe.freeMemory(theSlabAddresses[i]);
+      throw e;
+    }
+    mSlabAddresses=theSlabAddresses;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setCapacity
+//--------------------------------------------------------------------------------------------------------
+
+  public void setCapacity(long inCapacity) {
+    super.setCapacity(inCapacity);
+
+    if (kRangeChecking)
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+
+    allocateSlabs(getCapacity());
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getAddress
+//--------------------------------------------------------------------------------------------------------
+
+  private long getAddress(long inOffset) {
+    return mSlabAddresses[(int) (inOffset>>>kSlabShift)]+(inOffset&kSlabMask); }
+
+//--------------------------------------------------------------------------------------------------------
+// getByte
+//--------------------------------------------------------------------------------------------------------
+
+  public byte getByte(long inOffset) {
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inOffset>=getSize())
+        throw new StoreException("Offset past end: "+inOffset+">="+getSize());
+    }
+    return kUnsafe.getByte(getAddress(inOffset));
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getVarLong
+//--------------------------------------------------------------------------------------------------------
+
+  public long getVarLong(long inOffset, int inLongSize) {
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if ((inLongSize<1)||(inLongSize>8))
+        throw new StoreException("Invalid LongSize: "+inLongSize);
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inOffset+inLongSize>getSize())
+        throw new StoreException("Offset+LongSize past end: "+inOffset+"+"+inLongSize+">"+getSize());
+    }
+
+    long theLong;
+
+    // One getLong if 8 bytes left in slab - slabs are always full size
+    int theSlabOffset=(int) (inOffset&kSlabMask);
+    if (theSlabOffset+8<=kSlabSize) {
+      theLong=kUnsafe.getLong(getAddress(inOffset));
+      if (!ByteStore.kNativeOrderIsBigEndian)
+        theLong=Long.reverseBytes(theLong);  // Must reorder bytes if not BigEndian, but it is very fast
+      theLong>>=((8-inLongSize)<<3);  // Keeps sign
+
+    // else build long byte by byte - crossing slab break
+    } else {
+      theLong=kUnsafe.getByte(getAddress(inOffset));  // First byte has sign
+      for (int i=1; i<inLongSize; i++) {
+        theLong<<=8;
+        theLong|=(kUnsafe.getByte(getAddress(inOffset+i))&0x00ff);
+      }
+    }
+    return theLong;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getVarDouble
+//--------------------------------------------------------------------------------------------------------
+
+  public double getVarDouble(long inOffset, int inDoubleSize) {
+    long theLong=getVarLong(inOffset,inDoubleSize);
+    theLong<<=(64-8*inDoubleSize);
+    return Conversions.longToDouble(theLong);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getBytes
+//--------------------------------------------------------------------------------------------------------
+
+  public void getBytes(long inOffset, byte[] ioBytes, int inByteDelta, int inNBytes) {
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inNBytes<0)
+        throw new StoreException("Negative NBytes: "+inNBytes);
+      if (inByteDelta<0)
+        throw new StoreException("Negative ByteDelta: "+inByteDelta);
+      if (inOffset+inNBytes>getSize())
+        throw new StoreException("Offset+NBytes past end: "+inOffset+"+"+inNBytes+">"+getSize());
+      if (inByteDelta+inNBytes>ioBytes.length)
+        throw new StoreException("ByteDelta+NBytes past end: "+inByteDelta+"+"+inNBytes+">"+ioBytes.length);
+    }
+
+    long theOffset=inOffset;
+    int theByteDelta=inByteDelta;
+    int theNBytesLeft=inNBytes;
+    while (theNBytesLeft>0) {
+      int theNBytes=Math.min(theNBytesLeft,kSlabSize-(int) (theOffset&kSlabMask));
+      kUnsafe.copyMemory(null,getAddress(theOffset),
+          ioBytes,Unsafe.ARRAY_BYTE_BASE_OFFSET+theByteDelta,theNBytes);
+      theOffset+=theNBytes;
+      theByteDelta+=theNBytes;
+      theNBytesLeft-=theNBytes;
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setByte
+//--------------------------------------------------------------------------------------------------------
+
+  public void setByte(long inOffset, byte inByte) {
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inOffset>=getSize())
+        throw new StoreException("Offset past end: "+inOffset+">="+getSize());
+    }
+    kUnsafe.putByte(getAddress(inOffset),inByte);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setVarLong
+//--------------------------------------------------------------------------------------------------------
+
+  public void setVarLong(long inOffset, long inLong, int inLongSize) {
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if ((inLongSize<1)||(inLongSize>8))
+        throw new StoreException("Invalid LongSize: "+inLongSize);
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inOffset+inLongSize>getSize())
+        throw new StoreException("Offset+LongSize past end: "+inOffset+"+"+inLongSize+">"+getSize());
+    }
+
+    long theLong=inLong;
+
+    // One put for 8, 4 and 2 byte vars in one slab - others would have to read back the bytes after them,
+    //   and could race a writer of those
+    if ((inOffset&kSlabMask)+inLongSize<=kSlabSize) {
+      long theAddress=getAddress(inOffset);
+      switch (inLongSize) {
+        case 8:
+          kUnsafe.putLong(theAddress,(ByteStore.kNativeOrderIsBigEndian)?theLong:Long.reverseBytes(theLong));
+          break;
+        case 4:
+          kUnsafe.putInt(theAddress,
+              (ByteStore.kNativeOrderIsBigEndian)?(int) theLong:Integer.reverseBytes((int) theLong));
+          break;
+        case 2:
+          kUnsafe.putShort(theAddress,
+              (ByteStore.kNativeOrderIsBigEndian)?(short) theLong:Short.reverseBytes((short) theLong));
+          break;
+        default:
+          for (int i=inLongSize-1; i>=0; i--) {
+            kUnsafe.putByte(theAddress+i,(byte) theLong);  // Most significant byte has sign and is written last
+            theLong>>=8;
+          }
+      }
+
+    // VarLong crosses slab break
+    } else {
+      for (int i=inLongSize-1; i>=0; i--) {
+        kUnsafe.putByte(getAddress(inOffset+i),(byte) theLong);
+        theLong>>=8;
+      }
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setVarDouble
+//--------------------------------------------------------------------------------------------------------
+
+  public void setVarDouble(long inOffset, double inDouble, int inDoubleSize) {
+    long theLong=Conversions.doubleToLong(inDouble);
+    theLong>>=(64-8*inDoubleSize);
+    setVarLong(inOffset,theLong,inDoubleSize);
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setBytes
+//--------------------------------------------------------------------------------------------------------
+
+  public void setBytes(long inOffset, byte inByte, long inNCopies) {
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inNCopies<0)
+        throw new StoreException("Negative NCopies: "+inNCopies);
+      if (inOffset+inNCopies>getSize())
+        throw new StoreException("Offset+NCopies past end: "+inOffset+"+"+inNCopies+">"+getSize());
+    }
+
+    long theOffset=inOffset;
+    long theNBytesLeft=inNCopies;
+    while (theNBytesLeft>0) {
+      int theNBytes=(int) Math.min(theNBytesLeft,kSlabSize-(theOffset&kSlabMask));
+      kUnsafe.setMemory(getAddress(theOffset),theNBytes,inByte);
+      theOffset+=theNBytes;
+      theNBytesLeft-=theNBytes;
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// setBytes
+//--------------------------------------------------------------------------------------------------------
+
+  public void setBytes(long inOffset, byte[] inBytes, int inByteDelta, int inNBytes) {
+    if (kRangeChecking) {
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+      if (inOffset<0)
+        throw new StoreException("Negative offset: "+inOffset);
+      if (inNBytes<0)
+        throw new StoreException("Negative NBytes: "+inNBytes);
+      if (inByteDelta<0)
+        throw new StoreException("Negative ByteDelta: "+inByteDelta);
+      if (inOffset+inNBytes>getSize())
+        throw new StoreException("Offset+NBytes past end: "+inOffset+"+"+inNBytes+">"+getSize());
+      if (inByteDelta+inNBytes>inBytes.length)
+        throw new StoreException("ByteDelta+NBytes past end: "+inByteDelta+"+"+inNBytes+">"+inBytes.length);
+    }
+
+    long theOffset=inOffset;
+    int theByteDelta=inByteDelta;
+    int theNBytesLeft=inNBytes;
+    while (theNBytesLeft>0) {
+      int theNBytes=Math.min(theNBytesLeft,kSlabSize-(int) (theOffset&kSlabMask));
+      kUnsafe.copyMemory(inBytes,Unsafe.ARRAY_BYTE_BASE_OFFSET+theByteDelta,
+          null,getAddress(theOffset),theNBytes);
+      theOffset+=theNBytes;
+      theByteDelta+=theNBytes;
+      theNBytesLeft-=theNBytes;
+    }
+  }
+
+}
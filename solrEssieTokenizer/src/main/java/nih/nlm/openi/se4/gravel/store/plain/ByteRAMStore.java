@@ -101,6 +101,91 @@ public class ByteRAMStore extends ByteStore implements RAMStoreInterface {
 
   public void store(String inFilename) { store(inFilename,true); }
 
+//--------------------------------------------------------------------------------------------------------
+// load - from shared file
+//
+// Reads a store written by store(StoreFile,long[]) at ioFileOffset[0], and moves ioFileOffset[0] past it
+//--------------------------------------------------------------------------------------------------------
+
+  public static ByteRAMStore load(StoreFile inStoreFile, long[] ioFileOffset) {
+    String theFilename=inStoreFile.getFilename();
+    long theFileOffset=ioFileOffset[0];
+    SliceStore theSliceStore=SliceStore.getSliceStore();
+    byte[] theHeaderBytes=theSliceStore.getByteSlice();
+    try {
+      inStoreFile.seek(theFileOffset);
+      inStoreFile.readBytes(theHeaderBytes,0,ByteDiskStore.kFileHeaderSize);
+      if (!UTF8Utils.bytesToUTF8String(theHeaderBytes,0,4).equals(ByteDiskStore.kMagicCookieVersion))
+        throw new StoreException("Store file corrupt at "+theFileOffset+":  "+theFilename);
+      
+      long theSize=Conversions.bytesToLong(theHeaderBytes,8);
+      long theNextFileOffset=Conversions.bytesToLong(theHeaderBytes,16);
+      int theNParams=theHeaderBytes[5];
+      if ((theSize<0)||(theNextFileOffset!=theFileOffset+ByteDiskStore.kFileHeaderSize+theSize)||
+          (theNParams<0)||(theNParams>ByteDiskStore.kNParams))
+        throw new StoreException("Store file corrupt at "+theFileOffset+":  "+theFilename);
+      long[] theParams=null;
+      if (theNParams>0) {
+        theParams=new long[theNParams];
+        for (int i=0; i<theNParams; i++)
+          theParams[i]=Conversions.bytesToLong(theHeaderBytes,32+i*8);
+      }
+
+      // Read straight into the slices
+      ByteRAMStore theByteRAMStore=new ByteRAMStore(theSize,theParams);
+      long theNBytesLeft=theSize;
+      for (int i=0; (i<theByteRAMStore.mSlices.length)&&(theNBytesLeft>0); i++) {
+        int theNBytes=(int) Math.min(theByteRAMStore.mSlices[i].length,theNBytesLeft);
+        inStoreFile.readBytes(theByteRAMStore.mSlices[i],0,theNBytes);
+        theNBytesLeft-=theNBytes;
+      }
+      theByteRAMStore.setSize(theSize);
+
+      ioFileOffset[0]=theNextFileOffset;
+      return theByteRAMStore;
+    } finally {
+      theSliceStore.putByteSlice(theHeaderBytes);
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// store - into shared file
+//
+// Writes the store, compacted, at ioFileOffset[0] in ByteDiskStore layout, with the offset of the next 
+//   store in the header, so several stores can share one file.  Moves ioFileOffset[0] past the store
+//--------------------------------------------------------------------------------------------------------
+
+  public void store(StoreFile ioStoreFile, long[] ioFileOffset) {
+    if (kRangeChecking) 
+      if (getIsClosed())
+        throw new StoreException("Store closed");
+
+    long theSize=getSize();
+    long theFileOffset=ioFileOffset[0];
+    long theNextFileOffset=theFileOffset+ByteDiskStore.kFileHeaderSize+theSize;
+    long[] theParams=getParams();
+
+    byte[] theHeaderBytes=Allocate.newBytes(ByteDiskStore.kFileHeaderSize);
+    UTF8Utils.stringToUTF8Bytes(ByteDiskStore.kMagicCookieVersion,theHeaderBytes);
+    if (theParams!=null) {
+      theHeaderBytes[5]=(byte) theParams.length;
+      Conversions.longsToBytes(theParams,0,theParams.length,theHeaderBytes,32);
+    }
+    Conversions.longToBytes(theSize,theHeaderBytes,8);
+    Conversions.longToBytes(theNextFileOffset,theHeaderBytes,16);
+
+    ioStoreFile.seek(theFileOffset);
+    ioStoreFile.writeBytes(theHeaderBytes,0,ByteDiskStore.kFileHeaderSize);
+    long theNBytesLeft=theSize;
+    for (int i=0; (i<mSlices.length)&&(theNBytesLeft>0); i++) {
+      int theNBytes=(int) Math.min(mSlices[i].length,theNBytesLeft);
+      ioStoreFile.writeBytes(mSlices[i],0,theNBytes);
+      theNBytesLeft-=theNBytes;
+    }
+
+    ioFileOffset[0]=theNextFileOffset;
+  }
+
 //--------------------------------------------------------------------------------------------------------
 // close
 //--------------------------------------------------------------------------------------------------------
@@ -0,0 +1,266 @@
+//--------------------------------------------------------------------------------------------------------
+// TestStores.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.store.plain;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import gravel.sort.*;
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// TestStores
+//
+// Runs the same random appends, writes, reads and truncates on a ByteRAMStore and on each of the other
+//   ByteStores the norm model and its callers use - disk, disk through a BlockCache small enough to
+//   evict, mapped and off heap - and checks every read agrees with the ByteRAMStore, and the store
+//   agrees again once written to a file and loaded back
+//
+// Then writers and readers share one disk store through a BlockCache, and each writer checks it reads
+//   back what it last wrote
+//--------------------------------------------------------------------------------------------------------
+
+public class TestStores {
+
+//--------------------------------------------------------------------------------------------------------
+// TestStores consts
+//--------------------------------------------------------------------------------------------------------
+
+  public static final long     kSeed=42;
+  public static final int      kNOps=200000;
+  public static final int      kMaxNBytes=3000;       // per read or write
+  public static final int      kNWriters=4;
+  public static final int      kNReaders=4;
+  public static final int      kNSlots=1<<17;         // of 8 bytes, in the shared store
+  public static final int      kNThreadOps=200000;
+
+//--------------------------------------------------------------------------------------------------------
+// randomOps
+//
+// returns the number of reads where ioStore and ioRAMStore disagree
+//--------------------------------------------------------------------------------------------------------
+
+  private static int randomOps(ByteStore ioStore, ByteRAMStore ioRAMStore) {
+    Random theRandom=new Random(kSeed);
+    byte[] theBytes=Allocate.newBytes(kMaxNBytes);
+    byte[] theBytes2=Allocate.newBytes(kMaxNBytes);
+    int theNFailures=0;
+    for (int i=0; i<kNOps; i++) {
+      long theSize=ioRAMStore.getSize();
+      int theOp=theRandom.nextInt(10);
+      if ((theOp==0)||(theSize<64)) {
+        theRandom.nextBytes(theBytes);
+        int theNBytes=1+theRandom.nextInt(kMaxNBytes);
+        ioRAMStore.appendBytes(theBytes,0,theNBytes);
+        ioStore.appendBytes(theBytes,0,theNBytes);
+        continue;
+      }
+
+      int theLongSize=1+theRandom.nextInt(8);
+      long theOffset=(long) (theRandom.nextDouble()*(theSize-theLongSize));
+      int theNBytes=(int) Math.min(theRandom.nextInt(kMaxNBytes),theSize-theOffset);
+      switch (theOp) {
+        case 1:
+          long theLong=theRandom.nextLong()>>(64-8*theLongSize);
+          ioRAMStore.setVarLong(theOffset,theLong,theLongSize);
+          ioStore.setVarLong(theOffset,theLong,theLongSize);
+          break;
+        case 2:
+          byte theByte=(byte) theRandom.nextInt();
+          ioRAMStore.setBytes(theOffset,theByte,theNBytes);
+          ioStore.setBytes(theOffset,theByte,theNBytes);
+          break;
+        case 3:
+          theRandom.nextBytes(theBytes);
+          ioRAMStore.setBytes(theOffset,theBytes,0,theNBytes);
+          ioStore.setBytes(theOffset,theBytes,0,theNBytes);
+          break;
+        case 4:
+          ioRAMStore.getBytes(theOffset,theBytes,0,theNBytes);
+          ioStore.getBytes(theOffset,theBytes2,0,theNBytes);
+          if (Comparisons.compareBytes(theBytes,0,theNBytes,theBytes2,0,theNBytes,Comparisons.kBinary)!=0)
+            theNFailures++;
+          break;
+        case 5:
+          if (ioRAMStore.getByte(theOffset)!=ioStore.getByte(theOffset))
+            theNFailures++;
+          break;
+        case 6:
+          if (theRandom.nextInt(500)==0) {
+            long theNewSize=(long) (theRandom.nextDouble()*theSize);
+            ioRAMStore.setSize(theNewSize);
+            ioRAMStore.compact();
+            ioStore.setSize(theNewSize);
+            ioStore.compact();
+          }
+          break;
+        default:
+          if (ioRAMStore.getVarLong(theOffset,theLongSize)!=ioStore.getVarLong(theOffset,theLongSize))
+            theNFailures++;
+          break;
+      }
+    }
+    if (ioRAMStore.getSize()!=ioStore.getSize())
+      theNFailures++;
+    return theNFailures;
+  }
+
+  private static boolean isSame(ByteStore inStore, ByteStore inStore2) {
+    return Arrays.equals(inStore.getAllBytes(),inStore2.getAllBytes());
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// storeTests
+//--------------------------------------------------------------------------------------------------------
+
+  private static int storeTests(String inTempDir) throws Exception {
+
+    long theStartTime=System.currentTimeMillis();
+    System.out.println(FormatUtils.reportHeader("Stores vs ByteRAMStore",theStartTime));
+
+    int theNFailures=0;
+    String theFilename=inTempDir+"/TestStores.dat";
+
+    // Disk
+    ByteRAMStore theRAMStore=new ByteRAMStore(16);
+    ByteDiskStore theDiskStore=new ByteDiskStore(theFilename,16);
+    int theNDiskFailures=randomOps(theDiskStore,theRAMStore);
+    theDiskStore.close();
+    theDiskStore=ByteDiskStore.load(theFilename);
+    if (!isSame(theDiskStore,theRAMStore))
+      theNDiskFailures++;
+    theDiskStore.closeAndDelete();
+    System.out.println("Disk:  "+theRAMStore.getSize()+" bytes, "+theNDiskFailures+" failures");
+    theNFailures+=theNDiskFailures;
+
+    // Disk through a BlockCache
+    BlockCache theBlockCache=new BlockCache(64*1024,1024);
+    theRAMStore=new ByteRAMStore(16);
+    theDiskStore=new ByteDiskStore(theFilename,16);
+    theDiskStore.setBlockCache(theBlockCache);
+    int theNCachedFailures=randomOps(theDiskStore,theRAMStore);
+    theDiskStore.close();
+    theDiskStore=ByteDiskStore.load(theFilename);
+    theDiskStore.setBlockCache(theBlockCache);
+    if (!isSame(theDiskStore,theRAMStore))
+      theNCachedFailures++;
+    theDiskStore.closeAndDelete();
+    System.out.println("Cached:  "+theRAMStore.getSize()+" bytes, "+theNCachedFailures+" failures, "+
+        theBlockCache.formatStats());
+    theNFailures+=theNCachedFailures;
+
+    // Mapped
+    theRAMStore=new ByteRAMStore(16);
+    ByteMappedStore theMappedStore=new ByteMappedStore(theFilename,16);
+    int theNMappedFailures=randomOps(theMappedStore,theRAMStore);
+    theMappedStore.close();
+    theMappedStore=ByteMappedStore.load(theFilename);
+    if (!isSame(theMappedStore,theRAMStore))
+      theNMappedFailures++;
+    theMappedStore.closeAndDelete();
+    System.out.println("Mapped:  "+theRAMStore.getSize()+" bytes, "+theNMappedFailures+" failures");
+    theNFailures+=theNMappedFailures;
+
+    // Off heap
+    theRAMStore=new ByteRAMStore(16);
+    ByteOffHeapStore theOffHeapStore=new ByteOffHeapStore(16);
+    int theNOffHeapFailures=randomOps(theOffHeapStore,theRAMStore);
+    theOffHeapStore.store(theFilename);
+    theOffHeapStore.close();
+    theOffHeapStore=ByteOffHeapStore.load(theFilename);
+    if (!isSame(theOffHeapStore,theRAMStore))
+      theNOffHeapFailures++;
+    theOffHeapStore.close();
+    ByteRAMStore theLoadedStore=ByteRAMStore.load(theFilename);
+    if (!isSame(theLoadedStore,theRAMStore))
+      theNOffHeapFailures++;
+    FileUtils.deleteFile(theFilename);
+    System.out.println("Off heap:  "+theRAMStore.getSize()+" bytes, "+theNOffHeapFailures+" failures");
+    theNFailures+=theNOffHeapFailures;
+
+    System.out.println(FormatUtils.reportFooter(theStartTime));
+    return theNFailures;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// sharedTests
+//
+// Each writer owns every kNWriters-th 8 byte slot of the shared store, so knows what its slots hold
+//--------------------------------------------------------------------------------------------------------
+
+  private static int sharedTests(String inTempDir) throws Exception {
+
+    long theStartTime=System.currentTimeMillis();
+    System.out.println(FormatUtils.reportHeader("Shared cached disk store",theStartTime));
+
+    final ByteDiskStore theDiskStore=new ByteDiskStore(inTempDir+"/TestStoresShared.dat",8L*kNSlots);
+    theDiskStore.setSize(8L*kNSlots);
+    theDiskStore.setBytes(0,(byte) 0,8L*kNSlots);
+    BlockCache theBlockCache=new BlockCache(256*1024,4096);
+    theDiskStore.setBlockCache(theBlockCache);
+
+    final AtomicInteger theNFailures=new AtomicInteger(0);
+    Thread[] theThreads=new Thread[kNWriters+kNReaders];
+    for (int i=0; i<theThreads.length; i++) {
+      final int theThreadN=i;
+      theThreads[i]=new Thread("TestStores"+i) {
+        public void run() {
+          Random theRandom=new Random(kSeed+theThreadN);
+          long[] theLongs=Allocate.newLongs(kNSlots/kNWriters);
+          for (int j=0; j<kNThreadOps; j++)
+            if (theThreadN<kNWriters) {
+              int theSlotN=theRandom.nextInt(theLongs.length);
+              theLongs[theSlotN]=theRandom.nextLong();
+              theDiskStore.setVarLong(8L*(theSlotN*kNWriters+theThreadN),theLongs[theSlotN],8);
+              theSlotN=theRandom.nextInt(theLongs.length);
+              if (theDiskStore.getVarLong(8L*(theSlotN*kNWriters+theThreadN),8)!=theLongs[theSlotN])
+                theNFailures.incrementAndGet();
+            } else
+              theDiskStore.getVarLong(8L*theRandom.nextInt(kNSlots),8);
+        }
+      };
+      theThreads[i].start();
+    }
+    for (int i=0; i<theThreads.length; i++)
+      theThreads[i].join();
+    theDiskStore.closeAndDelete();
+
+    System.out.println(kNWriters+" writers, "+kNReaders+" readers:  "+theNFailures.get()+" failures, "+
+        theBlockCache.formatStats());
+    System.out.println(FormatUtils.reportFooter(theStartTime));
+    return theNFailures.get();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// run
+//--------------------------------------------------------------------------------------------------------
+
+  private static void run() throws Exception {
+
+    long theStartTime=System.currentTimeMillis();
+    System.out.println(FormatUtils.reportHeader("Test Stores",theStartTime));
+
+    String theTempDir=System.getProperty("java.io.tmpdir");
+    int theNFailures=storeTests(theTempDir)+sharedTests(theTempDir);
+    if (theNFailures>0)
+      throw new RuntimeException("Test Stores failed:  "+theNFailures);
+
+    System.out.println(FormatUtils.reportFooter(theStartTime));
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// main
+//--------------------------------------------------------------------------------------------------------
+
+  public static void main(String[] args) {
+    try {
+      run();
+    } catch (Throwable e) {
+      e.printStackTrace(System.err);
+      System.exit(1);
+    }
+  }
+
+}
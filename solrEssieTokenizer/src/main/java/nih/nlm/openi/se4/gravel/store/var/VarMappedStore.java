@@ -0,0 +1,97 @@
+//--------------------------------------------------------------------------------------------------------
+// VarMappedStore.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.store.var;
+
+import gravel.store.*;
+import gravel.store.plain.*;
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// VarMappedStore
+//
+// VarStore over a ByteMappedStore - read only if loaded, unless by load(String,false), read write if
+//   created
+//--------------------------------------------------------------------------------------------------------
+
+public class VarMappedStore extends VarStore implements DiskStoreInterface {
+
+//--------------------------------------------------------------------------------------------------------
+// VarMappedStore
+//--------------------------------------------------------------------------------------------------------
+
+  private VarMappedStore(ByteMappedStore inByteStore) { super(inByteStore); }
+
+//--------------------------------------------------------------------------------------------------------
+// VarMappedStore - create
+//--------------------------------------------------------------------------------------------------------
+
+  public VarMappedStore(String inFilename, int inVarSize, long inCapacity) {
+    this(new ByteMappedStore(inFilename,inCapacity*inVarSize,new long[] {inVarSize})); }
+
+  public VarMappedStore(String inFilename, long inCapacity) {
+    this(inFilename,Conversions.calcVarLongSize(inCapacity),inCapacity); }
+
+  public VarMappedStore(String inFilename) {
+    this(inFilename,16); }
+
+//--------------------------------------------------------------------------------------------------------
+// load
+//--------------------------------------------------------------------------------------------------------
+
+  public static VarMappedStore load(String inFilename, boolean inReadOnly) {
+    return new VarMappedStore(ByteMappedStore.load(inFilename,inReadOnly)); }
+
+  public static VarMappedStore load(String inFilename) {
+    return new VarMappedStore(ByteMappedStore.load(inFilename)); }
+
+  public static VarMappedStore load(StoreFile inStoreFile, long[] ioFileOffset) {
+    return new VarMappedStore(ByteMappedStore.load(inStoreFile,ioFileOffset)); }
+
+//--------------------------------------------------------------------------------------------------------
+// getByteStore
+//--------------------------------------------------------------------------------------------------------
+
+  protected ByteMappedStore getByteStore() { return (ByteMappedStore) super.getByteStore(); }
+
+//--------------------------------------------------------------------------------------------------------
+// getFilename
+//--------------------------------------------------------------------------------------------------------
+
+  public String getFilename() { return getByteStore().getFilename(); }
+
+//--------------------------------------------------------------------------------------------------------
+// getFileSize
+//--------------------------------------------------------------------------------------------------------
+
+  public long getFileSize() { return getByteStore().getFileSize(); }
+
+//--------------------------------------------------------------------------------------------------------
+// flush
+//--------------------------------------------------------------------------------------------------------
+
+  public void flush() { getByteStore().flush(); }
+
+//--------------------------------------------------------------------------------------------------------
+// sync
+//--------------------------------------------------------------------------------------------------------
+
+  public void sync() { getByteStore().sync(); }
+
+//--------------------------------------------------------------------------------------------------------
+// copy
+//--------------------------------------------------------------------------------------------------------
+
+  public void copy(String inFilename, boolean inCompact) { 
+    getByteStore().copy(inFilename,inCompact); }
+  
+  public void copy(String inFilename) { copy(inFilename,true); }
+
+//--------------------------------------------------------------------------------------------------------
+// closeAndDelete
+//--------------------------------------------------------------------------------------------------------
+
+  public void closeAndDelete() { getByteStore().closeAndDelete(); }
+
+}
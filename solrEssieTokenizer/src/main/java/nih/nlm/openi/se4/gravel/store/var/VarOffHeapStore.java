@@ -0,0 +1,85 @@
+//--------------------------------------------------------------------------------------------------------
+// VarOffHeapStore.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.store.var;
+
+import gravel.store.*;
+import gravel.store.plain.*;
+import gravel.utils.*;
+
+//--------------------------------------------------------------------------------------------------------
+// VarOffHeapStore
+//
+// VarRAMStore over a ByteOffHeapStore - must be closed to free its memory
+//--------------------------------------------------------------------------------------------------------
+
+public class VarOffHeapStore extends VarStore implements RAMStoreInterface {
+ 
+//--------------------------------------------------------------------------------------------------------
+// VarOffHeapStore - load
+//--------------------------------------------------------------------------------------------------------
+
+  private VarOffHeapStore(ByteOffHeapStore inByteStore) { super(inByteStore); }
+  
+//--------------------------------------------------------------------------------------------------------
+// VarOffHeapStore - create
+//--------------------------------------------------------------------------------------------------------
+
+  public VarOffHeapStore(int inVarSize, long inCapacity) {
+    this(new ByteOffHeapStore(inCapacity*inVarSize,new long[] {inVarSize})); }
+
+  public VarOffHeapStore(long inCapacity) {
+    this(Conversions.calcVarLongSize(inCapacity),inCapacity); }
+
+  public VarOffHeapStore() { this(16); }
+
+//--------------------------------------------------------------------------------------------------------
+// wrap
+//--------------------------------------------------------------------------------------------------------
+
+  public static VarOffHeapStore wrap(int inVarSize, ByteOffHeapStore inByteOffHeapStore) {
+    inByteOffHeapStore.setParam(0,inVarSize);
+    return new VarOffHeapStore(inByteOffHeapStore); 
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// load
+//--------------------------------------------------------------------------------------------------------
+
+  public static VarOffHeapStore load(VarStore inVarStore) {
+    return new VarOffHeapStore(ByteOffHeapStore.load(inVarStore.getByteStore())); }
+
+//--------------------------------------------------------------------------------------------------------
+// load
+//--------------------------------------------------------------------------------------------------------
+
+  public static VarOffHeapStore load(String inFilename) {
+    return new VarOffHeapStore(ByteOffHeapStore.load(inFilename)); }
+
+//--------------------------------------------------------------------------------------------------------
+// store
+//--------------------------------------------------------------------------------------------------------
+
+  public void store(String inFilename, boolean inCompact) { 
+    getByteStore().store(inFilename,inCompact); }
+
+  public void store(String inFilename) { store(inFilename,true); }
+
+//--------------------------------------------------------------------------------------------------------
+// load / store - shared file
+//--------------------------------------------------------------------------------------------------------
+
+  public static VarOffHeapStore load(StoreFile inStoreFile, long[] ioFileOffset) {
+    return new VarOffHeapStore(ByteOffHeapStore.load(inStoreFile,ioFileOffset)); }
+
+  public void store(StoreFile ioStoreFile, long[] ioFileOffset) { 
+    getByteStore().store(ioStoreFile,ioFileOffset); }
+
+//--------------------------------------------------------------------------------------------------------
+// getByteStore
+//--------------------------------------------------------------------------------------------------------
+
+  protected ByteOffHeapStore getByteStore() { return (ByteOffHeapStore) super.getByteStore(); }
+
+}
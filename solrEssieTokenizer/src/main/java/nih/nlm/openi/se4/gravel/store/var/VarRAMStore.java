@@ -95,6 +95,16 @@ public class VarRAMStore extends VarStore implements RAMStoreInterface {
 
   public void store(String inFilename) { store(inFilename,true); }
 
+//--------------------------------------------------------------------------------------------------------
+// load / store - shared file
+//--------------------------------------------------------------------------------------------------------
+
+  public static VarRAMStore load(StoreFile inStoreFile, long[] ioFileOffset) {
+    return new VarRAMStore(ByteRAMStore.load(inStoreFile,ioFileOffset)); }
+
+  public void store(StoreFile ioStoreFile, long[] ioFileOffset) { 
+    getByteStore().store(ioStoreFile,ioFileOffset); }
+
 //--------------------------------------------------------------------------------------------------------
 // getByteStore
 //--------------------------------------------------------------------------------------------------------
@@ -0,0 +1,403 @@
+//--------------------------------------------------------------------------------------------------------
+// BlockCache.java
+//--------------------------------------------------------------------------------------------------------
+
+package gravel.utils;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+//--------------------------------------------------------------------------------------------------------
+// BlockCache
+//
+// Size bounded cache of fixed size file pages, shared by any number of StoreFile readers.  Each reader
+//   gets a cache id, and pages are keyed by cache id and page index, so a reader drops all its pages at
+//   once by taking a new id.  Writers must call invalidate after writing
+//
+// Lookup is striped - a page hashes to one of kNStripes maps, each with its own lock.  Eviction is CLOCK
+//   over a ring of page slots.  Pages are never changed once cached - invalidate and evict just unmap
+//   them - so bytes are copied out of a page without a lock.  Reads bigger than a page bypass the cache,
+//   so one long scan does not flush it
+//
+// A page read from the file can race a write to the same page.  Each stripe counts invalidates, and a
+//   page is only cached if its stripe saw none while the page was read
+//--------------------------------------------------------------------------------------------------------
+
+public class BlockCache implements Constants {
+
+//--------------------------------------------------------------------------------------------------------
+// BlockCache consts
+//--------------------------------------------------------------------------------------------------------
+
+  public static final int      kDefaultPageSize=4*k1K;
+  public static final long     kDefaultMaxMemory=
+      Math.max(16*k1M,FormatUtils.getHeapMemory()/50);    // max(2%,16M)
+
+  private static final int     kNStripes=64;              // power of 2
+
+//--------------------------------------------------------------------------------------------------------
+// BlockCache class vars
+//--------------------------------------------------------------------------------------------------------
+
+  private static BlockCache    gBlockCache;
+  private static AtomicLong    gNextCacheId=new AtomicLong(1);
+
+//--------------------------------------------------------------------------------------------------------
+// BlockCache member vars
+//--------------------------------------------------------------------------------------------------------
+
+  private int           mPageSize;
+  private int           mPageNBits;
+  private Stripe[]      mStripes;
+
+  private Page[]        mSlots;           // CLOCK ring, guarded by itself
+  private int           mHand;
+  private long          mNEvictions;
+
+//--------------------------------------------------------------------------------------------------------
+// BlockCache
+//--------------------------------------------------------------------------------------------------------
+
+  public BlockCache(long inMaxMemory, int inPageSize) {
+    if ((inPageSize<=0)||((inPageSize&(inPageSize-1))!=0))
+      throw new StoreException("Page size not a power of 2: "+inPageSize);
+    mPageSize=inPageSize;
+    mPageNBits=Integer.numberOfTrailingZeros(inPageSize);
+    mStripes=new Stripe[kNStripes];
+    for (int i=0; i<kNStripes; i++)
+      mStripes[i]=new Stripe();
+    mSlots=new Page[(int) Math.max(16,Math.min(Integer.MAX_VALUE/2,inMaxMemory/inPageSize))];
+  }
+
+  public BlockCache(long inMaxMemory) { this(inMaxMemory,kDefaultPageSize); }
+
+//--------------------------------------------------------------------------------------------------------
+// getBlockCache
+//
+// Shared cache of kDefaultMaxMemory, made on first use
+//--------------------------------------------------------------------------------------------------------
+
+  public static synchronized BlockCache getBlockCache() {
+    if (gBlockCache==null)
+      gBlockCache=new BlockCache(kDefaultMaxMemory);
+    return gBlockCache;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// newCacheId
+//
+// Ids are never reused, so pages of a closed or reset reader are just never hit, and age out
+//--------------------------------------------------------------------------------------------------------
+
+  public static long newCacheId() { return gNextCacheId.getAndIncrement(); }
+
+//--------------------------------------------------------------------------------------------------------
+// getPageSize
+//--------------------------------------------------------------------------------------------------------
+
+  public int getPageSize() { return mPageSize; }
+
+//--------------------------------------------------------------------------------------------------------
+// getMaxNPages
+//--------------------------------------------------------------------------------------------------------
+
+  public int getMaxNPages() { return mSlots.length; }
+
+//--------------------------------------------------------------------------------------------------------
+// getMaxMemory
+//--------------------------------------------------------------------------------------------------------
+
+  public long getMaxMemory() { return ((long) mSlots.length)*mPageSize; }
+
+//--------------------------------------------------------------------------------------------------------
+// getStripe
+//--------------------------------------------------------------------------------------------------------
+
+  private Stripe getStripe(long inCacheId, long inPageIndex) {
+    long theHash=(inCacheId*0x9E3779B97F4A7C15L)^inPageIndex;
+    theHash^=(theHash>>>29);
+    return mStripes[(int) theHash&(kNStripes-1)];
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// readByte
+//--------------------------------------------------------------------------------------------------------
+
+  public byte readByte(long inCacheId, StoreFile inStoreFile, long inFileLength, long inFileOffset) {
+    long thePageIndex=inFileOffset>>>mPageNBits;
+    int thePageOffset=(int) (inFileOffset&(mPageSize-1));
+    Page thePage=getPage(inCacheId,inStoreFile,inFileLength,thePageIndex,thePageOffset+1);
+    return thePage.mBytes[thePageOffset];
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// readBytes
+//
+// inFileLength bounds the last page - bytes past it are never read
+//--------------------------------------------------------------------------------------------------------
+
+  public void readBytes(long inCacheId, StoreFile inStoreFile, long inFileLength,
+      long inFileOffset, byte[] ioBytes, int inByteDelta, int inNBytes) {
+
+    // Bypass cache for big reads
+    if (inNBytes>mPageSize) {
+      inStoreFile.readBytes(inFileOffset,ioBytes,inByteDelta,inNBytes);
+      return;
+    }
+
+    long theFileOffset=inFileOffset;
+    int theByteDelta=inByteDelta;
+    int theNBytesLeft=inNBytes;
+    while (theNBytesLeft>0) {
+      long thePageIndex=theFileOffset>>>mPageNBits;
+      int thePageOffset=(int) (theFileOffset&(mPageSize-1));
+      int theNBytes=Math.min(theNBytesLeft,mPageSize-thePageOffset);
+      Page thePage=getPage(inCacheId,inStoreFile,inFileLength,thePageIndex,thePageOffset+theNBytes);
+      System.arraycopy(thePage.mBytes,thePageOffset,ioBytes,theByteDelta,theNBytes);
+      theFileOffset+=theNBytes;
+      theByteDelta+=theNBytes;
+      theNBytesLeft-=theNBytes;
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getPage
+//
+// Cached page if it holds inNBytes, else reads the page and caches it
+//--------------------------------------------------------------------------------------------------------
+
+  private Page getPage(long inCacheId, StoreFile inStoreFile, long inFileLength,
+      long inPageIndex, int inNBytes) {
+
+    Stripe theStripe=getStripe(inCacheId,inPageIndex);
+    long theNInvalidates;
+    synchronized(theStripe) {
+      PageKey theProbe=theStripe.mProbe;
+      theProbe.mCacheId=inCacheId;
+      theProbe.mPageIndex=inPageIndex;
+      Page thePage=theStripe.mPages.get(theProbe);
+      if ((thePage!=null)&&(thePage.mBytes.length>=inNBytes)) {
+        theStripe.mNHits++;
+        thePage.mReferenced=true;
+        return thePage;
+      }
+      theStripe.mNMisses++;
+      theNInvalidates=theStripe.mNInvalidates;
+    }
+
+    // Read page outside lock
+    long thePageStart=inPageIndex<<mPageNBits;
+    int thePageNBytes=(int) Math.max(inNBytes,Math.min(mPageSize,inFileLength-thePageStart));
+    byte[] theBytes=new byte[thePageNBytes];
+    inStoreFile.readBytes(thePageStart,theBytes,0,thePageNBytes);
+    Page thePage=new Page(inCacheId,inPageIndex,theBytes);
+
+    // Cache it, unless written meanwhile, or already cached by another thread
+    synchronized(theStripe) {
+      if (theStripe.mNInvalidates!=theNInvalidates)
+        return thePage;
+      Page theOldPage=theStripe.mPages.get(thePage);
+      if ((theOldPage!=null)&&(theOldPage.mBytes.length>=thePageNBytes))
+        return thePage;
+      if (theOldPage!=null)
+        theOldPage.mDead=true;
+      theStripe.mPages.put(thePage,thePage);
+    }
+
+    Page theVictim=claimSlot(thePage);
+    if (theVictim!=null) {
+      Stripe theVictimStripe=getStripe(theVictim.mCacheId,theVictim.mPageIndex);
+      synchronized(theVictimStripe) {
+        if (theVictimStripe.mPages.get(theVictim)==theVictim)
+          theVictimStripe.mPages.remove(theVictim);
+      }
+    }
+    return thePage;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// claimSlot
+//
+// Puts inPage in the ring, returning the page it evicted, if any
+//--------------------------------------------------------------------------------------------------------
+
+  private Page claimSlot(Page inPage) {
+    synchronized(mSlots) {
+      while (true) {
+        Page theOldPage=mSlots[mHand];
+        if ((theOldPage!=null)&&(!theOldPage.mDead)&&theOldPage.mReferenced)
+          theOldPage.mReferenced=false;
+        else {
+          mSlots[mHand]=inPage;
+          mHand=(mHand+1)%mSlots.length;
+          if ((theOldPage==null)||theOldPage.mDead)
+            return null;
+          theOldPage.mDead=true;
+          mNEvictions++;
+          return theOldPage;
+        }
+        mHand=(mHand+1)%mSlots.length;
+      }
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// invalidate
+//
+// Drops cached pages holding any of the bytes - call after writing them
+//--------------------------------------------------------------------------------------------------------
+
+  public void invalidate(long inCacheId, long inFileOffset, long inNBytes) {
+    if (inNBytes<=0)
+      return;
+    long theFirstPageIndex=inFileOffset>>>mPageNBits;
+    long theLastPageIndex=(inFileOffset+inNBytes-1)>>>mPageNBits;
+    for (long thePageIndex=theFirstPageIndex; thePageIndex<=theLastPageIndex; thePageIndex++) {
+      Stripe theStripe=getStripe(inCacheId,thePageIndex);
+      synchronized(theStripe) {
+        theStripe.mNInvalidates++;
+        PageKey theProbe=theStripe.mProbe;
+        theProbe.mCacheId=inCacheId;
+        theProbe.mPageIndex=thePageIndex;
+        Page thePage=theStripe.mPages.remove(theProbe);
+        if (thePage!=null)
+          thePage.mDead=true;
+      }
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getNPages
+//--------------------------------------------------------------------------------------------------------
+
+  public long getNPages() {
+    long theNPages=0;
+    for (int i=0; i<kNStripes; i++)
+      synchronized(mStripes[i]) {
+        theNPages+=mStripes[i].mPages.size();
+      }
+    return theNPages;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getNHits
+//--------------------------------------------------------------------------------------------------------
+
+  public long getNHits() {
+    long theNHits=0;
+    for (int i=0; i<kNStripes; i++)
+      synchronized(mStripes[i]) {
+        theNHits+=mStripes[i].mNHits;
+      }
+    return theNHits;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getNMisses
+//--------------------------------------------------------------------------------------------------------
+
+  public long getNMisses() {
+    long theNMisses=0;
+    for (int i=0; i<kNStripes; i++)
+      synchronized(mStripes[i]) {
+        theNMisses+=mStripes[i].mNMisses;
+      }
+    return theNMisses;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getNInvalidates
+//--------------------------------------------------------------------------------------------------------
+
+  public long getNInvalidates() {
+    long theNInvalidates=0;
+    for (int i=0; i<kNStripes; i++)
+      synchronized(mStripes[i]) {
+        theNInvalidates+=mStripes[i].mNInvalidates;
+      }
+    return theNInvalidates;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getNEvictions
+//--------------------------------------------------------------------------------------------------------
+
+  public long getNEvictions() {
+    synchronized(mSlots) {
+      return mNEvictions;
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// getHitRate
+//--------------------------------------------------------------------------------------------------------
+
+  public double getHitRate() {
+    long theNHits=getNHits();
+    long theNLookups=theNHits+getNMisses();
+    return (theNLookups==0)?0:((double) theNHits)/theNLookups;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// formatStats
+//--------------------------------------------------------------------------------------------------------
+
+  public String formatStats() {
+    return "pages="+getNPages()+"/"+getMaxNPages()+
+        " hits="+getNHits()+
+        " misses="+getNMisses()+
+        " hitRate="+FormatUtils.formatDouble(100*getHitRate(),1)+"%"+
+        " evictions="+getNEvictions()+
+        " invalidates="+getNInvalidates();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// PageKey
+//--------------------------------------------------------------------------------------------------------
+
+  private static class PageKey {
+
+    long          mCacheId;
+    long          mPageIndex;
+
+    public int hashCode() { return Long.hashCode(mCacheId*31+mPageIndex); }
+
+    public boolean equals(Object inObject) {
+      if (!(inObject instanceof PageKey))
+        return false;
+      PageKey theKey=(PageKey) inObject;
+      return (mCacheId==theKey.mCacheId)&&(mPageIndex==theKey.mPageIndex);
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// Page
+//--------------------------------------------------------------------------------------------------------
+
+  private static class Page extends PageKey {
+
+    final byte[]        mBytes;
+    volatile boolean    mReferenced;
+    volatile boolean    mDead;        // unmapped - slot is free
+
+    Page(long inCacheId, long inPageIndex, byte[] inBytes) {
+      mCacheId=inCacheId;
+      mPageIndex=inPageIndex;
+      mBytes=inBytes;
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// Stripe
+//--------------------------------------------------------------------------------------------------------
+
+  private static class Stripe {
+
+    final HashMap<PageKey,Page>  mPages=new HashMap<PageKey,Page>();
+    final PageKey                mProbe=new PageKey();
+    long                         mNHits;
+    long                         mNMisses;
+    long                         mNInvalidates;
+  }
+
+}
@@ -5,12 +5,42 @@
 package gravel.utils;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 
 //--------------------------------------------------------------------------------------------------------
 // StoreFile
+//
+// A FileChannel, read and written at explicit file offsets, or at a position set by seek
+//
+// Writes are held in a write behind buffer, one byte slice, while they land in or just past the bytes
+//   already buffered, so runs of small writes cost one write call.  Reads of buffered bytes are answered
+//   from the buffer.  flush writes the buffer to the file, and sync also forces the file to disk.  close
+//   syncs, if anything was written since the last sync
+//
+// Positional reads and writes are thread safe, and reads that miss the buffer run concurrently.  The seek
+//   position is not thread safe
+//
+// A FileChannel closes for all its users when a thread using it is interrupted.  So a channel found
+//   closed, other than by close, is reopened and the call retried, with the interrupt flag cleared for
+//   the retry and set again after, for the caller to see
+//--------------------------------------------------------------------------------------------------------
+
+public class StoreFile implements PoolObjectInterface {
+
 //--------------------------------------------------------------------------------------------------------
+// StoreFile consts
+//--------------------------------------------------------------------------------------------------------
+
+  public static final int   kWriteBufferSize=SliceStore.kByteSliceSize;
 
-public class StoreFile implements PoolObjectInterface { 
+  // Channel ops for doChannel
+  private static final int  kRead=0;
+  private static final int  kWrite=1;
+  private static final int  kSize=2;
+  private static final int  kTruncate=3;
+  private static final int  kForce=4;
 
 //--------------------------------------------------------------------------------------------------------
 // StoreFile member vars
@@ -18,8 +48,14 @@ public class StoreFile implements PoolObjectInterface {
 
   private String            mFilename;
   private boolean           mReadOnly;
-  private RandomAccessFile  mRandomAccessFile;      // ### Replace with java.nio.channels.FileChannel
+  private volatile FileChannel  mFileChannel;
   private boolean           mCanRecycle;
+  private long              mPosition;          // for seek and the reads and writes that follow it
+
+  private byte[]            mBuffer;            // write behind, null until first write
+  private long              mBufferFileOffset;
+  private int               mBufferNBytes;
+  private boolean           mNeedsSync;         // written since last sync
 
 //--------------------------------------------------------------------------------------------------------
 // StoreFile
@@ -36,33 +72,116 @@ public class StoreFile implements PoolObjectInterface {
 //--------------------------------------------------------------------------------------------------------
 
   public void open() throws IOException {
+    mFileChannel=openChannel();
+    mPosition=0;
+    mCanRecycle=true;
+  }
+
+  private FileChannel openChannel() throws IOException {
+    Path thePath=Paths.get(mFilename);
     // Compensating for java io crap
     // Retry with delays to give file system a chance to catch up
-    for (int i=0; i<100; i++) 
+    for (int i=0; ; i++)
       try {
-        mRandomAccessFile=new RandomAccessFile(mFilename,(mReadOnly?"r":"rws"));
-        break; 
+        if (mReadOnly)
+          return FileChannel.open(thePath,StandardOpenOption.READ);
+        else
+          return FileChannel.open(thePath,
+              StandardOpenOption.READ,StandardOpenOption.WRITE,StandardOpenOption.CREATE);
       } catch (IOException e) {
         if (i==99)
           throw e;
         try { Thread.sleep(10); } catch (Exception e2) {}
       }
-    mCanRecycle=true;
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// reopen
+//
+// Replaces inClosedFileChannel, unless another thread already has
+//--------------------------------------------------------------------------------------------------------
+
+  private synchronized void reopen(FileChannel inClosedFileChannel) throws IOException {
+    if ((getIsClosed())||(mFileChannel==null))
+      throw new ClosedChannelException();
+    if (mFileChannel==inClosedFileChannel)
+      mFileChannel=openChannel();
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// doChannel
+//
+// Runs inOp on the channel, reopening it and retrying if it was closed under the call
+//--------------------------------------------------------------------------------------------------------
+
+  private long doChannel(int inOp, ByteBuffer ioByteBuffer, long inFileOffset) throws IOException {
+    boolean theInterrupted=false;
+    try {
+      while (true) {
+        FileChannel theFileChannel=mFileChannel;
+        if (theFileChannel==null)
+          throw new ClosedChannelException();
+        try {
+          switch (inOp) {
+            case kRead:
+              return theFileChannel.read(ioByteBuffer,inFileOffset);
+            case kWrite:
+              return theFileChannel.write(ioByteBuffer,inFileOffset);
+            case kSize:
+              return theFileChannel.size();
+            case kTruncate:
+              theFileChannel.truncate(inFileOffset);
+              return 0;
+            case kForce:
+              theFileChannel.force(true);
+              return 0;
+            default:
+              throw new StoreException("Unknown channel op: "+inOp);
+          }
+        } catch (ClosedByInterruptException e) {
+          theInterrupted|=Thread.interrupted();
+          reopen(theFileChannel);
+        } catch (ClosedChannelException e) {
+          reopen(theFileChannel);
+        }
+      }
+    } finally {
+      if (theInterrupted)
+        Thread.currentThread().interrupt();
+    }
   }
 
 //--------------------------------------------------------------------------------------------------------
 // close
+//
+// Syncs first, if written since last sync
 //--------------------------------------------------------------------------------------------------------
 
   public void close() {
-    mFilename=null;
-    RandomAccessFile theRandomAccessFile=mRandomAccessFile;
-    mRandomAccessFile=null;
-    mCanRecycle=false;
-    
-    if (theRandomAccessFile!=null) {
-      try { theRandomAccessFile.close(); } catch (Exception e) { }
-      theRandomAccessFile=null;
+    try {
+      if ((mFileChannel!=null)&&(!getIsClosed()))
+        sync();
+    } finally {
+      FileChannel theFileChannel;
+      synchronized(this) {
+        theFileChannel=mFileChannel;
+        mFilename=null;
+        mFileChannel=null;
+      }
+      mCanRecycle=false;
+
+      synchronized(this) {
+        if (mBuffer!=null) {
+          SliceStore.getSliceStore().putByteSlice(mBuffer);
+          mBuffer=null;
+          mBufferNBytes=0;
+        }
+      }
+
+      if (theFileChannel!=null) {
+        try { theFileChannel.close(); } catch (Exception e) { }
+        theFileChannel=null;
+      }
     }
   }
 
@@ -96,13 +215,53 @@ public class StoreFile implements PoolObjectInterface {
 
   public boolean check() { return mCanRecycle; }
 
+//--------------------------------------------------------------------------------------------------------
+// flush
+//
+// Writes the write behind buffer to the file - the OS may still hold it
+//--------------------------------------------------------------------------------------------------------
+
+  public synchronized void flush() {
+    if (mBufferNBytes>0) {
+      try {
+        ByteBuffer theByteBuffer=ByteBuffer.wrap(mBuffer,0,mBufferNBytes);
+        long theFileOffset=mBufferFileOffset;
+        while (theByteBuffer.hasRemaining())
+          theFileOffset+=doChannel(kWrite,theByteBuffer,theFileOffset);
+        mBufferNBytes=0;
+      } catch (IOException e) {
+        mCanRecycle=false;
+        throw new StoreException("Cannot write "+mFilename,e);
+      }
+    }
+  }
+
+//--------------------------------------------------------------------------------------------------------
+// sync
+//
+// Flushes, and forces content and length to disk, if written since last sync
+//--------------------------------------------------------------------------------------------------------
+
+  public synchronized void sync() {
+    flush();
+    if (mNeedsSync) {
+      try {
+        doChannel(kForce,null,0);
+        mNeedsSync=false;
+      } catch (IOException e) {
+        mCanRecycle=false;
+        throw new StoreException("Cannot sync "+mFilename,e);
+      }
+    }
+  }
+
 //--------------------------------------------------------------------------------------------------------
 // getLength
 //--------------------------------------------------------------------------------------------------------
 
-  public long getLength() { 
+  public synchronized long getLength() {
     try {
-      return mRandomAccessFile.length(); 
+      return Math.max(doChannel(kSize,null,0),mBufferFileOffset+mBufferNBytes);
     } catch (IOException e) {
       mCanRecycle=false;
       throw new StoreException("Cannot get length of "+mFilename,e);
@@ -113,110 +272,190 @@ public class StoreFile implements PoolObjectInterface {
 // setLength
 //--------------------------------------------------------------------------------------------------------
 
-  public void setLength(long inLength) { 
+  public synchronized void setLength(long inLength) {
+    flush();
     try {
-      long theOldLength=getLength();
-      long theAmtGrown=Math.max(0,inLength-theOldLength);
-      mRandomAccessFile.setLength(inLength); 
-      if (theAmtGrown>0) { // If increasing size, write last byte to ensure space allocated
-        mRandomAccessFile.seek(inLength-1);
-        mRandomAccessFile.write((byte) -1);
+      long theOldLength=doChannel(kSize,null,0);
+      if (inLength<theOldLength)
+        doChannel(kTruncate,null,inLength);
+      else if (inLength>theOldLength) { // If increasing size, write last byte to ensure space allocated
+        ByteBuffer theByteBuffer=ByteBuffer.wrap(new byte[] {(byte) -1});
+        while (theByteBuffer.hasRemaining())
+          doChannel(kWrite,theByteBuffer,inLength-1);
       }
+      mNeedsSync=true;
     } catch (IOException e) {
       mCanRecycle=false;
       throw new StoreException("Cannot set length of "+mFilename,e);
     }
   }
-  
+
 //--------------------------------------------------------------------------------------------------------
-// seek
+// map
+//
+// Maps inNBytes of the file from inFileOffset, read only if the file was opened read only
+// The mapping stays valid after the file is closed, until the buffer is garbage collected
 //--------------------------------------------------------------------------------------------------------
 
-  public void seek(long inOffset) { 
+  public MappedByteBuffer map(long inFileOffset, long inNBytes) {
+    flush();
     try {
-      mRandomAccessFile.seek(inOffset); 
+      FileChannel.MapMode theMapMode=(mReadOnly?FileChannel.MapMode.READ_ONLY:FileChannel.MapMode.READ_WRITE);
+      boolean theInterrupted=false;
+      try {
+        while (true) {
+          FileChannel theFileChannel=mFileChannel;
+          if (theFileChannel==null)
+            throw new ClosedChannelException();
+          try {
+            return theFileChannel.map(theMapMode,inFileOffset,inNBytes);
+          } catch (ClosedByInterruptException e) {
+            theInterrupted|=Thread.interrupted();
+            reopen(theFileChannel);
+          } catch (ClosedChannelException e) {
+            reopen(theFileChannel);
+          }
+        }
+      } finally {
+        if (theInterrupted)
+          Thread.currentThread().interrupt();
+      }
     } catch (IOException e) {
       mCanRecycle=false;
-      throw new StoreException("Cannot seek in "+mFilename,e);
+      throw new StoreException("Cannot map "+mFilename,e);
     }
   }
 
 //--------------------------------------------------------------------------------------------------------
-// readByte
-//
-// Assumes seek already performed so file at correct position
+// seek
 //--------------------------------------------------------------------------------------------------------
 
-  public byte readByte() { 
-    try {
-      int theValue=mRandomAccessFile.read(); 
-      if (theValue==-1)
-        throw new StoreException("Read past end of "+mFilename);
-      return (byte) theValue;
-    } catch (IOException e) {
-      mCanRecycle=false;
-      throw new StoreException("Cannot read "+mFilename,e);
-    }
+  public void seek(long inOffset) {
+    if (inOffset<0)
+      throw new StoreException("Cannot seek to negative offset in "+mFilename);
+    mPosition=inOffset;
   }
 
 //--------------------------------------------------------------------------------------------------------
-// readBytes
-//
-// Assumes seek already performed so file at correct position
+// readByte
 //--------------------------------------------------------------------------------------------------------
-  
-  public void readBytes(byte[] outBytes, int inByteDelta, int inNBytes) { 
-    try {
-      int theValue=mRandomAccessFile.read(outBytes,inByteDelta,inNBytes);
-      if (theValue<inNBytes)
-        throw new StoreException("Read past end of "+mFilename);
-    } catch (IOException e) {
-      mCanRecycle=false;
-      throw new StoreException("Cannot read "+mFilename,e);
-    }
+
+  public byte readByte(long inFileOffset) {
+    byte[] theBytes=new byte[1];
+    readBytes(inFileOffset,theBytes,0,1);
+    return theBytes[0];
+  }
+
+  // Assumes seek already performed so file at correct position
+  public byte readByte() {
+    byte theByte=readByte(mPosition);
+    mPosition++;
+    return theByte;
   }
 
 //--------------------------------------------------------------------------------------------------------
 // readBytes
 //--------------------------------------------------------------------------------------------------------
 
+  public void readBytes(long inFileOffset, byte[] outBytes, int inByteDelta, int inNBytes) {
+    if (inNBytes>0) {
+      synchronized(this) {
+        if (mBufferNBytes>0) {
+          long theBufferEnd=mBufferFileOffset+mBufferNBytes;
+          if ((inFileOffset>=mBufferFileOffset)&&(inFileOffset+inNBytes<=theBufferEnd)) {
+            System.arraycopy(mBuffer,(int) (inFileOffset-mBufferFileOffset),outBytes,inByteDelta,inNBytes);
+            return;
+          }
+          if ((inFileOffset<theBufferEnd)&&(inFileOffset+inNBytes>mBufferFileOffset))
+            flush();
+        }
+      }
+      try {
+        ByteBuffer theByteBuffer=ByteBuffer.wrap(outBytes,inByteDelta,inNBytes);
+        long theFileOffset=inFileOffset;
+        while (theByteBuffer.hasRemaining()) {
+          int theNBytes=(int) doChannel(kRead,theByteBuffer,theFileOffset);
+          if (theNBytes<0)
+            throw new StoreException("Read past end of "+mFilename);
+          theFileOffset+=theNBytes;
+        }
+      } catch (IOException e) {
+        mCanRecycle=false;
+        throw new StoreException("Cannot read "+mFilename,e);
+      }
+    }
+  }
+
+  // Assumes seek already performed so file at correct position
+  public void readBytes(byte[] outBytes, int inByteDelta, int inNBytes) {
+    readBytes(mPosition,outBytes,inByteDelta,inNBytes);
+    mPosition+=inNBytes;
+  }
+
   public void readBytes(byte[] outBytes) { readBytes(outBytes,0,outBytes.length); }
 
 //--------------------------------------------------------------------------------------------------------
 // writeByte
-//
-// Assumes seek already performed so file at correct position
 //--------------------------------------------------------------------------------------------------------
 
-  public void writeByte(byte inByte) { 
-    try {
-      mRandomAccessFile.write(inByte); 
-    } catch (IOException e) {
-      mCanRecycle=false;
-      throw new StoreException("Cannot write "+mFilename,e);
-    }
+  public void writeByte(long inFileOffset, byte inByte) {
+    writeBytes(inFileOffset,new byte[] {inByte},0,1); }
+
+  // Assumes seek already performed so file at correct position
+  public void writeByte(byte inByte) {
+    writeByte(mPosition,inByte);
+    mPosition++;
   }
 
 //--------------------------------------------------------------------------------------------------------
 // writeBytes
 //
-// Assumes seek already performed so file at correct position
-//--------------------------------------------------------------------------------------------------------
+// Buffered if the bytes land in or just past the bytes already buffered, and fit - else the buffer is
+//   flushed, and the bytes buffered, or written through if larger than the buffer
+//--------------------------------------------------------------------------------------------------------
+
+  public synchronized void writeBytes(long inFileOffset, byte[] inBytes, int inByteDelta, int inNBytes) {
+    if (mReadOnly)
+      throw new StoreException("Cannot write read only "+mFilename);
+    if (inNBytes<=0)
+      return;
+    mNeedsSync=true;
+
+    if ((mBufferNBytes>0)&&
+        (inFileOffset>=mBufferFileOffset)&&(inFileOffset<=mBufferFileOffset+mBufferNBytes)&&
+        (inFileOffset+inNBytes<=mBufferFileOffset+kWriteBufferSize)) {
+      int theBufferDelta=(int) (inFileOffset-mBufferFileOffset);
+      System.arraycopy(inBytes,inByteDelta,mBuffer,theBufferDelta,inNBytes);
+      mBufferNBytes=Math.max(mBufferNBytes,theBufferDelta+inNBytes);
+      return;
+    }
 
-  public void writeBytes(byte[] outBytes, int inByteDelta, int inNBytes) { 
-    try {
-      mRandomAccessFile.write(outBytes,inByteDelta,inNBytes);
-    } catch (IOException e) {
-      mCanRecycle=false;
-      throw new StoreException("Cannot write "+mFilename,e);
+    flush();
+    if (inNBytes<kWriteBufferSize) {
+      if (mBuffer==null)
+        mBuffer=SliceStore.getSliceStore().getByteSlice();
+      System.arraycopy(inBytes,inByteDelta,mBuffer,0,inNBytes);
+      mBufferFileOffset=inFileOffset;
+      mBufferNBytes=inNBytes;
+    } else {
+      try {
+        ByteBuffer theByteBuffer=ByteBuffer.wrap(inBytes,inByteDelta,inNBytes);
+        long theFileOffset=inFileOffset;
+        while (theByteBuffer.hasRemaining())
+          theFileOffset+=doChannel(kWrite,theByteBuffer,theFileOffset);
+      } catch (IOException e) {
+        mCanRecycle=false;
+        throw new StoreException("Cannot write "+mFilename,e);
+      }
     }
   }
 
-//--------------------------------------------------------------------------------------------------------
-// writeBytes
-//--------------------------------------------------------------------------------------------------------
+  // Assumes seek already performed so file at correct position
+  public void writeBytes(byte[] inBytes, int inByteDelta, int inNBytes) {
+    writeBytes(mPosition,inBytes,inByteDelta,inNBytes);
+    mPosition+=inNBytes;
+  }
 
-  public void writeBytes(byte[] outBytes) { writeBytes(outBytes,0,outBytes.length); }
+  public void writeBytes(byte[] inBytes) { writeBytes(inBytes,0,inBytes.length); }
 
 }
-
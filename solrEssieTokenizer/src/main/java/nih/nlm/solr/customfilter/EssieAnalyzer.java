@@ -0,0 +1,141 @@
+package nih.nlm.solr.customfilter;
+
+import java.io.Reader;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+
+/**
+ * Analyzer running EssieTokenizer, for use with plain Lucene outside Solr,
+ * optionally with the rest of the Essie chain:
+ *
+ *   normChars          - EssieCharNormCharFilter over the Reader, so other
+ *                        filters and highlighters see char normed text
+ *   compoundGraph      - EssieCompoundGraphFilter after the tokenizer.
+ *                        Makes a token graph, so for indexing follow the
+ *                        analyzer with FlattenGraphFilter, or use it on the
+ *                        query side only
+ *   expandInflections  - EssieInflectionExpandFilter last, stacking the
+ *                        inflection variants of every token, on the query
+ *                        side only
+ *
+ * The components are reused with Analyzer's per-field strategy, so each
+ * thread keeps one EssieTokenizer, with its chunk buffer and token arrays,
+ * for every field it analyzes, and analyzing a document allocates no new
+ * streams or buffers. Pass GLOBAL_REUSE_STRATEGY instead to share one set
+ * across all fields of a thread.
+ *
+ * @author gayens
+ */
+public final class EssieAnalyzer extends Analyzer
+{
+
+    private final EssieNormDictionary dictionary;
+    private final int chunkSize;
+    private final EssieMetrics metrics;
+    private final boolean normChars;
+    private final boolean compoundGraph;
+    private final boolean expandInflections;
+
+    /**
+     * With compoundGraph, loads the compound dictionary into dictionary if
+     * not loaded yet.
+     */
+    public EssieAnalyzer( EssieNormDictionary dictionary, int chunkSize, EssieMetrics metrics, ReuseStrategy reuseStrategy,
+            boolean normChars, boolean compoundGraph, boolean expandInflections )
+    {
+        super(reuseStrategy);
+        if( chunkSize < EssieTokenizer.MIN_CHUNK_SIZE )
+        {
+            throw new IllegalArgumentException("chunkSize must be at least " + EssieTokenizer.MIN_CHUNK_SIZE + ": " + chunkSize);
+        }
+        if( compoundGraph )
+        {
+            try
+            {
+                dictionary.loadCompounds();
+            }
+            catch( Exception e )
+            {
+                throw new IllegalArgumentException("Cannot load Essie compounds from " + dictionary.getNormDir(), e);
+            }
+        }
+        this.dictionary = dictionary;
+        this.chunkSize = chunkSize;
+        this.metrics = metrics;
+        this.normChars = normChars;
+        this.compoundGraph = compoundGraph;
+        this.expandInflections = expandInflections;
+    }
+
+    public EssieAnalyzer( EssieNormDictionary dictionary, int chunkSize, EssieMetrics metrics, ReuseStrategy reuseStrategy )
+    {
+        this(dictionary, chunkSize, metrics, reuseStrategy, false, false, false);
+    }
+
+    public EssieAnalyzer( EssieNormDictionary dictionary, EssieMetrics metrics,
+            boolean normChars, boolean compoundGraph, boolean expandInflections )
+    {
+        this(dictionary, EssieTokenizer.DEFAULT_CHUNK_SIZE, metrics, PER_FIELD_REUSE_STRATEGY,
+                normChars, compoundGraph, expandInflections);
+    }
+
+    public EssieAnalyzer( EssieNormDictionary dictionary, EssieMetrics metrics )
+    {
+        this(dictionary, EssieTokenizer.DEFAULT_CHUNK_SIZE, metrics, PER_FIELD_REUSE_STRATEGY);
+    }
+
+    public EssieAnalyzer( EssieNormDictionary dictionary )
+    {
+        this(dictionary, null);
+    }
+
+    public EssieNormDictionary getDictionary()
+    {
+        return dictionary;
+    }
+
+    public EssieMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    public boolean getNormChars()
+    {
+        return normChars;
+    }
+
+    public boolean getCompoundGraph()
+    {
+        return compoundGraph;
+    }
+
+    public boolean getExpandInflections()
+    {
+        return expandInflections;
+    }
+
+    @Override
+    protected Reader initReader( String fieldName, Reader reader )
+    {
+        return normChars ? new EssieCharNormCharFilter(reader, dictionary) : reader;
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents( String fieldName )
+    {
+        Tokenizer source = new EssieTokenizer(TokenStream.DEFAULT_TOKEN_ATTRIBUTE_FACTORY, dictionary, chunkSize, metrics);
+        TokenStream result = source;
+        // The compound graph filter needs plain norm tokens, so goes before the expansion
+        if( compoundGraph )
+        {
+            result = new EssieCompoundGraphFilter(result, dictionary);
+        }
+        if( expandInflections )
+        {
+            result = new EssieInflectionExpandFilter(result, dictionary);
+        }
+        return new TokenStreamComponents(source, result);
+    }
+
+}
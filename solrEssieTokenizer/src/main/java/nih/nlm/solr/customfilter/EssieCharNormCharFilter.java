@@ -0,0 +1,142 @@
+package nih.nlm.solr.customfilter;
+
+import java.io.IOException;
+import java.io.Reader;
+import org.apache.lucene.analysis.charfilter.BaseCharFilter;
+
+/**
+ * Char filter running Essie char norm (lowercasing, accent stripping,
+ * ligature expansion, symbol collapsing, ...) over the Reader, without the
+ * rest of the term norm, so any tokenizer can use it.
+ *
+ * The input is read in chunks of chunkSize chars. Most chars norm to one
+ * char, and those need no offset correction. Only a char that norms to no
+ * chars or to several adds entries to the offset map, the way
+ * MappingCharFilter does it, so offsets map back to the raw text without a
+ * map entry per char.
+ *
+ * @author gayens
+ */
+public final class EssieCharNormCharFilter extends BaseCharFilter
+{
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    // CharNorm norms a char to at most 4 chars, keep well clear of that
+    private static final int MAX_NORM_CHARS = 16;
+
+    private final EssieNormDictionary dictionary;
+
+    private final char[] inBuffer;
+    private int inStart;
+    private int inEnd;
+    private boolean exhausted;
+
+    private final char[] outBuffer;
+    private int outStart;
+    private int outEnd;
+
+    private int inputOff;       // raw chars normed so far
+    private int outputOff;      // norm chars made so far
+
+    public EssieCharNormCharFilter( Reader in, EssieNormDictionary dictionary, int chunkSize )
+    {
+        super(in);
+        if( chunkSize < 1 )
+        {
+            throw new IllegalArgumentException("chunkSize must be at least 1: " + chunkSize);
+        }
+        this.dictionary = dictionary;
+        inBuffer = new char[chunkSize];
+        outBuffer = new char[chunkSize + MAX_NORM_CHARS];
+    }
+
+    public EssieCharNormCharFilter( Reader in, EssieNormDictionary dictionary )
+    {
+        this(in, dictionary, DEFAULT_CHUNK_SIZE);
+    }
+
+    @Override
+    public int read( char[] cbuf, int off, int len ) throws IOException
+    {
+        if( len == 0 )
+        {
+            return 0;
+        }
+        while( outStart == outEnd )
+        {
+            if( !normChunk() )
+            {
+                return -1;
+            }
+        }
+        int count = Math.min(len, outEnd - outStart);
+        System.arraycopy(outBuffer, outStart, cbuf, off, count);
+        outStart += count;
+        return count;
+    }
+
+    /**
+     * Norms buffered raw chars into the empty out buffer, reading more raw
+     * chars first if all are used. Returns false once the input is used
+     * up. May norm chars without making any, if they all norm to nothing.
+     */
+    private boolean normChunk() throws IOException
+    {
+        if( inStart == inEnd )
+        {
+            if( exhausted )
+            {
+                return false;
+            }
+            int read = input.read(inBuffer, 0, inBuffer.length);
+            if( read < 0 )
+            {
+                exhausted = true;
+                return false;
+            }
+            inStart = 0;
+            inEnd = read;
+        }
+
+        outStart = 0;
+        outEnd = 0;
+        int limit = outBuffer.length - MAX_NORM_CHARS;
+        while( inStart < inEnd && outEnd <= limit )
+        {
+            int end = dictionary.normChar(inBuffer[inStart++], outBuffer, outEnd);
+            int normCount = end - outEnd;
+            outEnd = end;
+            if( normCount != 1 )
+            {
+                correctOffsets(normCount);
+            }
+            inputOff++;
+            outputOff += normCount;
+        }
+        return true;
+    }
+
+    /**
+     * Raw char at inputOff normed to normCount chars, other than 1, starting
+     * at outputOff. Map the output after it back to the raw text.
+     */
+    private void correctOffsets( int normCount )
+    {
+        int cumulativeDiff = inputOff - outputOff;
+        if( normCount == 0 )
+        {
+            // Char dropped, output from here on is one more char behind the input
+            addOffCorrectMap(outputOff, cumulativeDiff + 1);
+        }
+        else
+        {
+            // Char expanded, map the extra chars back to the raw char
+            for( int extra = 1; extra < normCount; extra++ )
+            {
+                addOffCorrectMap(outputOff + extra, cumulativeDiff - extra);
+            }
+        }
+    }
+
+}
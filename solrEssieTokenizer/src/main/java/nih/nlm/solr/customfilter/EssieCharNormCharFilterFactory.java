@@ -0,0 +1,82 @@
+package nih.nlm.solr.customfilter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+import org.apache.lucene.analysis.util.CharFilterFactory;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.apache.lucene.analysis.util.ResourceLoaderAware;
+
+/**
+ *
+ * Factory arguments:
+ *   normDir   - directory holding the Essie norm dictionaries (optional,
+ *               defaults to the "norm" directory next to the jar)
+ *   chunkSize - chars read from the Reader at a time (optional, defaults
+ *               to EssieCharNormCharFilter.DEFAULT_CHUNK_SIZE)
+ *
+ * @author gayens
+ */
+public class EssieCharNormCharFilterFactory extends CharFilterFactory implements ResourceLoaderAware
+{
+    public static final String CHUNK_SIZE_ARG = "chunkSize";
+
+    private final String normDir;
+    private final int chunkSize;
+
+    private volatile EssieNormDictionary dictionary;
+
+    public EssieCharNormCharFilterFactory( Map<String, String> args )
+    {
+        super(args);
+        normDir = get(args, EssieTokenizerFilterFactory.NORM_DIR_ARG);
+        chunkSize = getInt(args, CHUNK_SIZE_ARG, EssieCharNormCharFilter.DEFAULT_CHUNK_SIZE);
+        if( chunkSize < 1 )
+        {
+            throw new IllegalArgumentException(CHUNK_SIZE_ARG + " must be at least 1");
+        }
+        if( !args.isEmpty() )
+        {
+            throw new IllegalArgumentException("Unknown parameters: " + args);
+        }
+    }
+
+    @Override
+    public void inform(ResourceLoader loader) throws IOException
+    {
+        try
+        {
+            dictionary = EssieNormDictionary.load(normDir);
+        }
+        catch( Exception e )
+        {
+            throw new IOException("Cannot load Essie norm dictionaries from " + normDir, e);
+        }
+    }
+
+    public EssieNormDictionary getDictionary()
+    {
+        if( dictionary == null )
+        {
+            throw new IllegalStateException("EssieCharNormCharFilterFactory used before inform()");
+        }
+        return dictionary;
+    }
+
+    @Override
+    public Reader create(Reader input)
+    {
+        return new EssieCharNormCharFilter(input, getDictionary(), chunkSize);
+    }
+
+    /**
+     * Char norm works char by char, so it applies to wildcard and other
+     * multi-term query text too.
+     */
+    @Override
+    public Reader normalize(Reader input)
+    {
+        return create(input);
+    }
+
+}
@@ -0,0 +1,288 @@
+package nih.nlm.solr.customfilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+
+/**
+ * Adds the variants of compound words as a token graph.
+ *
+ * Looks for the same compound words as CompoundExpand.expandNormTokens, a
+ * run of 1 to 3 norm tokens that is the compressed or a spaced variant of a
+ * compound word, longest run first. Instead of repeating the whole term for
+ * each variant, every variant becomes a path of its own between the
+ * positions before and after the compound word, with PositionLengthAttribute
+ * set on each token, the way SynonymGraphFilter does it:
+ *
+ *      +---heartattack---+
+ *      |                 |
+ *   ---+-heart-+-attack--+---
+ *
+ * So the work done grows with the number of compound words found, not with
+ * the product of their variant counts, and there is no cap on variants.
+ *
+ * Input must be a plain stream of norm tokens, as made by EssieTokenizer or
+ * EssieTokenizerFilter. The tokens of the original text keep their own
+ * offsets, added tokens get the offsets of the whole compound word and the
+ * type "COMPOUND". Use on the query side, where QueryBuilder understands
+ * graphs, or follow with FlattenGraphFilter when indexing.
+ *
+ * @author gayens
+ */
+public final class EssieCompoundGraphFilter extends TokenFilter
+{
+
+    public static final String TYPE_COMPOUND = "COMPOUND";
+
+    // CompoundExpand looks at runs of up to 3 tokens
+    private static final int MAX_COMPOUND_TOKENS = 3;
+
+    private final EssieNormDictionary dictionary;
+
+    // Input tokens read ahead, oldest first
+    private final State[] states = new State[MAX_COMPOUND_TOKENS];
+    private final String[] terms = new String[MAX_COMPOUND_TOKENS];
+    private final int[] startOffsets = new int[MAX_COMPOUND_TOKENS];
+    private final int[] endOffsets = new int[MAX_COMPOUND_TOKENS];
+    private final int[] posIncs = new int[MAX_COMPOUND_TOKENS];
+    private int windowCount;
+    private boolean inputDone;
+
+    // Tokens of the graph for the last compound word found, in the order they go out
+    private final ArrayList<Arc> arcs = new ArrayList<>();
+    private int arcIndex;
+
+    // Positions from the start of the last token out to the position after it
+    private int gap = 1;
+
+    private final CharTermAttribute charTermAttr = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+    private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+    private final PositionLengthAttribute posLenAtt = addAttribute(PositionLengthAttribute.class);
+    private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+    public EssieCompoundGraphFilter( TokenStream input, EssieNormDictionary dictionary )
+    {
+        super(input);
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException
+    {
+        if( arcIndex < arcs.size() )
+        {
+            emitArc(arcs.get(arcIndex++));
+            return true;
+        }
+        arcs.clear();
+        arcIndex = 0;
+
+        fillWindow();
+        if( windowCount == 0 )
+        {
+            return false;
+        }
+
+        for( int count = windowCount; count > 0; count-- )
+        {
+            if( !isRun(count) )
+            {
+                continue;
+            }
+            String[][] variants = dictionary.findCompoundVariants(terms, 0, count);
+            if( variants != null )
+            {
+                buildGraph(count, variants);
+                shiftWindow(count);
+                emitArc(arcs.get(arcIndex++));
+                return true;
+            }
+        }
+
+        restoreState(states[0]);
+        posIncAtt.setPositionIncrement(posIncs[0] + gap - 1);
+        gap = 1;
+        shiftWindow(1);
+        return true;
+    }
+
+    private void fillWindow() throws IOException
+    {
+        while( !inputDone && windowCount < MAX_COMPOUND_TOKENS )
+        {
+            if( !input.incrementToken() )
+            {
+                inputDone = true;
+                break;
+            }
+            states[windowCount] = captureState();
+            terms[windowCount] = charTermAttr.toString();
+            startOffsets[windowCount] = offsetAtt.startOffset();
+            endOffsets[windowCount] = offsetAtt.endOffset();
+            posIncs[windowCount] = posIncAtt.getPositionIncrement();
+            windowCount++;
+        }
+    }
+
+    /**
+     * A compound word can only be made of tokens next to each other, so no
+     * stop word holes and no stacked tokens.
+     */
+    private boolean isRun( int count )
+    {
+        for( int i = 1; i < count; i++ )
+        {
+            if( posIncs[i] != 1 )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void shiftWindow( int count )
+    {
+        windowCount -= count;
+        for( int i = 0; i < MAX_COMPOUND_TOKENS; i++ )
+        {
+            int from = i + count;
+            states[i] = from < MAX_COMPOUND_TOKENS ? states[from] : null;
+            terms[i] = from < MAX_COMPOUND_TOKENS ? terms[from] : null;
+            startOffsets[i] = from < MAX_COMPOUND_TOKENS ? startOffsets[from] : 0;
+            endOffsets[i] = from < MAX_COMPOUND_TOKENS ? endOffsets[from] : 0;
+            posIncs[i] = from < MAX_COMPOUND_TOKENS ? posIncs[from] : 0;
+        }
+    }
+
+    /**
+     * Lays out one path per variant between a start and an end position. Each
+     * path gets positions of its own in between, so paths never cross. The
+     * first token of every path goes out first, then the rest in position
+     * order, so positions never go backwards.
+     */
+    private void buildGraph( int count, String[][] variants )
+    {
+        String[] original = Arrays.copyOf(terms, count);
+        ArrayList<String[]> paths = new ArrayList<>(variants.length + 1);
+        int originalPath = -1;
+        for( String[] variant : variants )
+        {
+            if( originalPath == -1 && Arrays.equals(variant, original) )
+            {
+                originalPath = paths.size();
+            }
+            paths.add(variant);
+        }
+        // Dictionary should list every spaced variant, but never lose the original text
+        if( originalPath == -1 )
+        {
+            originalPath = paths.size();
+            paths.add(original);
+        }
+
+        int endPos = 1;
+        for( String[] path : paths )
+        {
+            endPos += path.length - 1;
+        }
+
+        int[] firstPos = new int[paths.size()];
+        int nextPos = 1;
+        for( int p = 0; p < paths.size(); p++ )
+        {
+            firstPos[p] = nextPos;
+            nextPos += paths.get(p).length - 1;
+        }
+
+        for( int p = 0; p < paths.size(); p++ )
+        {
+            addArc(paths.get(p), p == originalPath, 0, 0, firstPos[p], endPos, count);
+        }
+        for( int p = 0; p < paths.size(); p++ )
+        {
+            String[] path = paths.get(p);
+            for( int t = 1; t < path.length; t++ )
+            {
+                addArc(path, p == originalPath, t, firstPos[p] + t - 1, firstPos[p] + t, endPos, count);
+            }
+        }
+
+        int lastPos = 0;
+        for( Arc arc : arcs )
+        {
+            arc.posInc = arc.startPos - lastPos;
+            lastPos = arc.startPos;
+        }
+        arcs.get(0).posInc = posIncs[0] + gap - 1;
+        gap = endPos - lastPos;
+    }
+
+    private void addArc( String[] path, boolean original, int t, int startPos, int nextPos, int endPos, int count )
+    {
+        Arc arc = new Arc();
+        arc.term = path[t];
+        arc.startPos = startPos;
+        arc.endPos = t == path.length - 1 ? endPos : nextPos;
+        arc.original = original;
+        if( original )
+        {
+            arc.state = states[t];
+            arc.startOffset = startOffsets[t];
+            arc.endOffset = endOffsets[t];
+        }
+        else
+        {
+            arc.state = states[0];
+            arc.startOffset = startOffsets[0];
+            arc.endOffset = endOffsets[count - 1];
+        }
+        arcs.add(arc);
+    }
+
+    private void emitArc( Arc arc )
+    {
+        restoreState(arc.state);
+        charTermAttr.setEmpty().append(arc.term);
+        offsetAtt.setOffset(arc.startOffset, arc.endOffset);
+        posIncAtt.setPositionIncrement(arc.posInc);
+        posLenAtt.setPositionLength(arc.endPos - arc.startPos);
+        if( !arc.original )
+        {
+            typeAtt.setType(TYPE_COMPOUND);
+        }
+    }
+
+    @Override
+    public void reset() throws IOException
+    {
+        super.reset();
+        Arrays.fill(states, null);
+        Arrays.fill(terms, null);
+        windowCount = 0;
+        inputDone = false;
+        arcs.clear();
+        arcIndex = 0;
+        gap = 1;
+    }
+
+    private static final class Arc
+    {
+        String term;
+        State state;
+        int startOffset;
+        int endOffset;
+        int startPos;
+        int endPos;
+        int posInc;
+        boolean original;
+    }
+
+}
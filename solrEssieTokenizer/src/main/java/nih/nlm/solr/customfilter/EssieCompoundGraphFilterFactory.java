@@ -0,0 +1,68 @@
+package nih.nlm.solr.customfilter;
+
+import java.io.IOException;
+import java.util.Map;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.apache.lucene.analysis.util.ResourceLoaderAware;
+import org.apache.lucene.analysis.util.TokenFilterFactory;
+
+/**
+ * Makes a token graph, see EssieCompoundGraphFilter. In an index analyzer,
+ * follow it with FlattenGraphFilterFactory.
+ *
+ * Factory arguments:
+ *   normDir - directory holding the Essie norm dictionaries (optional,
+ *             defaults to the "norm" directory next to the jar), which
+ *             must hold Compounds.xml
+ *
+ * @author gayens
+ */
+public class EssieCompoundGraphFilterFactory extends TokenFilterFactory implements ResourceLoaderAware
+{
+
+    private final String normDir;
+
+    private volatile EssieNormDictionary dictionary;
+
+    public EssieCompoundGraphFilterFactory( Map<String, String> args )
+    {
+        super(args);
+        normDir = get(args, EssieTokenizerFilterFactory.NORM_DIR_ARG);
+        if( !args.isEmpty() )
+        {
+            throw new IllegalArgumentException("Unknown parameters: " + args);
+        }
+    }
+
+    @Override
+    public void inform(ResourceLoader loader) throws IOException
+    {
+        try
+        {
+            EssieNormDictionary loaded = EssieNormDictionary.load(normDir);
+            loaded.loadCompounds();
+            dictionary = loaded;
+        }
+        catch( Exception e )
+        {
+            throw new IOException("Cannot load Essie norm dictionaries from " + normDir, e);
+        }
+    }
+
+    public EssieNormDictionary getDictionary()
+    {
+        if( dictionary == null )
+        {
+            throw new IllegalStateException("EssieCompoundGraphFilterFactory used before inform()");
+        }
+        return dictionary;
+    }
+
+    @Override
+    public TokenStream create(TokenStream stream)
+    {
+        return new EssieCompoundGraphFilter(stream, getDictionary());
+    }
+
+}
@@ -0,0 +1,86 @@
+package nih.nlm.solr.customfilter;
+
+import java.io.IOException;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+
+/**
+ * Adds the inflection variants of each norm token, stacked on the token at
+ * position increment 0, with the token's offsets.
+ *
+ * Meant for query analyzers only, after EssieTokenizerFilter or
+ * EssieTokenizer, so the index holds just the norm forms and a query for
+ * the norm form also matches text indexed before inflection norming, or by
+ * another analyzer. Tokens with no variants pass through as they are.
+ *
+ * @author gayens
+ */
+public final class EssieInflectionExpandFilter extends TokenFilter
+{
+
+    private final EssieNormDictionary dictionary;
+
+    private String[] variants;
+    private int variantIndex;
+    private String term;
+    private State state;
+
+    private final CharTermAttribute charTermAttr = addAttribute(CharTermAttribute.class);
+    private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+
+    public EssieInflectionExpandFilter( TokenStream input, EssieNormDictionary dictionary )
+    {
+        super(input);
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException
+    {
+        while( variants != null && variantIndex < variants.length )
+        {
+            String variant = variants[variantIndex++];
+            // The norm form is one of its own variants, and has already gone out
+            if( !variant.equals(term) )
+            {
+                restoreState(state);
+                charTermAttr.setEmpty().append(variant);
+                posIncAtt.setPositionIncrement(0);
+                return true;
+            }
+        }
+        clearVariants();
+
+        if( !input.incrementToken() )
+        {
+            return false;
+        }
+
+        String[] found = dictionary.expandInflection(charTermAttr.toString());
+        if( found != null && found.length > 1 )
+        {
+            variants = found;
+            variantIndex = 0;
+            term = charTermAttr.toString();
+            state = captureState();
+        }
+        return true;
+    }
+
+    private void clearVariants()
+    {
+        variants = null;
+        term = null;
+        state = null;
+    }
+
+    @Override
+    public void reset() throws IOException
+    {
+        super.reset();
+        clearVariants();
+    }
+
+}
@@ -0,0 +1,68 @@
+package nih.nlm.solr.customfilter;
+
+import java.io.IOException;
+import java.util.Map;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.apache.lucene.analysis.util.ResourceLoaderAware;
+import org.apache.lucene.analysis.util.TokenFilterFactory;
+
+/**
+ * Use in query analyzers only, see EssieInflectionExpandFilter.
+ *
+ * Factory arguments:
+ *   normDir        - directory holding the Essie norm dictionaries
+ *                    (optional, defaults to the "norm" directory next to
+ *                    the jar)
+ *   fstInflections - same as for EssieTokenizerFilterFactory
+ *
+ * @author gayens
+ */
+public class EssieInflectionExpandFilterFactory extends TokenFilterFactory implements ResourceLoaderAware
+{
+
+    private final String normDir;
+    private final boolean fstInflections;
+
+    private volatile EssieNormDictionary dictionary;
+
+    public EssieInflectionExpandFilterFactory( Map<String, String> args )
+    {
+        super(args);
+        normDir = get(args, EssieTokenizerFilterFactory.NORM_DIR_ARG);
+        fstInflections = getBoolean(args, EssieTokenizerFilterFactory.FST_INFLECTIONS_ARG, false);
+        if( !args.isEmpty() )
+        {
+            throw new IllegalArgumentException("Unknown parameters: " + args);
+        }
+    }
+
+    @Override
+    public void inform(ResourceLoader loader) throws IOException
+    {
+        try
+        {
+            dictionary = EssieNormDictionary.load(normDir, fstInflections);
+        }
+        catch( Exception e )
+        {
+            throw new IOException("Cannot load Essie norm dictionaries from " + normDir, e);
+        }
+    }
+
+    public EssieNormDictionary getDictionary()
+    {
+        if( dictionary == null )
+        {
+            throw new IllegalStateException("EssieInflectionExpandFilterFactory used before inform()");
+        }
+        return dictionary;
+    }
+
+    @Override
+    public TokenStream create(TokenStream stream)
+    {
+        return new EssieInflectionExpandFilter(stream, getDictionary());
+    }
+
+}
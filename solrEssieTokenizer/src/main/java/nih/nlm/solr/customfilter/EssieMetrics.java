@@ -0,0 +1,329 @@
+package nih.nlm.solr.customfilter;
+
+import gravel.norm.InflectionMemo;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latencies for one Essie factory, shared by every stream it
+ * creates.
+ *
+ * Streams call record() once per norm call, with the chars normed, the
+ * tokens made and the nanos it took, and countField() once per field. All
+ * of it is lock free. A norm call slower than slowInputMillis is counted,
+ * and logged with the start of its text, but no more than once every
+ * slowLogIntervalMillis so a bad patch of input can not flood the log.
+ *
+ * The numbers can be read with snapshot(), or over JMX once the metrics
+ * are registered under a name. If the factory has an EssieNormCache, its
+ * hit and miss counts are reported along with the rest. The inflection memo
+ * counts are for the whole JVM, since the memos are kept per thread, not per
+ * factory, and so is the memo size set through JMX.
+ *
+ * @author gayens
+ */
+public final class EssieMetrics implements EssieMetricsMBean
+{
+
+    static Logger LOG = Logger.getLogger(EssieMetrics.class.getName());
+
+    public static final int DEFAULT_SLOW_INPUT_MILLIS = 100;
+    public static final int DEFAULT_SLOW_LOG_INTERVAL_MILLIS = 60 * 1000;
+
+    public static final String JMX_DOMAIN = "nih.nlm.solr.customfilter";
+
+    private static final int SLOW_INPUT_PREVIEW_CHARS = 200;
+
+    private final LongAdder fields = new LongAdder();
+    private final LongAdder chars = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder slowInputs = new LongAdder();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    private volatile EssieNormCache cache;
+
+    private volatile long slowInputNanos;
+    private final long slowLogIntervalNanos;
+    private final AtomicLong lastSlowLogNanos = new AtomicLong();
+
+    public EssieMetrics( long slowInputMillis, long slowLogIntervalMillis )
+    {
+        this.slowInputNanos = TimeUnit.MILLISECONDS.toNanos(slowInputMillis);
+        this.slowLogIntervalNanos = TimeUnit.MILLISECONDS.toNanos(slowLogIntervalMillis);
+        lastSlowLogNanos.set(System.nanoTime() - slowLogIntervalNanos);
+    }
+
+    public EssieMetrics()
+    {
+        this(DEFAULT_SLOW_INPUT_MILLIS, DEFAULT_SLOW_LOG_INTERVAL_MILLIS);
+    }
+
+    public void record( char[] text, int offset, int length, int tokenCount, long nanos )
+    {
+        chars.add(length);
+        tokens.add(tokenCount);
+        latencies.record(nanos);
+        if( nanos >= slowInputNanos )
+        {
+            slowInput(text, offset, length, tokenCount, nanos);
+        }
+    }
+
+    private void slowInput( char[] text, int offset, int length, int tokenCount, long nanos )
+    {
+        slowInputs.increment();
+
+        long now = System.nanoTime();
+        long last = lastSlowLogNanos.get();
+        if( now - last < slowLogIntervalNanos || !lastSlowLogNanos.compareAndSet(last, now) )
+        {
+            return;
+        }
+        String preview = new String(text, offset, Math.min(length, SLOW_INPUT_PREVIEW_CHARS));
+        LOG.log(Level.WARNING, "Slow Essie norm: {0} ms for {1} chars, {2} tokens: {3}",
+                new Object[] { TimeUnit.NANOSECONDS.toMillis(nanos), length, tokenCount, preview });
+    }
+
+    public void countField()
+    {
+        fields.increment();
+    }
+
+    public void countError()
+    {
+        errors.increment();
+    }
+
+    public void setCache( EssieNormCache cache )
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under
+     * nih.nlm.solr.customfilter:type=EssieMetrics,name=name. Metrics already
+     * registered under the name, say by the factory a core reload replaced,
+     * are unregistered first.
+     */
+    public void register( String name )
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=EssieMetrics,name=" + ObjectName.quote(name));
+            if( server.isRegistered(objectName) )
+            {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        }
+        catch( Exception e )
+        {
+            LOG.log(Level.WARNING, "Cannot register Essie metrics as " + name, e);
+        }
+    }
+
+    public Snapshot snapshot()
+    {
+        long[] percentiles = latencies.getPercentiles(50, 90, 99, 99.9);
+        return new Snapshot(fields.sum(), chars.sum(), tokens.sum(), errors.sum(), slowInputs.sum(),
+                latencies.getCount(), latencies.getMean(),
+                percentiles[0], percentiles[1], percentiles[2], percentiles[3], latencies.getMax(),
+                getCacheHits(), getCacheMisses());
+    }
+
+    @Override
+    public long getFields()
+    {
+        return fields.sum();
+    }
+
+    @Override
+    public long getChars()
+    {
+        return chars.sum();
+    }
+
+    @Override
+    public long getTokens()
+    {
+        return tokens.sum();
+    }
+
+    @Override
+    public long getErrors()
+    {
+        return errors.sum();
+    }
+
+    @Override
+    public long getSlowInputs()
+    {
+        return slowInputs.sum();
+    }
+
+    @Override
+    public long getNormCalls()
+    {
+        return latencies.getCount();
+    }
+
+    @Override
+    public double getMeanNanos()
+    {
+        return latencies.getMean();
+    }
+
+    @Override
+    public long getMedianNanos()
+    {
+        return latencies.getPercentiles(50)[0];
+    }
+
+    @Override
+    public long getP99Nanos()
+    {
+        return latencies.getPercentiles(99)[0];
+    }
+
+    @Override
+    public long getP999Nanos()
+    {
+        return latencies.getPercentiles(99.9)[0];
+    }
+
+    @Override
+    public long getMaxNanos()
+    {
+        return latencies.getMax();
+    }
+
+    @Override
+    public long getCacheHits()
+    {
+        EssieNormCache cache = this.cache;
+        return cache == null ? 0 : cache.getHits();
+    }
+
+    @Override
+    public long getCacheMisses()
+    {
+        EssieNormCache cache = this.cache;
+        return cache == null ? 0 : cache.getMisses();
+    }
+
+    @Override
+    public int getCacheSize()
+    {
+        EssieNormCache cache = this.cache;
+        return cache == null ? 0 : cache.size();
+    }
+
+    @Override
+    public long getInflectionMemoHits()
+    {
+        return InflectionMemo.getNHits();
+    }
+
+    @Override
+    public long getInflectionMemoMisses()
+    {
+        return InflectionMemo.getNMisses();
+    }
+
+    @Override
+    public int getInflectionMemoSlots()
+    {
+        return InflectionMemo.getNSlots();
+    }
+
+    @Override
+    public void setInflectionMemoSlots( int slots )
+    {
+        InflectionMemo.setNSlots(slots);
+    }
+
+    @Override
+    public long getSlowInputMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(slowInputNanos);
+    }
+
+    @Override
+    public void setSlowInputMillis( long slowInputMillis )
+    {
+        slowInputNanos = TimeUnit.MILLISECONDS.toNanos(slowInputMillis);
+    }
+
+    @Override
+    public void reset()
+    {
+        fields.reset();
+        chars.reset();
+        tokens.reset();
+        errors.reset();
+        slowInputs.reset();
+        latencies.reset();
+    }
+
+    /**
+     * Point in time copy of the metrics. The counters are read one after
+     * the other while streams keep recording, so they may be off by the
+     * calls in flight.
+     */
+    public static final class Snapshot
+    {
+        public final long fields;
+        public final long chars;
+        public final long tokens;
+        public final long errors;
+        public final long slowInputs;
+        public final long normCalls;
+        public final double meanNanos;
+        public final long medianNanos;
+        public final long p90Nanos;
+        public final long p99Nanos;
+        public final long p999Nanos;
+        public final long maxNanos;
+        public final long cacheHits;
+        public final long cacheMisses;
+
+        Snapshot( long fields, long chars, long tokens, long errors, long slowInputs, long normCalls,
+                double meanNanos, long medianNanos, long p90Nanos, long p99Nanos, long p999Nanos, long maxNanos,
+                long cacheHits, long cacheMisses )
+        {
+            this.fields = fields;
+            this.chars = chars;
+            this.tokens = tokens;
+            this.errors = errors;
+            this.slowInputs = slowInputs;
+            this.normCalls = normCalls;
+            this.meanNanos = meanNanos;
+            this.medianNanos = medianNanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+            this.p999Nanos = p999Nanos;
+            this.maxNanos = maxNanos;
+            this.cacheHits = cacheHits;
+            this.cacheMisses = cacheMisses;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "fields=" + fields + " chars=" + chars + " tokens=" + tokens + " errors=" + errors
+                    + " slowInputs=" + slowInputs + " normCalls=" + normCalls
+                    + " meanNanos=" + Math.round(meanNanos) + " medianNanos=" + medianNanos
+                    + " p90Nanos=" + p90Nanos + " p99Nanos=" + p99Nanos + " p999Nanos=" + p999Nanos
+                    + " maxNanos=" + maxNanos + " cacheHits=" + cacheHits + " cacheMisses=" + cacheMisses;
+        }
+    }
+
+}
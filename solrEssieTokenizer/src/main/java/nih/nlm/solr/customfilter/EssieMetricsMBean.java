@@ -0,0 +1,53 @@
+package nih.nlm.solr.customfilter;
+
+/**
+ * JMX view of EssieMetrics. Latencies are in nanos.
+ *
+ * @author gayens
+ */
+public interface EssieMetricsMBean
+{
+
+    long getFields();
+
+    long getChars();
+
+    long getTokens();
+
+    long getErrors();
+
+    long getSlowInputs();
+
+    long getNormCalls();
+
+    double getMeanNanos();
+
+    long getMedianNanos();
+
+    long getP99Nanos();
+
+    long getP999Nanos();
+
+    long getMaxNanos();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    int getCacheSize();
+
+    long getInflectionMemoHits();
+
+    long getInflectionMemoMisses();
+
+    int getInflectionMemoSlots();
+
+    void setInflectionMemoSlots( int slots );
+
+    long getSlowInputMillis();
+
+    void setSlowInputMillis( long slowInputMillis );
+
+    void reset();
+
+}
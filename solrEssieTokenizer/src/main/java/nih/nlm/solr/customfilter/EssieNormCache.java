@@ -0,0 +1,343 @@
+package nih.nlm.solr.customfilter;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache from input text to its norm tokens, shared by all the
+ * filters of one factory.
+ *
+ * Laid out like W-TinyLFU. New texts go into a small window, 1% of the
+ * capacity, in FIFO order. A text pushed out of the window only gets into
+ * the main part if it has been asked for more often than the oldest text
+ * there, going by a count-min sketch of recent lookups. Otherwise it is
+ * dropped, and a main text that wins goes to the back of the line. So one
+ * off texts, like most captions, pass through the window without pushing
+ * out the journal titles and queries seen over and over.
+ *
+ * Lookups take no locks and, with a reused Key, make no garbage. Adding
+ * takes a lock, but only happens after a miss, which has just run the
+ * whole norm.
+ *
+ * Cached tokens are only good for the dictionaries they were normed with,
+ * so the cache empties itself the first lookup after a reload, and turns
+ * away tokens normed before it.
+ *
+ * @author gayens
+ */
+public final class EssieNormCache
+{
+
+    private final int capacity;
+    private final int maxInputLength;
+    private final int windowCapacity;
+    private final int mainCapacity;
+
+    private final ConcurrentHashMap<Key, NormTokens> map;
+    private final FrequencySketch sketch;
+
+    // Guarded by this
+    private final ArrayDeque<Key> window = new ArrayDeque<>();
+    private final ArrayDeque<Key> main = new ArrayDeque<>();
+    private volatile long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public EssieNormCache( int capacity, int maxInputLength )
+    {
+        if( capacity < 1 )
+        {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.maxInputLength = maxInputLength;
+        windowCapacity = Math.max(1, capacity / 100);
+        mainCapacity = capacity - windowCapacity;
+        map = new ConcurrentHashMap<>(Math.min(capacity, 1 << 16));
+        sketch = new FrequencySketch(capacity);
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public int getMaxInputLength()
+    {
+        return maxInputLength;
+    }
+
+    public boolean accepts( int length )
+    {
+        return length <= maxInputLength;
+    }
+
+    NormTokens get( EssieNormDictionary dictionary, Key key )
+    {
+        long current = dictionary.getGeneration();
+        if( current != generation )
+        {
+            setGeneration(current);
+        }
+        sketch.increment(key.hashCode());
+        NormTokens tokens = map.get(key);
+        if( tokens == null )
+        {
+            misses.increment();
+        }
+        else
+        {
+            hits.increment();
+        }
+        return tokens;
+    }
+
+    /**
+     * Dictionary generation the cached tokens were normed with. Read it
+     * before norming a miss, and hand it to put.
+     */
+    long getGeneration()
+    {
+        return generation;
+    }
+
+    private synchronized void setGeneration( long current )
+    {
+        if( current != generation )
+        {
+            clear();
+            generation = current;
+        }
+    }
+
+    /**
+     * Adds a copy of the key, which may be a reused lookup key, and tokens,
+     * which must not change afterwards. Dropped if the dictionaries have
+     * been reloaded since generation was read.
+     */
+    void put( Key key, NormTokens tokens, long generation )
+    {
+        Key stored = key.copy();
+        synchronized( this )
+        {
+            if( generation != this.generation )
+            {
+                return;
+            }
+            if( map.putIfAbsent(stored, tokens) != null )
+            {
+                return;
+            }
+            window.addLast(stored);
+            if( window.size() <= windowCapacity )
+            {
+                return;
+            }
+
+            Key candidate = window.pollFirst();
+            if( main.size() < mainCapacity )
+            {
+                main.addLast(candidate);
+                return;
+            }
+
+            Key victim = main.pollFirst();
+            if( victim != null && sketch.frequency(candidate.hashCode()) > sketch.frequency(victim.hashCode()) )
+            {
+                map.remove(victim);
+                main.addLast(candidate);
+            }
+            else
+            {
+                map.remove(candidate);
+                if( victim != null )
+                {
+                    main.addLast(victim);
+                }
+            }
+            evictions.increment();
+        }
+    }
+
+    public int size()
+    {
+        return map.size();
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    public synchronized void clear()
+    {
+        map.clear();
+        window.clear();
+        main.clear();
+    }
+
+    /**
+     * Chars of an input text. A filter keeps one and points it at each input
+     * token for lookups, the cache stores copies.
+     */
+    static final class Key
+    {
+        private char[] chars;
+        private int offset;
+        private int length;
+        private int hash;
+
+        Key set( char[] chars, int offset, int length )
+        {
+            this.chars = chars;
+            this.offset = offset;
+            this.length = length;
+            int h = 0;
+            for( int i = offset; i < offset + length; i++ )
+            {
+                h = 31 * h + chars[i];
+            }
+            hash = h;
+            return this;
+        }
+
+        Key copy()
+        {
+            Key key = new Key();
+            key.chars = new char[length];
+            System.arraycopy(chars, offset, key.chars, 0, length);
+            key.length = length;
+            key.hash = hash;
+            return key;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals( Object other )
+        {
+            if( !(other instanceof Key) )
+            {
+                return false;
+            }
+            Key key = (Key) other;
+            if( key.hash != hash || key.length != length )
+            {
+                return false;
+            }
+            for( int i = 0; i < length; i++ )
+            {
+                if( chars[offset + i] != key.chars[key.offset + i] )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters, 16 to a long, counting lookups of
+     * each hash. Counters are halved once there have been 10 lookups per
+     * entry, so old popularity fades. Counts may be a little off under
+     * contention, which only makes admission a little less sharp.
+     */
+    static final class FrequencySketch
+    {
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long HALF_MASK = 0x7777777777777777L;
+
+        private final AtomicLongArray table;
+        private final int mask;
+        private final int sampleSize;
+        private final AtomicInteger additions = new AtomicInteger();
+
+        FrequencySketch( int capacity )
+        {
+            int length = Integer.highestOneBit(Math.max(16, Math.min(capacity, 1 << 24)) - 1) << 1;
+            table = new AtomicLongArray(length);
+            mask = length - 1;
+            sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE / 2);
+        }
+
+        void increment( int hash )
+        {
+            boolean added = false;
+            for( int i = 0; i < SEEDS.length; i++ )
+            {
+                long h = spread(hash, i);
+                int index = (int) h & mask;
+                int shift = (int) (h >>> 60) << 2;
+                while( true )
+                {
+                    long value = table.get(index);
+                    if( ((value >>> shift) & 0xf) == 0xf )
+                    {
+                        break;
+                    }
+                    if( table.compareAndSet(index, value, value + (1L << shift)) )
+                    {
+                        added = true;
+                        break;
+                    }
+                }
+            }
+            if( added && additions.incrementAndGet() >= sampleSize )
+            {
+                age();
+            }
+        }
+
+        int frequency( int hash )
+        {
+            int frequency = 0xf;
+            for( int i = 0; i < SEEDS.length; i++ )
+            {
+                long h = spread(hash, i);
+                int shift = (int) (h >>> 60) << 2;
+                frequency = Math.min(frequency, (int) ((table.get((int) h & mask) >>> shift) & 0xf));
+            }
+            return frequency;
+        }
+
+        private synchronized void age()
+        {
+            if( additions.get() < sampleSize )
+            {
+                return;
+            }
+            for( int i = 0; i < table.length(); i++ )
+            {
+                table.set(i, (table.get(i) >>> 1) & HALF_MASK);
+            }
+            additions.set(additions.get() / 2);
+        }
+
+        private static long spread( int hash, int i )
+        {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            return h ^ (h >>> 29);
+        }
+    }
+
+}
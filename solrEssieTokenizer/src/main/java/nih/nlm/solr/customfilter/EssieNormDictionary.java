@@ -0,0 +1,288 @@
+package nih.nlm.solr.customfilter;
+
+import gravel.norm.CharNorm;
+import gravel.norm.CharNormTable;
+import gravel.norm.CompoundExpand;
+import gravel.norm.NormModelHolder;
+import gravel.norm.NormWorkspace;
+import gravel.norm.TermNorm;
+import gravel.utils.FileUtils;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Handle to the Essie char and term norm dictionaries.
+ *
+ * The dictionaries are loaded when the handle is created, and are read-only
+ * afterwards. Filters hold on to the handle and never go back through the
+ * load path, so normalizing a field value takes no locks and does no
+ * reflection.
+ *
+ * reload() swaps in a fresh copy of the dictionaries, read from the norm
+ * directory, without restarting Solr. Each call below works on one copy
+ * from start to end, and a swapped out copy is only closed once the calls
+ * still using it are done. See gravel.norm.NormModel.
+ *
+ * Each handle norms with the NormModelHolder of its own norm directory and
+ * fstInflections setting, so cores with different norm directories each
+ * get their own dictionaries. Handles with the same directory and setting
+ * share one copy, so a reload through any of them is seen by all of them.
+ * None of them touch the default holder the static gravel.norm calls use.
+ *
+ * With fstInflections, the inflections of the handle are held in FSTs,
+ * several times smaller than the hash stores, but slower to look up. See
+ * gravel.norm.InflectionFst. Handles without it keep the hash stores.
+ *
+ * @author gayens
+ */
+public final class EssieNormDictionary
+{
+
+    // Both guarded by holders, keyed by real path, so links to one dir share a holder
+    private static final Map<String, NormModelHolder> holders = new HashMap<>();
+    private static final Map<String, NormModelHolder> fstHolders = new HashMap<>();
+
+    private final String normDir;
+    private final NormModelHolder holder;
+
+    private EssieNormDictionary( String normDir, NormModelHolder holder )
+    {
+        this.normDir = normDir;
+        this.holder = holder;
+    }
+
+    private static NormModelHolder getHolder( String normDir, boolean fstInflections )
+    {
+        String key;
+        try
+        {
+            key = FileUtils.getRealFilename(normDir);
+        }
+        catch( IOException e )
+        {
+            key = normDir;
+        }
+        synchronized( holders )
+        {
+            Map<String, NormModelHolder> map = fstInflections ? fstHolders : holders;
+            NormModelHolder holder = map.get(key);
+            if( holder == null )
+            {
+                holder = new NormModelHolder(fstInflections);
+                map.put(key, holder);
+            }
+            return holder;
+        }
+    }
+
+    /**
+     * Loads the norm dictionaries found in normDir. When normDir is null or
+     * empty, the default norm directory next to the jar is used.
+     */
+    public static EssieNormDictionary load( String normDir ) throws Exception
+    {
+        return load(normDir, false);
+    }
+
+    /**
+     * Same as above, but when fstInflections is set, the inflections of the
+     * handle are held in FSTs. Handles loaded without it are not affected.
+     */
+    public static EssieNormDictionary load( String normDir, boolean fstInflections ) throws Exception
+    {
+        if( normDir == null || normDir.isEmpty() )
+        {
+            normDir = getDefaultNormDir();
+        }
+
+        NormModelHolder holder = getHolder(normDir, fstInflections);
+        holder.load(normDir, true, false);
+
+        return new EssieNormDictionary(normDir, holder);
+    }
+
+    /**
+     * The default norm directory is the "norm" directory sitting next to
+     * the jar this class was loaded from.
+     */
+    public static String getDefaultNormDir() throws Exception
+    {
+        if(System.getProperty("os.name").startsWith("Windows"))
+        {
+            return "Z:/team_directories/Soumya/SearchEngineEvaluation/essie-v4/refs/norm/final";
+        }
+
+        String jarPath = EssieNormDictionary.class
+                .getProtectionDomain()
+                .getCodeSource()
+                .getLocation()
+                .toURI()
+                .getPath();
+
+        return (new File(jarPath)).getParent()+File.separator+"norm";
+    }
+
+    /**
+     * Loads the compound word dictionary from the same norm directory. Only
+     * needed by the compound filter, so not part of load().
+     */
+    public void loadCompounds() throws Exception
+    {
+        holder.load(normDir, true, true);
+    }
+
+    public String getNormDir()
+    {
+        return normDir;
+    }
+
+    /**
+     * Reloads all the loaded dictionaries from the norm directory and swaps
+     * them in. Analysis carries on with the old dictionaries while the new
+     * ones load. If loading fails, the old dictionaries stay.
+     */
+    public void reload() throws Exception
+    {
+        holder.reload(normDir);
+    }
+
+    /**
+     * Same as reload(), but on a background thread, returned so the caller
+     * can wait for it. Failures are logged to stderr.
+     */
+    public Thread reloadInBackground()
+    {
+        return holder.reloadInBackground(normDir);
+    }
+
+    /**
+     * Changes each time the dictionaries are reloaded, so anything derived
+     * from them, like cached norm tokens, can tell it is stale. 0 if not
+     * loaded.
+     */
+    public long getGeneration()
+    {
+        return holder.getGeneration();
+    }
+
+    public String[] getNormTokens( char[] chars, int offset, int length, int[] tokenCharNs, int[] tokenNChars )
+    {
+        return TermNorm.getNormTokens(holder, chars, offset, length, tokenCharNs, tokenNChars, TermNorm.kFullNorm);
+    }
+
+    /**
+     * Same as above, but packs the chars of all norm tokens into normChars,
+     * which must hold getMaxNormChars(length) chars, instead of making a
+     * String per token. Returns the number of norm tokens.
+     *
+     * When decodeEscapes is set, literal \n, \t and \r escapes in the text
+     * are normed as blanks while the chars are normed, see CharNorm.normChars.
+     */
+    public int getNormTokens( char[] chars, int offset, int length, char[] normChars,
+            int[] normCharNs, int[] normNChars, int[] tokenCharNs, int[] tokenNChars, boolean decodeEscapes )
+    {
+        return TermNorm.getNormTokens(holder, chars, offset, length, normChars, normCharNs, normNChars,
+                tokenCharNs, tokenNChars, getNormFlags(decodeEscapes));
+    }
+
+    /**
+     * Same as above, but leaves the norm tokens in workspace, or a new
+     * workspace if null, and returns it. Reusing one workspace per thread
+     * norms without allocating, once its buffers have grown to fit.
+     */
+    public NormWorkspace getNormTokens( char[] chars, int offset, int length, NormWorkspace workspace,
+            boolean decodeEscapes )
+    {
+        return TermNorm.getNormTokens(holder, chars, offset, length, workspace, getNormFlags(decodeEscapes));
+    }
+
+    private static int getNormFlags( boolean decodeEscapes )
+    {
+        return decodeEscapes ? TermNorm.kFullNorm | TermNorm.kDecodeEscapesFlag : TermNorm.kFullNorm;
+    }
+
+    /**
+     * Char norms one char into chars at offset, see CharNorm.normChar, and
+     * returns the offset after the norm chars. Writes 0 to 4 chars.
+     */
+    public int normChar( char c, char[] chars, int offset )
+    {
+        CharNormTable table = holder.getCharNormTable();
+        if( table == null )
+        {
+            throw new IllegalStateException("Norm not loaded from " + normDir);
+        }
+        return table.normChar(c, chars, offset);
+    }
+
+    /**
+     * Whether the char norm of these dictionaries takes c for whitespace.
+     */
+    public boolean isWhitespace( char c )
+    {
+        CharNormTable table = holder.getCharNormTable();
+        return table == null ? CharNorm.isWhitespace(c) : table.isWhitespace(c);
+    }
+
+    /**
+     * All inflection variants of a norm token, the norm token included, or
+     * null if the token has none.
+     */
+    public String[] expandInflection( String normToken )
+    {
+        return TermNorm.expandInflection(holder, normToken);
+    }
+
+    /**
+     * Index of the compound word made of the count norm tokens starting at
+     * tokens[offset], or -1 if they are not a compound word.
+     */
+    public long findCompound( String[] tokens, int offset, int count )
+    {
+        return CompoundExpand.findCompound(holder, tokens, offset, count);
+    }
+
+    /**
+     * The variants of a compound word as norm tokens, the compressed variant
+     * first, then the spaced variants. The compound index must come from
+     * the same dictionaries, so prefer findCompoundVariants, which cannot
+     * straddle a reload.
+     */
+    public String[][] getCompoundVariants( long compound )
+    {
+        return CompoundExpand.getCompoundVariants(holder, compound);
+    }
+
+    /**
+     * The variants of the compound word made of the count norm tokens
+     * starting at tokens[offset], as for getCompoundVariants, or null if
+     * they are not a compound word.
+     */
+    public String[][] findCompoundVariants( String[] tokens, int offset, int count )
+    {
+        return CompoundExpand.findCompoundVariants(holder, tokens, offset, count);
+    }
+
+    public static int getMaxNormChars( int length )
+    {
+        return TermNorm.calcMaxNNormChars(length);
+    }
+
+    public String[] getNormTokens( String input, int[] tokenCharNs, int[] tokenNChars, boolean decodeEscapes )
+    {
+        return TermNorm.getNormTokens(holder, input, tokenCharNs, tokenNChars, getNormFlags(decodeEscapes));
+    }
+
+    public String[] getNormTokens( String input, int[] tokenCharNs, int[] tokenNChars )
+    {
+        return getNormTokens(input, tokenCharNs, tokenNChars, false);
+    }
+
+    public String[] getNormTokens( String input )
+    {
+        return getNormTokens(input, null, null);
+    }
+
+}
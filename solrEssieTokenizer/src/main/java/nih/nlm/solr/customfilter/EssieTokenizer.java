@@ -0,0 +1,249 @@
+package nih.nlm.solr.customfilter;
+
+import gravel.norm.NormWorkspace;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.util.AttributeFactory;
+
+/**
+ * Tokenizer running Essie char and term normalization straight off the
+ * Reader.
+ *
+ * The field is read through one fixed-size buffer. Each chunk is cut at the
+ * last whitespace in the buffer, so no token is split across chunks, and the
+ * unused tail is carried over to the next chunk. Offsets are relative to the
+ * start of the field. Peak memory depends on the chunk size only, not on the
+ * field size. A run of text with no whitespace longer than the chunk size is
+ * cut at the end of the buffer.
+ *
+ * Each chunk is normed into a NormWorkspace kept by the tokenizer, and the
+ * terms are copied straight out of its columns, with no String per token.
+ * Literal \n, \t and \r escapes are normed as blanks, as in
+ * EssieTokenizerFilter.
+ *
+ * TermNorm fails a text with more than 1 token per 4 chars plus 16, which
+ * a chunk of numbers or reference lists easily has. A chunk that fails is
+ * cut in two at whitespace and normed again, down to a run with no
+ * whitespace, which is dropped and counted as an error, as
+ * EssieTokenizerFilter drops an input token that fails.
+ *
+ * @author gayens
+ */
+public final class EssieTokenizer extends Tokenizer
+{
+
+    static Logger LOG = Logger.getLogger(EssieTokenizer.class.getName());
+
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+    public static final int MIN_CHUNK_SIZE = 256;
+
+    private final EssieNormDictionary dictionary;
+    private final EssieMetrics metrics;
+
+    private final char[] buffer;
+    private final NormWorkspace workspace = new NormWorkspace();
+
+    private int bufferLength;   // chars held in buffer
+    private int chunkLength;    // chars at the front of buffer already normalized
+    private int offsetBase;     // field offset of buffer[0]
+    private boolean exhausted;
+
+    private int tokenCount;
+    private int tokenIndex;
+
+    private final CharTermAttribute charTermAttr = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+    public EssieTokenizer(AttributeFactory factory, EssieNormDictionary dictionary, int chunkSize, EssieMetrics metrics)
+    {
+        super(factory);
+        if( chunkSize < MIN_CHUNK_SIZE )
+        {
+            throw new IllegalArgumentException("chunkSize must be at least " + MIN_CHUNK_SIZE + ": " + chunkSize);
+        }
+        this.dictionary = dictionary;
+        this.metrics = metrics;
+        buffer = new char[chunkSize];
+    }
+
+    public EssieTokenizer(AttributeFactory factory, EssieNormDictionary dictionary, int chunkSize)
+    {
+        this(factory, dictionary, chunkSize, null);
+    }
+
+    public EssieTokenizer(EssieNormDictionary dictionary)
+    {
+        this(DEFAULT_TOKEN_ATTRIBUTE_FACTORY, dictionary, DEFAULT_CHUNK_SIZE);
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException
+    {
+        clearAttributes();
+
+        while( tokenIndex >= tokenCount )
+        {
+            if( !nextChunk() )
+            {
+                return false;
+            }
+        }
+
+        charTermAttr.copyBuffer(workspace.getNormChars(), workspace.getNormCharN(tokenIndex),
+                workspace.getNormNChars(tokenIndex));
+
+        int start = offsetBase + workspace.getFromCharN(tokenIndex);
+        int end = offsetBase + workspace.getFromEndCharN(tokenIndex);
+        offsetAtt.setOffset(correctOffset(start), correctOffset(end));
+
+        tokenIndex++;
+        return true;
+    }
+
+    /**
+     * Drops the chunk just emitted, refills the buffer and normalizes the
+     * next chunk. Returns false once the Reader is used up.
+     */
+    private boolean nextChunk() throws IOException
+    {
+        if( chunkLength > 0 )
+        {
+            bufferLength -= chunkLength;
+            System.arraycopy(buffer, chunkLength, buffer, 0, bufferLength);
+            offsetBase += chunkLength;
+            chunkLength = 0;
+        }
+
+        fill();
+        if( bufferLength == 0 )
+        {
+            return false;
+        }
+
+        chunkLength = findChunkEnd();
+        tokenIndex = 0;
+        tokenCount = 0;
+        while( true )
+        {
+            long startNanos = metrics == null ? 0 : System.nanoTime();
+            try
+            {
+                tokenCount = dictionary.getNormTokens(buffer, 0, chunkLength, workspace, true).getNTokens();
+            }
+            catch( RuntimeException e )
+            {
+                int shorterLength = findShorterChunkEnd();
+                if( shorterLength > 0 )
+                {
+                    chunkLength = shorterLength;
+                    continue;
+                }
+                // A run with no whitespace, so drop it, and carry on with the next chunk
+                LOG.log(Level.SEVERE, "Error in genrating Essie Token", e);
+                if( metrics != null )
+                {
+                    metrics.countError();
+                }
+                return true;
+            }
+            if( metrics != null )
+            {
+                metrics.record(buffer, 0, chunkLength, tokenCount, System.nanoTime() - startNanos);
+            }
+            return true;
+        }
+    }
+
+    private void fill() throws IOException
+    {
+        while( !exhausted && bufferLength < buffer.length )
+        {
+            int read = input.read(buffer, bufferLength, buffer.length - bufferLength);
+            if( read < 0 )
+            {
+                exhausted = true;
+            }
+            else
+            {
+                bufferLength += read;
+            }
+        }
+    }
+
+    private int findChunkEnd()
+    {
+        if( exhausted )
+        {
+            return bufferLength;
+        }
+
+        for( int i = bufferLength - 1; i >= 0; i-- )
+        {
+            if( dictionary.isWhitespace(buffer[i]) )
+            {
+                return i + 1;
+            }
+        }
+
+        // No whitespace in a full buffer, so cut it, but never between the halves of a surrogate pair
+        if( Character.isHighSurrogate(buffer[bufferLength - 1]) )
+        {
+            return bufferLength - 1;
+        }
+        return bufferLength;
+    }
+
+    /**
+     * End of the front part of the current chunk, cut after the last
+     * whitespace in its first half, else after the first whitespace in its
+     * second half. 0 if the chunk has no whitespace but at its end.
+     */
+    private int findShorterChunkEnd()
+    {
+        int half = chunkLength / 2;
+        for( int i = half - 1; i >= 0; i-- )
+        {
+            if( dictionary.isWhitespace(buffer[i]) )
+            {
+                return i + 1;
+            }
+        }
+        for( int i = half; i < chunkLength - 1; i++ )
+        {
+            if( dictionary.isWhitespace(buffer[i]) )
+            {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void end() throws IOException
+    {
+        super.end();
+        if( metrics != null )
+        {
+            metrics.countField();
+        }
+        int finalOffset = correctOffset(offsetBase + bufferLength);
+        offsetAtt.setOffset(finalOffset, finalOffset);
+    }
+
+    @Override
+    public void reset() throws IOException
+    {
+        super.reset();
+        bufferLength = 0;
+        chunkLength = 0;
+        offsetBase = 0;
+        exhausted = false;
+        tokenCount = 0;
+        tokenIndex = 0;
+    }
+
+}
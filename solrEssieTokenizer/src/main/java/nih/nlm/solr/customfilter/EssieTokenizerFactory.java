@@ -0,0 +1,95 @@
+package nih.nlm.solr.customfilter;
+
+import java.io.IOException;
+import java.util.Map;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.apache.lucene.analysis.util.ResourceLoaderAware;
+import org.apache.lucene.analysis.util.TokenizerFactory;
+import org.apache.lucene.util.AttributeFactory;
+
+/**
+ *
+ * Factory arguments:
+ *   normDir   - directory holding the Essie norm dictionaries (optional,
+ *               defaults to the "norm" directory next to the jar)
+ *   chunkSize - size in chars of the buffer the Reader is read through
+ *               (optional, defaults to EssieTokenizer.DEFAULT_CHUNK_SIZE)
+ *   metricsName, slowInputMillis, slowLogIntervalMillis
+ *             - same as for EssieTokenizerFilterFactory, with each chunk
+ *               counted as one norm call
+ *   fstInflections
+ *             - same as for EssieTokenizerFilterFactory
+ *
+ * @author gayens
+ */
+public class EssieTokenizerFactory extends TokenizerFactory implements ResourceLoaderAware
+{
+    public static final String NORM_DIR_ARG = EssieTokenizerFilterFactory.NORM_DIR_ARG;
+    public static final String CHUNK_SIZE_ARG = "chunkSize";
+
+    private final String normDir;
+    private final boolean fstInflections;
+    private final int chunkSize;
+    private final EssieMetrics metrics;
+
+    private volatile EssieNormDictionary dictionary;
+
+    public EssieTokenizerFactory( Map<String, String> args )
+    {
+        super(args);
+        normDir = get(args, NORM_DIR_ARG);
+        fstInflections = getBoolean(args, EssieTokenizerFilterFactory.FST_INFLECTIONS_ARG, false);
+        chunkSize = getInt(args, CHUNK_SIZE_ARG, EssieTokenizer.DEFAULT_CHUNK_SIZE);
+        if( chunkSize < EssieTokenizer.MIN_CHUNK_SIZE )
+        {
+            throw new IllegalArgumentException(CHUNK_SIZE_ARG + " must be at least " + EssieTokenizer.MIN_CHUNK_SIZE);
+        }
+        String metricsName = get(args, EssieTokenizerFilterFactory.METRICS_NAME_ARG);
+        metrics = new EssieMetrics(
+                getInt(args, EssieTokenizerFilterFactory.SLOW_INPUT_MILLIS_ARG, EssieMetrics.DEFAULT_SLOW_INPUT_MILLIS),
+                getInt(args, EssieTokenizerFilterFactory.SLOW_LOG_INTERVAL_MILLIS_ARG, EssieMetrics.DEFAULT_SLOW_LOG_INTERVAL_MILLIS));
+        if( !args.isEmpty() )
+        {
+            throw new IllegalArgumentException("Unknown parameters: " + args);
+        }
+        if( metricsName != null )
+        {
+            metrics.register(metricsName);
+        }
+    }
+
+    @Override
+    public void inform(ResourceLoader loader) throws IOException
+    {
+        try
+        {
+            dictionary = EssieNormDictionary.load(normDir, fstInflections);
+        }
+        catch( Exception e )
+        {
+            throw new IOException("Cannot load Essie norm dictionaries from " + normDir, e);
+        }
+    }
+
+    public EssieNormDictionary getDictionary()
+    {
+        if( dictionary == null )
+        {
+            throw new IllegalStateException("EssieTokenizerFactory used before inform()");
+        }
+        return dictionary;
+    }
+
+    public EssieMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    @Override
+    public Tokenizer create(AttributeFactory factory)
+    {
+        return new EssieTokenizer(factory, getDictionary(), chunkSize, metrics);
+    }
+
+}
@@ -1,8 +1,5 @@
 package nih.nlm.solr.customfilter;
 
-import gravel.norm.CharNorm;
-import gravel.norm.TermNorm;
-import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -19,87 +16,140 @@ public final class EssieTokenizerFilter extends TokenFilter
 
     static Logger LOG = Logger.getLogger(EssieTokenizerFilter.class.getName());
 
-    private LinkedList<String> tokens;
-    
-    private int lastIndex = 0;
-    private String tokenizerText;
+    // Buffers are reused for every input token and kept over reset(), they only grow
+    private final NormTokens normed = new NormTokens(64);
+    // Tokens being handed out, either normed or shared ones from the cache
+    private NormTokens tokens = normed;
+    private int tokenIndex;
+    private final EssieNormCache.Key cacheKey = new EssieNormCache.Key();
+
+    private int inputStartOffset;
+    private int inputEndOffset;
+    private boolean exactOffsets;
+
+    private final EssieNormDictionary dictionary;
+    private final EssieMetrics metrics;
+    private final EssieNormCache cache;
 
     private final CharTermAttribute charTermAttr = addAttribute(CharTermAttribute.class);
     private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
 
 
-    protected EssieTokenizerFilter(TokenStream input)
+    protected EssieTokenizerFilter(TokenStream input, EssieNormDictionary dictionary, EssieMetrics metrics,
+            EssieNormCache cache)
     {
         super(input);
+        this.dictionary = dictionary;
+        this.metrics = metrics;
+        this.cache = cache;
+    }
 
+    protected EssieTokenizerFilter(TokenStream input, EssieNormDictionary dictionary)
+    {
+        this(input, dictionary, null, null);
     }
 
     @Override
     public boolean incrementToken() throws IOException
-    {     
-
-        if( tokens != null && tokens.isEmpty() )
-        {            
-            tokens = null;
-            return false;
-        }
-        else if( tokens == null )
+    {
+        // An input token may norm to no tokens at all, so keep pulling until there is one
+        while( tokenIndex >= tokens.tokenCount )
         {
-            if (!input.incrementToken())
+            if( !input.incrementToken() )
             {
                 return false;
             }
-            String text = charTermAttr.toString();
             try
             {
-                tokens = (LinkedList)generateEssieToken(text);
-                lastIndex = 0;
-                tokenizerText = text;
-
+                normInputToken();
             }
             catch( Exception e )
             {
                 LOG.log(Level.SEVERE, "Error in genrating Essie Token", e);
+                if( metrics != null )
+                {
+                    metrics.countError();
+                }
+                tokens = normed;
+                normed.tokenCount = 0;
                 return false;
             }
         }
-        
-        
-        if( tokens != null && !tokens.isEmpty())
+
+        charTermAttr.copyBuffer(tokens.normChars, tokens.normCharNs[tokenIndex], tokens.normNChars[tokenIndex]);
+
+        if( exactOffsets )
         {
-            String term = tokens.removeFirst();
-            CharTermAttribute charTermAttributeLocal =  charTermAttr.setEmpty();
-            charTermAttributeLocal.append(term);
-            charTermAttributeLocal.setLength(term.length() );
-            
-            int termPosition = tokenizerText.toLowerCase().indexOf(term, lastIndex);
-            if( termPosition >= lastIndex )
-            {
-                lastIndex = termPosition;
-            }
-            else
+            int start = inputStartOffset + tokens.tokenCharNs[tokenIndex];
+            offsetAtt.setOffset(start, start + tokens.tokenNChars[tokenIndex]);
+        }
+        else
+        {
+            offsetAtt.setOffset(inputStartOffset, inputEndOffset);
+        }
+        tokenIndex++;
+
+        return true;
+    }
+
+    /**
+     * Norms the current input token into the filter's buffers, or takes its
+     * norm tokens from the cache. The term is normed straight out of the
+     * term attribute, which is only overwritten once the norm tokens are
+     * handed out.
+     */
+    private void normInputToken()
+    {
+        char[] buffer = charTermAttr.buffer();
+        int length = charTermAttr.length();
+        inputStartOffset = offsetAtt.startOffset();
+        inputEndOffset = offsetAtt.endOffset();
+        // Norm offsets are relative to the term text, so only usable if the term text still spans its offsets
+        exactOffsets = (inputEndOffset - inputStartOffset == length);
+
+        tokenIndex = 0;
+        tokens = normed;
+        normed.tokenCount = 0;
+        long startNanos = System.nanoTime();
+
+        boolean cacheable = cache != null && cache.accepts(length);
+        NormTokens cached = cacheable ? cache.get(dictionary, cacheKey.set(buffer, 0, length)) : null;
+        if( cached != null )
+        {
+            tokens = cached;
+        }
+        else
+        {
+            long generation = cacheable ? cache.getGeneration() : 0;
+            normed.norm(dictionary, buffer, 0, length, true);
+            if( cacheable )
             {
-                return true;
+                cache.put(cacheKey, normed.compactCopy(), generation);
             }
-            
-            offsetAtt.setOffset(lastIndex, lastIndex+term.length() );
-            lastIndex = lastIndex + 1;
-                                   
-            return true;
         }
-            
-        return false;
+
+        if( metrics != null )
+        {
+            metrics.record(buffer, 0, length, tokens.tokenCount, System.nanoTime() - startNanos);
+        }
     }
 
     @Override
     public void reset() throws IOException
     {
         super.reset();
+        tokens = normed;
+        normed.tokenCount = 0;
+        tokenIndex = 0;
     }
     
     @Override
     public void end() throws IOException {
         super.end();
+        if( metrics != null )
+        {
+            metrics.countField();
+        }
     }
     
     @Override
@@ -107,47 +157,25 @@ public final class EssieTokenizerFilter extends TokenFilter
         super.close();
     }
         
-    public static List<String> generateEssieToken( String input ) throws Exception
+    public static List<String> generateEssieToken( EssieNormDictionary dictionary, String input ) throws Exception
     {
-        /*
-        Removing all the new line chracters and tabs.
-        */
-        input = input.replaceAll("\\\\n"," ").replaceAll("\\\\t"," ").replaceAll("\\\\r"," ");
-        
-        long startTime = System.currentTimeMillis();
-        
-        LinkedList<String> list = new LinkedList<>();
-                
-        String kIndexNormDir = "";
-        if(System.getProperty("os.name").startsWith("Windows"))
-        {
-            kIndexNormDir = "Z:/team_directories/Soumya/SearchEngineEvaluation/essie-v4/refs/norm/final";
-        }
-        else
-        {
-            String jarPath = EssieTokenizerFilter.class
-                    .getProtectionDomain()
-                    .getCodeSource()
-                    .getLocation()
-                    .toURI()
-                    .getPath();
-            
-            kIndexNormDir = (new File(jarPath)).getParent()+File.separator+"norm";
-            
-        }
+        return generateEssieToken(dictionary, input, null, null);
+    }
 
-        CharNorm.load(kIndexNormDir);
-        TermNorm.load(kIndexNormDir);
+    /**
+     * Fills tokenCharNs/tokenNChars (when not null) with the start and length,
+     * in input chars, of the raw text each returned token was normed from.
+     */
+    public static List<String> generateEssieToken( EssieNormDictionary dictionary, String input,
+            int[] tokenCharNs, int[] tokenNChars ) throws Exception
+    {
+        LinkedList<String> list = new LinkedList<>();
         
-        String[] theNormTokenss=TermNorm.getNormTokens( input );
+        // Literal \n, \t and \r escapes are normed as two blanks, so offsets into input stay put
+        String[] theNormTokenss=dictionary.getNormTokens( input, tokenCharNs, tokenNChars, true );
         
         Collections.addAll(list, theNormTokenss);
         
-        long endTime = System.currentTimeMillis();
-        long time = (endTime - startTime);
-        LOG.severe("Time taken for essie tokenizer : " + time );
-
-        
         return list;
     }
     
@@ -197,7 +225,8 @@ public final class EssieTokenizerFilter extends TokenFilter
     {
         String query ="John Snow and Modern-Day Environmental Epidemiology\\n\\tDale P. Sandler\\n\\t\\nAm. J. Epidemiol. 2000 152: 1-3.\\n\\n\\t\\n\\t\\n\\t[Extract]\\n\\t\\n\\t[FREE Full Text]\\n\\t\\n\\t&nbsp;";
         //String query = "John Snow and Modern-Day Environmental Epidemiology\n\tDale P. Sandler\n\t\nAm. J. Epidemiol. 2000 152: 1-3.\n\n\t\n\t\n\t[Extract]\n\t\n\t[FREE Full Text]\n\t\n\t&nbsp;";
-        String output = query+"-\n" + EssieTokenizerFilter.generateEssieToken( query ).toString();
+        EssieNormDictionary dictionary = EssieNormDictionary.load( null );
+        String output = query+"-\n" + EssieTokenizerFilter.generateEssieToken( dictionary, query ).toString();
         System.out.println( output );
     }
 
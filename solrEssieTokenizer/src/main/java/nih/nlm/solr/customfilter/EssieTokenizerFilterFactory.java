@@ -5,31 +5,124 @@
  */
 package nih.nlm.solr.customfilter;
 
+import java.io.IOException;
 import java.util.Map;
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.apache.lucene.analysis.util.ResourceLoaderAware;
 import org.apache.lucene.analysis.util.TokenFilterFactory;
 
 /**
+ *
+ * Factory arguments:
+ *   normDir               - directory holding the Essie norm dictionaries
+ *                           (optional, defaults to the "norm" directory next
+ *                           to the jar)
+ *   metricsName           - name to register the factory's EssieMetrics
+ *                           under over JMX (optional, not registered if not
+ *                           given)
+ *   slowInputMillis       - norm calls taking longer are counted and logged
+ *                           as slow (optional, defaults to 100)
+ *   slowLogIntervalMillis - at most one slow input is logged per interval
+ *                           (optional, defaults to 60000)
+ *   cacheSize             - number of input texts whose norm tokens are
+ *                           cached (optional, defaults to 0, no cache)
+ *   cacheMaxInputLength   - longer input texts are not cached (optional,
+ *                           defaults to 1024)
+ *   fstInflections        - hold the inflections in FSTs, several times
+ *                           smaller but slower to look up (optional,
+ *                           defaults to false). Only this factory's
+ *                           dictionaries, shared with factories on the
+ *                           same normDir with the same setting
  *
  * @author gayens
  */
-public class EssieTokenizerFilterFactory extends TokenFilterFactory
+public class EssieTokenizerFilterFactory extends TokenFilterFactory implements ResourceLoaderAware
 {
+    public static final String NORM_DIR_ARG = "normDir";
+    public static final String METRICS_NAME_ARG = "metricsName";
+    public static final String SLOW_INPUT_MILLIS_ARG = "slowInputMillis";
+    public static final String SLOW_LOG_INTERVAL_MILLIS_ARG = "slowLogIntervalMillis";
+    public static final String CACHE_SIZE_ARG = "cacheSize";
+    public static final String CACHE_MAX_INPUT_LENGTH_ARG = "cacheMaxInputLength";
+    public static final String FST_INFLECTIONS_ARG = "fstInflections";
+
+    public static final int DEFAULT_CACHE_MAX_INPUT_LENGTH = 1024;
+
+    private final String normDir;
+    private final boolean fstInflections;
+    private final EssieMetrics metrics;
+    private final EssieNormCache cache;
+
+    private volatile EssieNormDictionary dictionary;
+
     public EssieTokenizerFilterFactory( Map<String, String> args )
     {
         super(args);
+        normDir = get(args, NORM_DIR_ARG);
+        fstInflections = getBoolean(args, FST_INFLECTIONS_ARG, false);
+        String metricsName = get(args, METRICS_NAME_ARG);
+        metrics = new EssieMetrics(getInt(args, SLOW_INPUT_MILLIS_ARG, EssieMetrics.DEFAULT_SLOW_INPUT_MILLIS),
+                getInt(args, SLOW_LOG_INTERVAL_MILLIS_ARG, EssieMetrics.DEFAULT_SLOW_LOG_INTERVAL_MILLIS));
+        int cacheSize = getInt(args, CACHE_SIZE_ARG, 0);
+        int cacheMaxInputLength = getInt(args, CACHE_MAX_INPUT_LENGTH_ARG, DEFAULT_CACHE_MAX_INPUT_LENGTH);
+        cache = cacheSize > 0 ? new EssieNormCache(cacheSize, cacheMaxInputLength) : null;
+        metrics.setCache(cache);
+        if( !args.isEmpty() )
+        {
+            throw new IllegalArgumentException("Unknown parameters: " + args);
+        }
+        if( metricsName != null )
+        {
+            metrics.register(metricsName);
+        }
+    }
+
+    @Override
+    public void inform(ResourceLoader loader) throws IOException
+    {
+        try
+        {
+            dictionary = EssieNormDictionary.load(normDir, fstInflections);
+        }
+        catch( Exception e )
+        {
+            throw new IOException("Cannot load Essie norm dictionaries from " + normDir, e);
+        }
+    }
+
+    public EssieNormDictionary getDictionary()
+    {
+        if( dictionary == null )
+        {
+            throw new IllegalStateException("EssieTokenizerFilterFactory used before inform()");
+        }
+        return dictionary;
+    }
+
+    public EssieMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * The factory's cache, or null if cacheSize was not set.
+     */
+    public EssieNormCache getCache()
+    {
+        return cache;
     }
 
     @Override
     public TokenStream normalize(TokenStream input)
     {
-        return super.normalize(input); //To change body of generated methods, choose Tools | Templates.
+        return super.normalize(input);
     }
 
     @Override
     public TokenStream create(TokenStream stream)
     {
-        return new EssieTokenizerFilter(stream);
+        return new EssieTokenizerFilter(stream, getDictionary(), metrics, cache);
     }
-    
+
 }
@@ -0,0 +1,133 @@
+package nih.nlm.solr.customfilter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanos, laid out the way HdrHistogram does it.
+ *
+ * Values below 32 get a bucket each. Above that every power of two is split
+ * into 16 buckets, so a bucket is never wider than about 6% of its values.
+ * Values up to 2^40 nanos (about 18 minutes) are kept apart, anything
+ * larger goes into the last bucket. Recording is lock free, just an atomic
+ * increment of the bucket, so many threads can record at once. Reads are
+ * not atomic across buckets, which is fine for monitoring.
+ *
+ * @author gayens
+ */
+public final class LatencyHistogram
+{
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_VALUE_BITS = 40;
+    private static final int BUCKETS = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalValue = new LongAdder();
+    private final LongAccumulator maxValue = new LongAccumulator(Math::max, 0);
+
+    public void record( long value )
+    {
+        if( value < 0 )
+        {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketFor(value));
+        totalCount.increment();
+        totalValue.add(value);
+        maxValue.accumulate(value);
+    }
+
+    static int bucketFor( long value )
+    {
+        if( value < 2 * SUB_BUCKETS )
+        {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int bucket = (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /**
+     * Largest value that falls in the bucket, so percentiles never read low.
+     */
+    static long highestValueIn( int bucket )
+    {
+        if( bucket < 2 * SUB_BUCKETS )
+        {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public long getCount()
+    {
+        return totalCount.sum();
+    }
+
+    public long getMax()
+    {
+        return maxValue.get();
+    }
+
+    public double getMean()
+    {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) totalValue.sum() / count;
+    }
+
+    /**
+     * Values at each of the given percentiles (0-100), read in one pass over
+     * the buckets.
+     */
+    public long[] getPercentiles( double... percentiles )
+    {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for( int i = 0; i < BUCKETS; i++ )
+        {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+
+        long max = maxValue.get();
+        long[] values = new long[percentiles.length];
+        for( int p = 0; p < percentiles.length; p++ )
+        {
+            if( count == 0 )
+            {
+                continue;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentiles[p] / 100.0 * count));
+            long seen = 0;
+            for( int i = 0; i < BUCKETS; i++ )
+            {
+                seen += snapshot[i];
+                if( seen >= rank )
+                {
+                    values[p] = Math.min(highestValueIn(i), max);
+                    break;
+                }
+            }
+        }
+        return values;
+    }
+
+    public void reset()
+    {
+        for( int i = 0; i < BUCKETS; i++ )
+        {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalValue.reset();
+        maxValue.reset();
+    }
+
+}
@@ -0,0 +1,87 @@
+package nih.nlm.solr.customfilter;
+
+import gravel.norm.NormWorkspace;
+import java.util.Arrays;
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * The norm tokens of one input text, packed into primitive arrays.
+ *
+ * Token i is normChars[normCharNs[i]] for normNChars[i] chars, normed from
+ * tokenNChars[i] input chars at tokenCharNs[i].
+ *
+ * @author gayens
+ */
+final class NormTokens
+{
+
+    char[] normChars;
+    int[] normCharNs;
+    int[] normNChars;
+    int[] tokenCharNs;
+    int[] tokenNChars;
+    int tokenCount;
+
+    // Scratch buffers for norm(), never shared, so not part of copies
+    private NormWorkspace workspace;
+
+    NormTokens( int length )
+    {
+        normChars = new char[EssieNormDictionary.getMaxNormChars(length)];
+        normCharNs = new int[length + 1];
+        normNChars = new int[length + 1];
+        tokenCharNs = new int[length + 1];
+        tokenNChars = new int[length + 1];
+    }
+
+    private NormTokens( NormTokens tokens, int normCharCount )
+    {
+        tokenCount = tokens.tokenCount;
+        normChars = Arrays.copyOf(tokens.normChars, normCharCount);
+        normCharNs = Arrays.copyOf(tokens.normCharNs, tokenCount);
+        normNChars = Arrays.copyOf(tokens.normNChars, tokenCount);
+        tokenCharNs = Arrays.copyOf(tokens.tokenCharNs, tokenCount);
+        tokenNChars = Arrays.copyOf(tokens.tokenNChars, tokenCount);
+    }
+
+    /**
+     * Grows the arrays, if needed, to take the norm tokens of length input
+     * chars.
+     */
+    void ensureCapacity( int length )
+    {
+        int maxNormChars = EssieNormDictionary.getMaxNormChars(length);
+        if( normChars.length < maxNormChars )
+        {
+            normChars = new char[ArrayUtil.oversize(maxNormChars, Character.BYTES)];
+        }
+        // Every norm token covers at least one input char, so there are never more tokens than chars
+        if( tokenCharNs.length <= length )
+        {
+            int size = ArrayUtil.oversize(length + 1, Integer.BYTES);
+            normCharNs = new int[size];
+            normNChars = new int[size];
+            tokenCharNs = new int[size];
+            tokenNChars = new int[size];
+        }
+    }
+
+    void norm( EssieNormDictionary dictionary, char[] chars, int offset, int length, boolean decodeEscapes )
+    {
+        ensureCapacity(length);
+        tokenCount = 0;
+        workspace = dictionary.getNormTokens(chars, offset, length, workspace, decodeEscapes);
+        tokenCount = workspace.copyTokens(normChars, normCharNs, normNChars, tokenCharNs, tokenNChars);
+    }
+
+    /**
+     * Copy trimmed to the tokens held, safe to share between threads once
+     * published.
+     */
+    NormTokens compactCopy()
+    {
+        int normCharCount = tokenCount == 0 ? 0 : normCharNs[tokenCount - 1] + normNChars[tokenCount - 1];
+        return new NormTokens(this, normCharCount);
+    }
+
+}